@@ -76,6 +76,10 @@ public final class ChecksumChecker
      *            <dd>Report only errors in the logs</dd>
      *            <dt>-p</dt>
      *            <dd>Don't prune results before running checker</dd>
+     *            <dt>-t</dt>
+     *            <dd>number of bitstreams to check at once</dd>
+     *            <dt>-r</dt>
+     *            <dd>maximum read rate in MB/s</dd>
      *            </dl>
      */
     public static void main(String[] args)
@@ -95,6 +99,8 @@ public final class ChecksumChecker
         options.addOption("c", "count", true, "Check count");
         options.addOption("a", "handle", true, "Specify a handle to check");
         options.addOption("v", "verbose", false, "Report all processing");
+        options.addOption("t", "threads", true, "Number of bitstreams to check at once");
+        options.addOption("r", "rate", true, "Maximum read rate in MB/s, 0 for no limit");
 
         OptionBuilder.withArgName("bitstream-ids").hasArgs().withDescription(
                 "Space separated list of bitstream ids");
@@ -226,6 +232,22 @@ public final class ChecksumChecker
         {
             checker.setReportVerbose(true);
         }
+        try
+        {
+            if (line.hasOption('t'))
+            {
+                checker.setThreads(Integer.parseInt(line.getOptionValue('t')));
+            }
+            if (line.hasOption('r'))
+            {
+                checker.setMaxReadRate(Integer.parseInt(line.getOptionValue('r')));
+            }
+        }
+        catch (NumberFormatException nfe)
+        {
+            System.err.println("The number of threads and the rate must be integers");
+            System.exit(1);
+        }
 
         checker.setProcessStartDate(processStart);
         checker.setDispatcher(dispatcher);
@@ -258,6 +280,7 @@ public final class ChecksumChecker
         System.out
                 .println("\nCheck a defined number of bitstreams: ChecksumChecker -c 10");
         System.out.println("\nReport all processing (verbose)(default reports only errors): ChecksumChecker -v");
+        System.out.println("\nCheck 4 bitstreams at once, reading at most 50 MB/s: ChecksumChecker -l -t 4 -r 50");
         System.out.println("\nDefault (no arguments) is equivalent to '-c 1'");
         System.exit(0);
     }
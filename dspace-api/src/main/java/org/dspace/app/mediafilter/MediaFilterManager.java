@@ -35,6 +35,7 @@ import org.dspace.content.DCDate;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
 import org.dspace.content.ItemIterator;
+import org.dspace.content.PrefetchSpec;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
@@ -406,7 +407,7 @@ public class MediaFilterManager
         else 
         {
             //otherwise, just find every item and process
-            ItemIterator i = Item.findAll(c);
+            ItemIterator i = Item.findAll(c, new PrefetchSpec().withHandles().withBundles());
             try
             {
                 while (i.hasNext() && processed < max2Process)
@@ -0,0 +1,522 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.dspace.content.Bitstream;
+import org.dspace.core.Utils;
+
+/**
+ * A range of bytes requested with the HTTP <code>Range</code> header, and the
+ * helpers the user interfaces share to answer range and conditional requests
+ * for bitstreams: parsing <code>Range</code>, the entity tag of a bitstream,
+ * <code>If-None-Match</code> and <code>If-Range</code>, and writing one or
+ * several ranges of a stream.
+ * <P>
+ * Bitstreams in a local assetstore are read from a {@link FileChannel} at the
+ * position of each range, or handed to the servlet container to send itself
+ * where it can; other bitstreams are read as a stream, skipping up to each
+ * range.
+ *
+ * @see <a href="http://tools.ietf.org/html/rfc2616#section-14.35">RFC 2616, section 14.35</a>
+ */
+public final class HttpRange
+{
+    /** Status of a partial response */
+    public static final int SC_PARTIAL_CONTENT = 206;
+
+    /** Status of a response to a range that does not overlap the content */
+    public static final int SC_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+    /** Most ranges answered in one response, against abusive requests */
+    private static final int MAX_RANGES = 32;
+
+    private static final String CRLF = "\r\n";
+
+    /** First byte, counted from 0 */
+    private final long start;
+
+    /** Last byte, inclusive */
+    private final long end;
+
+    /**
+     * @param start
+     *            the first byte
+     * @param end
+     *            the last byte
+     */
+    public HttpRange(long start, long end)
+    {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return the first byte, counted from 0
+     */
+    public long getStart()
+    {
+        return start;
+    }
+
+    /**
+     * @return the last byte, inclusive
+     */
+    public long getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * @return the number of bytes in the range
+     */
+    public long getLength()
+    {
+        return end - start + 1;
+    }
+
+    /**
+     * @param total
+     *            the length of the whole content
+     * @return the value of the <code>Content-Range</code> header
+     */
+    public String getContentRange(long total)
+    {
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return start + "-" + end;
+    }
+
+    /**
+     * Parse a <code>Range</code> header. Ranges are sorted, and overlapping or
+     * adjacent ranges merged, so the content can be written in one pass.
+     *
+     * @param header
+     *            the header, e.g. <code>bytes=0-499,-500</code>, or null
+     * @param total
+     *            the length of the content
+     * @return the ranges; an empty list if none of them overlaps the content
+     *         (416); or null if the header is absent or malformed and should
+     *         be ignored
+     */
+    public static List<HttpRange> parse(String header, long total)
+    {
+        if (header == null || total < 0)
+        {
+            return null;
+        }
+
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6))
+        {
+            return null;
+        }
+
+        List<HttpRange> ranges = new ArrayList<HttpRange>();
+        String[] specs = value.substring(6).split(",");
+        if (specs.length > MAX_RANGES)
+        {
+            return null;
+        }
+
+        for (String spec : specs)
+        {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0)
+            {
+                return null;
+            }
+
+            long start;
+            long end;
+            try
+            {
+                if (dash == 0)
+                {
+                    // the last n bytes
+                    long suffix = Long.parseLong(spec.substring(1).trim());
+                    if (suffix <= 0)
+                    {
+                        continue;
+                    }
+                    start = Math.max(0, total - suffix);
+                    end = total - 1;
+                }
+                else
+                {
+                    start = Long.parseLong(spec.substring(0, dash).trim());
+                    String last = spec.substring(dash + 1).trim();
+                    if (last.length() == 0)
+                    {
+                        end = total - 1;
+                    }
+                    else
+                    {
+                        end = Long.parseLong(last);
+                        if (end < start)
+                        {
+                            // syntactically invalid: the whole header is ignored
+                            return null;
+                        }
+                        end = Math.min(end, total - 1);
+                    }
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+
+            if (start < 0)
+            {
+                return null;
+            }
+            if (start < total && start <= end)
+            {
+                ranges.add(new HttpRange(start, end));
+            }
+        }
+
+        Collections.sort(ranges, new Comparator<HttpRange>()
+        {
+            public int compare(HttpRange a, HttpRange b)
+            {
+                return (a.start < b.start) ? -1 : ((a.start == b.start) ? 0 : 1);
+            }
+        });
+        List<HttpRange> merged = new ArrayList<HttpRange>();
+        for (HttpRange range : ranges)
+        {
+            HttpRange last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range.start <= last.end + 1)
+            {
+                merged.set(merged.size() - 1, new HttpRange(last.start, Math.max(last.end, range.end)));
+            }
+            else
+            {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Get the entity tag of a bitstream, from its checksum.
+     *
+     * @param bitstream
+     *            the bitstream
+     * @return the quoted tag, or null if the bitstream has no checksum
+     */
+    public static String getETag(Bitstream bitstream)
+    {
+        String checksum = bitstream.getChecksum();
+        if (checksum == null || checksum.length() == 0)
+        {
+            return null;
+        }
+        return "\"" + checksum.toLowerCase() + "\"";
+    }
+
+    /**
+     * Check an <code>If-None-Match</code> header, which compares tags weakly.
+     *
+     * @param header
+     *            the header, or null
+     * @param etag
+     *            the tag of the content, or null
+     * @return true if the client's copy is current (304)
+     */
+    public static boolean matchesAny(String header, String etag)
+    {
+        if (header == null || etag == null)
+        {
+            return false;
+        }
+        for (String tag : header.split(","))
+        {
+            tag = tag.trim();
+            if (tag.equals("*") || stripWeak(tag).equals(etag))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check an <code>If-Range</code> header: the ranges are only sent if the
+     * client's copy is the current one, otherwise the whole content is.
+     *
+     * @param header
+     *            the header, or null
+     * @param etag
+     *            the tag of the content, or null
+     * @param lastModified
+     *            the modification time sent in <code>Last-Modified</code>, or
+     *            -1 if none was
+     * @return true if the ranges should be sent
+     */
+    public static boolean isRangeValid(String header, String etag, long lastModified)
+    {
+        if (header == null)
+        {
+            return true;
+        }
+
+        String value = header.trim();
+        if (value.startsWith("\"") || value.startsWith("W/"))
+        {
+            // a strong comparison: weak tags never match
+            return etag != null && value.equals(etag);
+        }
+
+        if (lastModified < 0)
+        {
+            return false;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try
+        {
+            return format.parse(value).getTime() / 1000 == lastModified / 1000;
+        }
+        catch (ParseException e)
+        {
+            return false;
+        }
+    }
+
+    private static String stripWeak(String tag)
+    {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /**
+     * Make the content type of a multiple range response.
+     *
+     * @param boundary
+     *            the boundary between parts
+     * @return the content type
+     */
+    public static String getMultipartType(String boundary)
+    {
+        return "multipart/byteranges; boundary=" + boundary;
+    }
+
+    /**
+     * Make a boundary for a multiple range response.
+     *
+     * @return a boundary unlikely to appear in the content
+     */
+    public static String newBoundary()
+    {
+        return "DSPACE_BYTERANGES_" + Long.toHexString(System.nanoTime())
+                + Long.toHexString(Double.doubleToLongBits(Math.random()));
+    }
+
+    /**
+     * Get the length of a multiple range response, for
+     * <code>Content-Length</code>.
+     *
+     * @param ranges
+     *            the ranges, in order
+     * @param contentType
+     *            the type of the content
+     * @param total
+     *            the length of the content
+     * @param boundary
+     *            the boundary between parts
+     * @return the number of bytes {@link #writeMultipart} writes
+     */
+    public static long getMultipartLength(List<HttpRange> ranges, String contentType, long total, String boundary)
+    {
+        long length = 0;
+        for (HttpRange range : ranges)
+        {
+            length += partHeader(range, contentType, total, boundary).length() + range.getLength();
+        }
+        return length + (CRLF + "--" + boundary + "--" + CRLF).length();
+    }
+
+    /**
+     * Copy one range of a stream.
+     *
+     * @param in
+     *            the content, positioned at its start
+     * @param out
+     *            where to write the range
+     * @param range
+     *            the range
+     */
+    public static void write(InputStream in, OutputStream out, HttpRange range) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        skipFully(in, range.start);
+        copy(in, out, range.getLength(), buffer);
+    }
+
+    /**
+     * Write several ranges of a stream as a <code>multipart/byteranges</code>
+     * body.
+     *
+     * @param in
+     *            the content, positioned at its start
+     * @param out
+     *            where to write the body
+     * @param ranges
+     *            the ranges, in order and not overlapping, as returned by
+     *            {@link #parse}
+     * @param contentType
+     *            the type of the content
+     * @param total
+     *            the length of the content
+     * @param boundary
+     *            the boundary between parts
+     */
+    public static void writeMultipart(InputStream in, OutputStream out, List<HttpRange> ranges,
+            String contentType, long total, String boundary) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        long position = 0;
+        for (HttpRange range : ranges)
+        {
+            out.write(partHeader(range, contentType, total, boundary).getBytes("ISO-8859-1"));
+            skipFully(in, range.start - position);
+            copy(in, out, range.getLength(), buffer);
+            position = range.end + 1;
+        }
+        out.write((CRLF + "--" + boundary + "--" + CRLF).getBytes("ISO-8859-1"));
+    }
+
+    /**
+     * Copy one range of a file.
+     *
+     * @param channel
+     *            the file
+     * @param out
+     *            where to write the range
+     * @param range
+     *            the range
+     */
+    public static void write(FileChannel channel, OutputStream out, HttpRange range) throws IOException
+    {
+        Utils.copy(channel, range.start, range.getLength(), out);
+    }
+
+    /**
+     * Write several ranges of a file as a <code>multipart/byteranges</code>
+     * body.
+     *
+     * @see #writeMultipart(InputStream, OutputStream, List, String, long, String)
+     */
+    public static void writeMultipart(FileChannel channel, OutputStream out, List<HttpRange> ranges,
+            String contentType, long total, String boundary) throws IOException
+    {
+        for (HttpRange range : ranges)
+        {
+            out.write(partHeader(range, contentType, total, boundary).getBytes("ISO-8859-1"));
+            Utils.copy(channel, range.start, range.getLength(), out);
+        }
+        out.write((CRLF + "--" + boundary + "--" + CRLF).getBytes("ISO-8859-1"));
+    }
+
+    /**
+     * Ask the servlet container to send part of a file itself, straight from
+     * the file to the socket, when it supports this (Tomcat's NIO and APR
+     * connectors with <code>useSendfile</code>). The response headers must
+     * still be set, but nothing may be written to the response.
+     *
+     * @param request
+     *            the request being answered
+     * @param file
+     *            the file
+     * @param start
+     *            the first byte to send
+     * @param length
+     *            the number of bytes to send
+     * @return true if the container will send the bytes, false if they must
+     *         be written to the response
+     */
+    public static boolean sendFile(HttpServletRequest request, File file, long start, long length)
+    {
+        if (request == null || file == null
+                || !Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support")))
+        {
+            return false;
+        }
+        request.setAttribute("org.apache.tomcat.sendfile.filename", file.getAbsolutePath());
+        request.setAttribute("org.apache.tomcat.sendfile.start", Long.valueOf(start));
+        request.setAttribute("org.apache.tomcat.sendfile.end", Long.valueOf(start + length));
+        return true;
+    }
+
+    private static String partHeader(HttpRange range, String contentType, long total, String boundary)
+    {
+        return CRLF + "--" + boundary + CRLF
+                + ((contentType == null) ? "" : "Content-Type: " + contentType + CRLF)
+                + "Content-Range: " + range.getContentRange(total) + CRLF + CRLF;
+    }
+
+    /**
+     * Skip bytes without reading them where the stream allows.
+     */
+    private static void skipFully(InputStream in, long count) throws IOException
+    {
+        long remaining = count;
+        while (remaining > 0)
+        {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0)
+            {
+                // skip() may stop early; read a byte to tell that from the end
+                if (in.read() < 0)
+                {
+                    throw new EOFException("Content ended before the requested range");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long count, byte[] buffer) throws IOException
+    {
+        long remaining = count;
+        while (remaining > 0)
+        {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0)
+            {
+                throw new EOFException("Content ended before the requested range");
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+}
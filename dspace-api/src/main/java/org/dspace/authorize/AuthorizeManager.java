@@ -9,10 +9,14 @@ package org.dspace.authorize;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.dspace.content.*;
+import org.dspace.core.AuthorizationCache;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.eperson.EPerson;
@@ -38,6 +42,15 @@ import org.dspace.storage.rdbms.TableRowIterator;
  */
 public class AuthorizeManager
 {
+    /**
+     * Action under which {@link #isAdmin(Context, DSpaceObject)} results are
+     * kept in the authorization cache
+     */
+    private static final int ADMIN_CHECK = -2;
+
+    /** Most objects whose policies are fetched by one query */
+    private static final int MAX_IN_CLAUSE = 500;
+
     /**
      * Utility method, checks that the current user of the given context can
      * perform all of the specified actions on the given object. An
@@ -242,6 +255,175 @@ public class AuthorizeManager
         return isAuthorized;
     }
 
+    /**
+     * Check which of a list of objects the current user can perform the given
+     * action on. The answer for each object is the same as
+     * {@link #authorizeActionBoolean(Context, DSpaceObject, int)} gives, but
+     * the resource policies of all objects are fetched together, with one
+     * query per object type, instead of one query per object.
+     *
+     * @param c
+     *         DSpace context, containing current user
+     * @param objects
+     *         the objects to check; <code>null</code> entries are never
+     *         authorized
+     * @param action
+     *         action being attempted, from
+     *         <code>org.dspace.core.Constants</code>
+     * @return the positions in <code>objects</code> of the objects the
+     *         action is authorized on
+     * @throws SQLException
+     *         if there's a database problem
+     */
+    public static BitSet filterAuthorized(Context c, List<? extends DSpaceObject> objects, int action)
+            throws SQLException
+    {
+        BitSet authorized = new BitSet(objects.size());
+
+        // is authorization disabled for this context?
+        if (c.ignoreAuthorization())
+        {
+            for (int i = 0; i < objects.size(); i++)
+            {
+                authorized.set(i, objects.get(i) != null);
+            }
+            return authorized;
+        }
+
+        AuthorizationCache cache = c.getAuthorizationCache();
+        EPerson e = c.getCurrentUser();
+        int userid = (e == null) ? 0 : e.getID();
+
+        // objects still to be decided by their policies, by type then ID
+        Map<Integer, Map<Integer, List<Integer>>> pending = new HashMap<Integer, Map<Integer, List<Integer>>>();
+
+        for (int i = 0; i < objects.size(); i++)
+        {
+            DSpaceObject o = objects.get(i);
+            if (o == null)
+            {
+                continue;
+            }
+
+            Boolean cached = cache.getDecision(o.getType(), o.getID(), action, true);
+            if (cached != null)
+            {
+                authorized.set(i, cached.booleanValue());
+            }
+            else if (e != null && isAdmin(c, o.getAdminObject(action)))
+            {
+                cache.putDecision(o.getType(), o.getID(), action, true, true);
+                authorized.set(i);
+            }
+            else
+            {
+                Map<Integer, List<Integer>> ofType = pending.get(Integer.valueOf(o.getType()));
+                if (ofType == null)
+                {
+                    ofType = new HashMap<Integer, List<Integer>>();
+                    pending.put(Integer.valueOf(o.getType()), ofType);
+                }
+                List<Integer> positions = ofType.get(Integer.valueOf(o.getID()));
+                if (positions == null)
+                {
+                    positions = new ArrayList<Integer>(1);
+                    ofType.put(Integer.valueOf(o.getID()), positions);
+                }
+                positions.add(Integer.valueOf(i));
+            }
+        }
+
+        for (Map.Entry<Integer, Map<Integer, List<Integer>>> ofType : pending.entrySet())
+        {
+            int type = ofType.getKey().intValue();
+            List<Integer> ids = new ArrayList<Integer>(ofType.getValue().keySet());
+
+            for (int start = 0; start < ids.size(); start += MAX_IN_CLAUSE)
+            {
+                List<Integer> chunk = ids.subList(start, Math.min(ids.size(), start + MAX_IN_CLAUSE));
+                List<Object> parameters = new ArrayList<Object>(chunk.size() + 2);
+                parameters.add(Integer.valueOf(type));
+                parameters.add(Integer.valueOf(action));
+                parameters.addAll(chunk);
+
+                TableRowIterator tri = DatabaseManager.queryTable(c, "resourcepolicy",
+                        "SELECT * FROM resourcepolicy WHERE resource_type_id= ? AND action_id= ? " +
+                                "AND resource_id IN (" + DatabaseManager.placeholders(chunk.size()) + ")",
+                        parameters.toArray());
+
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        TableRow row = tri.next();
+                        Integer id = Integer.valueOf(row.getIntColumn("resource_id"));
+                        List<Integer> positions = ofType.getValue().get(id);
+                        if (positions == null || authorized.get(positions.get(0).intValue()))
+                        {
+                            // already authorized by another policy
+                            continue;
+                        }
+
+                        // first check the cache (FIXME: is this right?)
+                        ResourcePolicy rp = (ResourcePolicy) c.fromCache(
+                                ResourcePolicy.class, row.getIntColumn("policy_id"));
+                        if (rp == null)
+                        {
+                            rp = new ResourcePolicy(c, row);
+                        }
+
+                        if (isMatch(c, rp, userid))
+                        {
+                            for (Integer position : positions)
+                            {
+                                authorized.set(position.intValue());
+                            }
+                        }
+                    }
+                }
+                finally
+                {
+                    // close the TableRowIterator to free up resources
+                    if (tri != null)
+                    {
+                        tri.close();
+                    }
+                }
+
+                for (Integer id : chunk)
+                {
+                    cache.putDecision(type, id.intValue(), action, true,
+                            authorized.get(ofType.getValue().get(id).get(0).intValue()));
+                }
+            }
+        }
+
+        return authorized;
+    }
+
+    // true if the policy is in force and grants the user, or one of the current user's groups
+    private static boolean isMatch(Context c, ResourcePolicy rp, int userid) throws SQLException
+    {
+        // check policies for date validity
+        if (rp.isDateValid())
+        {
+            if ((rp.getEPersonID() != -1) && (rp.getEPersonID() == userid))
+            {
+                return true; // match
+            }
+
+            if ((rp.getGroupID() != -1)
+                    && (Group.isMember(c, rp.getGroupID())))
+            {
+                // group was set, and eperson is a member
+                // of that group
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Check to see if the given user can perform the given action on the given
      * object. Always returns true if the ignore authorization flat is set in
@@ -279,6 +461,23 @@ public class AuthorizeManager
             return true;
         }
 
+        // has the same question been answered before in this context?
+        AuthorizationCache cache = c.getAuthorizationCache();
+        Boolean cached = cache.getDecision(o.getType(), o.getID(), action, useInheritance);
+        if (cached != null)
+        {
+            return cached.booleanValue();
+        }
+
+        boolean decision = authorizeUncached(c, o, action, e, useInheritance);
+        cache.putDecision(o.getType(), o.getID(), action, useInheritance, decision);
+        return decision;
+    }
+
+    // the policy check behind authorize(), without the authorization cache
+    private static boolean authorizeUncached(Context c, DSpaceObject o, int action,
+                                             EPerson e, boolean useInheritance) throws SQLException
+    {
         // is eperson set? if not, userid = 0 (anonymous)
         int userid = 0;
         if (e != null)
@@ -297,21 +496,9 @@ public class AuthorizeManager
 
         for (ResourcePolicy rp : getPoliciesActionFilter(c, o, action))
         {
-            // check policies for date validity
-            if (rp.isDateValid())
+            if (isMatch(c, rp, userid))
             {
-                if ((rp.getEPersonID() != -1) && (rp.getEPersonID() == userid))
-                {
-                    return true; // match
-                }
-
-                if ((rp.getGroupID() != -1)
-                        && (Group.isMember(c, rp.getGroupID())))
-                {
-                    // group was set, and eperson is a member
-                    // of that group
-                    return true;
-                }
+                return true;
             }
         }
 
@@ -351,6 +538,22 @@ public class AuthorizeManager
             return false;
         }
 
+        AuthorizationCache cache = c.getAuthorizationCache();
+        Boolean cached = cache.getDecision(o.getType(), o.getID(), ADMIN_CHECK, true);
+        if (cached != null)
+        {
+            return cached.booleanValue();
+        }
+
+        boolean decision = isAdminUncached(c, o);
+        cache.putDecision(o.getType(), o.getID(), ADMIN_CHECK, true, decision);
+        return decision;
+    }
+
+    // the check behind isAdmin(Context, DSpaceObject) for a non-null object
+    // and a user who is not a system administrator
+    private static boolean isAdminUncached(Context c, DSpaceObject o) throws SQLException
+    {
         // is eperson set? if not, userid = 0 (anonymous)
         int userid = 0;
         EPerson e = c.getCurrentUser();
@@ -366,21 +569,9 @@ public class AuthorizeManager
 
         for (ResourcePolicy rp : policies)
         {
-            // check policies for date validity
-            if (rp.isDateValid())
+            if (isMatch(c, rp, userid))
             {
-                if ((rp.getEPersonID() != -1) && (rp.getEPersonID() == userid))
-                {
-                    return true; // match
-                }
-
-                if ((rp.getGroupID() != -1)
-                        && (Group.isMember(c, rp.getGroupID())))
-                {
-                    // group was set, and eperson is a member
-                    // of that group
-                    return true;
-                }
+                return true;
             }
         }
 
@@ -821,6 +1012,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? ",
                 o.getType(), o.getID());
+        c.getAuthorizationCache().clear();
     }
 
     /**
@@ -839,6 +1031,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND rptype <> ? ",
                 o.getType(), o.getID(), type);
+        c.getAuthorizationCache().clear();
     }
 
 
@@ -860,6 +1053,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND rptype=? ",
                 o.getType(), o.getID(), type);
+        c.getAuthorizationCache().clear();
     }
 
     /**
@@ -890,6 +1084,7 @@ public class AuthorizeManager
                     "DELETE FROM resourcepolicy WHERE resource_type_id= ? AND " +
                             "resource_id= ? AND action_id= ? ",
                     dso.getType(), dso.getID(), actionID);
+            context.getAuthorizationCache().clear();
         }
     }
 
@@ -909,6 +1104,7 @@ public class AuthorizeManager
     {
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "epersongroup_id= ? ", groupID);
+        c.getAuthorizationCache().clear();
     }
 
     /**
@@ -932,6 +1128,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND epersongroup_id= ? ",
                 o.getType(), o.getID(), g.getID());
+        c.getAuthorizationCache().clear();
     }
 
     /**
@@ -954,6 +1151,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND eperson_id= ? ",
                 o.getType(), o.getID(), e.getID());
+        c.getAuthorizationCache().clear();
     }
 
     /**
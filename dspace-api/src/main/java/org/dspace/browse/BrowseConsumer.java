@@ -7,10 +7,10 @@
  */
 package org.dspace.browse;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.dspace.content.DSpaceObject;
@@ -46,7 +46,7 @@ public class BrowseConsumer implements Consumer
     private static Logger log = Logger.getLogger(BrowseConsumer.class);
 
     // items to be updated in browse index
-    private Map<Integer, ItemHolder> toUpdate = null;
+    private Map<Integer, Item> toUpdate = null;
 
     public void initialize()
         throws Exception
@@ -59,7 +59,7 @@ public class BrowseConsumer implements Consumer
     {
         if(toUpdate == null)
         {
-            toUpdate = new HashMap<Integer, ItemHolder>();
+            toUpdate = new LinkedHashMap<Integer, Item>();
         }
         
         log.debug("consume() evaluating event: " + event.toString());
@@ -79,9 +79,9 @@ public class BrowseConsumer implements Consumer
                 if (subj != null)
                 {
                     log.debug("consume() adding event to update queue: " + event.toString());
-                    if (et == Event.CREATE || !toUpdate.containsKey(subj.getID()))
+                    if (!toUpdate.containsKey(subj.getID()))
                     {
-                        toUpdate.put(subj.getID(), new ItemHolder(subj, et == Event.CREATE));
+                        toUpdate.put(subj.getID(), subj);
                     }
                 }
             }
@@ -96,7 +96,7 @@ public class BrowseConsumer implements Consumer
                     log.debug("consume() adding event to update queue: " + event.toString());
                     if (!toUpdate.containsKey(obj.getID()))
                     {
-                        toUpdate.put(obj.getID(), new ItemHolder(obj, false));
+                        toUpdate.put(obj.getID(), obj);
                     }
                 }
             }
@@ -114,30 +114,50 @@ public class BrowseConsumer implements Consumer
         if (toUpdate != null)
         {
 
-            // Update/Add items
-            for (ItemHolder i : toUpdate.values())
+            // Update/Add items, all in one batch
+            // FIXME: there is an exception handling problem here
+            try
             {
-                // FIXME: there is an exception handling problem here
+                // Update browse indices
+                ctx.turnOffAuthorisationSystem();
+                IndexBrowse ib = new IndexBrowse(ctx);
                 try
                 {
-                    // Update browse indices
-                    ctx.turnOffAuthorisationSystem();
-                    IndexBrowse ib = new IndexBrowse(ctx);
-                    ib.indexItem(i.item, i.createEvent);
-                    ctx.restoreAuthSystemState();
+                    ib.indexItems(new ArrayList<Item>(toUpdate.values()));
                 }
                 catch (BrowseException e)
                 {
-                    log.error("caught exception: ", e);
-                    //throw new SQLException(e.getMessage());
+                    // One bad item fails the whole batch: retry them one at
+                    // a time so the others still get their browse update
+                    log.warn("Batch browse update failed, updating items one at a time: ", e);
+                    for (Item item : toUpdate.values())
+                    {
+                        try
+                        {
+                            ib.indexItems(Collections.singletonList(item));
+                        }
+                        catch (BrowseException ie)
+                        {
+                            log.error("caught exception indexing Item id="
+                                    + item.getID() + ": ", ie);
+                            //throw new SQLException(e.getMessage());
+                        }
+                    }
                 }
+            }
+            catch (BrowseException e)
+            {
+                log.error("caught exception: ", e);
+                //throw new SQLException(e.getMessage());
+            }
+            finally
+            {
+                ctx.restoreAuthSystemState();
+            }
 
-                if (log.isDebugEnabled())
-                {
-                    log.debug("Updated browse indices for Item id="
-                            + String.valueOf(i.item.getID()) + ", hdl="
-                            + i.item.getHandle());
-                }
+            if (log.isDebugEnabled())
+            {
+                log.debug("Updated browse indices for Item ids=" + toUpdate.keySet());
             }
 
             // NOTE: Removed items are necessarily handled inline (ugh).
@@ -154,15 +174,4 @@ public class BrowseConsumer implements Consumer
     public void finish(Context ctx) {
     	
     }
-
-    private final class ItemHolder {
-        private Item item;
-        private boolean createEvent;
-
-        ItemHolder(Item pItem, boolean pCreateEvent)
-        {
-            item = pItem;
-            createEvent = pCreateEvent;
-        }
-    }
 }
@@ -0,0 +1,311 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowBatch;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * The batched browse index updates shared by the BrowseCreateDAO
+ * implementations. Only portable SQL is used: rows are selected and deleted
+ * for many items at once with <code>IN</code> lists, and written with JDBC
+ * batches.
+ */
+final class BrowseCreateBatch
+{
+    /** Most item ids in one IN list (Oracle allows 1000 expressions) */
+    private static final int IN_LIMIT = 500;
+
+    private final Context context;
+
+    private final BrowseDAOUtils utils;
+
+    BrowseCreateBatch(Context context, BrowseDAOUtils utils)
+    {
+        this.context = context;
+        this.utils = utils;
+    }
+
+    /**
+     * @see BrowseCreateDAO#deleteByItemIDs(String, Collection)
+     */
+    void deleteByItemIDs(String table, Collection<Integer> itemIDs) throws SQLException
+    {
+        for (List<Integer> chunk : chunks(itemIDs))
+        {
+            DatabaseManager.updateQuery(context, "DELETE FROM " + table + " WHERE item_id IN ("
+                    + DatabaseManager.placeholders(chunk.size()) + ")", chunk.toArray());
+        }
+    }
+
+    /**
+     * @see BrowseCreateDAO#updateIndex(String, Map)
+     */
+    void updateIndex(String table, Map<Integer, Map<Integer, String>> sortValues)
+            throws SQLException, BrowseException
+    {
+        Map<Integer, TableRow> existing = new HashMap<Integer, TableRow>();
+        for (List<Integer> chunk : chunks(sortValues.keySet()))
+        {
+            TableRowIterator tri = DatabaseManager.queryTable(context, table, "SELECT * FROM " + table
+                    + " WHERE item_id IN (" + DatabaseManager.placeholders(chunk.size()) + ")", chunk.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    existing.put(row.getIntColumn("item_id"), row);
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        TableRowBatch batch = DatabaseManager.beginBatch(context, table);
+        try
+        {
+            for (Map.Entry<Integer, Map<Integer, String>> item : sortValues.entrySet())
+            {
+                TableRow row = existing.get(item.getKey());
+                boolean insert = row == null;
+                if (insert)
+                {
+                    row = DatabaseManager.row(table);
+                    row.setColumn("item_id", item.getKey());
+                }
+
+                for (Map.Entry<Integer, String> sortCol : item.getValue().entrySet())
+                {
+                    String column = "sort_" + sortCol.getKey().toString();
+
+                    // Check the column exists - if it doesn't, something has gone seriously wrong
+                    if (!row.hasColumn(column))
+                    {
+                        throw new BrowseException("Column '" + column + "' does not exist in table " + table);
+                    }
+
+                    // only a changed value marks the column for the update
+                    row.setColumn(column, utils.truncateSortValue(sortCol.getValue()));
+                }
+
+                if (insert)
+                {
+                    batch.insert(row);
+                }
+                else
+                {
+                    batch.update(row);
+                }
+            }
+        }
+        finally
+        {
+            batch.close();
+        }
+    }
+
+    /**
+     * @see BrowseCreateDAO#updateDistinctMappings(String, Map)
+     */
+    List<Integer> updateDistinctMappings(String table, Map<Integer, Set<Integer>> distinctIDs)
+            throws SQLException
+    {
+        return updateMappings(table, "distinct_id", distinctIDs);
+    }
+
+    /**
+     * @see BrowseCreateDAO#updateCommunityMappings(Collection)
+     */
+    void updateCommunityMappings(Collection<Integer> itemIDs) throws SQLException
+    {
+        Map<Integer, Set<Integer>> communities = new HashMap<Integer, Set<Integer>>();
+        Set<Integer> direct = new HashSet<Integer>();
+        for (Integer itemID : itemIDs)
+        {
+            communities.put(itemID, new HashSet<Integer>());
+        }
+
+        // the communities of the items' collections
+        for (List<Integer> chunk : chunks(itemIDs))
+        {
+            TableRowIterator tri = DatabaseManager.query(context, "SELECT item_id, community_id FROM Community2Item"
+                    + " WHERE item_id IN (" + DatabaseManager.placeholders(chunk.size()) + ")", chunk.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    int communityID = row.getIntColumn("community_id");
+                    communities.get(row.getIntColumn("item_id")).add(communityID);
+                    direct.add(communityID);
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        // their ancestors, one level of the hierarchy per query
+        Map<Integer, Integer> parents = new HashMap<Integer, Integer>();
+        Set<Integer> looked = new HashSet<Integer>();
+        Set<Integer> next = direct;
+        while (!next.isEmpty())
+        {
+            looked.addAll(next);
+            Set<Integer> found = new HashSet<Integer>();
+            for (List<Integer> chunk : chunks(next))
+            {
+                TableRowIterator tri = DatabaseManager.query(context, "SELECT child_comm_id, parent_comm_id FROM Community2Community"
+                        + " WHERE child_comm_id IN (" + DatabaseManager.placeholders(chunk.size()) + ")", chunk.toArray());
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        TableRow row = tri.next();
+                        int parentID = row.getIntColumn("parent_comm_id");
+                        parents.put(row.getIntColumn("child_comm_id"), parentID);
+                        if (!looked.contains(parentID))
+                        {
+                            found.add(parentID);
+                        }
+                    }
+                }
+                finally
+                {
+                    tri.close();
+                }
+            }
+            next = found;
+        }
+
+        for (Set<Integer> itemCommunities : communities.values())
+        {
+            for (Integer communityID : new ArrayList<Integer>(itemCommunities))
+            {
+                Integer parentID = parents.get(communityID);
+                while (parentID != null && itemCommunities.add(parentID))
+                {
+                    parentID = parents.get(parentID);
+                }
+            }
+        }
+
+        updateMappings("Communities2Item", "community_id", communities);
+    }
+
+    /**
+     * Make the rows of a mapping table for many items match the given values:
+     * rows of values no longer wanted are deleted and missing ones inserted.
+     *
+     * @param table
+     *            a table with <code>item_id</code> and the value column
+     * @param column
+     *            the value column
+     * @param values
+     *            the values wanted for each item; items with an empty set
+     *            lose all their rows
+     * @return the values that were removed from some item, each listed once
+     */
+    private List<Integer> updateMappings(String table, String column, Map<Integer, Set<Integer>> values)
+            throws SQLException
+    {
+        Set<Integer> removed = new LinkedHashSet<Integer>();
+        Map<Integer, Set<Integer>> toAdd = new HashMap<Integer, Set<Integer>>();
+        for (Map.Entry<Integer, Set<Integer>> item : values.entrySet())
+        {
+            toAdd.put(item.getKey(), new HashSet<Integer>(item.getValue()));
+        }
+
+        TableRowBatch batch = DatabaseManager.beginBatch(context, table);
+        try
+        {
+            for (List<Integer> chunk : chunks(values.keySet()))
+            {
+                TableRowIterator tri = DatabaseManager.queryTable(context, table, "SELECT * FROM " + table
+                        + " WHERE item_id IN (" + DatabaseManager.placeholders(chunk.size()) + ")", chunk.toArray());
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        TableRow row = tri.next();
+                        int itemID = row.getIntColumn("item_id");
+                        int value = row.getIntColumn(column);
+                        if (!toAdd.get(itemID).remove(value))
+                        {
+                            // no longer wanted, or a duplicate of a mapping already seen
+                            if (!values.get(itemID).contains(value))
+                            {
+                                removed.add(value);
+                            }
+                            batch.delete(row);
+                        }
+                    }
+                }
+                finally
+                {
+                    tri.close();
+                }
+            }
+
+            for (Map.Entry<Integer, Set<Integer>> item : toAdd.entrySet())
+            {
+                for (int value : item.getValue())
+                {
+                    if (value > -1)
+                    {
+                        TableRow row = DatabaseManager.row(table);
+                        row.setColumn("item_id", item.getKey());
+                        row.setColumn(column, value);
+                        batch.insert(row);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            batch.close();
+        }
+
+        return new ArrayList<Integer>(removed);
+    }
+
+    /**
+     * Split item ids into lists short enough for one IN clause.
+     */
+    private static List<List<Integer>> chunks(Collection<Integer> ids)
+    {
+        List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+        List<Integer> chunk = null;
+        for (Integer id : ids)
+        {
+            if (chunk == null || chunk.size() == IN_LIMIT)
+            {
+                chunk = new ArrayList<Integer>(IN_LIMIT);
+                chunks.add(chunk);
+            }
+            chunk.add(id);
+        }
+        return chunks;
+    }
+}
@@ -7,6 +7,7 @@
  */
 package org.dspace.browse;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,9 +50,37 @@ public interface BrowseCreateDAO
 	 */
 	public void deleteByItemID(String table, int itemID) throws BrowseException;
 
+    /**
+     * Delete the records for many items from the specified table, with a few
+     * set-based statements.
+     *
+     * @param table     the browse table to remove the indexes from
+     * @param itemIDs   the database ids of the items
+     * @throws BrowseException
+     */
+    public void deleteByItemIDs(String table, Collection<Integer> itemIDs) throws BrowseException;
+
     public void deleteCommunityMappings(int itemID) throws BrowseException;
     public void updateCommunityMappings(int itemID) throws BrowseException;
 
+    /**
+     * Remove the community mappings of many items at once.
+     *
+     * @param itemIDs   the database ids of the items
+     * @throws BrowseException
+     */
+    public void deleteCommunityMappings(Collection<Integer> itemIDs) throws BrowseException;
+
+    /**
+     * Bring the community mappings of many items up to date at once: the
+     * communities of all the items, and their ancestors, are read with a few
+     * queries, and the mappings written in JDBC batches.
+     *
+     * @param itemIDs   the database ids of the items
+     * @throws BrowseException
+     */
+    public void updateCommunityMappings(Collection<Integer> itemIDs) throws BrowseException;
+
 	
 	/**
 	 * Insert an index record into the given table for the given item id.  The Map should contain
@@ -100,6 +129,18 @@ public interface BrowseCreateDAO
      */
     public boolean updateIndex(String table, int itemID, Map<Integer, String> sortCols) throws BrowseException;
 
+    /**
+     * Insert or update the index records of many items in the given table.
+     * The existing records are read with a few queries; records whose sort
+     * values changed are updated and missing ones inserted, in JDBC batches.
+     *
+     * @param table         the browse table to write the indexes in
+     * @param sortValues    a map of item database ids to their Integer-String
+     *                      maps of sort column numbers and values
+     * @throws BrowseException
+     */
+    public void updateIndex(String table, Map<Integer, Map<Integer, String>> sortValues) throws BrowseException;
+
     /**
 	 * Get the browse index's internal id for the location of the given string
 	 * and sort value in the given table.  This method should always return a 
@@ -160,6 +201,19 @@ public interface BrowseCreateDAO
      */
     public MappingResults updateDistinctMappings(String table, int itemID, Set<Integer> distinctIDs) throws BrowseException;
 
+    /**
+     * Update the mappings of many items to distinct records at once, in JDBC
+     * batches. An item given an empty set loses all its mappings.
+     *
+     * @param table         the mapping table
+     * @param distinctIDs   a map of item database ids to the ids of their
+     *                      distinct records
+     * @return the ids of the distinct records that have been unmapped from
+     *         some item, each listed once
+     * @throws BrowseException
+     */
+    public List<Integer> updateDistinctMappings(String table, Map<Integer, Set<Integer>> distinctIDs) throws BrowseException;
+
 	/**
 	 * Find out of a given table exists.
 	 * 
@@ -336,6 +390,95 @@ public interface BrowseCreateDAO
 	 * @throws BrowseException
 	 */
 	public String createDistinctMap(String table, String map, boolean execute) throws BrowseException;
+
+    /**
+     * Create a table to rebuild an item index in while the browse stays
+     * online.  It is as createPrimaryTable, but item_id does not reference the
+     * item table yet, so that the table can be loaded in parallel and items
+     * can be deleted meanwhile; createReferences adds the reference once the
+     * table is loaded.
+     *
+     * @param table     the name of the table
+     * @param sortCols  the sort columns
+     * @param execute   whether to action the create or not
+     * @return          the instructions (SQL) that effect the creation
+     * @throws BrowseException
+     */
+    public String createShadowPrimaryTable(String table, List<Integer> sortCols, boolean execute) throws BrowseException;
+
+    /**
+     * Create a mapping table to rebuild a metadata index in while the browse
+     * stays online.  It is as createDistinctMap, but without the references,
+     * which createReferences adds once the table is loaded.
+     *
+     * @param table     the name of the distinct table which holds the target of the mapping
+     * @param map       the name of the mapping table itself
+     * @param execute   whether to execute the query or not
+     * @return the instructions (SQL) which effect the creation.
+     * @throws BrowseException
+     */
+    public String createShadowDistinctMap(String table, String map, boolean execute) throws BrowseException;
+
+    /**
+     * Add the references of a table made by createShadowPrimaryTable or
+     * createShadowDistinctMap: item_id to the item table, and distinct_id to
+     * the distinct table if one is given.
+     *
+     * @param table         the loaded table
+     * @param distinctTable the distinct table of a mapping table, or null
+     * @param execute       whether to execute the query or not
+     * @return the instructions (SQL) which add the references
+     * @throws BrowseException
+     */
+    public String[] createReferences(String table, String distinctTable, boolean execute) throws BrowseException;
+
+    /**
+     * Rename a table.
+     *
+     * @param from      the current name
+     * @param to        the new name
+     * @param execute   whether to execute the query or not
+     * @return the instructions (SQL) which effect the rename
+     * @throws BrowseException
+     */
+    public String renameTable(String from, String to, boolean execute) throws BrowseException;
+
+    /**
+     * Rename a sequence.
+     *
+     * @param from      the current name
+     * @param to        the new name
+     * @param execute   whether to execute the query or not
+     * @return the instructions (SQL) which effect the rename
+     * @throws BrowseException
+     */
+    public String renameSequence(String from, String to, boolean execute) throws BrowseException;
+
+    /**
+     * Rename the indices made by createDatabaseIndices (without the value
+     * index), to follow a renamed table.
+     *
+     * @param from      the table name the indices were created for
+     * @param to        the new table name
+     * @param sortCols  the sort columns
+     * @param execute   whether to execute the queries or not
+     * @return the instructions (SQL) which effect the renames
+     * @throws BrowseException
+     */
+    public String[] renameDatabaseIndices(String from, String to, List<Integer> sortCols, boolean execute) throws BrowseException;
+
+    /**
+     * Rename the indices made by createMapIndices, to follow renamed tables.
+     *
+     * @param fromDis   the distinct table name the indices were created for
+     * @param fromMap   the mapping table name the indices were created for
+     * @param toDis     the new distinct table name
+     * @param toMap     the new mapping table name
+     * @param execute   whether to execute the queries or not
+     * @return the instructions (SQL) which effect the renames
+     * @throws BrowseException
+     */
+    public String[] renameMapIndices(String fromDis, String fromMap, String toDis, String toMap, boolean execute) throws BrowseException;
 	
 	/**
 	 * So that any left over indices for items which have been deleted can be assured to have
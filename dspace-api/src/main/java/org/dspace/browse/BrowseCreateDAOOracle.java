@@ -10,6 +10,7 @@ package org.dspace.browse;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -43,6 +44,9 @@ public class BrowseCreateDAOOracle implements BrowseCreateDAO
     /** Log4j logger */
     private static Logger log = Logger.getLogger(BrowseCreateDAOOracle.class);
 
+    /** Oracle commits each DDL statement, so BrowseRebuild cannot swap tables safely */
+    private static final String NO_ONLINE_REBUILD = "online rebuild is PostgreSQL only";
+
     /**
      * internal copy of the current DSpace context (including the database
      * connection)
@@ -51,6 +55,9 @@ public class BrowseCreateDAOOracle implements BrowseCreateDAO
 
     /** Database specific set of utils used when prepping the database */
     private BrowseDAOUtils utils;
+
+    /** the batched updates of many items at once */
+    private BrowseCreateBatch batch;
     
     /**
      * Required constructor for classes implementing the BrowseCreateDAO
@@ -66,6 +73,7 @@ public class BrowseCreateDAOOracle implements BrowseCreateDAO
         
         // obtain the relevant Utils for this class
         utils = BrowseDAOFactory.getUtils(context);
+        batch = new BrowseCreateBatch(context, utils);
     }
 
     /*
@@ -411,6 +419,79 @@ public class BrowseCreateDAOOracle implements BrowseCreateDAO
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#deleteByItemIDs(java.lang.String, java.util.Collection)
+     */
+    public void deleteByItemIDs(String table, Collection<Integer> itemIDs) throws BrowseException
+    {
+        try
+        {
+            batch.deleteByItemIDs(table, itemIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#deleteCommunityMappings(java.util.Collection)
+     */
+    public void deleteCommunityMappings(Collection<Integer> itemIDs) throws BrowseException
+    {
+        deleteByItemIDs("Communities2Item", itemIDs);
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#updateCommunityMappings(java.util.Collection)
+     */
+    public void updateCommunityMappings(Collection<Integer> itemIDs) throws BrowseException
+    {
+        try
+        {
+            batch.updateCommunityMappings(itemIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#updateIndex(java.lang.String, java.util.Map)
+     */
+    public void updateIndex(String table, Map<Integer, Map<Integer, String>> sortValues) throws BrowseException
+    {
+        try
+        {
+            batch.updateIndex(table, sortValues);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#updateDistinctMappings(java.lang.String, java.util.Map)
+     */
+    public List<Integer> updateDistinctMappings(String table, Map<Integer, Set<Integer>> distinctIDs) throws BrowseException
+    {
+        try
+        {
+            return batch.updateDistinctMappings(table, distinctIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            String msg = "problem updating distinct mappings: table=" + table;
+            throw new BrowseException(msg, e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#dropIndexAndRelated(java.lang.String, boolean)
      */
@@ -818,9 +899,9 @@ public class BrowseCreateDAOOracle implements BrowseCreateDAO
                     for (Integer distinctId : distinctIds)
                     {
                         stmt.setInt(1, distinctId);
-                        stmt.execute();
-                        stmt.clearParameters();
+                        stmt.addBatch();
                     }
+                    stmt.executeBatch();
                 }
                 finally
                 {
@@ -901,9 +982,9 @@ public class BrowseCreateDAOOracle implements BrowseCreateDAO
                     for (Integer distinctId : distinctIds)
                     {
                         stmt.setInt(1, distinctId);
-                        stmt.execute();
-                        stmt.clearParameters();
+                        stmt.addBatch();
                     }
+                    stmt.executeBatch();
                 }
                 finally
                 {
@@ -925,6 +1006,62 @@ public class BrowseCreateDAOOracle implements BrowseCreateDAO
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#createShadowPrimaryTable(java.lang.String, java.util.List, boolean)
+     */
+    public String createShadowPrimaryTable(String table, List<Integer> sortCols, boolean execute) throws BrowseException
+    {
+        throw new BrowseException(NO_ONLINE_REBUILD);
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#createShadowDistinctMap(java.lang.String, java.lang.String, boolean)
+     */
+    public String createShadowDistinctMap(String table, String map, boolean execute) throws BrowseException
+    {
+        throw new BrowseException(NO_ONLINE_REBUILD);
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#createReferences(java.lang.String, java.lang.String, boolean)
+     */
+    public String[] createReferences(String table, String distinctTable, boolean execute) throws BrowseException
+    {
+        throw new BrowseException(NO_ONLINE_REBUILD);
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#renameTable(java.lang.String, java.lang.String, boolean)
+     */
+    public String renameTable(String from, String to, boolean execute) throws BrowseException
+    {
+        throw new BrowseException(NO_ONLINE_REBUILD);
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#renameSequence(java.lang.String, java.lang.String, boolean)
+     */
+    public String renameSequence(String from, String to, boolean execute) throws BrowseException
+    {
+        throw new BrowseException(NO_ONLINE_REBUILD);
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#renameDatabaseIndices(java.lang.String, java.lang.String, java.util.List, boolean)
+     */
+    public String[] renameDatabaseIndices(String from, String to, List<Integer> sortCols, boolean execute) throws BrowseException
+    {
+        throw new BrowseException(NO_ONLINE_REBUILD);
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#renameMapIndices(java.lang.String, java.lang.String, java.lang.String, java.lang.String, boolean)
+     */
+    public String[] renameMapIndices(String fromDis, String fromMap, String toDis, String toMap, boolean execute) throws BrowseException
+    {
+        throw new BrowseException(NO_ONLINE_REBUILD);
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#testTableExistence(java.lang.String)
      */
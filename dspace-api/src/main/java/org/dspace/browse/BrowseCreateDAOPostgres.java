@@ -10,6 +10,8 @@ package org.dspace.browse;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -49,6 +51,9 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
     
     /** Database specific set of utils used when prepping the database */
     private BrowseDAOUtils utils;
+
+    /** the batched updates of many items at once */
+    private BrowseCreateBatch batch;
     
     /**
      * Required constructor for classes implementing the BrowseCreateDAO interface.
@@ -63,6 +68,7 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
         
         // obtain the relevant Utils for this class
         utils = BrowseDAOFactory.getUtils(context);
+        batch = new BrowseCreateBatch(context, utils);
     }
     
     /* (non-Javadoc)
@@ -193,13 +199,19 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
      */
     public String createDistinctMap(String table, String map, boolean execute)
         throws BrowseException
+    {
+        return createDistinctMap(table, map, true, execute);
+    }
+
+    private String createDistinctMap(String table, String map, boolean references, boolean execute)
+        throws BrowseException
     {
         try
         {
             String create = "CREATE TABLE " + map + " (" +
                             "map_id integer primary key, " +
-                            "item_id integer references item(item_id), " +
-                            "distinct_id integer references " + table + "(id)" +
+                            "item_id integer" + (references ? " references item(item_id)" : "") + ", " +
+                            "distinct_id integer" + (references ? " references " + table + "(id)" : "") +
                             ");";
             
             if (execute)
@@ -322,6 +334,12 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
      */
     public String createPrimaryTable(String table, List<Integer> sortCols, boolean execute)
         throws BrowseException
+    {
+        return createPrimaryTable(table, sortCols, true, execute);
+    }
+
+    private String createPrimaryTable(String table, List<Integer> sortCols, boolean references, boolean execute)
+        throws BrowseException
     {
         try
         {
@@ -338,7 +356,7 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
             
             String createTable = "CREATE TABLE " + table + " (" +
                                     "id integer primary key," +
-                                    "item_id integer references item(item_id)" +
+                                    "item_id integer" + (references ? " references item(item_id)" : "") +
                                     sb.toString() + 
                                     ");";
             if (execute)
@@ -414,6 +432,84 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#deleteByItemIDs(java.lang.String, java.util.Collection)
+     */
+    public void deleteByItemIDs(String table, Collection<Integer> itemIDs)
+        throws BrowseException
+    {
+        try
+        {
+            batch.deleteByItemIDs(table, itemIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#deleteCommunityMappings(java.util.Collection)
+     */
+    public void deleteCommunityMappings(Collection<Integer> itemIDs)
+        throws BrowseException
+    {
+        deleteByItemIDs("Communities2Item", itemIDs);
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#updateCommunityMappings(java.util.Collection)
+     */
+    public void updateCommunityMappings(Collection<Integer> itemIDs)
+        throws BrowseException
+    {
+        try
+        {
+            batch.updateCommunityMappings(itemIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#updateIndex(java.lang.String, java.util.Map)
+     */
+    public void updateIndex(String table, Map<Integer, Map<Integer, String>> sortValues)
+        throws BrowseException
+    {
+        try
+        {
+            batch.updateIndex(table, sortValues);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#updateDistinctMappings(java.lang.String, java.util.Map)
+     */
+    public List<Integer> updateDistinctMappings(String table, Map<Integer, Set<Integer>> distinctIDs)
+        throws BrowseException
+    {
+        try
+        {
+            return batch.updateDistinctMappings(table, distinctIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            String msg = "problem updating distinct mappings: table=" + table;
+            throw new BrowseException(msg, e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#dropIndexAndRelated(java.lang.String, boolean)
      */
@@ -820,9 +916,9 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                     for (Integer distinctId : distinctIds)
                     {
                         stmt.setInt(1, distinctId);
-                        stmt.execute();
-                        stmt.clearParameters();
+                        stmt.addBatch();
                     }
+                    stmt.executeBatch();
                 }
                 finally
                 {
@@ -918,9 +1014,9 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                     for (Integer distinctId : distinctIds)
                     {
                         stmt.setInt(1, distinctId);
-                        stmt.execute();
-                        stmt.clearParameters();
+                        stmt.addBatch();
                     }
+                    stmt.executeBatch();
                 }
                 finally
                 {
@@ -942,6 +1038,131 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#createShadowPrimaryTable(java.lang.String, java.util.List, boolean)
+     */
+    public String createShadowPrimaryTable(String table, List<Integer> sortCols, boolean execute)
+        throws BrowseException
+    {
+        return createPrimaryTable(table, sortCols, false, execute);
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#createShadowDistinctMap(java.lang.String, java.lang.String, boolean)
+     */
+    public String createShadowDistinctMap(String table, String map, boolean execute)
+        throws BrowseException
+    {
+        return createDistinctMap(table, map, false, execute);
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#createReferences(java.lang.String, java.lang.String, boolean)
+     */
+    public String[] createReferences(String table, String distinctTable, boolean execute)
+        throws BrowseException
+    {
+        try
+        {
+            List<String> array = new ArrayList<String>();
+            array.add("ALTER TABLE " + table + " ADD FOREIGN KEY (item_id) REFERENCES item(item_id);");
+            if (distinctTable != null)
+            {
+                array.add("ALTER TABLE " + table + " ADD FOREIGN KEY (distinct_id) REFERENCES " + distinctTable + "(id);");
+            }
+
+            if (execute)
+            {
+                for (String query : array)
+                {
+                    DatabaseManager.updateQuery(context, query);
+                }
+            }
+
+            return array.toArray(new String[array.size()]);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#renameTable(java.lang.String, java.lang.String, boolean)
+     */
+    public String renameTable(String from, String to, boolean execute)
+        throws BrowseException
+    {
+        try
+        {
+            String rename = "ALTER TABLE " + from + " RENAME TO " + to + ";";
+            if (execute)
+            {
+                DatabaseManager.updateQuery(context, rename);
+            }
+            return rename;
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#renameSequence(java.lang.String, java.lang.String, boolean)
+     */
+    public String renameSequence(String from, String to, boolean execute)
+        throws BrowseException
+    {
+        try
+        {
+            String rename = "ALTER SEQUENCE " + from + " RENAME TO " + to + ";";
+            if (execute)
+            {
+                DatabaseManager.updateQuery(context, rename);
+            }
+            return rename;
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#renameDatabaseIndices(java.lang.String, java.lang.String, java.util.List, boolean)
+     */
+    public String[] renameDatabaseIndices(String from, String to, List<Integer> sortCols, boolean execute)
+        throws BrowseException
+    {
+        List<String> suffixes = new ArrayList<String>();
+        suffixes.add("_item_id_idx");
+        for (Integer i : sortCols)
+        {
+            suffixes.add("_s" + i + "_idx");
+        }
+
+        return renameIndices(from, to, suffixes, execute);
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#renameMapIndices(java.lang.String, java.lang.String, java.lang.String, java.lang.String, boolean)
+     */
+    public String[] renameMapIndices(String fromDis, String fromMap, String toDis, String toMap, boolean execute)
+        throws BrowseException
+    {
+        String[] dis = renameIndices(fromDis, toDis, Arrays.asList("_svalue_idx", "_value_idx", "_uvalue_idx"), execute);
+        String[] map = renameIndices(fromMap, toMap, Arrays.asList("_item_id_idx", "_dist_idx"), execute);
+
+        String[] arr = new String[dis.length + map.length];
+        System.arraycopy(dis, 0, arr, 0, dis.length);
+        System.arraycopy(map, 0, arr, dis.length, map.length);
+        return arr;
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#testTableExistence(java.lang.String)
      */
@@ -972,6 +1193,44 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
         }
     }
 
+    /**
+     * Rename the indexes of a table, which are named after it.
+     *
+     * @param from      the old table name
+     * @param to        the new table name
+     * @param suffixes  the suffixes of the index names
+     * @param execute   whether to execute the statements
+     * @return the statements
+     * @throws BrowseException
+     */
+    private String[] renameIndices(String from, String to, List<String> suffixes, boolean execute)
+        throws BrowseException
+    {
+        String[] arr = new String[suffixes.size()];
+        for (int i = 0; i < arr.length; i++)
+        {
+            arr[i] = "ALTER INDEX " + from + suffixes.get(i) + " RENAME TO " + to + suffixes.get(i) + ";";
+        }
+
+        try
+        {
+            if (execute)
+            {
+                for (String query : arr)
+                {
+                    DatabaseManager.updateQuery(context, query);
+                }
+            }
+
+            return arr;
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
     /**
      * Get the definition of the sort_value column - always a VARCHAR2
      * (required for ordering)
@@ -0,0 +1,900 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Item;
+import org.dspace.content.ItemIterator;
+import org.dspace.content.PrefetchSpec;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.sort.SortException;
+import org.dspace.sort.SortOption;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowBatch;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * <p>
+ * Rebuilds all the browse indexes while browsing stays online. The indexes
+ * are built in new tables, named after the live ones with a
+ * <code>_new</code> suffix, which have neither indexes nor foreign keys
+ * while they are loaded. The archived and withdrawn items are split into
+ * ranges of <code>browse.rebuild.range</code> ids, loaded with their
+ * metadata and written with JDBC batches by
+ * <code>browse.rebuild.threads</code> threads. Then:
+ * </p>
+ * <ol>
+ * <li>the items changed since the rebuild started are indexed again,</li>
+ * <li>the indexes of the new tables are created,</li>
+ * <li>the items changed since the previous step are indexed again,</li>
+ * <li>the live tables are dropped and the new ones renamed in their place,
+ * in one transaction,</li>
+ * <li>the items changed since the previous step started are indexed again in
+ * the tables now live, as until the swap their changes went to the tables
+ * dropped,</li>
+ * <li>the foreign keys are added to the new tables.</li>
+ * </ol>
+ * <p>
+ * The loaded ranges and the steps done are recorded in the
+ * <code>bi_rebuild</code> table, in the same transactions as the rows they
+ * stand for, so a rebuild that was interrupted carries on from where it
+ * stopped when it is run again. The table is dropped when the rebuild ends.
+ * </p>
+ * <p>
+ * This relies on DDL statements being transactional, as they are on
+ * PostgreSQL. On Oracle each of them commits as it runs, so an interrupted
+ * rebuild could be left with tables half swapped; {@link IndexBrowse}
+ * refuses to run it there.
+ * </p>
+ */
+final class BrowseRebuild
+{
+    private static final Logger log = Logger.getLogger(BrowseRebuild.class);
+
+    /** Suffix of the tables the indexes are rebuilt in */
+    private static final String SHADOW_SUFFIX = "_new";
+
+    /** Records the progress of the rebuild */
+    private static final String PROGRESS_TABLE = "bi_rebuild";
+
+    /** The progress row holding when the rebuild started, and its range size */
+    private static final int STARTED = -1;
+
+    /** The progress row present once the new tables are indexed, holding when the last catch-up started */
+    private static final int INDEXED = -2;
+
+    /** The progress row present once the new tables are live, holding when the last catch-up started */
+    private static final int SWAPPED = -3;
+
+    private final IndexBrowse indexer;
+
+    private final Context context;
+
+    private final BrowseCreateDAO dao;
+
+    private final BrowseDAOUtils utils;
+
+    private final BrowseOutput output;
+
+    /** The item, withdrawn and private indexes */
+    private final BrowseIndex[] itemIndexes;
+
+    /** The metadata indexes */
+    private final List<BrowseIndex> metadataIndexes = new ArrayList<BrowseIndex>();
+
+    private final List<Integer> sortCols = new ArrayList<Integer>();
+
+    private final int threads = ConfigurationManager.getIntProperty("browse.rebuild.threads",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** The rows written to each new table, by index name, for the progress reports */
+    private final Map<String, AtomicLong> written = new LinkedHashMap<String, AtomicLong>();
+
+    /** The distinct values of each metadata index, by index name */
+    private final Map<String, DistinctValues> distinctValues = new HashMap<String, DistinctValues>();
+
+    BrowseRebuild(IndexBrowse indexer, Context context, BrowseCreateDAO dao, BrowseIndex[] bis,
+            BrowseOutput output) throws BrowseException
+    {
+        this.indexer = indexer;
+        this.context = context;
+        this.dao = dao;
+        this.utils = BrowseDAOFactory.getUtils(context);
+        this.output = output;
+
+        itemIndexes = new BrowseIndex[] { BrowseIndex.getItemBrowseIndex(),
+                BrowseIndex.getWithdrawnBrowseIndex(), BrowseIndex.getPrivateBrowseIndex() };
+        for (BrowseIndex bi : bis)
+        {
+            if (bi.isMetadataIndex())
+            {
+                metadataIndexes.add(bi);
+            }
+        }
+
+        try
+        {
+            for (SortOption so : SortOption.getSortOptions())
+            {
+                sortCols.add(Integer.valueOf(so.getNumber()));
+            }
+        }
+        catch (SortException se)
+        {
+            throw new BrowseException("Error in SortOptions", se);
+        }
+    }
+
+    /**
+     * Rebuild the browse indexes, or finish a rebuild that was interrupted.
+     *
+     * @throws BrowseException
+     */
+    void rebuild() throws BrowseException
+    {
+        try
+        {
+            Date started = null;
+            if (dao.testTableExistence(PROGRESS_TABLE))
+            {
+                started = getMark(STARTED);
+                if (started == null)
+                {
+                    // interrupted while preparing, before the progress could be recorded
+                    dao.dropIndexAndRelated(PROGRESS_TABLE, true);
+                }
+            }
+
+            if (started == null)
+            {
+                prepare();
+            }
+            else
+            {
+                output.urgent("Resuming the browse index rebuild started " + started);
+            }
+
+            if (getMark(SWAPPED) == null)
+            {
+                countRows();
+                for (BrowseIndex bi : metadataIndexes)
+                {
+                    distinctValues.put(bi.getName(), new DistinctValues(shadow(bi.getDistinctTableName())));
+                }
+
+                Date caughtUp = getMark(INDEXED);
+                if (caughtUp == null)
+                {
+                    loadRanges();
+                    caughtUp = new Date();
+                    catchUp(getMark(STARTED));
+                    createIndices();
+                    setMark(INDEXED, 0, caughtUp);
+                    context.commit();
+                }
+
+                Date lastCatchUp = new Date();
+                catchUp(caughtUp);
+                swap(lastCatchUp);
+            }
+
+            catchUpLive(getMark(SWAPPED));
+            addReferences();
+            output.urgent("Browse index rebuild complete");
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException("Browse index rebuild interrupted, run it again to resume", e);
+        }
+    }
+
+    /**
+     * Create the new tables, dropping any left from a rebuild that did not
+     * get as far as recording its progress, and the progress table.
+     */
+    private void prepare() throws SQLException, BrowseException
+    {
+        output.urgent("Creating the tables to rebuild the browse indexes in");
+
+        for (BrowseIndex bix : itemIndexes)
+        {
+            String table = shadow(bix.getTableName());
+            dropShadow(table);
+            dao.createSequence(table + "_seq", true);
+            dao.createShadowPrimaryTable(table, sortCols, true);
+        }
+
+        for (BrowseIndex bi : metadataIndexes)
+        {
+            String distinctTable = shadow(bi.getDistinctTableName());
+            String mapTable = shadow(bi.getMapTableName());
+            dropShadow(mapTable);
+            dropShadow(distinctTable);
+            dao.createSequence(distinctTable + "_seq", true);
+            dao.createSequence(mapTable + "_seq", true);
+            dao.createDistinctTable(distinctTable, true);
+            dao.createShadowDistinctMap(distinctTable, mapTable, true);
+        }
+
+        DatabaseManager.updateQuery(context, "CREATE TABLE " + PROGRESS_TABLE
+                + " (range_start INTEGER PRIMARY KEY, item_count INTEGER, marked TIMESTAMP)");
+        setMark(STARTED, Math.max(1, ConfigurationManager.getIntProperty("browse.rebuild.range", 1000)), new Date());
+        context.commit();
+    }
+
+    private void dropShadow(String table) throws BrowseException
+    {
+        if (dao.testTableExistence(table))
+        {
+            dao.dropIndexAndRelated(table, true);
+            dao.dropSequence(table + "_seq", true);
+        }
+    }
+
+    /**
+     * Load the ranges of items not loaded yet, in parallel.
+     */
+    private void loadRanges() throws SQLException, BrowseException
+    {
+        TableRow started = DatabaseManager.querySingle(context,
+                "SELECT item_count FROM " + PROGRESS_TABLE + " WHERE range_start = ?", STARTED);
+        int rangeSize = started.getIntColumn("item_count");
+
+        Set<Integer> loaded = new HashSet<Integer>();
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT range_start FROM " + PROGRESS_TABLE + " WHERE range_start >= 0");
+        try
+        {
+            while (tri.hasNext())
+            {
+                loaded.add(tri.next().getIntColumn("range_start"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT MAX(item_id) AS high FROM item WHERE in_archive='1' OR withdrawn='1'");
+        long high = row.getLongColumn("high");
+
+        List<Integer> ranges = pendingRanges(high, rangeSize, loaded);
+        int total = ranges.size() + loaded.size();
+        output.urgent("Loading " + ranges.size() + " of " + total + " ranges of " + rangeSize
+                + " items on " + Math.max(1, threads) + " threads");
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try
+        {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int start : ranges)
+            {
+                futures.add(pool.submit(new RangeLoader(start, start + rangeSize)));
+            }
+            pool.shutdown();
+
+            int done = loaded.size();
+            for (int i = 0; i < futures.size(); i++)
+            {
+                int count;
+                try
+                {
+                    count = futures.get(i).get().intValue();
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof SQLException)
+                    {
+                        throw (SQLException) e.getCause();
+                    }
+                    throw new BrowseException(e.getCause());
+                }
+                done++;
+                output.urgent("Loaded " + count + " items from " + ranges.get(i) + ": " + done + "/" + total
+                        + " ranges (" + (done * 100 / total) + "%), " + progress());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new BrowseException(e);
+        }
+        finally
+        {
+            pool.shutdownNow();
+            try
+            {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The starts of the ranges still to load. The ranges are aligned on
+     * multiples of the size, to match those loaded before an interruption.
+     *
+     * @param high the highest item id to load
+     * @param rangeSize the number of ids in a range
+     * @param loaded the starts of the ranges already loaded
+     */
+    static List<Integer> pendingRanges(long high, int rangeSize, Set<Integer> loaded)
+    {
+        List<Integer> ranges = new ArrayList<Integer>();
+        for (long start = 0; start <= high; start += rangeSize)
+        {
+            if (!loaded.contains((int) start))
+            {
+                ranges.add((int) start);
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Index again the items changed since a time, which the live indexes
+     * have seen and the new tables may have missed.
+     */
+    private void catchUp(Date since) throws SQLException, BrowseException
+    {
+        List<Integer> itemIDs = changedSince(since);
+        output.urgent("Indexing again " + itemIDs.size() + " items changed since " + since);
+        for (int i = 0; i < itemIDs.size(); i += IndexBrowse.INDEX_BATCH_SIZE)
+        {
+            List<Integer> batch = itemIDs.subList(i, Math.min(itemIDs.size(), i + IndexBrowse.INDEX_BATCH_SIZE));
+            for (BrowseIndex bix : itemIndexes)
+            {
+                dao.deleteByItemIDs(shadow(bix.getTableName()), batch);
+            }
+            for (BrowseIndex bi : metadataIndexes)
+            {
+                dao.deleteByItemIDs(shadow(bi.getMapTableName()), batch);
+            }
+            write(context, new ItemIterator(context, batch, new PrefetchSpec().withMetadata()));
+            context.commit();
+            context.clearCache();
+        }
+        countRows();
+    }
+
+    /**
+     * Index again, in the tables now live, the items changed since the last
+     * catch-up started: until the swap, their changes went to the tables it
+     * dropped.
+     */
+    private void catchUpLive(Date since) throws SQLException, BrowseException
+    {
+        List<Integer> itemIDs = changedSince(since);
+        output.urgent("Indexing again " + itemIDs.size() + " items changed since " + since
+                + " in the new live tables");
+        for (int i = 0; i < itemIDs.size(); i += IndexBrowse.INDEX_BATCH_SIZE)
+        {
+            List<Integer> batch = itemIDs.subList(i, Math.min(itemIDs.size(), i + IndexBrowse.INDEX_BATCH_SIZE));
+            List<Item> items = new ArrayList<Item>(batch.size());
+            ItemIterator ii = new ItemIterator(context, batch, new PrefetchSpec().withMetadata());
+            try
+            {
+                while (ii.hasNext())
+                {
+                    items.add(ii.next());
+                }
+            }
+            finally
+            {
+                ii.close();
+            }
+            indexer.indexItems(items);
+            context.commit();
+            context.clearCache();
+        }
+    }
+
+    /**
+     * The ids of the items changed since a time.
+     */
+    private List<Integer> changedSince(Date since) throws SQLException
+    {
+        List<Integer> itemIDs = new ArrayList<Integer>();
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT item_id FROM item WHERE last_modified >= ?", new Timestamp(since.getTime()));
+        try
+        {
+            while (tri.hasNext())
+            {
+                itemIDs.add(tri.next().getIntColumn("item_id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return itemIDs;
+    }
+
+    /**
+     * Create the indexes of the new tables.
+     */
+    private void createIndices() throws BrowseException
+    {
+        for (BrowseIndex bix : itemIndexes)
+        {
+            output.urgent("Creating the indexes of " + shadow(bix.getTableName()));
+            dao.createDatabaseIndices(shadow(bix.getTableName()), sortCols, false, true);
+        }
+        for (BrowseIndex bi : metadataIndexes)
+        {
+            output.urgent("Creating the indexes of browse index " + bi.getName());
+            dao.createMapIndices(shadow(bi.getDistinctTableName()), shadow(bi.getMapTableName()), true);
+        }
+    }
+
+    /**
+     * Replace the live tables with the new ones, in one transaction.
+     *
+     * @param lastCatchUp when the last catch-up started, recorded for the
+     *          one to run in the live tables
+     */
+    private void swap(Date lastCatchUp) throws SQLException, BrowseException
+    {
+        output.urgent("Swapping in the new browse index tables");
+
+        // drop the rows of items deleted or withdrawn since they were loaded
+        for (BrowseIndex bix : itemIndexes)
+        {
+            dao.pruneExcess(shadow(bix.getTableName()), bix != BrowseIndex.getItemBrowseIndex());
+        }
+        for (BrowseIndex bi : metadataIndexes)
+        {
+            dao.pruneMapExcess(shadow(bi.getMapTableName()), false, null);
+            dao.pruneDistinct(shadow(bi.getDistinctTableName()), shadow(bi.getMapTableName()), null);
+        }
+
+        // look before dropping anything, as the drops lock out other connections
+        Map<String, Boolean> live = new HashMap<String, Boolean>();
+        for (BrowseIndex bix : itemIndexes)
+        {
+            live.put(bix.getTableName(), dao.testTableExistence(bix.getTableName()));
+        }
+        for (BrowseIndex bi : metadataIndexes)
+        {
+            live.put(bi.getMapTableName(), dao.testTableExistence(bi.getMapTableName()));
+            live.put(bi.getDistinctTableName(), dao.testTableExistence(bi.getDistinctTableName()));
+        }
+
+        for (BrowseIndex bi : metadataIndexes)
+        {
+            String distinctTable = bi.getDistinctTableName();
+            String mapTable = bi.getMapTableName();
+            if (live.get(mapTable))
+            {
+                dao.dropIndexAndRelated(mapTable, true);
+                dao.dropSequence(bi.getSequenceName(false, true), true);
+            }
+            if (live.get(distinctTable))
+            {
+                dao.dropIndexAndRelated(distinctTable, true);
+                dao.dropSequence(bi.getSequenceName(true, false), true);
+            }
+            dao.renameTable(shadow(distinctTable), distinctTable, true);
+            dao.renameTable(shadow(mapTable), mapTable, true);
+            dao.renameSequence(shadow(distinctTable) + "_seq", bi.getSequenceName(true, false), true);
+            dao.renameSequence(shadow(mapTable) + "_seq", bi.getSequenceName(false, true), true);
+            dao.renameMapIndices(shadow(distinctTable), shadow(mapTable), distinctTable, mapTable, true);
+        }
+
+        for (BrowseIndex bix : itemIndexes)
+        {
+            String table = bix.getTableName();
+            if (live.get(table))
+            {
+                dao.dropIndexAndRelated(table, true);
+                dao.dropSequence(bix.getSequenceName(false, false), true);
+            }
+            dao.renameTable(shadow(table), table, true);
+            dao.renameSequence(shadow(table) + "_seq", bix.getSequenceName(false, false), true);
+            dao.renameDatabaseIndices(shadow(table), table, sortCols, true);
+        }
+
+        setMark(SWAPPED, 0, lastCatchUp);
+        context.commit();
+    }
+
+    /**
+     * Add the foreign keys to the tables now live, and end the rebuild.
+     * Items deleted from now on are removed from these tables as usual, so
+     * after one last pruning the keys hold.
+     */
+    private void addReferences() throws SQLException, BrowseException
+    {
+        output.urgent("Adding the foreign keys of the browse index tables");
+        for (BrowseIndex bix : itemIndexes)
+        {
+            dao.pruneExcess(bix.getTableName(), bix != BrowseIndex.getItemBrowseIndex());
+            dao.createReferences(bix.getTableName(), null, true);
+        }
+        for (BrowseIndex bi : metadataIndexes)
+        {
+            dao.pruneMapExcess(bi.getMapTableName(), false, null);
+            dao.createReferences(bi.getMapTableName(), bi.getDistinctTableName(), true);
+        }
+        dao.dropIndexAndRelated(PROGRESS_TABLE, true);
+        context.commit();
+    }
+
+    /**
+     * Index items into the new tables.
+     *
+     * @param c
+     *            the context to write with, which is not committed
+     * @param items
+     *            the items, which are decached once written
+     * @return the number of items
+     */
+    private int write(Context c, ItemIterator items) throws SQLException, BrowseException
+    {
+        List<TableRowBatch> itemBatches = new ArrayList<TableRowBatch>();
+        Set<Integer> archived = new LinkedHashSet<Integer>();
+        Set<Integer> others = new LinkedHashSet<Integer>();
+        List<Map<Integer, List<String[]>>> values = new ArrayList<Map<Integer, List<String[]>>>();
+        for (int i = 0; i < metadataIndexes.size(); i++)
+        {
+            values.add(new LinkedHashMap<Integer, List<String[]>>());
+        }
+
+        try
+        {
+            for (BrowseIndex bix : itemIndexes)
+            {
+                itemBatches.add(DatabaseManager.beginBatch(c, shadow(bix.getTableName())));
+            }
+
+            while (items.hasNext())
+            {
+                Item item = items.next();
+                IndexBrowse.ItemMetadataProxy proxy = new IndexBrowse.ItemMetadataProxy(item);
+
+                int target = -1;
+                if (item.isArchived() && !item.isWithdrawn())
+                {
+                    target = 0;
+                    archived.add(item.getID());
+                    for (int i = 0; i < metadataIndexes.size(); i++)
+                    {
+                        values.get(i).put(item.getID(), IndexBrowse.getDistinctValues(proxy, metadataIndexes.get(i)));
+                    }
+                }
+                else
+                {
+                    if (item.isWithdrawn())
+                    {
+                        // Private items are marked as withdrawn as well
+                        target = proxy.isDiscoverable(c) ? 1 : 2;
+                    }
+                    others.add(item.getID());
+                }
+
+                if (target >= 0)
+                {
+                    String table = shadow(itemIndexes[target].getTableName());
+                    TableRow row = DatabaseManager.row(table);
+                    row.setColumn("item_id", item.getID());
+                    Map<Integer, String> sortValues = IndexBrowse.getSortValues(proxy, new HashMap<String, String>());
+                    for (Map.Entry<Integer, String> sortCol : sortValues.entrySet())
+                    {
+                        row.setColumn("sort_" + sortCol.getKey().toString(), utils.truncateSortValue(sortCol.getValue()));
+                    }
+                    itemBatches.get(target).insert(row);
+                    written.get(itemIndexes[target].getName()).incrementAndGet();
+                }
+
+                item.decache();
+            }
+        }
+        finally
+        {
+            items.close();
+            for (TableRowBatch batch : itemBatches)
+            {
+                batch.close();
+            }
+        }
+
+        for (int i = 0; i < metadataIndexes.size(); i++)
+        {
+            BrowseIndex bi = metadataIndexes.get(i);
+            DistinctValues distinct = distinctValues.get(bi.getName());
+
+            List<String[]> all = new ArrayList<String[]>();
+            for (List<String[]> itemValues : values.get(i).values())
+            {
+                all.addAll(itemValues);
+            }
+            Map<String, Integer> distinctIDs = distinct.resolve(all);
+
+            TableRowBatch batch = DatabaseManager.beginBatch(c, shadow(bi.getMapTableName()));
+            try
+            {
+                for (Map.Entry<Integer, List<String[]>> item : values.get(i).entrySet())
+                {
+                    Set<Integer> mapped = new HashSet<Integer>();
+                    for (String[] value : item.getValue())
+                    {
+                        Integer distinctID = distinctIDs.get(distinct.key(value[0], value[1]));
+                        if (mapped.add(distinctID))
+                        {
+                            TableRow row = DatabaseManager.row(shadow(bi.getMapTableName()));
+                            row.setColumn("item_id", item.getKey().intValue());
+                            row.setColumn("distinct_id", distinctID.intValue());
+                            batch.insert(row);
+                        }
+                    }
+                    written.get(bi.getName()).addAndGet(mapped.size());
+                }
+            }
+            finally
+            {
+                batch.close();
+            }
+        }
+
+        // the community mappings are shared with the live indexes
+        BrowseCreateDAO cdao = BrowseDAOFactory.getCreateInstance(c);
+        cdao.updateCommunityMappings(archived);
+        cdao.deleteCommunityMappings(others);
+
+        return archived.size() + others.size();
+    }
+
+    /**
+     * Count the rows in the new tables.
+     */
+    private void countRows() throws SQLException
+    {
+        for (BrowseIndex bix : itemIndexes)
+        {
+            written.put(bix.getName(), new AtomicLong(count(shadow(bix.getTableName()))));
+        }
+        for (BrowseIndex bi : metadataIndexes)
+        {
+            written.put(bi.getName(), new AtomicLong(count(shadow(bi.getMapTableName()))));
+        }
+    }
+
+    private long count(String table) throws SQLException
+    {
+        return DatabaseManager.querySingle(context, "SELECT COUNT(*) AS num FROM " + table).getLongColumn("num");
+    }
+
+    /**
+     * Describe the rows written to each index so far.
+     */
+    private String progress()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, AtomicLong> index : written.entrySet())
+        {
+            if (sb.length() > 0)
+            {
+                sb.append(", ");
+            }
+            sb.append(index.getKey()).append(": ").append(index.getValue().get());
+            DistinctValues distinct = distinctValues.get(index.getKey());
+            if (distinct != null)
+            {
+                sb.append(" (").append(distinct.size()).append(" distinct)");
+            }
+        }
+        return sb.toString();
+    }
+
+    private Date getMark(int mark) throws SQLException
+    {
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT marked FROM " + PROGRESS_TABLE + " WHERE range_start = ?", mark);
+        return row == null ? null : row.getDateColumn("marked");
+    }
+
+    private void setMark(int mark, int value, Date date) throws SQLException
+    {
+        DatabaseManager.updateQuery(context, "INSERT INTO " + PROGRESS_TABLE
+                + " (range_start, item_count, marked) VALUES (?, ?, ?)", mark, value, new Timestamp(date.getTime()));
+    }
+
+    private static String shadow(String table)
+    {
+        return table + SHADOW_SUFFIX;
+    }
+
+    /**
+     * Loads one range of items, recording it as loaded in the same
+     * transaction.
+     */
+    private class RangeLoader implements Callable<Integer>
+    {
+        private final int start;
+
+        private final int end;
+
+        RangeLoader(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        public Integer call() throws SQLException, BrowseException
+        {
+            Context c = new Context();
+            try
+            {
+                c.turnOffAuthorisationSystem();
+                TableRowIterator rows = DatabaseManager.queryTable(c, "item",
+                        "SELECT * FROM item WHERE (in_archive='1' OR withdrawn='1') AND item_id >= ? AND item_id < ?"
+                                + " ORDER BY item_id", start, end);
+                int count = write(c, new ItemIterator(c, rows, new PrefetchSpec().withMetadata()));
+                DatabaseManager.updateQuery(c, "INSERT INTO " + PROGRESS_TABLE
+                        + " (range_start, item_count) VALUES (?, ?)", start, count);
+                c.complete();
+                return Integer.valueOf(count);
+            }
+            finally
+            {
+                if (c.isValid())
+                {
+                    c.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * The ids of the distinct values of one metadata index, shared by the
+     * loading threads. New values are inserted and committed on their own
+     * connection before their ids are handed out, so that a range rolled
+     * back never leaves others pointing at missing rows.
+     */
+    private final class DistinctValues
+    {
+        private final String table;
+
+        private final boolean caseInsensitive = ConfigurationManager.getBooleanProperty(
+                "webui.browse.metadata.case-insensitive", false);
+
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+        DistinctValues(String table) throws SQLException
+        {
+            this.table = table;
+            TableRowIterator tri = DatabaseManager.query(context, "SELECT id, value, authority FROM " + table);
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    ids.put(key(row.getStringColumn("value"), row.getStringColumn("authority")),
+                            Integer.valueOf(row.getIntColumn("id")));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        /**
+         * Get the ids of values, inserting those not yet known.
+         *
+         * @param values
+         *            the value, authority (or null) and sort value of each
+         * @return the ids, by {@link #key(String, String)}
+         */
+        synchronized Map<String, Integer> resolve(List<String[]> values) throws SQLException
+        {
+            Map<String, TableRow> created = new LinkedHashMap<String, TableRow>();
+            for (String[] value : values)
+            {
+                String key = key(value[0], value[1]);
+                if (!ids.containsKey(key) && !created.containsKey(key))
+                {
+                    TableRow row = DatabaseManager.row(table);
+                    if (value[1] != null)
+                    {
+                        row.setColumn("authority", utils.truncateValue(value[1], 100));
+                    }
+                    row.setColumn("value", utils.truncateValue(value[0]));
+                    row.setColumn("sort_value", utils.truncateSortValue(value[2]));
+                    created.put(key, row);
+                }
+            }
+
+            if (!created.isEmpty())
+            {
+                Context c = new Context();
+                try
+                {
+                    TableRowBatch batch = DatabaseManager.beginBatch(c, table);
+                    try
+                    {
+                        for (TableRow row : created.values())
+                        {
+                            batch.insert(row);
+                        }
+                    }
+                    finally
+                    {
+                        batch.close();
+                    }
+                    c.complete();
+                }
+                finally
+                {
+                    if (c.isValid())
+                    {
+                        c.abort();
+                    }
+                }
+
+                for (Map.Entry<String, TableRow> row : created.entrySet())
+                {
+                    ids.put(row.getKey(), Integer.valueOf(row.getValue().getIntColumn("id")));
+                }
+            }
+
+            Map<String, Integer> result = new HashMap<String, Integer>();
+            for (String[] value : values)
+            {
+                String key = key(value[0], value[1]);
+                result.put(key, ids.get(key));
+            }
+            return result;
+        }
+
+        synchronized int size()
+        {
+            return ids.size();
+        }
+
+        /**
+         * The key of a value, equal for the values the live index treats as
+         * the same distinct record.
+         */
+        String key(String value, String authority)
+        {
+            String key = utils.truncateValue(value);
+            if (caseInsensitive)
+            {
+                key = key.toUpperCase();
+            }
+            return authority == null ? key : key + '\u0000' + utils.truncateValue(authority, 100);
+        }
+    }
+}
@@ -10,9 +10,12 @@ package org.dspace.browse;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,6 +52,9 @@ public class IndexBrowse
 {
 	/** logger */
 	private static Logger log = Logger.getLogger(IndexBrowse.class);
+
+	/** Number of items indexed together when creating the indexes */
+	static final int INDEX_BATCH_SIZE = 100;
 	
 	/** DSpace context */
 	private Context context;
@@ -303,223 +309,274 @@ public class IndexBrowse
      */
     public void indexItem(Item item) throws BrowseException
     {
-        indexItem(item, false);
+        indexItems(Collections.singletonList(item));
     }
 
-    void indexItem(Item item, boolean addingNewItem) throws BrowseException
+    /**
+     * Index many items at once. The sort and distinct values of all the items
+     * are collected first, then each browse table is brought up to date with a
+     * few set-based statements and JDBC batches, and the community mappings
+     * of all the items are refreshed together.
+     *
+     * @param items the items to index
+     * @throws BrowseException
+     */
+    public void indexItems(List<Item> items) throws BrowseException
     {
-        // If the item is not archived AND has not been withdrawn
-        // we can assume that it has *never* been archived - in that case,
-        // there won't be anything in the browse index, so we can just skip processing.
-        // If it is either archived or withdrawn, then there may be something in the browse
-        // tables, so we *must* process it.
-        // Caveat: an Item.update() that changes isArchived() from TRUE to FALSE, whilst leaving
-        // isWithdrawn() as FALSE, may result in stale data in the browse tables.
-        // Such an update should never occur though, and if it does, probably indicates a major
-        // problem with the code updating the Item.
-        if (item.isArchived())
+        List<ItemMetadataProxy> proxies = new ArrayList<ItemMetadataProxy>(items.size());
+        for (Item item : items)
         {
-            indexItem(new ItemMetadataProxy(item), addingNewItem);
-        }
-        else if (item.isWithdrawn() || !item.isArchived())
-        {
-            indexItem(new ItemMetadataProxy(item), false);
+            proxies.add(new ItemMetadataProxy(item));
         }
+        indexBatch(proxies);
     }
-    
-       /**
-         * Index the given item
-         * 
-         * @param item  the item to index
-         * @throws BrowseException
-         */
-    private void indexItem(ItemMetadataProxy item, boolean addingNewItem)
+
+    /**
+     * Index a batch of items
+     *
+     * @param items the items to index
+     * @throws BrowseException
+     */
+    private void indexBatch(List<ItemMetadataProxy> items)
         throws BrowseException
     {
-        // Map to store the metadata from the Item
-        // so that we don't grab it multiple times
-        Map<String, String> itemMDMap = new HashMap<String, String>();
-        
         try
         {
-            boolean reqCommunityMappings = false;
-            Map<Integer, String> sortMap = getSortValues(item, itemMDMap);
-            if (item.isArchived() && !item.isWithdrawn())
+            // The sort values for each of the item indexes, by item id
+            Map<Integer, Map<Integer, String>> archived = new LinkedHashMap<Integer, Map<Integer, String>>();
+            Map<Integer, Map<Integer, String>> withdrawn = new LinkedHashMap<Integer, Map<Integer, String>>();
+            Map<Integer, Map<Integer, String>> privateItems = new LinkedHashMap<Integer, Map<Integer, String>>();
+            Set<Integer> itemIDs = new LinkedHashSet<Integer>();
+
+            for (ItemMetadataProxy item : items)
             {
-                // Try to update an existing record in the item index
-                if (!dao.updateIndex(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID(), sortMap))
+                // Map to store the metadata from the Item
+                // so that we don't grab it multiple times
+                Map<String, String> itemMDMap = new HashMap<String, String>();
+                Map<Integer, String> sortMap = getSortValues(item, itemMDMap);
+                itemIDs.add(item.getID());
+
+                if (item.isArchived() && !item.isWithdrawn())
                 {
-                    // Record doesn't exist - ensure that it doesn't exist in the withdrawn index,
-                    // and add it to the archived item index
-                    dao.deleteByItemID(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID());
-                    dao.deleteByItemID(BrowseIndex.getPrivateBrowseIndex().getTableName(), item.getID());
-                    dao.insertIndex(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID(), sortMap);
+                    archived.put(item.getID(), sortMap);
                 }
-
-                reqCommunityMappings = true;
-            }
-            else if (item.isWithdrawn())
-            {
-                // Private items are marked as withdrawn as well. check before if they are private...
-                Item dsoItem = Item.find(context, item.getID());
-                if (!dsoItem.isDiscoverable()){
-                    if (!dao.updateIndex(BrowseIndex.getPrivateBrowseIndex().getTableName(), item.getID(), sortMap)) {
-                        dao.deleteByItemID(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID());
-                        dao.insertIndex(BrowseIndex.getPrivateBrowseIndex().getTableName(), item.getID(), sortMap);
+                else if (item.isWithdrawn())
+                {
+                    // Private items are marked as withdrawn as well. check if they are private...
+                    if (item.isDiscoverable(context))
+                    {
+                        withdrawn.put(item.getID(), sortMap);
                     }
-                }
-                else{
-                    // Try to update an existing record in the withdrawn index
-                    if (!dao.updateIndex(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID(), sortMap))
+                    else
                     {
-                        // Record doesn't exist - ensure that it doesn't exist in the item index,
-                        // and add it to the withdrawn item index
-                        dao.deleteByItemID(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID());
-                        dao.insertIndex(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID(), sortMap);
+                        privateItems.put(item.getID(), sortMap);
                     }
                 }
-
-
-
-
-            }
-            else
-            {
-                // This item shouldn't exist in either index - ensure that it is removed
-                dao.deleteByItemID(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID());
-                dao.deleteByItemID(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID());
-                dao.deleteByItemID(BrowseIndex.getPrivateBrowseIndex().getTableName(), item.getID());
+                // otherwise the item shouldn't exist in any index, and is removed from all of them
             }
 
+            // An item is in at most one of the item indexes
+            updateItemIndex(BrowseIndex.getItemBrowseIndex().getTableName(), archived, itemIDs);
+            updateItemIndex(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), withdrawn, itemIDs);
+            updateItemIndex(BrowseIndex.getPrivateBrowseIndex().getTableName(), privateItems, itemIDs);
+
             // Update the community mappings if they are required, or remove them if they aren't
-            if (reqCommunityMappings)
-            {
-                dao.updateCommunityMappings(item.getID());
-            }
-            else
-            {
-                dao.deleteCommunityMappings(item.getID());
-            }
+            dao.updateCommunityMappings(archived.keySet());
+            dao.deleteCommunityMappings(except(itemIDs, archived.keySet()));
 
             // Now update the metadata indexes
             for (int i = 0; i < bis.length; i++)
             {
                 if (bis[i].isMetadataIndex())
                 {
-                    log.debug("Indexing for item " + item.getID() + ", for index: " + bis[i].getTableName());
-                    Set<Integer> distIDSet = new HashSet<Integer>();
+                    log.debug("Indexing " + itemIDs.size() + " items for index: " + bis[i].getTableName());
 
-                    // now index the new details - but only if it's archived and not withdrawn
-                    if (item.isArchived() && !item.isWithdrawn())
+                    // the distinct ids already found in this batch, by value and authority
+                    Map<String, Integer> known = new HashMap<String, Integer>();
+                    Map<Integer, Set<Integer>> mappings = new LinkedHashMap<Integer, Set<Integer>>();
+                    for (ItemMetadataProxy item : items)
                     {
-                        // get the metadata from the item
-                        for (int mdIdx = 0; mdIdx < bis[i].getMetadataCount(); mdIdx++)
+                        // now index the new details - but only if it's archived and not withdrawn
+                        if (archived.containsKey(item.getID()))
                         {
-                            String[] md = bis[i].getMdBits(mdIdx);
-                            DCValue[] values = item.getMetadata(md[0], md[1], md[2], Item.ANY);
+                            mappings.put(item.getID(), getDistinctIDs(item, bis[i], known));
+                        }
+                        else
+                        {
+                            mappings.put(item.getID(), new HashSet<Integer>());
+                        }
+                    }
 
-                            // if we have values to index on, then do so
-                            if (values != null && values.length > 0)
-                            {
-                                int minConfidence = MetadataAuthorityManager.getManager()
-                                        .getMinConfidence(values[0].schema, values[0].element, values[0].qualifier);
+                    List<Integer> removedIds = dao.updateDistinctMappings(bis[i].getMapTableName(), mappings);
+                    if (!removedIds.isEmpty())
+                    {
+                        pruneDistinctIndex(bis[i], removedIds);
+                    }
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
 
-                                for (DCValue value : values)
+    /**
+     * Write the records of the items that belong in an item index, and remove
+     * the records of the other items of the batch from it.
+     *
+     * @param table the item index table
+     * @param sortValues the sort values of the items that belong in it
+     * @param itemIDs all the items of the batch
+     * @throws BrowseException
+     */
+    private void updateItemIndex(String table, Map<Integer, Map<Integer, String>> sortValues, Set<Integer> itemIDs)
+        throws BrowseException
+    {
+        dao.deleteByItemIDs(table, except(itemIDs, sortValues.keySet()));
+        if (!sortValues.isEmpty())
+        {
+            dao.updateIndex(table, sortValues);
+        }
+    }
+
+    private static Set<Integer> except(Set<Integer> ids, Set<Integer> excluded)
+    {
+        Set<Integer> result = new LinkedHashSet<Integer>(ids);
+        result.removeAll(excluded);
+        return result;
+    }
+
+    /**
+     * Get the ids of the distinct records of an item's values for a metadata
+     * index, creating the records that don't exist yet.
+     *
+     * @param item the item
+     * @param bi the metadata index
+     * @param known the distinct ids already found for this index
+     * @return the distinct ids
+     * @throws BrowseException
+     * @throws SQLException
+     */
+    private Set<Integer> getDistinctIDs(ItemMetadataProxy item, BrowseIndex bi, Map<String, Integer> known)
+        throws BrowseException, SQLException
+    {
+        Set<Integer> distIDSet = new HashSet<Integer>();
+        for (String[] value : getDistinctValues(item, bi))
+        {
+            distIDSet.add(getDistinctID(bi, value[0], value[1], value[2], known));
+        }
+        return distIDSet;
+    }
+
+    /**
+     * Get an item's values for a metadata index, with their variants.
+     *
+     * @param item the item
+     * @param bi the metadata index
+     * @return the value, authority (or null) and sort value of each distinct record
+     * @throws SQLException
+     */
+    static List<String[]> getDistinctValues(ItemMetadataProxy item, BrowseIndex bi)
+        throws SQLException
+    {
+        List<String[]> distinctValues = new ArrayList<String[]>();
+
+        // get the metadata from the item
+        for (int mdIdx = 0; mdIdx < bi.getMetadataCount(); mdIdx++)
+        {
+            String[] md = bi.getMdBits(mdIdx);
+            DCValue[] values = item.getMetadata(md[0], md[1], md[2], Item.ANY);
+
+            // if we have values to index on, then do so
+            if (values != null && values.length > 0)
+            {
+                int minConfidence = MetadataAuthorityManager.getManager()
+                        .getMinConfidence(values[0].schema, values[0].element, values[0].qualifier);
+
+                for (DCValue value : values)
+                {
+                    // Ensure that there is a value to index before inserting it
+                    if (StringUtils.isEmpty(value.value))
+                    {
+                        log.error("Null metadata value for item " + item.getID() + ", field: " +
+                                value.schema + "." +
+                                value.element +
+                                (value.qualifier == null ? "" : "." + value.qualifier));
+                    }
+                    else
+                    {
+                        if (bi.isAuthorityIndex() &&
+                                (value.authority == null || value.confidence < minConfidence))
+                        {
+                            // skip to next value in this authority field if value is not authoritative
+                            log.debug("Skipping non-authoritative value: " + item.getID() + ", field=" + value.schema + "." + value.element + "." + value.qualifier + ", value=" + value.value + ", authority=" + value.authority + ", confidence=" + value.confidence + " (BAD AUTHORITY)");
+                            continue;
+
+                        }
+
+                        // is there any valid (with appropriate confidence) authority key?
+                        if (value.authority != null
+                                && value.confidence >= minConfidence)
+                        {
+                            boolean isValueInVariants = false;
+
+                            // Are there variants of this value
+                            List<String> variants = ChoiceAuthorityManager.getManager()
+                                    .getVariants(value.schema, value.element, value.qualifier,
+                                            value.authority, value.language);
+
+                            // If we have variants, index them
+                            if (variants != null)
+                            {
+                                for (String var : variants)
                                 {
-                                    // Ensure that there is a value to index before inserting it
-                                    if (StringUtils.isEmpty(value.value))
+                                    String nVal = OrderFormat.makeSortString(var, value.language, bi.getDataType());
+                                    distinctValues.add(new String[] { var, value.authority, nVal });
+                                    if (var.equals(value.value))
                                     {
-                                        log.error("Null metadata value for item " + item.getID() + ", field: " +
-                                                value.schema + "." +
-                                                value.element +
-                                                (value.qualifier == null ? "" : "." + value.qualifier));
-                                    }
-                                    else
-                                    {
-                                        if (bis[i].isAuthorityIndex() &&
-                                                (value.authority == null || value.confidence < minConfidence))
-                                        {
-                                            // skip to next value in this authority field if value is not authoritative
-                                            log.debug("Skipping non-authoritative value: " + item.getID() + ", field=" + value.schema + "." + value.element + "." + value.qualifier + ", value=" + value.value + ", authority=" + value.authority + ", confidence=" + value.confidence + " (BAD AUTHORITY)");
-                                            continue;
-
-                                        }
-
-                                        // is there any valid (with appropriate confidence) authority key?
-                                        if (value.authority != null
-                                                && value.confidence >= minConfidence)
-                                        {
-                                            boolean isValueInVariants = false;
-
-                                            // Are there variants of this value
-                                            List<String> variants = ChoiceAuthorityManager.getManager()
-                                                    .getVariants(value.schema, value.element, value.qualifier,
-                                                            value.authority, value.language);
-
-                                            // If we have variants, index them
-                                            if (variants != null)
-                                            {
-                                                for (String var : variants)
-                                                {
-                                                    String nVal = OrderFormat.makeSortString(var, value.language, bis[i].getDataType());
-                                                    distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), var, value.authority, nVal));
-                                                    if (var.equals(value.value))
-                                                    {
-                                                        isValueInVariants = true;
-                                                    }
-                                                }
-                                            }
-
-                                            // If we didn't index the value as one of the variants, add it now
-                                            if (!isValueInVariants)
-                                            {
-                                                // get the normalised version of the value
-                                                String nVal = OrderFormat.makeSortString(value.value, value.language, bis[i].getDataType());
-                                                distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), value.value, value.authority, nVal));
-                                            }
-                                        }
-                                        else // put it in the browse index as if it hasn't have an authority key
-                                        {
-                                            // get the normalised version of the value
-                                            String nVal = OrderFormat.makeSortString(value.value, value.language, bis[i].getDataType());
-                                            distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), value.value, null, nVal));
-                                        }
+                                        isValueInVariants = true;
                                     }
                                 }
                             }
-                        }
-                    }
 
-                    // Do we have any mappings?
-                    if (distIDSet.isEmpty())
-                    {
-                        if (!addingNewItem)
-                        {
-                            // remove any old mappings
-                            List<Integer> distinctIds = dao.deleteMappingsByItemID(bis[i].getMapTableName(), item.getID());
-                            if (distinctIds != null && distinctIds.size() > 0)
+                            // If we didn't index the value as one of the variants, add it now
+                            if (!isValueInVariants)
                             {
-                                dao.pruneDistinct(bis[i].getDistinctTableName(), bis[i].getMapTableName(), distinctIds);
+                                // get the normalised version of the value
+                                String nVal = OrderFormat.makeSortString(value.value, value.language, bi.getDataType());
+                                distinctValues.add(new String[] { value.value, value.authority, nVal });
                             }
                         }
-                    }
-                    else
-                    {
-                        // Update the existing mappings
-                        MappingResults results = dao.updateDistinctMappings(bis[i].getMapTableName(), item.getID(), distIDSet);
-                        if (results.getRemovedDistinctIds() != null && results.getRemovedDistinctIds().size() > 0)
+                        else // put it in the browse index as if it hasn't have an authority key
                         {
-                            pruneDistinctIndex(bis[i], results.getRemovedDistinctIds());
+                            // get the normalised version of the value
+                            String nVal = OrderFormat.makeSortString(value.value, value.language, bi.getDataType());
+                            distinctValues.add(new String[] { value.value, null, nVal });
                         }
                     }
                 }
             }
         }
-        catch (SQLException e)
+
+        return distinctValues;
+    }
+
+    /**
+     * Get the id of a distinct record, looking it up only once per batch.
+     */
+    private int getDistinctID(BrowseIndex bi, String value, String authority, String sortValue,
+            Map<String, Integer> known) throws BrowseException
+    {
+        String key = authority == null ? value : value + '\u0000' + authority;
+        Integer distinctID = known.get(key);
+        if (distinctID == null)
         {
-            log.error("caught exception: ", e);
-            throw new BrowseException(e);
+            distinctID = Integer.valueOf(dao.getDistinctID(bi.getDistinctTableName(), value, authority, sortValue));
+            known.put(key, distinctID);
         }
+        return distinctID.intValue();
     }
 
     /**
@@ -530,7 +587,7 @@ public class IndexBrowse
      * @throws BrowseException
      * @throws SQLException
      */
-    private Map<Integer, String> getSortValues(ItemMetadataProxy item, Map itemMDMap)
+    static Map<Integer, String> getSortValues(ItemMetadataProxy item, Map itemMDMap)
             throws BrowseException, SQLException
     {
         try
@@ -657,6 +714,7 @@ public class IndexBrowse
             // these options can be specified only with the -f option
             options.addOption("r", "rebuild", false, "should we rebuild all the indices, which removes old index tables and creates new ones.  For use with -f. Mutually exclusive with -d");
             options.addOption("d", "delete", false, "delete all the indices, but don't create new ones.  For use with -f. This is mutually exclusive with -r");
+            options.addOption("b", "online", false, "rebuild all the indices into new tables in parallel while browsing stays online, then swap them in.  Resumes a rebuild that was interrupted.  For use with -f -r, PostgreSQL only");
 
             // these options can be specified only with the -t and -f options
             options.addOption("o", "out", true, "[-o <filename>] write the remove and create SQL to the given file. For use with -t and -f");  // FIXME: not currently working
@@ -692,7 +750,13 @@ public class IndexBrowse
 
             if (line.hasOption("f"))
             {
-                if (line.hasOption('r'))
+                if (line.hasOption('r') && line.hasOption('b'))
+                {
+                    indexer.rebuildOnline();
+                    context.complete();
+                    return;
+                }
+                else if (line.hasOption('r'))
                 {
                     indexer.setRebuild(true);
                 }
@@ -1049,6 +1113,29 @@ public class IndexBrowse
 		}
     }
     
+    /**
+     * Rebuild all the indexes into new tables, in parallel, while the
+     * current ones stay online, and swap them in once done. Carries on with
+     * a rebuild that was interrupted. PostgreSQL only, as the swap relies on
+     * transactional DDL.
+     *
+     * @throws BrowseException
+     */
+    public void rebuildOnline()
+        throws BrowseException
+    {
+        if (dao instanceof SolrBrowseCreateDAO)
+        {
+            throw new BrowseException("The browse indexes are kept in Solr, use the Discovery indexer to rebuild them");
+        }
+        if (dao instanceof BrowseCreateDAOOracle)
+        {
+            // DDL commits as it runs, so an interrupted swap could not be resumed
+            throw new BrowseException("Rebuilding online needs transactional DDL, which Oracle lacks: use -f -r instead");
+        }
+        new BrowseRebuild(this, context, dao, bis, output).rebuild();
+    }
+
 	/**
 	 * index everything
 	 * 
@@ -1139,12 +1226,16 @@ public class IndexBrowse
     		// go through every item id, grab the relevant metadata
     		// and write it into the database
     		
-    		for (int j = 0; j < items.length; j++)
+    		for (int j = 0; j < items.length; j += INDEX_BATCH_SIZE)
     		{
-                // Creating the indexes from scracth, so treat each item as if it's new
-                indexItem(new ItemMetadataProxy(items[j].getID(), items[j]), true);
+                List<ItemMetadataProxy> batch = new ArrayList<ItemMetadataProxy>(INDEX_BATCH_SIZE);
+                for (int k = j; k < items.length && k < j + INDEX_BATCH_SIZE; k++)
+                {
+                    batch.add(new ItemMetadataProxy(items[k].getID(), items[k]));
+                }
+                indexBatch(batch);
     			
-    			// after each item we commit the context and clear the cache
+    			// after each batch we commit the context and clear the cache
     			context.commit();
     			context.clearCache();
     		}
@@ -1205,7 +1296,7 @@ public class IndexBrowse
 	// private inner class
 	//	 Hides the Item / BrowseItem in such a way that we can remove
 	//	 the duplication in indexing an item.
-	private static class ItemMetadataProxy
+	static class ItemMetadataProxy
 	{
 	    private Item item;
 	    private BrowseItem browseItem;
@@ -1260,6 +1351,20 @@ public class IndexBrowse
 	    	return browseItem.isArchived();
 	    }
 	    
+        /**
+         * Is the Item discoverable? Only asked of withdrawn items.
+         * @return
+         */
+        public boolean isDiscoverable(Context context) throws SQLException
+        {
+            if (item != null)
+            {
+                return item.isDiscoverable();
+            }
+
+            return Item.find(context, id).isDiscoverable();
+        }
+
         /**
          * Is the Item withdrawn?
          * @return
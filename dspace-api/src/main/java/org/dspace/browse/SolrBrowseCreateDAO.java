@@ -8,6 +8,7 @@
 package org.dspace.browse;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -368,6 +369,31 @@ public class SolrBrowseCreateDAO implements BrowseCreateDAO,
     {
     }
 
+    @Override
+    public void deleteByItemIDs(String table, Collection<Integer> itemIDs)
+            throws BrowseException
+    {
+    }
+
+    @Override
+    public void deleteCommunityMappings(Collection<Integer> itemIDs)
+            throws BrowseException
+    {
+    }
+
+    @Override
+    public void updateCommunityMappings(Collection<Integer> itemIDs)
+            throws BrowseException
+    {
+    }
+
+    @Override
+    public void updateIndex(String table,
+            Map<Integer, Map<Integer, String>> sortValues)
+            throws BrowseException
+    {
+    }
+
     @Override
     public void insertIndex(String table, int itemID, Map sortCols)
             throws BrowseException
@@ -473,6 +499,55 @@ public class SolrBrowseCreateDAO implements BrowseCreateDAO,
         return INFO_NOSQL_TO_RUN;
     }
 
+    @Override
+    public String createShadowPrimaryTable(String table, List<Integer> sortCols,
+            boolean execute) throws BrowseException
+    {
+        return INFO_NOSQL_TO_RUN;
+    }
+
+    @Override
+    public String createShadowDistinctMap(String table, String map,
+            boolean execute) throws BrowseException
+    {
+        return INFO_NOSQL_TO_RUN;
+    }
+
+    @Override
+    public String[] createReferences(String table, String distinctTable,
+            boolean execute) throws BrowseException
+    {
+        return new String[] { INFO_NOSQL_TO_RUN };
+    }
+
+    @Override
+    public String renameTable(String from, String to, boolean execute)
+            throws BrowseException
+    {
+        return INFO_NOSQL_TO_RUN;
+    }
+
+    @Override
+    public String renameSequence(String from, String to, boolean execute)
+            throws BrowseException
+    {
+        return INFO_NOSQL_TO_RUN;
+    }
+
+    @Override
+    public String[] renameDatabaseIndices(String from, String to,
+            List<Integer> sortCols, boolean execute) throws BrowseException
+    {
+        return new String[] { INFO_NOSQL_TO_RUN };
+    }
+
+    @Override
+    public String[] renameMapIndices(String fromDis, String fromMap,
+            String toDis, String toMap, boolean execute) throws BrowseException
+    {
+        return new String[] { INFO_NOSQL_TO_RUN };
+    }
+
     public MappingResults updateDistinctMappings(String table, int itemID,
             Set<Integer> distinctIDs) throws BrowseException
     {
@@ -499,6 +574,13 @@ public class SolrBrowseCreateDAO implements BrowseCreateDAO,
         };
     }
 
+    @Override
+    public List<Integer> updateDistinctMappings(String table,
+            Map<Integer, Set<Integer>> distinctIDs) throws BrowseException
+    {
+        return new ArrayList<Integer>();
+    }
+
     @Override
     public boolean testTableExistence(String table) throws BrowseException
     {
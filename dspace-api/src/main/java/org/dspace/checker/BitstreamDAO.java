@@ -9,6 +9,7 @@ package org.dspace.checker;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
 
 import org.dspace.core.Context;
@@ -66,4 +67,41 @@ public class BitstreamDAO
 
         return is;
     }
+
+    /**
+     * Opens a channel on the bitstream, if it is in a local asset store.
+     * 
+     * @param id
+     *            the bitstream id.
+     * 
+     * @return a channel the caller must close, or null if the bitstream is
+     *         not in a local asset store
+     * 
+     * @throws IOException
+     *             Rethrown from BitstreamStorageManager
+     * @throws SQLException
+     *             Rethrown from BitstreamStorageManager
+     * 
+     * @see org.dspace.storage.bitstore.BitstreamStorageManager#retrieveChannel(Context,
+     *      int)
+     */
+    public FileChannel getBitstreamChannel(int id) throws IOException, SQLException
+    {
+        Context context = null;
+        FileChannel channel = null;
+        try
+        {
+            context = new Context();
+            channel = BitstreamStorageManager.retrieveChannel(context, id);
+        }
+        finally
+        {
+            if (context != null)
+            {
+                context.abort();
+            }
+        }
+
+        return channel;
+    }
 }
@@ -137,6 +137,19 @@ public final class BitstreamInfoDAO extends DAOSupport
         + "order by trunc(last_process_end_date, 'mi'), "
         + "bitstream_id " + "ASC) WHERE rownum=1";
     
+    /**
+     * Selects the next bitstreams in order of last processing end date, after
+     * a given one. The end date is truncated as in the queries above, and
+     * selected so that the last one can be passed back as it was read.
+     */
+    private static final String GET_OLDEST_BITSTREAMS = "select bitstream_id, "
+            + "date_trunc('milliseconds', last_process_end_date) as end_date "
+            + "from most_recent_checksum where to_be_processed = true ";
+
+    private static final String GET_OLDEST_BITSTREAMS_ORACLE = "select bitstream_id, "
+            + "trunc(last_process_end_date, 'mi') as end_date "
+            + "from most_recent_checksum where to_be_processed = 1 ";
+
     /** SQL query to retrieve bitstreams for a given item. */
     private static final String ITEM_BITSTREAMS = "SELECT b2b.bitstream_id "
             + "FROM bundle2bitstream b2b, item2bundle i2b WHERE "
@@ -191,18 +204,7 @@ public final class BitstreamInfoDAO extends DAOSupport
         {
             conn = DatabaseManager.getConnection();
             stmt = conn.prepareStatement(UPDATE_CHECKSUM);
-            stmt.setString(1, (info.getCalculatedChecksum() != null) ? info
-                    .getCalculatedChecksum() : "");
-            stmt.setString(2, info.getStoredChecksum());
-            stmt.setBoolean(3, ChecksumCheckResults.CHECKSUM_MATCH.equals(info
-                    .getChecksumCheckResult()));
-            stmt.setBoolean(4, info.getToBeProcessed());
-            stmt.setTimestamp(5, new Timestamp(info.getProcessStartDate()
-                    .getTime()));
-            stmt.setTimestamp(6, new Timestamp(info.getProcessEndDate()
-                    .getTime()));
-            stmt.setString(7, info.getChecksumCheckResult());
-            stmt.setInt(8, info.getBitstreamId());
+            setUpdateParameters(stmt, info);
             stmt.executeUpdate();
             conn.commit();
         }
@@ -217,6 +219,62 @@ public final class BitstreamInfoDAO extends DAOSupport
         }
     }
 
+    /**
+     * Updates most_recent_checksum with the results of several checks, in
+     * one batch and one transaction.
+     * 
+     * @param infos
+     *            The BitstreamInfos to update.
+     */
+    public void update(List<BitstreamInfo> infos)
+    {
+        if (infos.isEmpty())
+        {
+            return;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            stmt = conn.prepareStatement(UPDATE_CHECKSUM);
+            for (BitstreamInfo info : infos)
+            {
+                setUpdateParameters(stmt, info);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem updating checksum rows. " + e.getMessage(), e);
+            throw new IllegalStateException("Problem updating checksum rows. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(stmt, conn);
+        }
+    }
+
+    private void setUpdateParameters(PreparedStatement stmt, BitstreamInfo info) throws SQLException
+    {
+        stmt.setString(1, (info.getCalculatedChecksum() != null) ? info
+                .getCalculatedChecksum() : "");
+        stmt.setString(2, info.getStoredChecksum());
+        stmt.setBoolean(3, ChecksumCheckResults.CHECKSUM_MATCH.equals(info
+                .getChecksumCheckResult()));
+        stmt.setBoolean(4, info.getToBeProcessed());
+        stmt.setTimestamp(5, new Timestamp(info.getProcessStartDate()
+                .getTime()));
+        stmt.setTimestamp(6, new Timestamp(info.getProcessEndDate()
+                .getTime()));
+        stmt.setString(7, info.getChecksumCheckResult());
+        stmt.setInt(8, info.getBitstreamId());
+    }
+
     /**
      * Find a bitstream by its id.
      * 
@@ -478,6 +536,84 @@ public final class BitstreamInfoDAO extends DAOSupport
         }
     }
 
+    /**
+     * Get the oldest bitstreams in the most recent checksum table, in the
+     * order of {@link #getOldestBitstream()}, starting after a given one so
+     * that bitstreams handed out but not yet updated are not returned again.
+     * 
+     * @param lessThanDate
+     *            only bitstreams last checked before this date, or null for
+     *            any
+     * @param after
+     *            the last bitstream of the previous batch, or null to start
+     *            from the oldest
+     * @param limit
+     *            the most bitstreams to return
+     * @return the bitstreams, with their id and (truncated) last processing
+     *         end date set; an empty list if there are no more
+     */
+    public List<BitstreamInfo> getOldestBitstreams(Timestamp lessThanDate, BitstreamInfo after, int limit)
+    {
+        boolean oracle = "oracle".equals(ConfigurationManager.getProperty("db.name"));
+        String key = oracle ? "trunc(last_process_end_date, 'mi')"
+                : "date_trunc('milliseconds', last_process_end_date)";
+
+        StringBuilder query = new StringBuilder(oracle ? GET_OLDEST_BITSTREAMS_ORACLE : GET_OLDEST_BITSTREAMS);
+        if (lessThanDate != null)
+        {
+            query.append("and last_process_start_date < ? ");
+        }
+        if (after != null)
+        {
+            query.append("and (").append(key).append(" > ? or (").append(key)
+                    .append(" = ? and bitstream_id > ?)) ");
+        }
+        query.append("order by end_date, bitstream_id ASC");
+        String sql = oracle ? "SELECT * FROM (" + query + ") WHERE rownum <= ?" : query + " LIMIT ?";
+
+        Connection conn = null;
+        PreparedStatement prepStmt = null;
+        ResultSet rs = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            prepStmt = conn.prepareStatement(sql);
+            int parameter = 1;
+            if (lessThanDate != null)
+            {
+                prepStmt.setTimestamp(parameter++, lessThanDate);
+            }
+            if (after != null)
+            {
+                Timestamp afterDate = new Timestamp(after.getProcessEndDate().getTime());
+                prepStmt.setTimestamp(parameter++, afterDate);
+                prepStmt.setTimestamp(parameter++, afterDate);
+                prepStmt.setInt(parameter++, after.getBitstreamId());
+            }
+            prepStmt.setInt(parameter, limit);
+
+            List<BitstreamInfo> bitstreams = new ArrayList<BitstreamInfo>(limit);
+            rs = prepStmt.executeQuery();
+            while (rs.next())
+            {
+                BitstreamInfo info = new BitstreamInfo(rs.getInt(1));
+                info.setProcessEndDate(rs.getTimestamp(2));
+                bitstreams.add(info);
+            }
+            return bitstreams;
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem with get oldest bitstreams " + e.getMessage(), e);
+            throw new IllegalStateException("Oldest bitstreams error. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(prepStmt, conn, rs);
+        }
+    }
+
     /**
      * Get the bitstream ids for a given Item
      * 
@@ -9,13 +9,24 @@ package org.dspace.checker;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestInputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Utils;
 
 /**
@@ -25,6 +36,12 @@ import org.dspace.core.Utils;
  * against the last calculated checksum for that bitstream.
  * </p>
  * 
+ * <p>
+ * With more than one thread, bitstreams are checked in parallel and their
+ * results written to the database in batches. The total rate at which
+ * bitstreams are read can be limited.
+ * </p>
+ * 
  * @author Jim Downing
  * @author Grace Carpenter
  * @author Nathan Sarr
@@ -41,8 +58,8 @@ public final class CheckerCommand
     /** Default digest algorithm (MD5). */
     private static final String DEFAULT_DIGEST_ALGORITHM = "MD5";
 
-    /** 4 Meg byte array for reading file. */
-    private int BYTE_ARRAY_SIZE = 4 * 1024;
+    /** 1 Meg byte array for reading file. */
+    private int BYTE_ARRAY_SIZE = 1024 * 1024;
 
     /** BitstreamInfoDAO dependency. */
     private BitstreamInfoDAO bitstreamInfoDAO = null;
@@ -71,6 +88,15 @@ public final class CheckerCommand
     /** Report all processing */
     private boolean reportVerbose = false;
 
+    /** Number of bitstreams checked at once */
+    private int threads = 1;
+
+    /** Limit on the rate bitstreams are read at, or null if there is none */
+    private ThroughputLimiter limiter = null;
+
+    /** Number of results written to the database at once */
+    private int batchSize = 100;
+
     /**
      * Default constructor uses DSpace plugin manager to construct dependencies.
      */
@@ -79,6 +105,9 @@ public final class CheckerCommand
         bitstreamInfoDAO = new BitstreamInfoDAO();
         bitstreamDAO = new BitstreamDAO();
         checksumHistoryDAO = new ChecksumHistoryDAO();
+        threads = ConfigurationManager.getIntProperty("checker.threads", 1);
+        batchSize = Math.max(1, ConfigurationManager.getIntProperty("checker.batch-size", 100));
+        setMaxReadRate(ConfigurationManager.getIntProperty("checker.max-read-rate", 0));
     }
 
     /**
@@ -111,32 +140,163 @@ public final class CheckerCommand
         // bitstream table - this always done.
         bitstreamInfoDAO.updateMissingBitstreams();
 
+        if (threads > 1)
+        {
+            processConcurrently();
+            return;
+        }
+
+        byte[] buffer = new byte[BYTE_ARRAY_SIZE];
         int id = dispatcher.next();
 
         while (id != BitstreamDispatcher.SENTINEL)
         {
             LOG.debug("Processing bitstream id = " + id);
-            BitstreamInfo info = checkBitstream(id);
+            BitstreamInfo info = checkBitstream(id, buffer);
 
-            if (reportVerbose
-                    || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+            // record new checksum and comparison result in db
+            if (isRecorded(info))
             {
-                collector.collect(info);
+                bitstreamInfoDAO.update(info);
+                checksumHistoryDAO.insertHistory(info);
             }
 
+            collect(info);
+
             id = dispatcher.next();
         }
     }
 
     /**
-     * Check a specified bitstream.
+     * Check bitstreams on several threads, writing their results in batches
+     * from this one.
+     */
+    private void processConcurrently()
+    {
+        final BlockingQueue<BitstreamInfo> results = new LinkedBlockingQueue<BitstreamInfo>(batchSize * 2);
+        final List<RuntimeException> failures = Collections.synchronizedList(new ArrayList<RuntimeException>());
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++)
+        {
+            workers.execute(new Runnable()
+            {
+                public void run()
+                {
+                    byte[] buffer = new byte[BYTE_ARRAY_SIZE];
+                    try
+                    {
+                        int id;
+                        while (failures.isEmpty() && (id = dispatcher.next()) != BitstreamDispatcher.SENTINEL)
+                        {
+                            LOG.debug("Processing bitstream id = " + id);
+                            results.put(checkBitstream(id, buffer));
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // most likely the database; stop all the workers
+                        LOG.error("Checker thread failed: " + e.getMessage(), e);
+                        failures.add(e);
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+
+        List<BitstreamInfo> batch = new ArrayList<BitstreamInfo>(batchSize);
+        try
+        {
+            while (!workers.isTerminated() || !results.isEmpty())
+            {
+                BitstreamInfo info = results.poll(1, TimeUnit.SECONDS);
+                if (info != null)
+                {
+                    batch.add(info);
+                }
+                if (batch.size() >= batchSize || (info == null && !batch.isEmpty()))
+                {
+                    record(batch);
+                }
+            }
+            record(batch);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+            record(batch);
+        }
+        catch (RuntimeException e)
+        {
+            workers.shutdownNow();
+            throw e;
+        }
+
+        if (!failures.isEmpty())
+        {
+            throw failures.get(0);
+        }
+    }
+
+    /**
+     * Write a batch of results to the database and report them, then empty
+     * it.
+     */
+    private void record(List<BitstreamInfo> batch)
+    {
+        List<BitstreamInfo> recorded = new ArrayList<BitstreamInfo>(batch.size());
+        for (BitstreamInfo info : batch)
+        {
+            if (isRecorded(info))
+            {
+                recorded.add(info);
+            }
+        }
+        bitstreamInfoDAO.update(recorded);
+        checksumHistoryDAO.insertHistory(recorded);
+
+        for (BitstreamInfo info : batch)
+        {
+            collect(info);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Whether the result of a check is written to the database: bitstreams
+     * not found, or not to be processed, are only reported.
+     */
+    private boolean isRecorded(BitstreamInfo info)
+    {
+        return info.getInfoFound()
+                && !ChecksumCheckResults.BITSTREAM_NOT_PROCESSED.equals(info.getChecksumCheckResult());
+    }
+
+    private void collect(BitstreamInfo info)
+    {
+        if (reportVerbose
+                || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+        {
+            collector.collect(info);
+        }
+    }
+
+    /**
+     * Check a specified bitstream. The result is not written to the database.
      * 
      * @param id
      *            the bitstream id
+     * @param buffer
+     *            the buffer to read the bitstream with
      * 
      * @return the information about the bitstream and its checksum data
      */
-    private BitstreamInfo checkBitstream(final int id)
+    private BitstreamInfo checkBitstream(final int id, byte[] buffer)
     {
         // get bitstream info from bitstream table
         BitstreamInfo info = bitstreamInfoDAO.findByBitstreamId(id);
@@ -167,44 +327,94 @@ public final class CheckerCommand
         }
         else
         {
-            processBitstream(info);
+            processBitstream(info, buffer);
         }
 
         return info;
     }
 
     /**
-     * Digest the stream and get the checksum value.
+     * Digest a bitstream and get the checksum value. Bitstreams in a local
+     * asset store are read straight from their file.
      * 
-     * @param stream
-     *            InputStream to digest.
+     * @param id
+     *            the bitstream id
      * @param algorithm
-     *            the algorithm to use when digesting.
-     * @todo Document the algorithm parameter
+     *            the algorithm to use when digesting, e.g. MD5 or SHA-256
+     * @param buffer
+     *            the buffer to read the bitstream with
      * @return digest
      * 
      * @throws java.security.NoSuchAlgorithmException
      *             if the requested algorithm is not provided by the system
      *             security provider.
      * @throws java.io.IOException
-     *             If an exception arises whilst reading the stream
+     *             If an exception arises whilst reading the bitstream
+     * @throws java.sql.SQLException
+     *             If the bitstream cannot be looked up
      */
-    private String digestStream(InputStream stream, String algorithm)
-            throws java.security.NoSuchAlgorithmException, java.io.IOException
+    private String digestBitstream(int id, String algorithm, byte[] buffer)
+            throws NoSuchAlgorithmException, IOException, SQLException
     {
-        // create the digest stream
-        DigestInputStream dStream = new DigestInputStream(stream, MessageDigest
-                .getInstance(algorithm));
+        MessageDigest digest = MessageDigest.getInstance(algorithm);
 
-        byte[] bytes = new byte[BYTE_ARRAY_SIZE];
+        FileChannel channel = bitstreamDAO.getBitstreamChannel(id);
+        if (channel != null)
+        {
+            try
+            {
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                int bytesRead;
+                while ((bytesRead = channel.read(wrapped)) != -1)
+                {
+                    digest.update(buffer, 0, bytesRead);
+                    wrapped.clear();
+                    throttle(bytesRead);
+                }
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+        else
+        {
+            InputStream stream = bitstreamDAO.getBitstream(id);
+            try
+            {
+                int bytesRead;
+                while ((bytesRead = stream.read(buffer, 0, buffer.length)) != -1)
+                {
+                    digest.update(buffer, 0, bytesRead);
+                    throttle(bytesRead);
+                }
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
 
-        // make sure all the data is read by the digester
-        int bytesRead = -1;
-        do {
-            bytesRead = dStream.read(bytes, 0, BYTE_ARRAY_SIZE);
-        } while (bytesRead != -1);
+        return Utils.toHex(digest.digest());
+    }
 
-        return Utils.toHex(dStream.getMessageDigest().digest());
+    /**
+     * Wait as long as the rate limit requires after reading some bytes.
+     */
+    private void throttle(int bytesRead) throws InterruptedIOException
+    {
+        if (limiter != null)
+        {
+            try
+            {
+                limiter.acquire(bytesRead);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while checking");
+            }
+        }
     }
 
     /**
@@ -250,8 +460,6 @@ public final class CheckerCommand
         info.setProcessStartDate(new Date());
         info.setProcessEndDate(new Date());
         info.setToBeProcessed(false);
-        bitstreamInfoDAO.update(info);
-        checksumHistoryDAO.insertHistory(info);
     }
 
     /**
@@ -287,8 +495,10 @@ public final class CheckerCommand
      * 
      * @param info
      *            BitstreamInfo to handle
+     * @param buffer
+     *            the buffer to read the bitstream with
      */
-    private void processBitstream(BitstreamInfo info)
+    private void processBitstream(BitstreamInfo info, byte[] buffer)
     {
         info.setProcessStartDate(new Date());
 
@@ -299,14 +509,11 @@ public final class CheckerCommand
 
         try
         {
-            InputStream bitstream = bitstreamDAO.getBitstream(info
-                    .getBitstreamId());
+            String checksum = digestBitstream(info.getBitstreamId(), info
+                    .getChecksumAlgorithm(), buffer);
 
             info.setBitstreamFound(true);
 
-            String checksum = digestStream(bitstream, info
-                    .getChecksumAlgorithm());
-
             info.setCalculatedChecksum(checksum);
 
             // compare new checksum to previous checksum
@@ -343,13 +550,32 @@ public final class CheckerCommand
         finally
         {
             info.setProcessEndDate(new Date());
-
-            // record new checksum and comparison result in db
-            bitstreamInfoDAO.update(info);
-            checksumHistoryDAO.insertHistory(info);
         }
     }
 
+    /**
+     * Set the number of bitstreams checked at once.
+     * 
+     * @param threads
+     *            the number of threads, 1 to check one bitstream at a time
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * Limit the rate bitstreams are read at, so that checking does not starve
+     * the repository of disk bandwidth.
+     * 
+     * @param megabytesPerSecond
+     *            the total rate of all threads in MB/s, or 0 for no limit
+     */
+    public void setMaxReadRate(int megabytesPerSecond)
+    {
+        limiter = (megabytesPerSecond > 0) ? new ThroughputLimiter(megabytesPerSecond * 1024L * 1024L) : null;
+    }
+
     /**
      * Get dispatcher being used by this run of the checker.
      * 
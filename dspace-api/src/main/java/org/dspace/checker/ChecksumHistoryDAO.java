@@ -12,6 +12,7 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -119,12 +120,7 @@ public class ChecksumHistoryDAO extends DAOSupport
             {
                 stmt = conn.prepareStatement(INSERT_HISTORY);
             }
-            stmt.setInt(1, info.getBitstreamId());
-            stmt.setTimestamp(2, new java.sql.Timestamp(info.getProcessStartDate().getTime()));
-            stmt.setTimestamp(3, new java.sql.Timestamp(info.getProcessEndDate().getTime()));
-            stmt.setString(4, info.getStoredChecksum());
-            stmt.setString(5, info.getCalculatedChecksum());
-            stmt.setString(6, info.getChecksumCheckResult());
+            setHistoryParameters(stmt, info);
             stmt.executeUpdate();
             conn.commit();
         }
@@ -139,6 +135,63 @@ public class ChecksumHistoryDAO extends DAOSupport
         }
     }
 
+    /**
+     * Inserts the results of several checks into the checksum_history table,
+     * in one batch and one transaction.
+     * 
+     * @param infos
+     *            the BitstreamInfos representing the checks.
+     */
+    public void insertHistory(List<BitstreamInfo> infos)
+    {
+        if (infos.isEmpty())
+        {
+            return;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            if ("oracle".equals(ConfigurationManager.getProperty("db.name")))
+            {
+                stmt = conn.prepareStatement(INSERT_HISTORY_ORACLE);
+            }
+            else
+            {
+                stmt = conn.prepareStatement(INSERT_HISTORY);
+            }
+            for (BitstreamInfo info : infos)
+            {
+                setHistoryParameters(stmt, info);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem inserting checksum history. " + e.getMessage(), e);
+            throw new IllegalStateException("Problem inserting checksum history. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(stmt, conn);
+        }
+    }
+
+    private void setHistoryParameters(PreparedStatement stmt, BitstreamInfo info) throws SQLException
+    {
+        stmt.setInt(1, info.getBitstreamId());
+        stmt.setTimestamp(2, new java.sql.Timestamp(info.getProcessStartDate().getTime()));
+        stmt.setTimestamp(3, new java.sql.Timestamp(info.getProcessEndDate().getTime()));
+        stmt.setString(4, info.getStoredChecksum());
+        stmt.setString(5, info.getCalculatedChecksum());
+        stmt.setString(6, info.getChecksumCheckResult());
+    }
+
     /**
      * Deletes the bitstream from the bitstream_history table if it exist.
      * 
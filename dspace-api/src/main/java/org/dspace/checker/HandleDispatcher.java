@@ -134,7 +134,7 @@ public class HandleDispatcher implements BitstreamDispatcher
      * 
      * @see org.dspace.checker.BitstreamDispatcher#next()
      */
-    public int next()
+    public synchronized int next()
     {
         if (!init)
         {
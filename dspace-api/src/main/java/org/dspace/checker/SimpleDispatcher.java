@@ -7,12 +7,22 @@
  */
 package org.dspace.checker;
 
+import java.sql.Timestamp;
 import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.dspace.core.ConfigurationManager;
 
 /**
  * An implementation of the selection strategy that selects bitstreams in the
  * order that they were last checked, looping endlessly.
  * 
+ * Bitstreams are read from the database in batches, each starting after the
+ * last one of the batch before, so that several checker threads can take
+ * them without a query each and without being given bitstreams that are
+ * still being checked.
+ * 
  * @author Jim Downing
  * @author Grace Carpenter
  * @author Nathan Sarr
@@ -36,6 +46,21 @@ public class SimpleDispatcher implements BitstreamDispatcher
      */
     private BitstreamInfoDAO bitstreamInfoDAO;
 
+    /**
+     * Number of bitstreams read from the database at once
+     */
+    private int batchSize = 1;
+
+    /**
+     * Bitstreams read but not yet handed out
+     */
+    private LinkedList<BitstreamInfo> batch = new LinkedList<BitstreamInfo>();
+
+    /**
+     * Last bitstream read, where the next batch starts
+     */
+    private BitstreamInfo last = null;
+
     /**
      * Creates a new SimpleDispatcher.
      * 
@@ -46,10 +71,28 @@ public class SimpleDispatcher implements BitstreamDispatcher
      *            most_recent_checksum table
      */
     public SimpleDispatcher(BitstreamInfoDAO bitstreamInfoDAO, Date startTime, boolean looping)
+    {
+        this(bitstreamInfoDAO, startTime, looping,
+                ConfigurationManager.getIntProperty("checker.batch-size", 100));
+    }
+
+    /**
+     * Creates a new SimpleDispatcher.
+     * 
+     * @param startTime
+     *            timestamp for beginning of checker process
+     * @param looping
+     *            indicates whether checker should loop infinitely through
+     *            most_recent_checksum table
+     * @param batchSize
+     *            number of bitstreams to read from the database at once
+     */
+    public SimpleDispatcher(BitstreamInfoDAO bitstreamInfoDAO, Date startTime, boolean looping, int batchSize)
     {
         this.bitstreamInfoDAO = bitstreamInfoDAO;
         this.processStartTime = (startTime == null ? null : new Date(startTime.getTime()));
         this.loopContinuously = looping;
+        this.batchSize = Math.max(1, batchSize);
     }
 
     /**
@@ -66,17 +109,29 @@ public class SimpleDispatcher implements BitstreamDispatcher
      */
     public synchronized int next()
     {
-        // should process loop infinitely through the
-        // bitstreams in most_recent_checksum table?
-        if (!loopContinuously && (processStartTime != null))
-        {
-            return bitstreamInfoDAO.getOldestBitstream(new java.sql.Timestamp(
-                    processStartTime.getTime()));
-        }
-        else
+        if (batch.isEmpty())
         {
-            return bitstreamInfoDAO.getOldestBitstream();
+            // should process loop infinitely through the
+            // bitstreams in most_recent_checksum table?
+            boolean looping = loopContinuously || (processStartTime == null);
+            Timestamp before = looping ? null : new Timestamp(processStartTime.getTime());
+
+            List<BitstreamInfo> bitstreams = bitstreamInfoDAO.getOldestBitstreams(before, last, batchSize);
+            if (bitstreams.isEmpty() && looping && last != null)
+            {
+                // start again from the one checked longest ago
+                last = null;
+                bitstreams = bitstreamInfoDAO.getOldestBitstreams(before, null, batchSize);
+            }
+            if (bitstreams.isEmpty())
+            {
+                return SENTINEL;
+            }
+
+            last = bitstreams.get(bitstreams.size() - 1);
+            batch.addAll(bitstreams);
         }
 
+        return batch.removeFirst().getBitstreamId();
     }
 }
@@ -0,0 +1,66 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.checker;
+
+/**
+ * <p>
+ * Limits the rate at which the checker threads together read from the asset
+ * store, so that checking does not starve the repository of disk bandwidth.
+ * </p>
+ *
+ * <p>
+ * Each read reserves the time its bytes take at the permitted rate, after the
+ * reservations made before it, and waits until that time has come. Idle time
+ * is not saved up, so the rate is never exceeded by more than one read.
+ * </p>
+ */
+public class ThroughputLimiter
+{
+    /** Nanoseconds one byte takes at the permitted rate */
+    private final double nanosPerByte;
+
+    /** When the next read may start, by System.nanoTime() */
+    private long next = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond
+     *            the permitted rate, shared by all threads
+     */
+    public ThroughputLimiter(long bytesPerSecond)
+    {
+        if (bytesPerSecond <= 0)
+        {
+            throw new IllegalArgumentException("The rate must be positive");
+        }
+        nanosPerByte = 1e9 / bytesPerSecond;
+    }
+
+    /**
+     * Wait until a number of bytes may be read.
+     *
+     * @param bytes
+     *            the number of bytes about to be read
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedException
+    {
+        long wait;
+        synchronized (this)
+        {
+            long now = System.nanoTime();
+            long start = Math.max(now, next);
+            next = start + (long) (bytes * nanosPerByte);
+            wait = start - now;
+        }
+        if (wait > 0)
+        {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+    }
+}
@@ -7,6 +7,7 @@
  */
 package org.dspace.content;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.SQLException;
@@ -604,6 +605,25 @@ public class Bitstream extends DSpaceObject
                 .getIntColumn("bitstream_id"));
     }
 
+    /**
+     * Get the file holding the contents of the bitstream, if it is stored on
+     * local disk. Use this to hand the file to the operating system or the
+     * servlet container rather than reading it through {@link #retrieve}.
+     * 
+     * @return the file, or null if the bitstream is not in a local assetstore
+     * @throws IOException
+     * @throws SQLException
+     * @throws AuthorizeException
+     */
+    public File retrieveFile() throws IOException, SQLException,
+            AuthorizeException
+    {
+        AuthorizeManager.authorizeAction(bContext, this, Constants.READ);
+
+        return BitstreamStorageManager.retrieveFile(bContext, bRow
+                .getIntColumn("bitstream_id"));
+    }
+
     /**
      * Get the bundles this bitstream appears in
      * 
@@ -665,6 +685,11 @@ public class Bitstream extends DSpaceObject
     {
         return Constants.BITSTREAM;
     }
+
+    public boolean isModified()
+    {
+        return modified || modifiedMetadata;
+    }
     
     /**
      * Determine if this bitstream is registered
@@ -9,13 +9,17 @@ package org.dspace.content;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.ReferenceDataCache;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 import org.dspace.storage.rdbms.TableRowIterator;
@@ -59,6 +63,9 @@ public class BitstreamFormat
     private static final String supportLevelText[] =
         { "UNKNOWN", "KNOWN", "SUPPORTED" };
 
+    /** Region of the shared reference data cache holding the registry */
+    private static final String CACHE_REGION = "bitstreamformatregistry";
+
     /** Our context */
     private Context bfContext;
 
@@ -79,30 +86,26 @@ public class BitstreamFormat
      * @throws SQLException
      */
     BitstreamFormat(Context context, TableRow row) throws SQLException
+    {
+        this(context, row, getRegistry(context).getExtensions(row.getIntColumn("bitstream_format_id")));
+    }
+
+    /**
+     * Class constructor for creating a BitstreamFormat object from a row and
+     * extensions that have already been read.
+     *
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param extensions
+     *            the file extensions of the format
+     */
+    private BitstreamFormat(Context context, TableRow row, List<String> extensions)
     {
         bfContext = context;
         bfRow = row;
-        extensions = new ArrayList<String>();
-
-        TableRowIterator tri = DatabaseManager.query(context,
-                "SELECT * FROM fileextension WHERE bitstream_format_id= ? ",
-                 getID());
-
-        try
-        {
-            while (tri.hasNext())
-            {
-                extensions.add(tri.next().getStringColumn("extension"));
-            }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
-        }
+        this.extensions = new ArrayList<String>(extensions);
 
         // Cache ourselves
         context.cache(this, row.getIntColumn("bitstream_format_id"));
@@ -131,8 +134,8 @@ public class BitstreamFormat
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "bitstreamformatregistry",
-                id);
+        Registry registry = getRegistry(context);
+        TableRow row = registry.byID.get(Integer.valueOf(id));
 
         if (row == null)
         {
@@ -153,7 +156,7 @@ public class BitstreamFormat
                     "bitstream_format_id=" + id));
         }
 
-        return new BitstreamFormat(context, row);
+        return registry.newFormat(context, row);
     }
 
     /**
@@ -175,10 +178,19 @@ public class BitstreamFormat
     {
         // NOTE: Avoid internal formats since e.g. "License" also has
         // a MIMEtype of text/plain.
-        TableRow formatRow = DatabaseManager.querySingle(context,
-            "SELECT * FROM bitstreamformatregistry "+
-            "WHERE mimetype LIKE ? AND internal = '0' ",
-            mimeType);
+        TableRow formatRow = null;
+        if (mimeType != null && mimeType.indexOf('%') < 0 && mimeType.indexOf('_') < 0)
+        {
+            formatRow = getRegistry(context).byMIMEType.get(mimeType);
+        }
+        else
+        {
+            // Wildcards need the database's LIKE
+            formatRow = DatabaseManager.querySingle(context,
+                "SELECT * FROM bitstreamformatregistry "+
+                "WHERE mimetype LIKE ? AND internal = '0' ",
+                mimeType);
+        }
 
         if (formatRow == null)
         {
@@ -202,8 +214,7 @@ public class BitstreamFormat
     public static BitstreamFormat findByShortDescription(Context context,
             String desc) throws SQLException
     {
-        TableRow formatRow = DatabaseManager.findByUnique(context,
-                "bitstreamformatregistry", "short_description", desc);
+        TableRow formatRow = getRegistry(context).byShortDescription.get(desc);
 
         if (formatRow == null)
         {
@@ -237,7 +248,7 @@ public class BitstreamFormat
             return fromCache;
         }
 
-        return new BitstreamFormat(context, formatRow);
+        return getRegistry(context).newFormat(context, formatRow);
     }
 
     /**
@@ -280,36 +291,21 @@ public class BitstreamFormat
     {
         List<BitstreamFormat> formats = new ArrayList<BitstreamFormat>();
 
-        TableRowIterator tri = DatabaseManager.queryTable(context, "bitstreamformatregistry",
-                        "SELECT * FROM bitstreamformatregistry ORDER BY bitstream_format_id");
-
-        try
+        Registry registry = getRegistry(context);
+        for (TableRow row : registry.rows)
         {
-            while (tri.hasNext())
-            {
-                TableRow row = tri.next();
+            // From cache?
+            BitstreamFormat fromCache = (BitstreamFormat) context.fromCache(
+                    BitstreamFormat.class, row
+                            .getIntColumn("bitstream_format_id"));
 
-                // From cache?
-                BitstreamFormat fromCache = (BitstreamFormat) context.fromCache(
-                        BitstreamFormat.class, row
-                                .getIntColumn("bitstream_format_id"));
-
-                if (fromCache != null)
-                {
-                    formats.add(fromCache);
-                }
-                else
-                {
-                    formats.add(new BitstreamFormat(context, row));
-                }
+            if (fromCache != null)
+            {
+                formats.add(fromCache);
             }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
+            else
             {
-                tri.close();
+                formats.add(registry.newFormat(context, row));
             }
         }
 
@@ -407,6 +403,8 @@ public class BitstreamFormat
                 "bitstream_format_id="
                         + row.getIntColumn("bitstream_format_id")));
 
+        decache(context);
+
         return new BitstreamFormat(context, row);
     }
 
@@ -599,6 +597,7 @@ public class BitstreamFormat
         }
 
         DatabaseManager.update(bfContext, bfRow);
+        decache(bfContext);
     }
 
     /**
@@ -641,6 +640,7 @@ public class BitstreamFormat
 
         // Delete this format from database
         DatabaseManager.delete(bfContext, bfRow);
+        decache(bfContext);
 
         log.info(LogManager.getHeader(bfContext, "delete_bitstream_format",
                 "bitstream_format_id=" + getID() + ",bitstreams_changed="
@@ -698,4 +698,108 @@ public class BitstreamFormat
 
         return -1;
     }
+
+    // invalidate the cache e.g. after something modifies DB state.
+    private static void decache(Context context)
+    {
+        ReferenceDataCache.invalidate(context, CACHE_REGION);
+    }
+
+    // get the shared copy of the registry, loading it if necessary
+    private static Registry getRegistry(Context context) throws SQLException
+    {
+        return ReferenceDataCache.get(context, CACHE_REGION, new ReferenceDataCache.Loader<Registry>()
+        {
+            public Registry load(Context context) throws SQLException
+            {
+                log.info("Loading bitstream format registry into cache.");
+                Registry registry = new Registry();
+
+                TableRowIterator tri = DatabaseManager.queryTable(context, "bitstreamformatregistry",
+                        "SELECT * FROM bitstreamformatregistry ORDER BY bitstream_format_id");
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        TableRow row = tri.next();
+                        registry.rows.add(row);
+                        registry.byID.put(Integer.valueOf(row.getIntColumn("bitstream_format_id")), row);
+                        registry.byShortDescription.put(row.getStringColumn("short_description"), row);
+
+                        String mimeType = row.getStringColumn("mimetype");
+                        if (mimeType != null && !row.getBooleanColumn("internal")
+                                && !registry.byMIMEType.containsKey(mimeType))
+                        {
+                            registry.byMIMEType.put(mimeType, row);
+                        }
+                    }
+                }
+                finally
+                {
+                    // close the TableRowIterator to free up resources
+                    if (tri != null)
+                    {
+                        tri.close();
+                    }
+                }
+
+                tri = DatabaseManager.query(context,
+                        "SELECT * FROM fileextension ORDER BY file_extension_id");
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        TableRow row = tri.next();
+                        Integer formatID = Integer.valueOf(row.getIntColumn("bitstream_format_id"));
+                        List<String> extensions = registry.extensions.get(formatID);
+                        if (extensions == null)
+                        {
+                            extensions = new ArrayList<String>();
+                            registry.extensions.put(formatID, extensions);
+                        }
+                        extensions.add(row.getStringColumn("extension"));
+                    }
+                }
+                finally
+                {
+                    // close the TableRowIterator to free up resources
+                    if (tri != null)
+                    {
+                        tri.close();
+                    }
+                }
+
+                return registry;
+            }
+        });
+    }
+
+    /**
+     * The whole bitstream format registry, shared by all contexts. The rows
+     * are never handed out; each context gets its own copy.
+     */
+    private static class Registry
+    {
+        final List<TableRow> rows = new ArrayList<TableRow>();
+        final Map<Integer, TableRow> byID = new HashMap<Integer, TableRow>();
+        final Map<String, TableRow> byShortDescription = new HashMap<String, TableRow>();
+        final Map<String, TableRow> byMIMEType = new HashMap<String, TableRow>();
+        final Map<Integer, List<String>> extensions = new HashMap<Integer, List<String>>();
+
+        List<String> getExtensions(int formatID)
+        {
+            List<String> list = extensions.get(Integer.valueOf(formatID));
+            return list != null ? list : Collections.<String>emptyList();
+        }
+
+        /**
+         * Create a format object for a row, which may be one of the shared
+         * rows or a row read by the caller.
+         */
+        BitstreamFormat newFormat(Context context, TableRow row)
+        {
+            return new BitstreamFormat(context, new TableRow(row),
+                    getExtensions(row.getIntColumn("bitstream_format_id")));
+        }
+    }
 }
@@ -70,27 +70,13 @@ public class Bundle extends DSpaceObject
         ourContext = context;
         bundleRow = row;
         bitstreams = new ArrayList<Bitstream>();
-        String bitstreamOrderingField  = ConfigurationManager.getProperty("webui.bitstream.order.field");
-        String bitstreamOrderingDirection   = ConfigurationManager.getProperty("webui.bitstream.order.direction");
-
-        if (bitstreamOrderingField == null)
-        {
-            bitstreamOrderingField = "sequence_id";
-        }
-
-        if (bitstreamOrderingDirection == null)
-        {
-            bitstreamOrderingDirection = "ASC";
-        }
 
         StringBuilder query = new StringBuilder();
         query.append("SELECT bitstream.*,bundle2bitstream.bitstream_order FROM bitstream, bundle2bitstream WHERE");
         query.append(" bundle2bitstream.bitstream_id=bitstream.bitstream_id AND");
         query.append(" bundle2bitstream.bundle_id= ?");
         query.append(" ORDER BY ");
-        query.append(bitstreamOrderingField);
-        query.append(" ");
-        query.append(bitstreamOrderingDirection);
+        query.append(getBitstreamOrdering());
 
         // Get bitstreams
         TableRowIterator tri = DatabaseManager.query(
@@ -102,23 +88,7 @@ public class Bundle extends DSpaceObject
         {
             while (tri.hasNext())
             {
-                TableRow r = tri.next();
-
-                // First check the cache
-                Bitstream fromCache = (Bitstream) context.fromCache(
-                        Bitstream.class, r.getIntColumn("bitstream_id"));
-
-                if (fromCache != null)
-                {
-                    bitstreams.add(fromCache);
-                }
-                else
-                {
-                    //Since bitstreams can be ordered by a column in bundle2bitstream
-                    //We cannot use queryTable & so we need to add our table later on
-                    r.setTable("bitstream");
-                    bitstreams.add(new Bitstream(ourContext, r));
-                }
+                addBitstream(tri.next());
             }
         }
         finally
@@ -137,6 +107,81 @@ public class Bundle extends DSpaceObject
         modifiedMetadata = false;
     }
 
+    /**
+     * Construct a bundle object with the given table row and the already read
+     * rows of its bitstreams, as used when items are prefetched in bulk.
+     *
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param bitstreamRows
+     *            the bitstream rows of this bundle, in display order
+     */
+    Bundle(Context context, TableRow row, List<TableRow> bitstreamRows) throws SQLException
+    {
+        ourContext = context;
+        bundleRow = row;
+        bitstreams = new ArrayList<Bitstream>(bitstreamRows.size());
+
+        for (TableRow r : bitstreamRows)
+        {
+            addBitstream(r);
+        }
+
+        // Cache ourselves
+        context.cache(this, row.getIntColumn("bundle_id"));
+
+        modified = false;
+        modifiedMetadata = false;
+    }
+
+    /**
+     * Add a bitstream read from a bitstream/bundle2bitstream join to the
+     * in-memory list, re-using a cached object if there is one.
+     */
+    private void addBitstream(TableRow r) throws SQLException
+    {
+        // First check the cache
+        Bitstream fromCache = (Bitstream) ourContext.fromCache(
+                Bitstream.class, r.getIntColumn("bitstream_id"));
+
+        if (fromCache != null)
+        {
+            bitstreams.add(fromCache);
+        }
+        else
+        {
+            //Since bitstreams can be ordered by a column in bundle2bitstream
+            //We cannot use queryTable & so we need to add our table later on
+            r.setTable("bitstream");
+            bitstreams.add(new Bitstream(ourContext, r));
+        }
+    }
+
+    /**
+     * Get the configured ORDER BY expression for the bitstreams in a bundle.
+     *
+     * @return column and direction, e.g. <code>sequence_id ASC</code>
+     */
+    static String getBitstreamOrdering()
+    {
+        String bitstreamOrderingField  = ConfigurationManager.getProperty("webui.bitstream.order.field");
+        String bitstreamOrderingDirection   = ConfigurationManager.getProperty("webui.bitstream.order.direction");
+
+        if (bitstreamOrderingField == null)
+        {
+            bitstreamOrderingField = "sequence_id";
+        }
+
+        if (bitstreamOrderingDirection == null)
+        {
+            bitstreamOrderingDirection = "ASC";
+        }
+
+        return bitstreamOrderingField + " " + bitstreamOrderingDirection;
+    }
+
     /**
      * Get a bundle from the database. The bundle and bitstream metadata are all
      * loaded into memory.
@@ -655,6 +700,11 @@ public class Bundle extends DSpaceObject
     {
         return Constants.BUNDLE;
     }
+
+    public boolean isModified()
+    {
+        return modified || modifiedMetadata;
+    }
     
     /**
      * remove all policies on the bundle and its contents, and replace them with
@@ -924,6 +924,7 @@ public class Collection extends DSpaceObject
         row.setColumn("item_id", item.getID());
 
         DatabaseManager.insert(ourContext, row);
+        item.clearPrefetchedCollections();
 
         ourContext.addEvent(new Event(Event.ADD, Constants.COLLECTION, getID(), Constants.ITEM, item.getID(), item.getHandle()));
     }
@@ -962,7 +963,8 @@ public class Collection extends DSpaceObject
                 "AND item_id= ? ",
                 getID(), item.getID());
         DatabaseManager.setConstraintImmediate(ourContext, "coll2item_item_fk");
-        
+        item.clearPrefetchedCollections();
+
         ourContext.addEvent(new Event(Event.REMOVE, Constants.COLLECTION, getID(), Constants.ITEM, item.getID(), item.getHandle()));
     }
 
@@ -1347,6 +1349,11 @@ public class Collection extends DSpaceObject
         return Constants.COLLECTION;
     }
 
+    public boolean isModified()
+    {
+        return modified || modifiedMetadata;
+    }
+
     /**
      * return an array of collections that user has a given permission on
      * (useful for trimming 'select to collection' list) or figuring out which
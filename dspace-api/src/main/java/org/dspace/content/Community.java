@@ -1175,6 +1175,11 @@ public class Community extends DSpaceObject
         return Constants.COMMUNITY;
     }
 
+    public boolean isModified()
+    {
+        return modified || modifiedMetadata;
+    }
+
     /**
      * return TRUE if context's user can edit community, false otherwise
      * 
@@ -172,6 +172,18 @@ public abstract class DSpaceObject
         return null;
     }
 
+    /**
+     * Whether this object has changes that have not yet been written to the
+     * database with {@link #update()}. The context cache will not evict
+     * objects for which this returns <code>true</code>.
+     *
+     * @return <code>true</code> if there are unsaved changes
+     */
+    public boolean isModified()
+    {
+        return false;
+    }
+
     public abstract void update() throws SQLException, AuthorizeException;
 
     public abstract void updateLastModified();
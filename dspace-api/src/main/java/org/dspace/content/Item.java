@@ -13,13 +13,15 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.dspace.app.util.AuthorizeUtil;
 import org.dspace.authorize.AuthorizeConfiguration;
@@ -82,6 +84,9 @@ public class Item extends DSpaceObject
     /** The bundles in this item - kept in sync with DB */
     private List<Bundle> bundles;
 
+    /** The collections this item is in, if prefetched; otherwise read on demand */
+    private List<Collection> collections;
+
     /** The Dublin Core metadata - inner class for lazy loading */
     MetadataCache dublinCore = new MetadataCache();
 
@@ -110,6 +115,25 @@ public class Item extends DSpaceObject
      * @throws SQLException
      */
     Item(Context context, TableRow row) throws SQLException
+    {
+        this(context, row, null);
+
+        // Get our Handle if any
+        handle = HandleManager.findHandle(context, this);
+    }
+
+    /**
+     * Construct an item with the given table row and an already known handle,
+     * as used when items are prefetched in bulk.
+     *
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param handle
+     *            the handle of the item, or <code>null</code> if it has none
+     */
+    Item(Context context, TableRow row, String handle)
     {
         ourContext = context;
         itemRow = row;
@@ -117,18 +141,56 @@ public class Item extends DSpaceObject
         modified = false;
         clearDetails();
 
-        // Get our Handle if any
-        handle = HandleManager.findHandle(context, this);
+        this.handle = handle;
 
         // Cache ourselves
         context.cache(this, row.getIntColumn("item_id"));
     }
 
-    private TableRowIterator retrieveMetadata() throws SQLException
+    /**
+     * Set the metadata of this item from rows that have already been read.
+     *
+     * @param rows
+     *            the MetadataValue rows of this item, ordered by field and
+     *            place
+     */
+    void setPrefetchedMetadata(List<TableRow> rows) throws SQLException
+    {
+        dublinCore.load(ourContext, rows, log);
+    }
+
+    /**
+     * Set the bundles of this item from objects that have already been
+     * loaded.
+     *
+     * @param prefetched
+     *            the bundles of this item
+     */
+    void setPrefetchedBundles(List<Bundle> prefetched)
+    {
+        bundles = prefetched;
+    }
+
+    /**
+     * Set the collections this item is mapped to from objects that have
+     * already been loaded. They are returned by <code>getCollections</code>
+     * until the mapping changes.
+     *
+     * @param prefetched
+     *            the collections of this item
+     */
+    void setPrefetchedCollections(List<Collection> prefetched)
+    {
+        collections = prefetched;
+    }
+
+    /**
+     * Forget any prefetched collections, so that the next call to
+     * <code>getCollections</code> reads the mapping from the database.
+     */
+    void clearPrefetchedCollections()
     {
-        return DatabaseManager.queryTable(ourContext, "MetadataValue",
-                "SELECT * FROM MetadataValue WHERE item_id= ? ORDER BY metadata_field_id, place",
-                itemRow.getIntColumn("item_id"));
+        collections = null;
     }
 
     /**
@@ -244,6 +306,50 @@ public class Item extends DSpaceObject
         return new ItemIterator(context, rows);
 	}
 
+    /**
+     * Get all the items in the archive, loading them a page at a time together
+     * with the parts of their object graph named in <code>prefetch</code>.
+     * Only items with the "in archive" flag set are included. The order of the
+     * list is indeterminate.
+     *
+     * @param context
+     *            DSpace context object
+     * @param prefetch
+     *            what to load in bulk for each page of items
+     * @return an iterator over the items in the archive.
+     * @throws SQLException
+     */
+    public static ItemIterator findAll(Context context, PrefetchSpec prefetch) throws SQLException
+    {
+        String myQuery = "SELECT * FROM item WHERE in_archive='1'";
+
+        TableRowIterator rows = DatabaseManager.queryTable(context, "item", myQuery);
+
+        return new ItemIterator(context, rows, prefetch);
+    }
+
+    /**
+     * Get all "final" items in the archive, both archived and withdrawn,
+     * loading them a page at a time together with the parts of their object
+     * graph named in <code>prefetch</code>. The order of the list is
+     * indeterminate.
+     *
+     * @param context
+     *            DSpace context object
+     * @param prefetch
+     *            what to load in bulk for each page of items
+     * @return an iterator over the items in the archive.
+     * @throws SQLException
+     */
+    public static ItemIterator findAllUnfiltered(Context context, PrefetchSpec prefetch) throws SQLException
+    {
+        String myQuery = "SELECT * FROM item WHERE in_archive='1' or withdrawn='1'";
+
+        TableRowIterator rows = DatabaseManager.queryTable(context, "item", myQuery);
+
+        return new ItemIterator(context, rows, prefetch);
+    }
+
     /**
      * Find all the items in the archive by a given submitter. The order is
      * indeterminate. Only items with the "in archive" flag set are included.
@@ -1054,6 +1160,11 @@ public class Item extends DSpaceObject
      */
     public Collection[] getCollections() throws SQLException
     {
+        if (this.collections != null)
+        {
+            return this.collections.toArray(new Collection[this.collections.size()]);
+        }
+
         List<Collection> collections = new ArrayList<Collection>();
 
         // Get collection table rows
@@ -1592,16 +1703,12 @@ public class Item extends DSpaceObject
         {
             dublinCoreChanged = false;
 
-            // Arrays to store the working information required
-            int[]     placeNum = new int[getMetadata().size()];
-            boolean[] storedDC = new boolean[getMetadata().size()];
-            MetadataField[] dcFields = new MetadataField[getMetadata().size()];
+            List<DCValue> dcValues = getMetadata();
+            List<MetadataValue> wanted = new ArrayList<MetadataValue>(dcValues.size());
 
-            // Work out the place numbers for the in memory DC
-            for (int dcIdx = 0; dcIdx < getMetadata().size(); dcIdx++)
+            // Work out the field and place numbers for the in memory DC
+            for (DCValue dcv : dcValues)
             {
-                DCValue dcv = getMetadata().get(dcIdx);
-
                 // Work out the place number for ordering
                 int current = 0;
 
@@ -1617,11 +1724,8 @@ public class Item extends DSpaceObject
                 current++;
                 elementCount.put(key, Integer.valueOf(current));
 
-                // Store the calculated place number, reset the stored flag, and cache the metadatafield
-                placeNum[dcIdx] = current;
-                storedDC[dcIdx] = false;
-                dcFields[dcIdx] = getMetadataField(dcv);
-                if (dcFields[dcIdx] == null)
+                MetadataField field = getMetadataField(dcv);
+                if (field == null)
                 {
                     // Bad DC field, log and throw exception
                     log.warn(LogManager
@@ -1642,141 +1746,30 @@ public class Item extends DSpaceObject
                             + dcv.element
                             + " " + dcv.qualifier);
                 }
-            }
 
-            // Now the precalculations are done, iterate through the existing metadata
-            // looking for matches
-            TableRowIterator tri = retrieveMetadata();
-            if (tri != null)
-            {
-                try
-                {
-                    while (tri.hasNext())
-                    {
-                        TableRow tr = tri.next();
-                        // Assume that we will remove this row, unless we get a match
-                        boolean removeRow = true;
-
-                        // Go through the in-memory metadata, unless we've already decided to keep this row
-                        for (int dcIdx = 0; dcIdx < getMetadata().size() && removeRow; dcIdx++)
-                        {
-                            // Only process if this metadata has not already been matched to something in the DB
-                            if (!storedDC[dcIdx])
-                            {
-                                boolean matched = true;
-                                DCValue dcv   = getMetadata().get(dcIdx);
-
-                                // Check the metadata field is the same
-                                if (matched && dcFields[dcIdx].getFieldID() != tr.getIntColumn("metadata_field_id"))
-                                {
-                                    matched = false;
-                                }
-
-                                // Check the place is the same
-                                if (matched && placeNum[dcIdx] != tr.getIntColumn("place"))
-                                {
-                                    matched = false;
-                                }
-
-                                // Check the text is the same
-                                if (matched)
-                                {
-                                    String text = tr.getStringColumn("text_value");
-                                    if (dcv.value == null && text == null)
-                                    {
-                                        matched = true;
-                                    }
-                                    else if (dcv.value != null && dcv.value.equals(text))
-                                    {
-                                        matched = true;
-                                    }
-                                    else
-                                    {
-                                        matched = false;
-                                    }
-                                }
-
-                                // Check the language is the same
-                                if (matched)
-                                {
-                                    String lang = tr.getStringColumn("text_lang");
-                                    if (dcv.language == null && lang == null)
-                                    {
-                                        matched = true;
-                                    }
-                                    else if (dcv.language != null && dcv.language.equals(lang))
-                                    {
-                                        matched = true;
-                                    }
-                                    else
-                                    {
-                                        matched = false;
-                                    }
-                                }
-
-                                // check that authority and confidence match
-                                if (matched)
-                                {
-                                    String auth = tr.getStringColumn("authority");
-                                    int conf = tr.getIntColumn("confidence");
-                                    if (!((dcv.authority == null && auth == null) ||
-                                      (dcv.authority != null && auth != null && dcv.authority.equals(auth))
-                                     && dcv.confidence == conf))
-                                    {
-                                        matched = false;
-                                    }
-                                }
-
-                                // If the db record is identical to the in memory values
-                                if (matched)
-                                {
-                                    // Flag that the metadata is already in the DB
-                                    storedDC[dcIdx] = true;
-
-                                    // Flag that we are not going to remove the row
-                                    removeRow = false;
-                                }
-                            }
-                        }
-
-                        // If after processing all the metadata values, we didn't find a match
-                        // delete this row from the DB
-                        if (removeRow)
-                        {
-                            DatabaseManager.delete(ourContext, tr);
-                            dublinCoreChanged = true;
-                            modified = true;
-                        }
-                    }
-                }
-                finally
-                {
-                    tri.close();
-                }
+                MetadataValue metadata = new MetadataValue(field);
+                metadata.setItemId(getID());
+                metadata.setValue(dcv.value);
+                metadata.setLanguage(dcv.language);
+                metadata.setPlace(current);
+                metadata.setAuthority(dcv.authority);
+                metadata.setConfidence(dcv.confidence);
+                wanted.add(metadata);
             }
 
-            // Add missing in-memory DC
-            for (int dcIdx = 0; dcIdx < getMetadata().size(); dcIdx++)
+            // Compare against the rows that were loaded (or re-read them if the
+            // metadata was replaced without loading), and write only the changes
+            MetadataDiff diff = new MetadataDiff(dublinCore.getStored(ourContext, getID()), wanted);
+            if (!diff.isEmpty())
             {
-                // Only write values that are not already in the db
-                if (!storedDC[dcIdx])
-                {
-                    DCValue dcv = getMetadata().get(dcIdx);
-
-                    // Write DCValue
-                    MetadataValue metadata = new MetadataValue();
-                    metadata.setItemId(getID());
-                    metadata.setFieldId(dcFields[dcIdx].getFieldID());
-                    metadata.setValue(dcv.value);
-                    metadata.setLanguage(dcv.language);
-                    metadata.setPlace(placeNum[dcIdx]);
-                    metadata.setAuthority(dcv.authority);
-                    metadata.setConfidence(dcv.confidence);
-                    metadata.create(ourContext);
-                    dublinCoreChanged = true;
-                    modified = true;
-                }
+                MetadataValue.deleteBatch(ourContext, diff.getDeletes());
+                MetadataValue.updatePlaceBatch(ourContext, diff.getMoves());
+                MetadataValue.createBatch(ourContext, diff.getInserts());
+                dublinCoreChanged = true;
+                modified = true;
             }
+
+            dublinCore.applied(diff);
         }
 
         if (dublinCoreChanged || modified)
@@ -1815,29 +1808,9 @@ public class Item extends DSpaceObject
         }
     }
 
-    private transient MetadataField[] allMetadataFields = null;
     private MetadataField getMetadataField(DCValue dcv) throws SQLException, AuthorizeException
     {
-        if (allMetadataFields == null)
-        {
-            allMetadataFields = MetadataField.findAll(ourContext);
-        }
-
-        if (allMetadataFields != null)
-        {
-            int schemaID = getMetadataSchemaID(dcv);
-            for (MetadataField field : allMetadataFields)
-            {
-                if (field.getSchemaID() == schemaID &&
-                        StringUtils.equals(field.getElement(), dcv.element) &&
-                        StringUtils.equals(field.getQualifier(), dcv.qualifier))
-                {
-                    return field;
-                }
-            }
-        }
-
-        return null;
+        return MetadataField.findByElement(ourContext, getMetadataSchemaID(dcv), dcv.element, dcv.qualifier);
     }
 
     private int getMetadataSchemaID(DCValue dcv) throws SQLException
@@ -2183,6 +2156,11 @@ public class Item extends DSpaceObject
         return Constants.ITEM;
     }
 
+    public boolean isModified()
+    {
+        return dublinCoreChanged || modified;
+    }
+
     /**
      * remove all of the policies for item and replace them with a new list of
      * policies
@@ -2761,11 +2739,18 @@ public class Item extends DSpaceObject
     {
         List<DCValue> metadata = null;
 
+        /**
+         * Snapshot of the rows as they are stored in the database, used by
+         * update() to work out what has changed. <code>null</code> if unknown.
+         */
+        List<MetadataValue> stored = null;
+
         List<DCValue> get(Context c, int itemId, Logger log) throws SQLException
         {
             if (metadata == null)
             {
                 metadata = new ArrayList<DCValue>();
+                stored = new ArrayList<MetadataValue>();
 
                 // Get Dublin Core metadata
                 TableRowIterator tri = retrieveMetadata(itemId);
@@ -2776,40 +2761,7 @@ public class Item extends DSpaceObject
                     {
                         while (tri.hasNext())
                         {
-                            TableRow resultRow = tri.next();
-
-                            // Get the associated metadata field and schema information
-                            int fieldID = resultRow.getIntColumn("metadata_field_id");
-                            MetadataField field = MetadataField.find(c, fieldID);
-
-                            if (field == null)
-                            {
-                                log.error("Loading item - cannot find metadata field " + fieldID);
-                            }
-                            else
-                            {
-                                MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
-                                if (schema == null)
-                                {
-                                    log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
-                                }
-                                else
-                                {
-                                    // Make a DCValue object
-                                    DCValue dcv = new DCValue();
-                                    dcv.element = field.getElement();
-                                    dcv.qualifier = field.getQualifier();
-                                    dcv.value = resultRow.getStringColumn("text_value");
-                                    dcv.language = resultRow.getStringColumn("text_lang");
-                                    //dcv.namespace = schema.getNamespace();
-                                    dcv.schema = schema.getName();
-                                    dcv.authority = resultRow.getStringColumn("authority");
-                                    dcv.confidence = resultRow.getIntColumn("confidence");
-
-                                    // Add it to the list
-                                    metadata.add(dcv);
-                                }
-                            }
+                            add(c, tri.next(), log);
                         }
                     }
                     finally
@@ -2826,11 +2778,127 @@ public class Item extends DSpaceObject
             return metadata;
         }
 
+        /**
+         * Fill the cache from rows that have already been read, e.g. by a
+         * prefetching ItemIterator. The rows must be ordered by field and
+         * place.
+         */
+        void load(Context c, List<TableRow> rows, Logger log) throws SQLException
+        {
+            metadata = new ArrayList<DCValue>(rows.size());
+            stored = new ArrayList<MetadataValue>(rows.size());
+            for (TableRow row : rows)
+            {
+                add(c, row, log);
+            }
+        }
+
+        private void add(Context c, TableRow resultRow, Logger log) throws SQLException
+        {
+            stored.add(new MetadataValue(resultRow));
+
+            // Get the associated metadata field and schema information
+            int fieldID = resultRow.getIntColumn("metadata_field_id");
+            MetadataField field = MetadataField.find(c, fieldID);
+
+            if (field == null)
+            {
+                log.error("Loading item - cannot find metadata field " + fieldID);
+            }
+            else
+            {
+                MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
+                if (schema == null)
+                {
+                    log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
+                }
+                else
+                {
+                    // Make a DCValue object
+                    DCValue dcv = new DCValue();
+                    dcv.element = field.getElement();
+                    dcv.qualifier = field.getQualifier();
+                    dcv.value = resultRow.getStringColumn("text_value");
+                    dcv.language = resultRow.getStringColumn("text_lang");
+                    //dcv.namespace = schema.getNamespace();
+                    dcv.schema = schema.getName();
+                    dcv.authority = resultRow.getStringColumn("authority");
+                    dcv.confidence = resultRow.getIntColumn("confidence");
+
+                    // Add it to the list
+                    metadata.add(dcv);
+                }
+            }
+        }
+
         void set(List<DCValue> m)
         {
             metadata = m;
         }
 
+        /**
+         * Get the rows currently stored for the item, reading them from the
+         * database if no snapshot is held.
+         */
+        List<MetadataValue> getStored(Context c, int itemId) throws SQLException
+        {
+            if (stored == null)
+            {
+                stored = new ArrayList<MetadataValue>();
+
+                TableRowIterator tri = retrieveMetadata(itemId);
+                if (tri != null)
+                {
+                    try
+                    {
+                        while (tri.hasNext())
+                        {
+                            stored.add(new MetadataValue(tri.next()));
+                        }
+                    }
+                    finally
+                    {
+                        tri.close();
+                    }
+                }
+            }
+
+            return stored;
+        }
+
+        /**
+         * Bring the snapshot in line with a difference that has just been
+         * written to the database.
+         */
+        void applied(MetadataDiff diff)
+        {
+            if (stored == null)
+            {
+                return;
+            }
+
+            if (!diff.getInserts().isEmpty())
+            {
+                // Simpler to re-read on next update than to merge the inserted rows in
+                stored = null;
+            }
+            else if (!diff.getDeletes().isEmpty())
+            {
+                Set<MetadataValue> deleted = Collections.newSetFromMap(new IdentityHashMap<MetadataValue, Boolean>());
+                deleted.addAll(diff.getDeletes());
+
+                List<MetadataValue> remaining = new ArrayList<MetadataValue>(stored.size() - deleted.size());
+                for (MetadataValue value : stored)
+                {
+                    if (!deleted.contains(value))
+                    {
+                        remaining.add(value);
+                    }
+                }
+                stored = remaining;
+            }
+        }
+
         TableRowIterator retrieveMetadata(int itemId) throws SQLException
         {
             if (itemId > 0)
@@ -9,6 +9,7 @@ package org.dspace.content;
 
 import java.sql.SQLException;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -24,6 +25,11 @@ import org.dspace.storage.rdbms.TableRowIterator;
  *
  * Note that this class is not a real Iterator, as it does not implement
  * the Iterator interface
+ * <P>
+ * When constructed with a {@link PrefetchSpec}, items are loaded a page at a
+ * time and the requested parts of their object graph (metadata, handles,
+ * bundles and bitstreams, collections) are read with one query per page
+ * rather than one per item.
  * 
  * @author Robert Tansley
  * @author Richard Jones
@@ -43,6 +49,12 @@ public class ItemIterator
 
     /** a real iterator which works over the item ids when present */
     private Iterator<Integer> iditr;
+
+    /** what to prefetch, or null to load items one by one */
+    private PrefetchSpec prefetch;
+
+    /** the current page of prefetched items */
+    private Iterator<Item> page;
     
     /**
      * Construct an item iterator using a set of TableRow objects from
@@ -72,6 +84,41 @@ public class ItemIterator
     	ourContext = context;
     	iditr = iids.iterator();
     }
+
+    /**
+     * Construct a prefetching item iterator over rows of the item table. The
+     * rows may also come from a query that only selects
+     * <code>item_id</code>, in which case the item rows are read a page at a
+     * time as well.
+     *
+     * @param context
+     *            our context
+     * @param rows
+     *            the rows that correspond to the Items to be iterated over
+     * @param prefetch
+     *            the parts of each item to load in bulk
+     */
+    public ItemIterator(Context context, TableRowIterator rows, PrefetchSpec prefetch)
+    {
+        this(context, rows);
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Construct a prefetching item iterator over a list of item ids
+     *
+     * @param context
+     *            our context
+     * @param iids
+     *            the list to be iterated over
+     * @param prefetch
+     *            the parts of each item to load in bulk
+     */
+    public ItemIterator(Context context, List<Integer> iids, PrefetchSpec prefetch)
+    {
+        this(context, iids);
+        this.prefetch = prefetch;
+    }
     
     /**
      * Find out if there are any more items to iterate over
@@ -81,6 +128,11 @@ public class ItemIterator
      */
     public boolean hasNext() throws SQLException
     {
+        if (page != null && page.hasNext())
+        {
+            return true;
+        }
+
     	if (iditr != null)
     	{
     		return iditr.hasNext();
@@ -101,6 +153,11 @@ public class ItemIterator
      */
     public Item next() throws SQLException
     {
+        if (prefetch != null)
+        {
+            return nextPrefetched();
+        }
+
     	if (iditr != null)
     	{
     		return nextByID();
@@ -153,6 +210,11 @@ public class ItemIterator
     public int nextID()
     	throws SQLException
     {
+        if (page != null && page.hasNext())
+        {
+            return page.next().getID();
+        }
+
     	if (iditr != null)
     	{
     		return nextByIDID();
@@ -239,6 +301,82 @@ public class ItemIterator
         }
     }
 
+    /**
+     * Return the next item from the current page, loading the next page with
+     * its prefetched relations when the current one is used up.
+     *
+     * @return	the item or null if none
+     * @throws SQLException
+     */
+    private Item nextPrefetched()
+        throws SQLException
+    {
+        while (page == null || !page.hasNext())
+        {
+            List<Item> items = loadPage();
+            if (items == null)
+            {
+                return null;
+            }
+            page = items.iterator();
+        }
+
+        return page.next();
+    }
+
+    /**
+     * Read up to one page of ids or rows from the underlying iterator and
+     * load the corresponding items.
+     *
+     * @return	the items of the page, or null if there are no more
+     * @throws SQLException
+     */
+    private List<Item> loadPage()
+        throws SQLException
+    {
+        int size = prefetch.getPageSize();
+
+        if (iditr != null)
+        {
+            List<Integer> ids = new ArrayList<Integer>(size);
+            while (ids.size() < size && iditr.hasNext())
+            {
+                ids.add(iditr.next());
+            }
+            return ids.isEmpty() ? null : ItemPrefetcher.loadByIDs(ourContext, ids, prefetch);
+        }
+        else if (itemRows != null)
+        {
+            List<TableRow> rows = new ArrayList<TableRow>(size);
+            boolean complete = true;
+            while (rows.size() < size && itemRows.hasNext())
+            {
+                TableRow row = itemRows.next();
+                complete &= "item".equalsIgnoreCase(row.getTable());
+                rows.add(row);
+            }
+
+            if (rows.isEmpty())
+            {
+                return null;
+            }
+
+            if (complete)
+            {
+                return ItemPrefetcher.loadByRows(ourContext, rows, prefetch);
+            }
+
+            List<Integer> ids = new ArrayList<Integer>(rows.size());
+            for (TableRow row : rows)
+            {
+                ids.add(row.getIntColumn("item_id"));
+            }
+            return ItemPrefetcher.loadByIDs(ourContext, ids, prefetch);
+        }
+
+        return null;
+    }
+
     /**
      * Dispose of this Iterator, and it's underlying resources
      */
@@ -0,0 +1,338 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.handle.HandleManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Loads a page of items together with the parts of their object graph named
+ * in a {@link PrefetchSpec}. Each relation is read with one IN-list query per
+ * page (split further only if the list would exceed
+ * {@link PrefetchSpec#MAX_PAGE_SIZE}), and the resulting objects are placed
+ * in the context cache exactly as if they had been loaded one by one.
+ * <P>
+ * Items that are already in the context cache are returned as they are and
+ * not re-read.
+ *
+ * @see ItemIterator
+ */
+final class ItemPrefetcher
+{
+    private ItemPrefetcher()
+    {
+    }
+
+    /**
+     * Load the items with the given IDs.
+     *
+     * @param context
+     *            DSpace context object
+     * @param ids
+     *            the item IDs
+     * @param spec
+     *            the relations to prefetch
+     * @return the items, in the order of the IDs; IDs that do not exist are
+     *         skipped
+     * @throws SQLException
+     */
+    static List<Item> loadByIDs(Context context, List<Integer> ids, PrefetchSpec spec) throws SQLException
+    {
+        List<Integer> missing = new ArrayList<Integer>(ids.size());
+        for (Integer id : ids)
+        {
+            if (context.fromCache(Item.class, id) == null)
+            {
+                missing.add(id);
+            }
+        }
+
+        Map<Integer, Item> loaded = index(hydrate(context,
+                queryIn(context, "item", "SELECT * FROM item WHERE item_id IN (", ")", missing), spec));
+
+        List<Item> items = new ArrayList<Item>(ids.size());
+        for (Integer id : ids)
+        {
+            Item item = loaded.get(id);
+            if (item == null)
+            {
+                item = (Item) context.fromCache(Item.class, id);
+            }
+            if (item != null)
+            {
+                items.add(item);
+            }
+        }
+
+        return items;
+    }
+
+    /**
+     * Load the items for the given rows of the item table.
+     *
+     * @param context
+     *            DSpace context object
+     * @param rows
+     *            rows of the item table
+     * @param spec
+     *            the relations to prefetch
+     * @return the items, in the order of the rows
+     * @throws SQLException
+     */
+    static List<Item> loadByRows(Context context, List<TableRow> rows, PrefetchSpec spec) throws SQLException
+    {
+        List<TableRow> missing = new ArrayList<TableRow>(rows.size());
+        for (TableRow row : rows)
+        {
+            if (context.fromCache(Item.class, row.getIntColumn("item_id")) == null)
+            {
+                missing.add(row);
+            }
+        }
+
+        Map<Integer, Item> loaded = index(hydrate(context, missing, spec));
+
+        List<Item> items = new ArrayList<Item>(rows.size());
+        for (TableRow row : rows)
+        {
+            int id = row.getIntColumn("item_id");
+            Item item = loaded.get(id);
+            items.add(item != null ? item : (Item) context.fromCache(Item.class, id));
+        }
+
+        return items;
+    }
+
+    /**
+     * Construct items for rows that are not yet cached, and attach the
+     * prefetched relations to them.
+     */
+    private static List<Item> hydrate(Context context, List<TableRow> rows, PrefetchSpec spec) throws SQLException
+    {
+        if (rows.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+
+        List<Integer> ids = new ArrayList<Integer>(rows.size());
+        for (TableRow row : rows)
+        {
+            ids.add(row.getIntColumn("item_id"));
+        }
+
+        Map<Integer, String> handles = null;
+        if (spec.isHandles())
+        {
+            handles = HandleManager.findHandles(context, Constants.ITEM, ids);
+        }
+
+        List<Item> items = new ArrayList<Item>(rows.size());
+        for (TableRow row : rows)
+        {
+            if (handles != null)
+            {
+                items.add(new Item(context, row, handles.get(row.getIntColumn("item_id"))));
+            }
+            else
+            {
+                items.add(new Item(context, row));
+            }
+        }
+
+        if (spec.isMetadata())
+        {
+            Map<Integer, List<TableRow>> metadata = group(queryIn(context, "MetadataValue",
+                    "SELECT * FROM MetadataValue WHERE item_id IN (",
+                    ") ORDER BY item_id, metadata_field_id, place", ids), "item_id");
+            for (Item item : items)
+            {
+                item.setPrefetchedMetadata(rows(metadata, item.getID()));
+            }
+        }
+
+        if (spec.isBundles())
+        {
+            prefetchBundles(context, items, ids);
+        }
+
+        if (spec.isCollections())
+        {
+            prefetchCollections(context, items, ids);
+        }
+
+        return items;
+    }
+
+    private static void prefetchBundles(Context context, List<Item> items, List<Integer> ids) throws SQLException
+    {
+        List<TableRow> bundleRows = queryIn(context, null,
+                "SELECT bundle.*, item2bundle.item_id FROM bundle, item2bundle WHERE "
+                        + "item2bundle.bundle_id=bundle.bundle_id AND item2bundle.item_id IN (", ")", ids);
+
+        List<Integer> bundleIDs = new ArrayList<Integer>(bundleRows.size());
+        for (TableRow row : bundleRows)
+        {
+            int bundleID = row.getIntColumn("bundle_id");
+            if (context.fromCache(Bundle.class, bundleID) == null)
+            {
+                bundleIDs.add(bundleID);
+            }
+        }
+
+        Map<Integer, List<TableRow>> bitstreams = group(queryIn(context, null,
+                "SELECT bitstream.*, bundle2bitstream.bitstream_order, bundle2bitstream.bundle_id "
+                        + "FROM bitstream, bundle2bitstream WHERE bundle2bitstream.bitstream_id=bitstream.bitstream_id "
+                        + "AND bundle2bitstream.bundle_id IN (",
+                ") ORDER BY bundle2bitstream.bundle_id, " + Bundle.getBitstreamOrdering(), bundleIDs), "bundle_id");
+
+        Map<Integer, List<Bundle>> bundles = new HashMap<Integer, List<Bundle>>();
+        for (TableRow row : bundleRows)
+        {
+            int bundleID = row.getIntColumn("bundle_id");
+            Bundle bundle = (Bundle) context.fromCache(Bundle.class, bundleID);
+            if (bundle == null)
+            {
+                row.setTable("bundle");
+                bundle = new Bundle(context, row, rows(bitstreams, bundleID));
+            }
+
+            Integer itemID = row.getIntColumn("item_id");
+            List<Bundle> list = bundles.get(itemID);
+            if (list == null)
+            {
+                list = new ArrayList<Bundle>();
+                bundles.put(itemID, list);
+            }
+            list.add(bundle);
+        }
+
+        for (Item item : items)
+        {
+            List<Bundle> list = bundles.get(item.getID());
+            item.setPrefetchedBundles(list != null ? list : new ArrayList<Bundle>());
+        }
+    }
+
+    private static void prefetchCollections(Context context, List<Item> items, List<Integer> ids) throws SQLException
+    {
+        List<TableRow> collectionRows = queryIn(context, null,
+                "SELECT collection.*, collection2item.item_id FROM collection, collection2item WHERE "
+                        + "collection2item.collection_id=collection.collection_id AND collection2item.item_id IN (",
+                ")", ids);
+
+        Map<Integer, List<Collection>> collections = new HashMap<Integer, List<Collection>>();
+        for (TableRow row : collectionRows)
+        {
+            Collection collection = (Collection) context.fromCache(Collection.class, row.getIntColumn("collection_id"));
+            if (collection == null)
+            {
+                row.setTable("collection");
+                collection = new Collection(context, row);
+            }
+
+            Integer itemID = row.getIntColumn("item_id");
+            List<Collection> list = collections.get(itemID);
+            if (list == null)
+            {
+                list = new ArrayList<Collection>();
+                collections.put(itemID, list);
+            }
+            list.add(collection);
+        }
+
+        for (Item item : items)
+        {
+            List<Collection> list = collections.get(item.getID());
+            item.setPrefetchedCollections(list != null ? list : new ArrayList<Collection>());
+        }
+    }
+
+    /**
+     * Run a query with an IN-list over the given IDs, splitting the list into
+     * chunks that databases will accept.
+     *
+     * @param table
+     *            the table the rows belong to, or <code>null</code> for a join
+     * @param prefix
+     *            SQL up to and including "IN ("
+     * @param suffix
+     *            SQL from the closing bracket of the IN-list on
+     */
+    private static List<TableRow> queryIn(Context context, String table, String prefix, String suffix,
+            List<Integer> ids) throws SQLException
+    {
+        List<TableRow> results = new ArrayList<TableRow>();
+        for (int start = 0; start < ids.size(); start += PrefetchSpec.MAX_PAGE_SIZE)
+        {
+            List<Integer> chunk = ids.subList(start, Math.min(ids.size(), start + PrefetchSpec.MAX_PAGE_SIZE));
+            String sql = prefix + DatabaseManager.placeholders(chunk.size()) + suffix;
+            Object[] parameters = chunk.toArray();
+
+            TableRowIterator tri = (table == null)
+                    ? DatabaseManager.query(context, sql, parameters)
+                    : DatabaseManager.queryTable(context, table, sql, parameters);
+            try
+            {
+                while (tri.hasNext())
+                {
+                    results.add(tri.next());
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+        return results;
+    }
+
+    private static Map<Integer, List<TableRow>> group(List<TableRow> rows, String column)
+    {
+        Map<Integer, List<TableRow>> groups = new LinkedHashMap<Integer, List<TableRow>>();
+        for (TableRow row : rows)
+        {
+            Integer key = row.getIntColumn(column);
+            List<TableRow> group = groups.get(key);
+            if (group == null)
+            {
+                group = new ArrayList<TableRow>();
+                groups.put(key, group);
+            }
+            group.add(row);
+        }
+        return groups;
+    }
+
+    private static List<TableRow> rows(Map<Integer, List<TableRow>> groups, int id)
+    {
+        List<TableRow> rows = groups.get(id);
+        return rows != null ? rows : Collections.<TableRow>emptyList();
+    }
+
+    private static Map<Integer, Item> index(List<Item> items)
+    {
+        Map<Integer, Item> index = new HashMap<Integer, Item>();
+        for (Item item : items)
+        {
+            index.put(item.getID(), item);
+        }
+        return index;
+    }
+}
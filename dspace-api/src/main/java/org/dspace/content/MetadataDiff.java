@@ -0,0 +1,222 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.ObjectUtils;
+
+/**
+ * Computes the minimal set of changes needed to turn the metadata rows
+ * currently stored for an item into the values held in memory.
+ * <P>
+ * Stored rows are matched to wanted values through hash lookups rather than a
+ * nested scan, so the cost is linear in the number of values. A wanted value
+ * that is identical to a stored row (field, place, text, language, authority
+ * and confidence) needs no work. A stored row that differs from a wanted value
+ * only by its place is re-used by updating the place, which keeps the number
+ * of statements small when values are removed from, or inserted into, the
+ * middle of a long list. Everything else is deleted or inserted.
+ */
+class MetadataDiff
+{
+    /** Stored rows that are no longer wanted */
+    private final List<MetadataValue> deletes = new ArrayList<MetadataValue>();
+
+    /** Stored rows that only need a new place (already set on the object) */
+    private final List<MetadataValue> moves = new ArrayList<MetadataValue>();
+
+    /** Wanted values that have no stored counterpart */
+    private final List<MetadataValue> inserts = new ArrayList<MetadataValue>();
+
+    /**
+     * Compute the difference between stored and wanted values.
+     *
+     * @param stored
+     *            the rows currently in the database; each must carry its
+     *            value ID. Entries that end up in {@link #getMoves()} have
+     *            their place updated.
+     * @param wanted
+     *            the values that should be in the database once the
+     *            difference has been applied
+     */
+    MetadataDiff(Collection<MetadataValue> stored, List<MetadataValue> wanted)
+    {
+        Map<ValueKey, LinkedList<MetadataValue>> exact = index(stored, true);
+
+        // First pass: values that are already stored exactly as wanted
+        List<MetadataValue> unmatched = new ArrayList<MetadataValue>();
+        for (MetadataValue value : wanted)
+        {
+            if (poll(exact, new ValueKey(value, true)) == null)
+            {
+                unmatched.add(value);
+            }
+        }
+
+        // Second pass: stored rows left over that only differ by place
+        Map<ValueKey, LinkedList<MetadataValue>> moved = new HashMap<ValueKey, LinkedList<MetadataValue>>();
+        for (LinkedList<MetadataValue> rows : exact.values())
+        {
+            for (MetadataValue row : rows)
+            {
+                add(moved, new ValueKey(row, false), row);
+            }
+        }
+
+        for (MetadataValue value : unmatched)
+        {
+            MetadataValue row = poll(moved, new ValueKey(value, false));
+            if (row == null)
+            {
+                inserts.add(value);
+            }
+            else
+            {
+                row.setPlace(value.getPlace());
+                moves.add(row);
+            }
+        }
+
+        // Whatever is left is stale
+        for (LinkedList<MetadataValue> rows : moved.values())
+        {
+            deletes.addAll(rows);
+        }
+    }
+
+    /**
+     * @return stored rows which should be deleted
+     */
+    List<MetadataValue> getDeletes()
+    {
+        return deletes;
+    }
+
+    /**
+     * @return stored rows whose place should be updated to the value they
+     *         now carry
+     */
+    List<MetadataValue> getMoves()
+    {
+        return moves;
+    }
+
+    /**
+     * @return wanted values which should be inserted
+     */
+    List<MetadataValue> getInserts()
+    {
+        return inserts;
+    }
+
+    /**
+     * @return <code>true</code> if the stored rows already match the wanted
+     *         values
+     */
+    boolean isEmpty()
+    {
+        return deletes.isEmpty() && moves.isEmpty() && inserts.isEmpty();
+    }
+
+    private static Map<ValueKey, LinkedList<MetadataValue>> index(Collection<MetadataValue> values, boolean withPlace)
+    {
+        Map<ValueKey, LinkedList<MetadataValue>> index = new HashMap<ValueKey, LinkedList<MetadataValue>>();
+        for (MetadataValue value : values)
+        {
+            add(index, new ValueKey(value, withPlace), value);
+        }
+        return index;
+    }
+
+    private static void add(Map<ValueKey, LinkedList<MetadataValue>> index, ValueKey key, MetadataValue value)
+    {
+        LinkedList<MetadataValue> bucket = index.get(key);
+        if (bucket == null)
+        {
+            bucket = new LinkedList<MetadataValue>();
+            index.put(key, bucket);
+        }
+        bucket.add(value);
+    }
+
+    private static MetadataValue poll(Map<ValueKey, LinkedList<MetadataValue>> index, ValueKey key)
+    {
+        LinkedList<MetadataValue> bucket = index.get(key);
+        if (bucket == null)
+        {
+            return null;
+        }
+
+        MetadataValue value = bucket.removeFirst();
+        if (bucket.isEmpty())
+        {
+            index.remove(key);
+        }
+        return value;
+    }
+
+    /**
+     * Hash key over the content of a metadata value, optionally including its
+     * place.
+     */
+    private static final class ValueKey
+    {
+        private final int fieldId;
+        private final int place;
+        private final String value;
+        private final String language;
+        private final String authority;
+        private final int confidence;
+
+        ValueKey(MetadataValue mv, boolean withPlace)
+        {
+            fieldId = mv.getFieldId();
+            place = withPlace ? mv.getPlace() : -1;
+            value = mv.getValue();
+            language = mv.getLanguage();
+            authority = mv.getAuthority();
+            confidence = mv.getConfidence();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof ValueKey))
+            {
+                return false;
+            }
+
+            ValueKey other = (ValueKey) obj;
+            return fieldId == other.fieldId
+                    && place == other.place
+                    && confidence == other.confidence
+                    && ObjectUtils.equals(value, other.value)
+                    && ObjectUtils.equals(language, other.language)
+                    && ObjectUtils.equals(authority, other.authority);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = 7;
+            hash = 47 * hash + fieldId;
+            hash = 47 * hash + place;
+            hash = 47 * hash + confidence;
+            hash = 47 * hash + ObjectUtils.hashCode(value);
+            hash = 47 * hash + ObjectUtils.hashCode(language);
+            hash = 47 * hash + ObjectUtils.hashCode(authority);
+            return hash;
+        }
+    }
+}
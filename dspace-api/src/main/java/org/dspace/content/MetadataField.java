@@ -22,6 +22,7 @@ import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.ReferenceDataCache;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 import org.dspace.storage.rdbms.TableRowIterator;
@@ -50,8 +51,8 @@ public class MetadataField
     /** The row in the table representing this type */
     private TableRow row;
 
-    // cache of field by ID (Integer)
-    private static Map<Integer, MetadataField> id2field = null;
+    /** Region of the shared reference data cache holding the registry */
+    private static final String CACHE_REGION = "MetadataFieldRegistry";
 
 
     /**
@@ -249,7 +250,7 @@ public class MetadataField
         row.setColumn("qualifier", qualifier);
         row.setColumn("scope_note", scopeNote);
         DatabaseManager.insert(context, row);
-        decache();
+        decache(context);
 
         // Remember the new row number
         this.fieldID = row.getIntColumn("metadata_field_id");
@@ -273,48 +274,7 @@ public class MetadataField
             String element, String qualifier) throws SQLException,
             AuthorizeException
     {
-        // Grab rows from DB
-        TableRowIterator tri;
-        if (qualifier == null)
-        {
-        	tri = DatabaseManager.queryTable(context,"MetadataFieldRegistry",
-                    "SELECT * FROM MetadataFieldRegistry WHERE metadata_schema_id= ? " + 
-                    "AND element= ?  AND qualifier is NULL ",
-                    schemaID, element);
-        } 
-        else
-        {
-        	tri = DatabaseManager.queryTable(context,"MetadataFieldRegistry",
-                    "SELECT * FROM MetadataFieldRegistry WHERE metadata_schema_id= ? " + 
-                    "AND element= ?  AND qualifier= ? ",
-                    schemaID, element, qualifier);
-        }
-        
-        TableRow row = null;
-        try
-        {
-            if (tri.hasNext())
-            {
-                row = tri.next();
-            }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
-        }
-
-        if (row == null)
-        {
-            return null;
-        }
-        else
-        {
-            return new MetadataField(row);
-        }
+        return Registry.copy(getRegistry(context).byElement.get(Registry.key(schemaID, element, qualifier)));
     }
 
     /**
@@ -326,32 +286,13 @@ public class MetadataField
      */
     public static MetadataField[] findAll(Context context) throws SQLException
     {
-        List<MetadataField> fields = new ArrayList<MetadataField>();
-
-        // Get all the metadatafieldregistry rows
-        TableRowIterator tri = DatabaseManager.queryTable(context, "MetadataFieldRegistry",
-                               "SELECT mfr.* FROM MetadataFieldRegistry mfr, MetadataSchemaRegistry msr where mfr.metadata_schema_id= msr.metadata_schema_id ORDER BY msr.short_id,  mfr.element, mfr.qualifier");
-
-        try
-        {
-            // Make into DC Type objects
-            while (tri.hasNext())
-            {
-                fields.add(new MetadataField(tri.next()));
-            }
-        }
-        finally
+        List<MetadataField> fields = getRegistry(context).all;
+        MetadataField[] typeArray = new MetadataField[fields.size()];
+        for (int i = 0; i < typeArray.length; i++)
         {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
+            typeArray[i] = Registry.copy(fields.get(i));
         }
-
-        // Convert list into an array
-        MetadataField[] typeArray = new MetadataField[fields.size()];
-        return (MetadataField[]) fields.toArray(typeArray);
+        return typeArray;
     }
 
     /**
@@ -367,25 +308,12 @@ public class MetadataField
     {
         List<MetadataField> fields = new ArrayList<MetadataField>();
 
-        // Get all the metadatafieldregistry rows
-        TableRowIterator tri = DatabaseManager.queryTable(context,"MetadataFieldRegistry",
-                "SELECT * FROM MetadataFieldRegistry WHERE metadata_schema_id= ? " +
-                " ORDER BY element, qualifier", schemaID);
-
-        try
-        {
-            // Make into DC Type objects
-            while (tri.hasNext())
-            {
-                fields.add(new MetadataField(tri.next()));
-            }
-        }
-        finally
+        // The registry is ordered by schema, element and qualifier
+        for (MetadataField field : getRegistry(context).all)
         {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
+            if (field.schemaID == schemaID)
             {
-                tri.close();
+                fields.add(Registry.copy(field));
             }
         }
 
@@ -436,7 +364,7 @@ public class MetadataField
         row.setColumn("qualifier", qualifier);
         row.setColumn("scope_note", scopeNote);
         DatabaseManager.update(context, row);
-        decache();
+        decache(context);
 
         log.info(LogManager.getHeader(context, "update_metadatafieldregistry",
                 "metadata_field_id=" + getFieldID() + "element=" + getElement()
@@ -483,7 +411,7 @@ public class MetadataField
                 "metadata_field_id=" + getFieldID()));
 
         DatabaseManager.delete(context, row);
-        decache();
+        decache(context);
     }
 
     /**
@@ -597,64 +525,51 @@ public class MetadataField
     public static MetadataField find(Context context, int id)
             throws SQLException
     {
-        if (!isCacheInitialized())
-        {
-            initCache(context);
-        }
-
-        // 'sanity check' first.
-        Integer iid = Integer.valueOf(id);
-        if (!id2field.containsKey(iid))
-        {
-            return null;
-        }
-
-        return id2field.get(iid);
+        return Registry.copy(getRegistry(context).byID.get(Integer.valueOf(id)));
     }
 
     // invalidate the cache e.g. after something modifies DB state.
-    private static void decache()
+    private static void decache(Context context)
     {
-        id2field = null;
+        ReferenceDataCache.invalidate(context, CACHE_REGION);
     }
 
-    private static boolean isCacheInitialized()
-    {
-        return id2field != null;
-    }
-    
-    // load caches if necessary
-    private static synchronized void initCache(Context context) throws SQLException
+    // get the shared copy of the registry, loading it if necessary
+    private static Registry getRegistry(Context context) throws SQLException
     {
-        if (!isCacheInitialized())
+        return ReferenceDataCache.get(context, CACHE_REGION, new ReferenceDataCache.Loader<Registry>()
         {
-            Map<Integer, MetadataField> new_id2field = new HashMap<Integer, MetadataField>();
-            log.info("Loading MetadataField elements into cache.");
+            public Registry load(Context context) throws SQLException
+            {
+                log.info("Loading MetadataField elements into cache.");
+                Registry registry = new Registry();
 
-            // Grab rows from DB
-            TableRowIterator tri = DatabaseManager.queryTable(context,"MetadataFieldRegistry",
-                    "SELECT * from MetadataFieldRegistry");
+                // Grab rows from DB
+                TableRowIterator tri = DatabaseManager.queryTable(context, "MetadataFieldRegistry",
+                        "SELECT mfr.* FROM MetadataFieldRegistry mfr, MetadataSchemaRegistry msr where mfr.metadata_schema_id= msr.metadata_schema_id ORDER BY msr.short_id,  mfr.element, mfr.qualifier");
 
-            try
-            {
-                while (tri.hasNext())
+                try
                 {
-                    TableRow row = tri.next();
-                    int fieldID = row.getIntColumn("metadata_field_id");
-                    new_id2field.put(Integer.valueOf(fieldID), new MetadataField(row));
+                    while (tri.hasNext())
+                    {
+                        MetadataField field = new MetadataField(tri.next());
+                        registry.all.add(field);
+                        registry.byID.put(Integer.valueOf(field.fieldID), field);
+                        registry.byElement.put(Registry.key(field.schemaID, field.element, field.qualifier), field);
+                    }
                 }
-            }
-            finally
-            {
-                // close the TableRowIterator to free up resources
-                if (tri != null)
+                finally
                 {
-                    tri.close();
+                    // close the TableRowIterator to free up resources
+                    if (tri != null)
+                    {
+                        tri.close();
+                    }
                 }
-            }
 
-            id2field = new_id2field;
-        }
+                return registry;
+            }
+        });
     }
 
     /**
@@ -698,4 +613,25 @@ public class MetadataField
         hash = 47 * hash + this.schemaID;
         return hash;
     }
+
+    /**
+     * The whole field registry, shared by all contexts. The finders hand out
+     * copies, so callers may change and update what they get.
+     */
+    private static class Registry
+    {
+        final List<MetadataField> all = new ArrayList<MetadataField>();
+        final Map<Integer, MetadataField> byID = new HashMap<Integer, MetadataField>();
+        final Map<String, MetadataField> byElement = new HashMap<String, MetadataField>();
+
+        static MetadataField copy(MetadataField field)
+        {
+            return (field == null) ? null : new MetadataField(new TableRow(field.row));
+        }
+
+        static String key(int schemaID, String element, String qualifier)
+        {
+            return schemaID + "." + element + "." + (qualifier == null ? "" : "." + qualifier);
+        }
+    }
 }
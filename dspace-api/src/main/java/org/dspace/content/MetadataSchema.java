@@ -21,6 +21,7 @@ import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.ReferenceDataCache;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 import org.dspace.storage.rdbms.TableRowIterator;
@@ -56,11 +57,8 @@ public class MetadataSchema
     private String namespace;
     private String name;
 
-    // cache of schema by ID (Integer)
-    private static Map<Integer, MetadataSchema> id2schema = null;
-
-    // cache of schema by short name
-    private static Map<String, MetadataSchema> name2schema = null;
+    /** Region of the shared reference data cache holding the registry */
+    private static final String CACHE_REGION = "MetadataSchemaRegistry";
 
 
     /**
@@ -237,7 +235,7 @@ public class MetadataSchema
         DatabaseManager.insert(context, row);
 
         // invalidate our fast-find cache.
-        decache();
+        decache(context);
 
         // Remember the new row number
         this.schemaID = row.getIntColumn("metadata_schema_id");
@@ -259,36 +257,7 @@ public class MetadataSchema
     public static MetadataSchema findByNamespace(Context context,
             String namespace) throws SQLException
     {
-        // Grab rows from DB
-        TableRowIterator tri = DatabaseManager.queryTable(context,"MetadataSchemaRegistry",
-                "SELECT * FROM MetadataSchemaRegistry WHERE namespace= ? ", 
-                namespace);
-
-        TableRow row = null;
-        try
-        {
-            if (tri.hasNext())
-            {
-                row = tri.next();
-            }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
-        }
-
-        if (row == null)
-        {
-            return null;
-        }
-        else
-        {
-            return new MetadataSchema(row);
-        }
+        return Registry.copy(getRegistry(context).byNamespace.get(namespace));
     }
 
     /**
@@ -327,7 +296,7 @@ public class MetadataSchema
         row.setColumn("short_id", getName());
         DatabaseManager.update(context, row);
 
-        decache();
+        decache(context);
 
         log.info(LogManager.getHeader(context, "update_metadata_schema",
                 "metadata_schema_id=" + getSchemaID() + "namespace="
@@ -354,7 +323,7 @@ public class MetadataSchema
                 "metadata_schema_id=" + getSchemaID()));
 
         DatabaseManager.delete(context, row);
-        decache();
+        decache(context);
     }
 
     /**
@@ -366,32 +335,13 @@ public class MetadataSchema
      */
     public static MetadataSchema[] findAll(Context context) throws SQLException
     {
-        List<MetadataSchema> schemas = new ArrayList<MetadataSchema>();
-
-        // Get all the metadataschema rows
-        TableRowIterator tri = DatabaseManager.queryTable(context, "MetadataSchemaRegistry",
-                        "SELECT * FROM MetadataSchemaRegistry ORDER BY metadata_schema_id");
-
-        try
-        {
-            // Make into DC Type objects
-            while (tri.hasNext())
-            {
-                schemas.add(new MetadataSchema(tri.next()));
-            }
-        }
-        finally
+        List<MetadataSchema> schemas = getRegistry(context).all;
+        MetadataSchema[] typeArray = new MetadataSchema[schemas.size()];
+        for (int i = 0; i < typeArray.length; i++)
         {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
+            typeArray[i] = Registry.copy(schemas.get(i));
         }
-
-        // Convert list into an array
-        MetadataSchema[] typeArray = new MetadataSchema[schemas.size()];
-        return (MetadataSchema[]) schemas.toArray(typeArray);
+        return typeArray;
     }
 
     /**
@@ -511,20 +461,7 @@ public class MetadataSchema
     public static MetadataSchema find(Context context, int id)
             throws SQLException
     {
-        if (!isCacheInitialized())
-        {
-            initCache(context);
-        }
-        
-        Integer iid = Integer.valueOf(id);
-
-        // sanity check
-        if (!id2schema.containsKey(iid))
-        {
-            return null;
-        }
-
-        return id2schema.get(iid);
+        return Registry.copy(getRegistry(context).byID.get(Integer.valueOf(id)));
     }
 
     /**
@@ -546,65 +483,70 @@ public class MetadataSchema
             return null;
         }
 
-        if (!isCacheInitialized())
-        {
-            initCache(context);
-        }
-
-        if (!name2schema.containsKey(shortName))
-        {
-            return null;
-        }
-
-        return name2schema.get(shortName);
+        return Registry.copy(getRegistry(context).byName.get(shortName));
     }
 
     // invalidate the cache e.g. after something modifies DB state.
-    private static void decache()
+    private static void decache(Context context)
     {
-        id2schema = null;
-        name2schema = null;
+        ReferenceDataCache.invalidate(context, CACHE_REGION);
     }
 
-    private static boolean isCacheInitialized()
+    // get the shared copy of the registry, loading it if necessary
+    private static Registry getRegistry(Context context) throws SQLException
     {
-        return (id2schema != null && name2schema != null);
-    }
-
-    // load caches if necessary
-    private static synchronized void initCache(Context context) throws SQLException
-    {
-        if (!isCacheInitialized())
+        return ReferenceDataCache.get(context, CACHE_REGION, new ReferenceDataCache.Loader<Registry>()
         {
-            log.info("Loading schema cache for fast finds");
-            Map<Integer, MetadataSchema> new_id2schema = new HashMap<Integer, MetadataSchema>();
-            Map<String, MetadataSchema> new_name2schema = new HashMap<String, MetadataSchema>();
+            public Registry load(Context context) throws SQLException
+            {
+                log.info("Loading schema cache for fast finds");
+                Registry registry = new Registry();
 
-            TableRowIterator tri = DatabaseManager.queryTable(context,"MetadataSchemaRegistry",
-                    "SELECT * from MetadataSchemaRegistry");
+                TableRowIterator tri = DatabaseManager.queryTable(context,"MetadataSchemaRegistry",
+                        "SELECT * FROM MetadataSchemaRegistry ORDER BY metadata_schema_id");
 
-            try
-            {
-                while (tri.hasNext())
+                try
                 {
-                    TableRow row = tri.next();
-
-                    MetadataSchema s = new MetadataSchema(row);
-                    new_id2schema.put(Integer.valueOf(s.schemaID), s);
-                    new_name2schema.put(s.name, s);
+                    while (tri.hasNext())
+                    {
+                        MetadataSchema s = new MetadataSchema(tri.next());
+                        registry.all.add(s);
+                        registry.byID.put(Integer.valueOf(s.schemaID), s);
+                        registry.byName.put(s.name, s);
+                        if (!registry.byNamespace.containsKey(s.namespace))
+                        {
+                            registry.byNamespace.put(s.namespace, s);
+                        }
+                    }
                 }
-            }
-            finally
-            {
-                // close the TableRowIterator to free up resources
-                if (tri != null)
+                finally
                 {
-                    tri.close();
+                    // close the TableRowIterator to free up resources
+                    if (tri != null)
+                    {
+                        tri.close();
+                    }
                 }
+
+                return registry;
             }
+        });
+    }
 
-            id2schema = new_id2schema;
-            name2schema = new_name2schema;
+    /**
+     * The whole schema registry, shared by all contexts. The finders hand out
+     * copies, so callers may change and update what they get.
+     */
+    private static class Registry
+    {
+        final List<MetadataSchema> all = new ArrayList<MetadataSchema>();
+        final Map<Integer, MetadataSchema> byID = new HashMap<Integer, MetadataSchema>();
+        final Map<String, MetadataSchema> byName = new HashMap<String, MetadataSchema>();
+        final Map<String, MetadataSchema> byNamespace = new HashMap<String, MetadataSchema>();
+
+        static MetadataSchema copy(MetadataSchema schema)
+        {
+            return (schema == null) ? null : new MetadataSchema(new TableRow(schema.row));
         }
     }
 }
@@ -17,6 +17,7 @@ import org.dspace.core.Context;
 import org.dspace.core.LogManager;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowBatch;
 import org.dspace.storage.rdbms.TableRowIterator;
 
 /**
@@ -278,6 +279,115 @@ public class MetadataValue
 //                "metadata_value_id=" + valueId));
     }
 
+    /**
+     * Insert a number of new metadata values using JDBC batches. The primary
+     * keys are allocated in blocks and set on the given objects.
+     *
+     * @param context
+     *            DSpace context object
+     * @param values
+     *            the values to insert
+     * @throws SQLException
+     */
+    static void createBatch(Context context, List<MetadataValue> values) throws SQLException
+    {
+        if (values.isEmpty())
+        {
+            return;
+        }
+
+        TableRowBatch batch = DatabaseManager.beginBatch(context, "MetadataValue");
+        try
+        {
+            for (MetadataValue value : values)
+            {
+                TableRow row = DatabaseManager.row("MetadataValue");
+                row.setColumn("item_id", value.itemId);
+                row.setColumn("metadata_field_id", value.fieldId);
+                row.setColumn("text_value", value.value);
+                row.setColumn("text_lang", value.language);
+                row.setColumn("place", value.place);
+                row.setColumn("authority", value.authority);
+                row.setColumn("confidence", value.confidence);
+                batch.insert(row);
+
+                value.row = row;
+                value.valueId = row.getIntColumn("metadata_value_id");
+            }
+        }
+        finally
+        {
+            batch.close();
+        }
+    }
+
+    /**
+     * Write the current place of a number of stored metadata values using
+     * JDBC batches.
+     *
+     * @param context
+     *            DSpace context object
+     * @param values
+     *            the values to update; each must have a value ID
+     * @throws SQLException
+     */
+    static void updatePlaceBatch(Context context, List<MetadataValue> values) throws SQLException
+    {
+        if (values.isEmpty())
+        {
+            return;
+        }
+
+        TableRowBatch batch = DatabaseManager.beginBatch(context, "MetadataValue");
+        try
+        {
+            for (MetadataValue value : values)
+            {
+                // only the place is marked as changed, so only the place is written
+                TableRow row = DatabaseManager.row("MetadataValue");
+                row.setColumn("metadata_value_id", value.valueId);
+                row.setColumn("place", value.place);
+                batch.update(row);
+            }
+        }
+        finally
+        {
+            batch.close();
+        }
+    }
+
+    /**
+     * Delete a number of stored metadata values using JDBC batches.
+     *
+     * @param context
+     *            DSpace context object
+     * @param values
+     *            the values to delete; each must have a value ID
+     * @throws SQLException
+     */
+    static void deleteBatch(Context context, List<MetadataValue> values) throws SQLException
+    {
+        if (values.isEmpty())
+        {
+            return;
+        }
+
+        TableRowBatch batch = DatabaseManager.beginBatch(context, "MetadataValue");
+        try
+        {
+            for (MetadataValue value : values)
+            {
+                TableRow row = DatabaseManager.row("MetadataValue");
+                row.setColumn("metadata_value_id", value.valueId);
+                batch.delete(row);
+            }
+        }
+        finally
+        {
+            batch.close();
+        }
+    }
+
     /**
      * Retrieves the metadata value from the database.
      *
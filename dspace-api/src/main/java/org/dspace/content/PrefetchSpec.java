@@ -0,0 +1,165 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import org.dspace.core.ConfigurationManager;
+
+/**
+ * Describes which parts of an item's object graph an {@link ItemIterator}
+ * should load in bulk. Items are read in pages of <code>pageSize</code> IDs,
+ * and each requested relation is fetched with a single IN-list query per page
+ * instead of one query per item.
+ * <P>
+ * Typical use by a batch job walking the whole repository:
+ *
+ * <pre>
+ * ItemIterator items = Item.findAll(context, PrefetchSpec.all());
+ * </pre>
+ *
+ * The default page size is read from <code>item.prefetch.pagesize</code> in
+ * dspace.cfg.
+ *
+ * @see ItemIterator
+ */
+public class PrefetchSpec
+{
+    /** Page size used when none is configured */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /** Upper bound on the page size, to keep IN-lists within database limits */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private int pageSize;
+
+    private boolean metadata = false;
+
+    private boolean handles = false;
+
+    private boolean bundles = false;
+
+    private boolean collections = false;
+
+    /**
+     * Create a specification that prefetches nothing, using the configured
+     * page size.
+     */
+    public PrefetchSpec()
+    {
+        this(ConfigurationManager.getIntProperty("item.prefetch.pagesize", DEFAULT_PAGE_SIZE));
+    }
+
+    /**
+     * Create a specification that prefetches nothing, using the given page
+     * size.
+     *
+     * @param pageSize
+     *            number of items to load at a time
+     */
+    public PrefetchSpec(int pageSize)
+    {
+        if (pageSize < 1)
+        {
+            pageSize = DEFAULT_PAGE_SIZE;
+        }
+        this.pageSize = Math.min(pageSize, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * @return a specification that prefetches metadata, handles, bundles with
+     *         their bitstreams and collection mappings, using the configured
+     *         page size
+     */
+    public static PrefetchSpec all()
+    {
+        return new PrefetchSpec().withMetadata().withHandles().withBundles().withCollections();
+    }
+
+    /**
+     * Prefetch the metadata values of each item.
+     *
+     * @return this specification
+     */
+    public PrefetchSpec withMetadata()
+    {
+        metadata = true;
+        return this;
+    }
+
+    /**
+     * Prefetch the handle of each item.
+     *
+     * @return this specification
+     */
+    public PrefetchSpec withHandles()
+    {
+        handles = true;
+        return this;
+    }
+
+    /**
+     * Prefetch the bundles of each item, and the bitstreams in them.
+     *
+     * @return this specification
+     */
+    public PrefetchSpec withBundles()
+    {
+        bundles = true;
+        return this;
+    }
+
+    /**
+     * Prefetch the collections each item is mapped to.
+     *
+     * @return this specification
+     */
+    public PrefetchSpec withCollections()
+    {
+        collections = true;
+        return this;
+    }
+
+    /**
+     * @return the number of items loaded at a time
+     */
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    /**
+     * @return whether metadata values are prefetched
+     */
+    public boolean isMetadata()
+    {
+        return metadata;
+    }
+
+    /**
+     * @return whether handles are prefetched
+     */
+    public boolean isHandles()
+    {
+        return handles;
+    }
+
+    /**
+     * @return whether bundles and bitstreams are prefetched
+     */
+    public boolean isBundles()
+    {
+        return bundles;
+    }
+
+    /**
+     * @return whether collection mappings are prefetched
+     */
+    public boolean isCollections()
+    {
+        return collections;
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the authorization decisions made for one {@link Context}, so that
+ * checking the same action on the same object again does not rerun the
+ * policy and group membership queries. It also holds the IDs of all groups the
+ * current user is a member of.
+ * <P>
+ * The cache is cleared whenever something it depends on changes through the
+ * same Context: the current user, special groups, resource policies or group
+ * memberships. Changes made by other Contexts are not seen until it is
+ * cleared.
+ * <P>
+ * At most <code>cache.authorization.maxsize</code> decisions are kept (10000
+ * by default); when full, the cache is emptied. 0 disables caching.
+ *
+ * @see Context#getAuthorizationCache()
+ */
+public final class AuthorizationCache
+{
+    /** Most decisions kept, or 0 to keep none */
+    private final int maxSize;
+
+    /** Decisions, keyed by object type, object ID, action and inheritance */
+    private final Map<Long, Boolean> decisions = new HashMap<Long, Boolean>();
+
+    /** All groups of the current user, or null if not known yet */
+    private Set<Integer> groupIDs = null;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    /**
+     * Create a cache sized according to <code>cache.authorization.maxsize</code>.
+     */
+    AuthorizationCache()
+    {
+        this(ConfigurationManager.getIntProperty("cache.authorization.maxsize", 10000));
+    }
+
+    /**
+     * Create a cache keeping at most <code>maxSize</code> decisions.
+     *
+     * @param maxSize
+     *            the most decisions to keep, or 0 to keep none
+     */
+    AuthorizationCache(int maxSize)
+    {
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    /**
+     * Look up a decision.
+     *
+     * @param type
+     *            the object type, from <code>Constants</code>
+     * @param id
+     *            the object ID
+     * @param action
+     *            the action, from <code>Constants</code>, or -1
+     * @param useInheritance
+     *            whether ADMIN rights on parent objects were considered
+     * @return the decision, or null if it is not known
+     */
+    public Boolean getDecision(int type, int id, int action, boolean useInheritance)
+    {
+        Boolean decision = decisions.get(key(type, id, action, useInheritance));
+        if (decision == null)
+        {
+            misses++;
+        }
+        else
+        {
+            hits++;
+        }
+        return decision;
+    }
+
+    /**
+     * Remember a decision.
+     *
+     * @param type
+     *            the object type, from <code>Constants</code>
+     * @param id
+     *            the object ID
+     * @param action
+     *            the action, from <code>Constants</code>, or -1
+     * @param useInheritance
+     *            whether ADMIN rights on parent objects were considered
+     * @param decision
+     *            true if the action is allowed
+     */
+    public void putDecision(int type, int id, int action, boolean useInheritance, boolean decision)
+    {
+        if (maxSize == 0)
+        {
+            return;
+        }
+
+        if (decisions.size() >= maxSize)
+        {
+            decisions.clear();
+        }
+        decisions.put(key(type, id, action, useInheritance), Boolean.valueOf(decision));
+    }
+
+    /**
+     * @return the IDs of all groups the current user is a member of, or null
+     *         if not known yet
+     */
+    public Set<Integer> getGroupIDs()
+    {
+        return groupIDs;
+    }
+
+    /**
+     * Remember the groups the current user is a member of.
+     *
+     * @param groupIDs
+     *            the IDs of the groups
+     */
+    public void setGroupIDs(Set<Integer> groupIDs)
+    {
+        if (maxSize > 0)
+        {
+            this.groupIDs = Collections.unmodifiableSet(groupIDs);
+        }
+    }
+
+    /**
+     * Forget all decisions and group memberships.
+     */
+    public void clear()
+    {
+        decisions.clear();
+        groupIDs = null;
+    }
+
+    /**
+     * @return the number of decisions held
+     */
+    public int size()
+    {
+        return decisions.size();
+    }
+
+    /**
+     * @return the number of lookups that found a decision
+     */
+    public long getHitCount()
+    {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that found nothing
+     */
+    public long getMissCount()
+    {
+        return misses;
+    }
+
+    private static Long key(int type, int id, int action, boolean useInheritance)
+    {
+        // type and action are small, so they share the low 32 bits
+        return Long.valueOf(((long) id << 32) | ((type & 0xFFFF) << 16)
+                | (((action + 1) & 0x7FFF) << 1) | (useInheritance ? 1 : 0));
+    }
+}
@@ -18,6 +18,7 @@ import org.dspace.event.Dispatcher;
 import org.dspace.event.Event;
 import org.dspace.event.EventManager;
 import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.StatementCache;
 import org.springframework.util.CollectionUtils;
 
 /**
@@ -47,6 +48,9 @@ public class Context
     /** Database connection */
     private Connection connection;
 
+    /** Prepared statements of the connection, see DatabaseManager */
+    private StatementCache statementCache;
+
     /** Current user - null means anonymous access */
     private EPerson currentUser;
 
@@ -69,7 +73,13 @@ public class Context
     private Stack<String> authStateClassCallHistory;
 
     /** Object cache for this context */
-    private Map<String, Object> objectCache;
+    private ContextCache objectCache;
+
+    /** Implementation of the object cache, from cache.context.class */
+    private static Class<? extends ContextCache> cacheClass = null;
+
+    /** Authorization decisions made for this context */
+    private AuthorizationCache authorizationCache;
 
     /** Group IDs of special groups user is a member of */
     private List<Integer> specialGroups;
@@ -77,6 +87,9 @@ public class Context
     /** Content events */
     private LinkedList<Event> events = null;
 
+    /** Regions of the reference data cache changed and not yet committed */
+    private Set<String> changedReferenceData = null;
+
     /** Event dispatcher name */
     private String dispName = null;
 
@@ -126,13 +139,52 @@ public class Context
         extraLogInfo = "";
         ignoreAuth = false;
 
-        objectCache = new HashMap<String, Object>();
+        objectCache = newCache();
+        authorizationCache = new AuthorizationCache();
         specialGroups = new ArrayList<Integer>();
 
         authStateChangeHistory = new Stack<Boolean>();
         authStateClassCallHistory = new Stack<String>();
     }
 
+    /**
+     * Create the object cache named by <code>cache.context.class</code>,
+     * falling back to {@link LRUContextCache} if none is configured or the
+     * configured class cannot be used.
+     */
+    private static ContextCache newCache()
+    {
+        if (cacheClass == null)
+        {
+            Class<? extends ContextCache> found = LRUContextCache.class;
+            String className = ConfigurationManager.getProperty("cache.context.class");
+            if (className != null && className.trim().length() > 0)
+            {
+                try
+                {
+                    found = Class.forName(className.trim()).asSubclass(ContextCache.class);
+                }
+                catch (Exception e)
+                {
+                    log.error("Cannot load context cache class " + className
+                            + ", using " + found.getName(), e);
+                }
+            }
+            cacheClass = found;
+        }
+
+        try
+        {
+            return cacheClass.newInstance();
+        }
+        catch (Exception e)
+        {
+            log.error("Cannot instantiate context cache " + cacheClass.getName(), e);
+            cacheClass = LRUContextCache.class;
+            return new LRUContextCache();
+        }
+    }
+
     /**
      * Get the database connection associated with the context
      * 
@@ -143,6 +195,30 @@ public class Context
         return connection;
     }
 
+    /**
+     * Get the prepared statements of the database connection, which are
+     * closed when the context frees the connection.
+     *
+     * @return the statement cache, or null once the context is closed
+     */
+    public StatementCache getStatementCache()
+    {
+        if (statementCache == null && connection != null)
+        {
+            statementCache = DatabaseManager.newStatementCache(connection);
+        }
+        return statementCache;
+    }
+
+    private void closeStatementCache()
+    {
+        if (statementCache != null)
+        {
+            statementCache.close();
+            statementCache = null;
+        }
+    }
+
     /**
      * Set the current user. Authentication must have been performed by the
      * caller - this call does not attempt any authentication.
@@ -154,6 +230,7 @@ public class Context
     public void setCurrentUser(EPerson user)
     {
         currentUser = user;
+        authorizationCache.clear();
     }
 
     /**
@@ -331,8 +408,10 @@ public class Context
         finally
         {
             // Free the connection
+            closeStatementCache();
             DatabaseManager.freeConnection(connection);
             connection = null;
+            logCacheStatistics();
             clearCache();
         }
     }
@@ -370,11 +449,13 @@ public class Context
 
                 dispatcher = EventManager.getDispatcher(dispName);
                 connection.commit();
+                referenceDataCommitted();
                 dispatcher.dispatch(this);
             }
             else
             {
                 connection.commit();
+                referenceDataCommitted();
             }
 
         }
@@ -481,6 +562,7 @@ public class Context
         }
         finally
         {
+            closeStatementCache();
             try
             {
                 if (!connection.isClosed())
@@ -494,10 +576,52 @@ public class Context
             }
             connection = null;
             events = null;
+            changedReferenceData = null;
+            logCacheStatistics();
             clearCache();
         }
     }
 
+    /**
+     * Record that a region of the {@link ReferenceDataCache} was changed
+     * using this context.
+     *
+     * @param region
+     *            name of the region
+     */
+    void changedReferenceData(String region)
+    {
+        if (changedReferenceData == null)
+        {
+            changedReferenceData = new HashSet<String>();
+        }
+        changedReferenceData.add(region);
+    }
+
+    /**
+     * @param region
+     *            name of a region of the {@link ReferenceDataCache}
+     * @return whether this context has changed the region and not committed
+     *         yet
+     */
+    boolean hasChangedReferenceData(String region)
+    {
+        return changedReferenceData != null && changedReferenceData.contains(region);
+    }
+
+    /**
+     * Invalidate the reference data changed by the transaction just
+     * committed.
+     */
+    private void referenceDataCommitted()
+    {
+        if (changedReferenceData != null)
+        {
+            ReferenceDataCache.committed(changedReferenceData);
+            changedReferenceData = null;
+        }
+    }
+
     /**
      * 
      * Find out if this context is valid. Returns <code>false</code> if this
@@ -536,9 +660,7 @@ public class Context
      */
     public Object fromCache(Class<?> objectClass, int id)
     {
-        String key = objectClass.getName() + id;
-
-        return objectCache.get(key);
+        return objectCache.get(objectClass, id);
     }
 
     /**
@@ -554,8 +676,7 @@ public class Context
         // bypass cache if in read-only mode
         if (! isReadOnly())
         {
-            String key = o.getClass().getName() + id;
-            objectCache.put(key, o);
+            objectCache.put(o, id);
         }
     }
 
@@ -569,8 +690,7 @@ public class Context
      */
     public void removeCached(Object o, int id)
     {
-        String key = o.getClass().getName() + id;
-        objectCache.remove(key);
+        objectCache.remove(o.getClass(), id);
     }
 
     /**
@@ -597,6 +717,57 @@ public class Context
         return objectCache.size();
     }
 
+    /**
+     * @return the number of object cache lookups that found an object
+     */
+    public long getCacheHitCount()
+    {
+        return objectCache.getHitCount();
+    }
+
+    /**
+     * @return the number of object cache lookups that found nothing
+     */
+    public long getCacheMissCount()
+    {
+        return objectCache.getMissCount();
+    }
+
+    /**
+     * @return the number of objects evicted from the object cache to keep it
+     *         within <code>cache.context.maxsize</code>
+     */
+    public long getCacheEvictionCount()
+    {
+        return objectCache.getEvictionCount();
+    }
+
+    /**
+     * Get the authorization decisions remembered for this context. Code that
+     * changes resource policies or group memberships through this context
+     * must clear it.
+     *
+     * @return the authorization cache
+     */
+    public AuthorizationCache getAuthorizationCache()
+    {
+        return authorizationCache;
+    }
+
+    private void logCacheStatistics()
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug("Context object cache: size=" + objectCache.size()
+                    + ", hits=" + objectCache.getHitCount()
+                    + ", misses=" + objectCache.getMissCount()
+                    + ", evictions=" + objectCache.getEvictionCount());
+            log.debug("Context authorization cache: size=" + authorizationCache.size()
+                    + ", hits=" + authorizationCache.getHitCount()
+                    + ", misses=" + authorizationCache.getMissCount());
+        }
+    }
+
     /**
      * set membership in a special group
      * 
@@ -606,6 +777,7 @@ public class Context
     public void setSpecialGroup(int groupID)
     {
         specialGroups.add(Integer.valueOf(groupID));
+        authorizationCache.clear();
 
         // System.out.println("Added " + groupID);
     }
@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+/**
+ * The object cache held by each {@link Context}. Objects are keyed by their
+ * class and database ID.
+ * <P>
+ * An implementation is chosen with the <code>cache.context.class</code>
+ * property in dspace.cfg and must have a public no-argument constructor. A
+ * new instance is created for every Context, so implementations need not be
+ * thread safe. Implementations that bound their size must never evict an
+ * object that has unsaved changes.
+ *
+ * @see LRUContextCache
+ */
+public interface ContextCache
+{
+    /**
+     * Look up an object.
+     *
+     * @param objectClass
+     *            Java Class of the object
+     * @param id
+     *            ID of the object
+     * @return the cached object, or <code>null</code> if it is not cached
+     */
+    public Object get(Class<?> objectClass, int id);
+
+    /**
+     * Store an object, replacing any object of the same class and ID.
+     *
+     * @param o
+     *            the object to store
+     * @param id
+     *            the object's ID
+     */
+    public void put(Object o, int id);
+
+    /**
+     * Remove an object, if it is cached.
+     *
+     * @param objectClass
+     *            Java Class of the object
+     * @param id
+     *            ID of the object
+     */
+    public void remove(Class<?> objectClass, int id);
+
+    /**
+     * Remove all objects.
+     */
+    public void clear();
+
+    /**
+     * @return the number of cached objects
+     */
+    public int size();
+
+    /**
+     * @return the number of lookups that found an object
+     */
+    public long getHitCount();
+
+    /**
+     * @return the number of lookups that found nothing
+     */
+    public long getMissCount();
+
+    /**
+     * @return the number of objects removed to keep the cache within its
+     *         size limit
+     */
+    public long getEvictionCount();
+}
@@ -0,0 +1,291 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dspace.content.DSpaceObject;
+
+/**
+ * Default {@link ContextCache}: a hash table keyed by a primitive
+ * <code>long</code> made of a small per-class number and the object ID,
+ * with entries kept in least-recently-used order.
+ * <P>
+ * The maximum size is read from <code>cache.context.maxsize</code>; 0 (the
+ * default) means unbounded. When the limit is reached the least recently used
+ * object is evicted, skipping any {@link DSpaceObject} that reports unsaved
+ * changes through {@link DSpaceObject#isModified()}. If every object is
+ * modified the cache grows past its limit rather than losing changes.
+ */
+public class LRUContextCache implements ContextCache
+{
+    /** Numbers assigned to cached classes, shared by all caches */
+    private static final ConcurrentMap<Class<?>, Integer> classNumbers = new ConcurrentHashMap<Class<?>, Integer>();
+
+    private static final AtomicInteger nextClassNumber = new AtomicInteger();
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Maximum number of objects, or 0 if unbounded */
+    private final int maxSize;
+
+    /** Hash buckets; length is always a power of two */
+    private Entry[] table = new Entry[INITIAL_CAPACITY];
+
+    /** Sentinel of the circular LRU list; header.after is the eldest entry */
+    private final Entry header = new Entry(0L, null, null);
+
+    private int size = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long evictions = 0;
+
+    /**
+     * Create a cache sized according to <code>cache.context.maxsize</code>.
+     */
+    public LRUContextCache()
+    {
+        this(ConfigurationManager.getIntProperty("cache.context.maxsize", 0));
+    }
+
+    /**
+     * Create a cache with the given size limit.
+     *
+     * @param maxSize
+     *            maximum number of objects, or 0 for no limit
+     */
+    public LRUContextCache(int maxSize)
+    {
+        this.maxSize = Math.max(0, maxSize);
+        header.before = header;
+        header.after = header;
+    }
+
+    public Object get(Class<?> objectClass, int id)
+    {
+        Entry e = find(key(objectClass, id));
+        if (e == null)
+        {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        e.unlink();
+        e.linkBefore(header);
+        return e.value;
+    }
+
+    public void put(Object o, int id)
+    {
+        long key = key(o.getClass(), id);
+        Entry e = find(key);
+        if (e != null)
+        {
+            e.value = o;
+            e.unlink();
+            e.linkBefore(header);
+            return;
+        }
+
+        if (size + 1 > table.length * 3 / 4)
+        {
+            resize();
+        }
+
+        int index = index(key, table.length);
+        e = new Entry(key, o, table[index]);
+        table[index] = e;
+        e.linkBefore(header);
+        size++;
+
+        if (maxSize > 0 && size > maxSize)
+        {
+            evict();
+        }
+    }
+
+    public void remove(Class<?> objectClass, int id)
+    {
+        long key = key(objectClass, id);
+        int index = index(key, table.length);
+        Entry previous = null;
+        for (Entry e = table[index]; e != null; previous = e, e = e.next)
+        {
+            if (e.key == key)
+            {
+                if (previous == null)
+                {
+                    table[index] = e.next;
+                }
+                else
+                {
+                    previous.next = e.next;
+                }
+                e.unlink();
+                size--;
+                return;
+            }
+        }
+    }
+
+    public void clear()
+    {
+        if (size > 0)
+        {
+            table = new Entry[INITIAL_CAPACITY];
+            header.before = header;
+            header.after = header;
+            size = 0;
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public long getHitCount()
+    {
+        return hits;
+    }
+
+    public long getMissCount()
+    {
+        return misses;
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    /**
+     * Evict the least recently used unmodified object. Modified objects that
+     * are passed over are moved to the most recently used end, so that they
+     * are not examined again on every insertion.
+     */
+    private void evict()
+    {
+        int examined = 0;
+        Entry e = header.after;
+        while (e != header && examined < size)
+        {
+            Entry following = e.after;
+            if (isEvictable(e.value))
+            {
+                remove(e.value.getClass(), (int) e.key);
+                evictions++;
+                return;
+            }
+
+            e.unlink();
+            e.linkBefore(header);
+            examined++;
+            e = following;
+        }
+    }
+
+    /**
+     * Objects with unsaved changes must stay in the cache, or the changes
+     * would be lost when the object is next looked up.
+     */
+    protected boolean isEvictable(Object o)
+    {
+        return !(o instanceof DSpaceObject) || !((DSpaceObject) o).isModified();
+    }
+
+    private Entry find(long key)
+    {
+        for (Entry e = table[index(key, table.length)]; e != null; e = e.next)
+        {
+            if (e.key == key)
+            {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private void resize()
+    {
+        Entry[] newTable = new Entry[table.length * 2];
+        for (Entry bucket : table)
+        {
+            Entry e = bucket;
+            while (e != null)
+            {
+                Entry next = e.next;
+                int index = index(e.key, newTable.length);
+                e.next = newTable[index];
+                newTable[index] = e;
+                e = next;
+            }
+        }
+        table = newTable;
+    }
+
+    private static long key(Class<?> objectClass, int id)
+    {
+        Integer number = classNumbers.get(objectClass);
+        if (number == null)
+        {
+            Integer assigned = Integer.valueOf(nextClassNumber.getAndIncrement());
+            number = classNumbers.putIfAbsent(objectClass, assigned);
+            if (number == null)
+            {
+                number = assigned;
+            }
+        }
+        return ((long) number.intValue() << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    private static int index(long key, int length)
+    {
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (length - 1);
+    }
+
+    /**
+     * A cached object; a member of both a hash chain and the LRU list.
+     */
+    private static final class Entry
+    {
+        final long key;
+        Object value;
+        Entry next;
+        Entry before;
+        Entry after;
+
+        Entry(long key, Object value, Entry next)
+        {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        void unlink()
+        {
+            before.after = after;
+            after.before = before;
+        }
+
+        void linkBefore(Entry existing)
+        {
+            after = existing;
+            before = existing.before;
+            before.after = this;
+            existing.before = this;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.dspace.services.CachingService;
+import org.dspace.services.model.Cache;
+import org.dspace.services.model.CacheConfig;
+import org.dspace.services.model.CacheConfig.CacheScope;
+import org.dspace.utils.DSpace;
+
+/**
+ * JVM-wide read-through cache for small, rarely changing tables such as the
+ * metadata and bitstream format registries. Each kind of data is a
+ * <em>region</em> holding a single snapshot, loaded on first use and shared by
+ * every Context until the region is invalidated.
+ * <P>
+ * Snapshots are kept in the <code>org.dspace.core.ReferenceDataCache</code>
+ * cache of the {@link CachingService}. If the DSpace kernel is not running, a
+ * plain map is used instead.
+ * <P>
+ * Every region has a version number, which is part of the cache key and is
+ * increased by {@link #invalidate(Context, String)}. A snapshot that was being
+ * loaded while the region was invalidated is therefore never stored. The
+ * Context that made the change remembers the region: until it commits, its
+ * own lookups read the database and are not cached, as they would see its
+ * uncommitted rows, and once it commits the region is invalidated once more,
+ * so that snapshots read by other Contexts before the commit are discarded.
+ * <P>
+ * Nothing tells this cache about changes made by another JVM (another web
+ * application or a command line tool). Data that must not be stale, such as
+ * the group hierarchy used for authorization, should either not be cached
+ * or be given a short maximum age.
+ * <P>
+ * Snapshots are shared between threads and must not be modified once
+ * returned by a {@link Loader}.
+ */
+public final class ReferenceDataCache
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ReferenceDataCache.class);
+
+    /** Name of the cache in the caching service */
+    public static final String CACHE_NAME = "org.dspace.core.ReferenceDataCache";
+
+    /** Current version of each region */
+    private static final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+
+    /** Snapshots, used when there is no caching service */
+    private static final ConcurrentMap<String, Object> localCache = new ConcurrentHashMap<String, Object>();
+
+    /** The shared cache, once the caching service has been looked up */
+    private static volatile Cache sharedCache = null;
+
+    /** Whether the caching service has been looked up */
+    private static volatile boolean initialized = false;
+
+    private static final AtomicLong hits = new AtomicLong();
+
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Loads the snapshot of a region from the database.
+     *
+     * @param <T> type of the snapshot
+     */
+    public interface Loader<T>
+    {
+        /**
+         * @param context
+         *            DSpace context object, for database access
+         * @return the snapshot; never <code>null</code>
+         * @throws SQLException
+         */
+        public T load(Context context) throws SQLException;
+    }
+
+    private ReferenceDataCache()
+    {
+    }
+
+    /**
+     * Get the snapshot of a region, loading it if it is not cached. The
+     * snapshot is kept until the region is invalidated.
+     *
+     * @param context
+     *            DSpace context object, used if the snapshot must be loaded
+     * @param region
+     *            name of the region
+     * @param loader
+     *            loads the snapshot
+     * @return the snapshot
+     * @throws SQLException
+     */
+    public static <T> T get(Context context, String region, Loader<T> loader)
+            throws SQLException
+    {
+        return get(context, region, 0, loader);
+    }
+
+    /**
+     * Get the snapshot of a region, loading it if it is not cached or is
+     * older than the given age.
+     *
+     * @param context
+     *            DSpace context object, used if the snapshot must be loaded
+     * @param region
+     *            name of the region
+     * @param maxAge
+     *            milliseconds after which a snapshot is loaded again, or 0
+     *            to keep it until the region is invalidated
+     * @param loader
+     *            loads the snapshot
+     * @return the snapshot
+     * @throws SQLException
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(Context context, String region, long maxAge, Loader<T> loader)
+            throws SQLException
+    {
+        if (context != null && context.hasChangedReferenceData(region))
+        {
+            // the context would see its own uncommitted changes
+            misses.incrementAndGet();
+            return loader.load(context);
+        }
+
+        AtomicLong version = version(region);
+        long loadedVersion = version.get();
+        String key = region + ":" + loadedVersion;
+
+        Cache cache = getSharedCache();
+        Snapshot snapshot = (Snapshot) ((cache != null) ? cache.get(key) : localCache.get(key));
+        if (snapshot != null && snapshot.data != null
+                && (maxAge <= 0 || System.currentTimeMillis() - snapshot.loaded < maxAge))
+        {
+            hits.incrementAndGet();
+            return (T) snapshot.data;
+        }
+
+        misses.incrementAndGet();
+        T loaded = loader.load(context);
+
+        // Only keep the snapshot if nothing changed while it was being read
+        if (version.get() == loadedVersion)
+        {
+            Snapshot fresh = new Snapshot(loaded);
+            if (cache != null)
+            {
+                cache.put(key, fresh);
+            }
+            else
+            {
+                localCache.put(key, fresh);
+            }
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Discard the snapshot of a region, because the underlying data has been
+     * changed using a Context. The next {@link #get} reloads it; the region
+     * is invalidated again when the Context commits.
+     *
+     * @param context
+     *            DSpace context object the data was changed with, or
+     *            <code>null</code> if the change is already committed
+     * @param region
+     *            name of the region
+     */
+    public static void invalidate(Context context, String region)
+    {
+        discard(region);
+        if (context != null)
+        {
+            context.changedReferenceData(region);
+        }
+    }
+
+    /**
+     * Invalidate the regions changed by a Context, once it has committed.
+     *
+     * @param regions
+     *            names of the regions
+     */
+    static void committed(Collection<String> regions)
+    {
+        for (String region : regions)
+        {
+            discard(region);
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public static long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that had to load a snapshot
+     */
+    public static long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Move a region to a new version and drop the old snapshot.
+     */
+    private static void discard(String region)
+    {
+        long oldVersion = version(region).getAndIncrement();
+        String key = region + ":" + oldVersion;
+
+        Cache cache = getSharedCache();
+        if (cache != null)
+        {
+            cache.remove(key);
+        }
+        else
+        {
+            localCache.remove(key);
+        }
+    }
+
+    private static AtomicLong version(String region)
+    {
+        AtomicLong version = versions.get(region);
+        if (version == null)
+        {
+            AtomicLong created = new AtomicLong();
+            version = versions.putIfAbsent(region, created);
+            if (version == null)
+            {
+                version = created;
+            }
+        }
+        return version;
+    }
+
+    private static Cache getSharedCache()
+    {
+        if (!initialized)
+        {
+            initialize();
+        }
+        return sharedCache;
+    }
+
+    /**
+     * Look up the caching service. If the kernel is not running the local
+     * map is used for the lifetime of the JVM.
+     */
+    private static synchronized void initialize()
+    {
+        if (initialized)
+        {
+            return;
+        }
+
+        try
+        {
+            DSpace dspace = new DSpace();
+            CachingService caching = dspace.getSingletonService(CachingService.class);
+            if (caching != null)
+            {
+                sharedCache = caching.getCache(CACHE_NAME, new CacheConfig(CacheScope.INSTANCE));
+            }
+        }
+        catch (RuntimeException e)
+        {
+            log.info("DSpace services unavailable, reference data will be cached locally: "
+                    + e.getMessage());
+        }
+        finally
+        {
+            initialized = true;
+        }
+    }
+
+    /**
+     * A snapshot with the time it was loaded. The caching service only holds
+     * Serializable values, but the data is never written out: a snapshot that
+     * has been serialized comes back empty and is loaded again.
+     */
+    private static final class Snapshot implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Object data;
+
+        private final long loaded = System.currentTimeMillis();
+
+        Snapshot(Object data)
+        {
+            this.data = data;
+        }
+    }
+}
@@ -9,10 +9,14 @@ package org.dspace.core;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.rmi.dgc.VMID;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -206,6 +210,9 @@ public final class Utils
         return getMD5Bytes(input.getBytes());
     }
 
+    /** Size of the buffer used to copy from a file channel to a stream */
+    private static final int CHANNEL_BUFFER_SIZE = 256 * 1024;
+
     // The following two methods are taken from the Jakarta IOUtil class.
 
     /**
@@ -265,6 +272,61 @@ public final class Utils
         output.flush();
     }
 
+    /**
+     * Copy part of a file to a stream. When the stream is a file the bytes
+     * are moved by the operating system without passing through the Java
+     * heap; otherwise they are read straight from the channel into a large
+     * buffer, without the small reads of an input stream. Neither the channel
+     * nor the stream are closed, and the channel's position is not changed.
+     * 
+     * @param source
+     *            The file to obtain data from.
+     * @param position
+     *            The first byte to copy.
+     * @param count
+     *            The number of bytes to copy.
+     * @param destination
+     *            The OutputStream to copy data to.
+     */
+    public static void copy(final FileChannel source, long position, long count,
+            final OutputStream destination) throws IOException
+    {
+        if (destination instanceof FileOutputStream)
+        {
+            FileChannel target = ((FileOutputStream) destination).getChannel();
+            while (count > 0)
+            {
+                long transferred = source.transferTo(position, count, target);
+                if (transferred <= 0)
+                {
+                    if (position >= source.size())
+                    {
+                        throw new EOFException("File ended before " + count + " more bytes");
+                    }
+                    continue;
+                }
+                position += transferred;
+                count -= transferred;
+            }
+            return;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, CHANNEL_BUFFER_SIZE));
+        while (count > 0)
+        {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), count));
+            int read = source.read(buffer, position);
+            if (read < 0)
+            {
+                throw new EOFException("File ended before " + count + " more bytes");
+            }
+            destination.write(buffer.array(), 0, read);
+            position += read;
+            count -= read;
+        }
+    }
+
     /**
      * Replace characters that could be interpreted as HTML codes with symbolic
      * references (entities). This function should be called before displaying
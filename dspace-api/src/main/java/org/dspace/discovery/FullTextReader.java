@@ -0,0 +1,272 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Bitstream;
+
+/**
+ * Reads the extracted text of TEXT bundle bitstreams for the "fulltext" field,
+ * never holding more than the requested number of characters. Runs of
+ * whitespace and control characters are collapsed into single spaces.
+ * <P>
+ * When a cache directory is configured, the normalized text is kept there,
+ * named after the checksum of the bitstream, so indexing the same content
+ * again (e.g. after a schema change) does not read the assetstore. Text cut
+ * short by the limit is cached as such, and read again if a later request
+ * needs more of it.
+ */
+public class FullTextReader
+{
+    private static final Logger log = Logger.getLogger(FullTextReader.class);
+
+    private static final String COMPLETE = ".txt";
+
+    private static final String PARTIAL = ".partial";
+
+    /**
+     * Opens the text to read.
+     */
+    interface Source
+    {
+        InputStream open() throws Exception;
+    }
+
+    /** Where cached text is kept, or null not to cache */
+    private final File cacheDir;
+
+    /**
+     * @param cacheDir
+     *            the directory for cached text, or null not to cache
+     */
+    public FullTextReader(File cacheDir)
+    {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Get a key identifying the content of a bitstream.
+     *
+     * @param bitstream
+     *            the bitstream
+     * @return the checksum algorithm and checksum, or null if there is no
+     *         checksum
+     */
+    public static String getContentKey(Bitstream bitstream)
+    {
+        String checksum = bitstream.getChecksum();
+        if (checksum == null || checksum.length() == 0)
+        {
+            return null;
+        }
+
+        String algorithm = bitstream.getChecksumAlgorithm();
+        return ((algorithm == null) ? "" : algorithm + "-") + checksum.toLowerCase();
+    }
+
+    /**
+     * Read the text of a bitstream.
+     *
+     * @param bitstream
+     *            the bitstream holding extracted text
+     * @param maxChars
+     *            the most characters to return
+     * @return the normalized text, at most <code>maxChars</code> long
+     */
+    public String read(final Bitstream bitstream, int maxChars) throws IOException
+    {
+        return read(getContentKey(bitstream), new Source()
+        {
+            public InputStream open() throws Exception
+            {
+                return bitstream.retrieve();
+            }
+        }, maxChars);
+    }
+
+    /**
+     * Read text through the cache.
+     *
+     * @param key
+     *            the content key, or null not to cache
+     * @param source
+     *            opens the text if it is not cached
+     * @param maxChars
+     *            the most characters to return
+     * @return the normalized text, at most <code>maxChars</code> long
+     */
+    String read(String key, Source source, int maxChars) throws IOException
+    {
+        File complete = null;
+        File partial = null;
+        if (cacheDir != null && key != null && key.matches("[A-Za-z0-9-]+"))
+        {
+            // spread the files over subdirectories named after the end of the
+            // checksum
+            String sub = key.substring(Math.max(0, key.length() - 2));
+            File dir = new File(cacheDir, sub);
+            complete = new File(dir, key + COMPLETE);
+            partial = new File(dir, key + PARTIAL);
+
+            if (complete.exists())
+            {
+                return readCached(complete, maxChars);
+            }
+            if (partial.exists() && partial.length() >= maxChars)
+            {
+                String text = readCached(partial, maxChars);
+                if (text.length() >= maxChars)
+                {
+                    return text;
+                }
+            }
+        }
+
+        InputStream in;
+        try
+        {
+            in = source.open();
+        }
+        catch (IOException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        StringBuilder text = new StringBuilder();
+        boolean truncated;
+        try
+        {
+            truncated = normalize(new InputStreamReader(in, "UTF-8"), text, maxChars);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        if (complete != null)
+        {
+            write(truncated ? partial : complete, text);
+            if (!truncated)
+            {
+                partial.delete();
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Copy text, collapsing whitespace, until <code>maxChars</code> characters
+     * have been written.
+     *
+     * @return true if the text was cut short
+     */
+    static boolean normalize(Reader in, StringBuilder out, int maxChars) throws IOException
+    {
+        char[] buffer = new char[8192];
+        boolean space = false;
+        int n;
+        while ((n = in.read(buffer)) != -1)
+        {
+            for (int i = 0; i < n; i++)
+            {
+                char c = buffer[i];
+                if (Character.isWhitespace(c) || Character.isISOControl(c) || Character.isSpaceChar(c))
+                {
+                    space = out.length() > 0;
+                    continue;
+                }
+
+                if (space)
+                {
+                    if (out.length() >= maxChars)
+                    {
+                        return true;
+                    }
+                    out.append(' ');
+                    space = false;
+                }
+                if (out.length() >= maxChars)
+                {
+                    return true;
+                }
+                out.append(c);
+            }
+        }
+        return false;
+    }
+
+    private String readCached(File file, int maxChars) throws IOException
+    {
+        Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try
+        {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[8192];
+            int n;
+            while (text.length() < maxChars
+                    && (n = in.read(buffer, 0, Math.min(buffer.length, maxChars - text.length()))) != -1)
+            {
+                text.append(buffer, 0, n);
+            }
+            return text.toString();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private void write(File file, CharSequence text)
+    {
+        File dir = file.getParentFile();
+        File tmp = new File(dir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try
+        {
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+            {
+                throw new IOException("Unable to create " + dir);
+            }
+
+            Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            try
+            {
+                out.append(text);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (!tmp.renameTo(file))
+            {
+                // another thread got there first
+                tmp.delete();
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to cache text in " + file + ": " + e.getMessage());
+            tmp.delete();
+        }
+    }
+}
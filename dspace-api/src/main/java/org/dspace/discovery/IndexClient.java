@@ -14,6 +14,8 @@ import org.dspace.utils.DSpace;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * Class used to reindex dspace communities/collections/items into discovery
@@ -41,7 +43,7 @@ public class IndexClient {
         Context context = new Context();
         context.setIgnoreAuthorization(true);
 
-        String usage = "org.dspace.discovery.IndexClient [-cbhf[r <item handle>]] or nothing to update/clean an existing index.";
+        String usage = "org.dspace.discovery.IndexClient [-cbhf[r <item handle>]] [-t <threads>] or nothing to update/clean an existing index.";
         Options options = new Options();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine line = null;
@@ -79,6 +81,14 @@ public class IndexClient {
         options.addOption(OptionBuilder.isRequired(false).withDescription(
                 "optimize search core").create("o"));
 
+        options
+                .addOption(OptionBuilder
+                        .withArgName("threads")
+                        .hasArg(true)
+                        .withDescription(
+                                "number of threads building documents when (re)building or updating")
+                        .create("t"));
+
         try {
             line = new PosixParser().parse(options, args);
         } catch (Exception e) {
@@ -102,6 +112,12 @@ public class IndexClient {
 
         IndexingService indexer = dspace.getServiceManager().getServiceByName(IndexingService.class.getName(),IndexingService.class);
 
+        int threads = dspace.getConfigurationService().getPropertyAsType("discovery.index.threads",
+                Math.min(4, Runtime.getRuntime().availableProcessors()));
+        if (line.hasOption("t")) {
+            threads = Integer.parseInt(line.getOptionValue("t"));
+        }
+
         if (line.hasOption("r")) {
             log.info("Removing " + line.getOptionValue("r") + " from Index");
             indexer.unIndexContent(context, line.getOptionValue("r"));
@@ -110,16 +126,45 @@ public class IndexClient {
             indexer.cleanIndex(line.hasOption("f"));
         } else if (line.hasOption("b")) {
             log.info("(Re)building index from scratch.");
-            indexer.createIndex(context);
+            updateIndex(context, indexer, true, threads);
         } else if (line.hasOption("o")) {
             log.info("Optimizing search core.");
             indexer.optimize();
         } else {
             log.info("Updating and Cleaning Index");
             indexer.cleanIndex(line.hasOption("f"));
-            indexer.updateIndex(context, line.hasOption("f"));
+            updateIndex(context, indexer, line.hasOption("f"), threads);
         }
 
         log.info("Done with indexing");
 	}
+
+    /**
+     * Update the index, printing progress, throughput and the estimated time
+     * remaining every <code>discovery.index.progress.interval</code> seconds.
+     *
+     * @param context the dspace context
+     * @param indexer the indexing service
+     * @param force whether or not to force the reindexing
+     * @param threads the number of threads building documents
+     */
+    private static void updateIndex(Context context, IndexingService indexer, boolean force, int threads) {
+        final IndexingProgress progress = new IndexingProgress();
+        int interval = Math.max(1, new DSpace().getConfigurationService().getPropertyAsType("discovery.index.progress.interval", 30));
+
+        Timer timer = new Timer("IndexClient progress", true);
+        timer.schedule(new TimerTask() {
+            public void run() {
+                System.out.println("Indexed " + progress);
+            }
+        }, interval * 1000L, interval * 1000L);
+
+        try {
+            indexer.updateIndex(context, force, threads, progress);
+        } finally {
+            timer.cancel();
+        }
+        System.out.println("Indexed " + progress);
+        log.info("Indexed " + progress);
+    }
 }
@@ -0,0 +1,392 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dspace.content.Item;
+import org.dspace.content.authority.Choices;
+import org.dspace.content.authority.MetadataAuthorityManager;
+import org.dspace.discovery.configuration.DiscoveryConfiguration;
+import org.dspace.discovery.configuration.DiscoveryHitHighlightFieldConfiguration;
+import org.dspace.discovery.configuration.DiscoveryHitHighlightingConfiguration;
+import org.dspace.discovery.configuration.DiscoveryMoreLikeThisConfiguration;
+import org.dspace.discovery.configuration.DiscoveryRecentSubmissionsConfiguration;
+import org.dspace.discovery.configuration.DiscoverySearchFilter;
+import org.dspace.discovery.configuration.DiscoverySortConfiguration;
+import org.dspace.discovery.configuration.DiscoverySortFieldConfiguration;
+import org.dspace.services.ConfigurationService;
+import org.dspace.utils.DSpace;
+
+/**
+ * How the metadata of items is indexed under one combination of discovery
+ * configurations (the configurations of an item's collections plus the
+ * default one). The search filters, sort fields, hit highlighting and more
+ * like this settings of all the configurations are merged once, and every
+ * metadata field is resolved once to a {@link FieldPlan}, so building a
+ * document is a single pass over the item's metadata.
+ * <P>
+ * Plans are cached by {@link SolrServiceImpl} and rebuilt when the discovery
+ * configuration is reloaded.
+ */
+public final class IndexingPlan
+{
+    /** Search filters by metadata field, possibly ending in ".*" */
+    private final Map<String, List<DiscoverySearchFilter>> searchFilters = new HashMap<String, List<DiscoverySearchFilter>>();
+
+    /** Sort field types by metadata field */
+    private final Map<String, String> sortTypes = new HashMap<String, String>();
+
+    private final Set<String> hitHighlightingFields = new HashSet<String>();
+
+    private final Set<String> moreLikeThisFields = new HashSet<String>();
+
+    private final Set<String> projectionFields = new HashSet<String>();
+
+    private final Set<String> ignoredFields = new HashSet<String>();
+
+    private final String separator;
+
+    private final List<SolrServiceIndexPlugin> plugins;
+
+    /** Resolved fields, filled in as they are met */
+    private final Map<String, FieldPlan> fieldPlans = new ConcurrentHashMap<String, FieldPlan>();
+
+    /**
+     * Merge discovery configurations into a plan.
+     *
+     * @param configurations
+     *            the configurations, in the order their settings are applied
+     * @param ignoredFields
+     *            metadata fields not to index, possibly ending in ".*"
+     */
+    IndexingPlan(List<DiscoveryConfiguration> configurations, List<String> ignoredFields)
+    {
+        Map<String, String> recentSubmissionTypes = new HashMap<String, String>();
+        for (DiscoveryConfiguration configuration : configurations)
+        {
+            for (DiscoverySearchFilter searchFilter : configuration.getSearchFilters())
+            {
+                for (String metadataField : searchFilter.getMetadataFields())
+                {
+                    List<DiscoverySearchFilter> filters = searchFilters.get(metadataField);
+                    if (filters == null)
+                    {
+                        filters = new ArrayList<DiscoverySearchFilter>();
+                        searchFilters.put(metadataField, filters);
+                    }
+                    filters.add(searchFilter);
+                }
+            }
+
+            // sort fields win over recent submissions, whatever the order
+            DiscoveryRecentSubmissionsConfiguration recentSubmissions = configuration.getRecentSubmissionConfiguration();
+            if (recentSubmissions != null)
+            {
+                recentSubmissionTypes.put(recentSubmissions.getMetadataSortField(), recentSubmissions.getType());
+            }
+
+            DiscoverySortConfiguration sortConfiguration = configuration.getSearchSortConfiguration();
+            if (sortConfiguration != null)
+            {
+                for (DiscoverySortFieldConfiguration sortField : sortConfiguration.getSortFields())
+                {
+                    sortTypes.put(sortField.getMetadataField(), sortField.getType());
+                }
+            }
+
+            DiscoveryHitHighlightingConfiguration hitHighlighting = configuration.getHitHighlightingConfiguration();
+            if (hitHighlighting != null)
+            {
+                for (DiscoveryHitHighlightFieldConfiguration field : hitHighlighting.getMetadataFields())
+                {
+                    hitHighlightingFields.add(field.getField());
+                }
+            }
+
+            DiscoveryMoreLikeThisConfiguration moreLikeThis = configuration.getMoreLikeThisConfiguration();
+            if (moreLikeThis != null)
+            {
+                moreLikeThisFields.addAll(moreLikeThis.getSimilarityMetadataFields());
+            }
+        }
+
+        for (Map.Entry<String, String> recent : recentSubmissionTypes.entrySet())
+        {
+            if (!sortTypes.containsKey(recent.getKey()))
+            {
+                sortTypes.put(recent.getKey(), recent.getValue());
+            }
+        }
+
+        if (ignoredFields != null)
+        {
+            this.ignoredFields.addAll(ignoredFields);
+        }
+
+        ConfigurationService config = new DSpace().getConfigurationService();
+        String projection = config.getProperty("discovery.index.projection");
+        if (projection != null)
+        {
+            for (String field : projection.split(","))
+            {
+                projectionFields.add(field.trim());
+            }
+        }
+
+        String split = config.getProperty("discovery.solr.facets.split.char");
+        separator = (split == null) ? SolrServiceImpl.FILTER_SEPARATOR : split;
+
+        plugins = Collections.unmodifiableList(new ArrayList<SolrServiceIndexPlugin>(
+                new DSpace().getServiceManager().getServicesByType(SolrServiceIndexPlugin.class)));
+    }
+
+    /**
+     * Make the cache key of a combination of configurations.
+     *
+     * @param configurations
+     *            the configurations
+     * @return their IDs, in order
+     */
+    static String getKey(List<DiscoveryConfiguration> configurations)
+    {
+        StringBuilder key = new StringBuilder();
+        for (DiscoveryConfiguration configuration : configurations)
+        {
+            key.append(configuration.getId()).append('\n');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Get how a metadata field is indexed.
+     *
+     * @param schema
+     *            the schema name
+     * @param element
+     *            the element
+     * @param qualifier
+     *            the qualifier, or null
+     * @return the plan of the field
+     */
+    public FieldPlan getFieldPlan(String schema, String element, String qualifier)
+    {
+        String unqualified = schema + "." + element;
+        String field = unqualified;
+        if (qualifier != null && !qualifier.trim().equals(""))
+        {
+            field += "." + qualifier;
+        }
+
+        FieldPlan plan = fieldPlans.get(field);
+        if (plan == null)
+        {
+            plan = new FieldPlan(field, unqualified + "." + Item.ANY, schema, element, qualifier);
+            fieldPlans.put(field, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @param field
+     *            a field name, e.g. "fulltext"
+     * @return whether the field is hit highlighted
+     */
+    public boolean isHighlighted(String field)
+    {
+        return hitHighlightingFields.contains("*") || hitHighlightingFields.contains(field);
+    }
+
+    /**
+     * @return the separator of lower case and original values in facet fields
+     */
+    public String getSeparator()
+    {
+        return separator;
+    }
+
+    /**
+     * @return the plugins adding further fields to item documents
+     */
+    public List<SolrServiceIndexPlugin> getPlugins()
+    {
+        return plugins;
+    }
+
+    /**
+     * How one metadata field is indexed.
+     */
+    public final class FieldPlan
+    {
+        private final String field;
+
+        private final boolean ignored;
+
+        private final List<DiscoverySearchFilter> fieldSearchFilters;
+
+        private final String sortType;
+
+        private final boolean highlighted;
+
+        private final boolean moreLikeThis;
+
+        private final boolean projected;
+
+        private final boolean authorityControlled;
+
+        private final int minConfidence;
+
+        private final boolean ignoreAuthority;
+
+        private final boolean ignorePreferred;
+
+        private final boolean ignoreVariants;
+
+        private FieldPlan(String field, String wildcard, String schema, String element, String qualifier)
+        {
+            this.field = field;
+            ignored = ignoredFields.contains(field) || ignoredFields.contains(wildcard);
+
+            List<DiscoverySearchFilter> filters = searchFilters.get(field);
+            if (filters == null)
+            {
+                filters = searchFilters.get(wildcard);
+            }
+            fieldSearchFilters = (filters == null) ? Collections.<DiscoverySearchFilter>emptyList()
+                    : Collections.unmodifiableList(filters);
+
+            sortType = sortTypes.get(field);
+            highlighted = hitHighlightingFields.contains(field) || hitHighlightingFields.contains("*")
+                    || hitHighlightingFields.contains(wildcard);
+            moreLikeThis = moreLikeThisFields.contains(field) || moreLikeThisFields.contains(wildcard);
+            projected = projectionFields.contains(field) || projectionFields.contains(wildcard);
+
+            MetadataAuthorityManager authorityManager = MetadataAuthorityManager.getManager();
+            authorityControlled = authorityManager.isAuthorityControlled(schema, element, qualifier);
+            minConfidence = authorityControlled ? authorityManager.getMinConfidence(schema, element, qualifier)
+                    : Choices.CF_ACCEPTED;
+
+            ConfigurationService config = new DSpace().getConfigurationService();
+            ignoreAuthority = getFlag(config, "discovery.index.authority.ignore");
+            ignorePreferred = getFlag(config, "discovery.index.authority.ignore-prefered");
+            ignoreVariants = getFlag(config, "discovery.index.authority.ignore-variants");
+        }
+
+        /**
+         * Read a flag set for this field, or else for all fields.
+         */
+        private boolean getFlag(ConfigurationService config, String property)
+        {
+            return config.getPropertyAsType(property + "." + field,
+                    config.getPropertyAsType(property, Boolean.FALSE), true);
+        }
+
+        /**
+         * @return the field name, schema.element[.qualifier]
+         */
+        public String getField()
+        {
+            return field;
+        }
+
+        /**
+         * @return whether the field is not indexed at all
+         */
+        public boolean isIgnored()
+        {
+            return ignored;
+        }
+
+        /**
+         * @return the search filters the field feeds, possibly empty
+         */
+        public List<DiscoverySearchFilter> getSearchFilters()
+        {
+            return fieldSearchFilters;
+        }
+
+        /**
+         * @return the sort field type, or null if the field is not sorted on
+         */
+        public String getSortType()
+        {
+            return sortType;
+        }
+
+        /**
+         * @return whether the field is hit highlighted
+         */
+        public boolean isHighlighted()
+        {
+            return highlighted;
+        }
+
+        /**
+         * @return whether the field is used for "more like this"
+         */
+        public boolean isMoreLikeThis()
+        {
+            return moreLikeThis;
+        }
+
+        /**
+         * @return whether the value is stored for display in result lists
+         */
+        public boolean isProjected()
+        {
+            return projected;
+        }
+
+        /**
+         * @return whether the field is authority controlled
+         */
+        public boolean isAuthorityControlled()
+        {
+            return authorityControlled;
+        }
+
+        /**
+         * @return the confidence an authority key needs to be indexed
+         */
+        public int getMinConfidence()
+        {
+            return minConfidence;
+        }
+
+        /**
+         * @return whether authority keys are left out of the index
+         */
+        public boolean isIgnoreAuthority()
+        {
+            return ignoreAuthority;
+        }
+
+        /**
+         * @return whether preferred labels are left out of the index
+         */
+        public boolean isIgnorePreferred()
+        {
+            return ignorePreferred;
+        }
+
+        /**
+         * @return whether variants are left out of the index
+         */
+        public boolean isIgnoreVariants()
+        {
+            return ignoreVariants;
+        }
+    }
+}
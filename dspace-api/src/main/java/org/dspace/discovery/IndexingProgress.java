@@ -0,0 +1,147 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.time.DurationFormatUtils;
+
+/**
+ * Counts the objects indexed by a bulk update, so that progress, throughput
+ * and the time remaining can be reported while it runs. Safe to update from
+ * several indexing threads.
+ */
+public class IndexingProgress
+{
+    private final AtomicLong done = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile long total = -1;
+
+    private volatile long startTime = System.currentTimeMillis();
+
+    /**
+     * Restart the clock, e.g. once the total is known.
+     */
+    public void start()
+    {
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @param total
+     *            the number of objects to index, or -1 if not known
+     */
+    public void setTotal(long total)
+    {
+        this.total = total;
+    }
+
+    /**
+     * @return the number of objects to index, or -1 if not known
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * Record that an object was indexed.
+     */
+    public void increment()
+    {
+        done.incrementAndGet();
+    }
+
+    /**
+     * Record that an object could not be indexed.
+     */
+    public void fail()
+    {
+        done.incrementAndGet();
+        failed.incrementAndGet();
+    }
+
+    /**
+     * @return the number of objects processed, including failures
+     */
+    public long getDone()
+    {
+        return done.get();
+    }
+
+    /**
+     * @return the number of objects that could not be indexed
+     */
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    /**
+     * @return the time since the start, in milliseconds
+     */
+    public long getElapsed()
+    {
+        return Math.max(0, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * @return the objects processed per second so far
+     */
+    public double getRate()
+    {
+        long elapsed = getElapsed();
+        return elapsed == 0 ? 0 : getDone() * 1000.0 / elapsed;
+    }
+
+    /**
+     * Estimate the time remaining from the rate so far.
+     *
+     * @return the estimate in milliseconds, or -1 if it cannot be made yet
+     */
+    public long getRemaining()
+    {
+        long remaining = total - getDone();
+        double rate = getRate();
+        if (total < 0 || rate == 0)
+        {
+            return -1;
+        }
+        return (long) (Math.max(0, remaining) * 1000 / rate);
+    }
+
+    /**
+     * @return a one line summary, e.g.
+     *         <code>12000/800000 (1.5%), 85.3/s, 0 failed, elapsed 0:02:21, remaining 2:34:08</code>
+     */
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getDone());
+        if (total >= 0)
+        {
+            sb.append('/').append(total);
+            if (total > 0)
+            {
+                sb.append(String.format(" (%.1f%%)", getDone() * 100.0 / total));
+            }
+        }
+        sb.append(String.format(", %.1f/s", getRate()));
+        sb.append(", ").append(getFailed()).append(" failed");
+        sb.append(", elapsed ").append(DurationFormatUtils.formatDuration(getElapsed(), "H:mm:ss"));
+
+        long remaining = getRemaining();
+        if (remaining >= 0)
+        {
+            sb.append(", remaining ").append(DurationFormatUtils.formatDuration(remaining, "H:mm:ss"));
+        }
+        return sb.toString();
+    }
+}
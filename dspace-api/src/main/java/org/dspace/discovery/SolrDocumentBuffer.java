@@ -0,0 +1,288 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+/**
+ * Sends documents to Solr in batches from a background thread, so that
+ * building documents and sending them overlap. A batch is sent once it holds
+ * <code>batchSize</code> documents or about <code>maxBytes</code> of field
+ * values. Adding blocks while two batches are waiting, which keeps fast
+ * document builders from running ahead of Solr.
+ * <P>
+ * A batch Solr rejects is sent again one document at a time, so one bad
+ * document does not lose the others. If the sender itself dies, adding and
+ * closing throw what stopped it rather than wait for it.
+ */
+final class SolrDocumentBuffer
+{
+    private static final Logger log = Logger.getLogger(SolrDocumentBuffer.class);
+
+    /** Marks the end of the documents */
+    private static final SolrInputDocument END = new SolrInputDocument();
+
+    /** How long to wait for room in the queue before checking on the sender, in milliseconds */
+    private static final long OFFER_WAIT = 1000;
+
+    private final SolrServer solr;
+
+    private final int batchSize;
+
+    private final long maxBytes;
+
+    private final BlockingQueue<SolrInputDocument> queue;
+
+    private final Thread sender;
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    /** What stopped the sender before the end of the documents, if anything did */
+    private volatile Throwable senderFailure = null;
+
+    /**
+     * Create a buffer and start sending.
+     *
+     * @param solr
+     *            the server to send to
+     * @param batchSize
+     *            the most documents in a batch
+     * @param maxBytes
+     *            the approximate most bytes of field values in a batch
+     */
+    SolrDocumentBuffer(SolrServer solr, int batchSize, long maxBytes)
+    {
+        this.solr = solr;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.queue = new ArrayBlockingQueue<SolrInputDocument>(2 * this.batchSize);
+
+        sender = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    send();
+                }
+                catch (Throwable t)
+                {
+                    senderFailure = t;
+                    log.error("SolrDocumentBuffer sender failed with " + queue.size() + " documents not sent", t);
+                }
+            }
+        }, "SolrDocumentBuffer");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Queue a document, waiting if the buffer is full.
+     *
+     * @param doc
+     *            the document to send
+     * @throws IOException
+     *             if the sender failed
+     */
+    void add(SolrInputDocument doc) throws IOException
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("SolrDocumentBuffer is closed");
+        }
+
+        try
+        {
+            queue(doc);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing a document");
+        }
+    }
+
+    /**
+     * Send the remaining documents and stop the sender.
+     */
+    void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+
+        try
+        {
+            queue(END);
+            sender.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending documents");
+        }
+        checkSender();
+    }
+
+    /**
+     * Queue a document, waiting for room while the sender is alive.
+     */
+    private void queue(SolrInputDocument doc) throws IOException, InterruptedException
+    {
+        checkSender();
+        while (!queue.offer(doc, OFFER_WAIT, TimeUnit.MILLISECONDS))
+        {
+            checkSender();
+            if (!sender.isAlive())
+            {
+                throw new IOException("Sending documents to Solr stopped");
+            }
+        }
+    }
+
+    /**
+     * Throw what stopped the sender, if it stopped before the end.
+     */
+    private void checkSender() throws IOException
+    {
+        Throwable failure = senderFailure;
+        if (failure != null)
+        {
+            throw new IOException("Sending documents to Solr failed", failure);
+        }
+    }
+
+    /**
+     * @return the number of documents Solr accepted
+     */
+    long getSentCount()
+    {
+        return sent.get();
+    }
+
+    /**
+     * @return the number of documents Solr rejected
+     */
+    long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    private void send()
+    {
+        List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+        long bytes = 0;
+        while (true)
+        {
+            SolrInputDocument doc;
+            try
+            {
+                doc = queue.take();
+            }
+            catch (InterruptedException e)
+            {
+                log.warn("Interrupted with " + (batch.size() + queue.size()) + " documents not sent");
+                senderFailure = e;
+                return;
+            }
+
+            if (doc == END)
+            {
+                sendBatch(batch);
+                return;
+            }
+
+            batch.add(doc);
+            bytes += estimateSize(doc);
+            if (batch.size() >= batchSize || bytes >= maxBytes)
+            {
+                sendBatch(batch);
+                batch = new ArrayList<SolrInputDocument>(batchSize);
+                bytes = 0;
+            }
+        }
+    }
+
+    private void sendBatch(List<SolrInputDocument> batch)
+    {
+        if (batch.isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            solr.add(batch);
+            sent.addAndGet(batch.size());
+        }
+        catch (Exception e)
+        {
+            log.warn("Batch of " + batch.size() + " documents failed, sending them one by one: " + e.getMessage());
+            for (SolrInputDocument doc : batch)
+            {
+                try
+                {
+                    solr.add(doc);
+                    sent.incrementAndGet();
+                }
+                catch (Exception e2)
+                {
+                    failed.incrementAndGet();
+                    log.error("Unable to index " + doc.getFieldValue("search.uniqueid") + ": " + e2.getMessage(), e2);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the approximate size of the field names and values, in bytes
+     */
+    static long estimateSize(SolrInputDocument doc)
+    {
+        long size = 0;
+        for (SolrInputField field : doc)
+        {
+            size += field.getName().length();
+            for (Object value : field.getValues())
+            {
+                if (value instanceof CharSequence)
+                {
+                    size += ((CharSequence) value).length();
+                }
+                else if (value instanceof byte[])
+                {
+                    size += ((byte[]) value).length;
+                }
+                else if (value != null)
+                {
+                    // numbers, dates and booleans: no need to format them to weigh them
+                    size += 8;
+                }
+            }
+        }
+        return size;
+    }
+}
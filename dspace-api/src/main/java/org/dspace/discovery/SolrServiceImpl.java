@@ -12,7 +12,6 @@ import org.apache.commons.collections.MapUtils;
 import org.apache.commons.collections.Transformer;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.methods.GetMethod;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DateFormatUtils;
@@ -39,6 +38,9 @@ import org.dspace.content.authority.MetadataAuthorityManager;
 import org.dspace.core.*;
 import org.dspace.discovery.configuration.*;
 import org.dspace.handle.HandleManager;
+import org.dspace.services.ConfigurationService;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
 import org.dspace.utils.DSpace;
 import org.springframework.stereotype.Service;
 
@@ -47,6 +49,13 @@ import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * SolrIndexer contains the methods that index Items and their metadata,
@@ -88,8 +97,23 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      */
     private CommonsHttpSolrServer solr = null;
 
+    /**
+     * Buffer of the bulk update running in the current thread, if any.
+     */
+    private final ThreadLocal<SolrDocumentBuffer> bulkBuffer = new ThreadLocal<SolrDocumentBuffer>();
+
+    /**
+     * Indexing plans, made from the current discovery configuration.
+     */
+    private volatile IndexingPlans indexingPlans = null;
+
+    /**
+     * Reads the text of TEXT bundle bitstreams.
+     */
+    private FullTextReader fullTextReader = null;
+
 
-    protected CommonsHttpSolrServer getSolr() throws java.net.MalformedURLException, org.apache.solr.client.solrj.SolrServerException
+    protected synchronized CommonsHttpSolrServer getSolr() throws java.net.MalformedURLException, org.apache.solr.client.solrj.SolrServerException
     {
         if ( solr == null)
         {
@@ -158,7 +182,12 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                         if (requiresIndexing(handle, ((Item) dso).getLastModified())
                                 || force)
                         {
-                            unIndexContent(context, handle);
+                            // bulk updates rely on the new document replacing
+                            // the old one with the same search.uniqueid
+                            if (bulkBuffer.get() == null)
+                            {
+                                unIndexContent(context, handle);
+                            }
                             buildDocument(context, (Item) dso);
                         }
                     } else {
@@ -308,63 +337,189 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         updateIndex(context, false);
     }
 
+    /**
+     * Iterates over all Items, Collections and Communities. And updates them in
+     * the index, using <code>discovery.index.threads</code> threads.
+     *
+     * @param context the dspace context
+     * @param force whether or not to force the reindexing
+     * @see #updateIndex(Context, boolean, int, IndexingProgress)
+     */
+    public void updateIndex(Context context, boolean force)
+    {
+        int threads = new DSpace().getConfigurationService().getPropertyAsType(
+                "discovery.index.threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+        updateIndex(context, force, threads, new IndexingProgress());
+    }
+
     /**
      * Iterates over all Items, Collections and Communities. And updates them in
      * the index. Uses decaching to control memory footprint. Uses indexContent
      * and isStale to check state of item in index.
      * <p/>
-     * At first it may appear counterintuitive to have an IndexWriter/Reader
-     * opened and closed on each DSO. But this allows the UI processes to step
-     * in and attain a lock and write to the index even if other processes/jvms
-     * are running a reindex.
+     * Items are split into ranges of <code>discovery.index.range</code> item
+     * IDs, indexed by a pool of threads, each with a Context of its own.
+     * Documents are sent to Solr in batches of up to
+     * <code>discovery.index.batch.size</code> documents and
+     * <code>discovery.index.batch.bytes</code> bytes, and committed at the end.
      *
      * @param context the dspace context
      * @param force whether or not to force the reindexing
+     * @param threads the number of threads building item documents
+     * @param progress updated as objects are indexed
      */
-    public void updateIndex(Context context, boolean force)
+    public void updateIndex(Context context, boolean force, int threads, IndexingProgress progress)
     {
+        SolrDocumentBuffer buffer = null;
         try {
-            ItemIterator items = null;
-            try {
-                for (items = Item.findAllUnfiltered(context); items.hasNext();) 
-                {
-                    Item item = items.next();
-                    indexContent(context, item, force);
-                    item.decache();
-                }
-            } finally {
-                if (items != null)
-                {
-                    items.close();
+            ConfigurationService config = new DSpace().getConfigurationService();
+            int rangeSize = Math.max(1, config.getPropertyAsType("discovery.index.range", 1000));
+            buffer = new SolrDocumentBuffer(getSolr(),
+                    config.getPropertyAsType("discovery.index.batch.size", 500),
+                    config.getPropertyAsType("discovery.index.batch.bytes", 10L * 1024 * 1024));
+            bulkBuffer.set(buffer);
+
+            TableRow row = DatabaseManager.querySingle(context,
+                    "SELECT MIN(item_id) AS low, MAX(item_id) AS high, COUNT(*) AS total FROM item "
+                            + "WHERE in_archive='1' OR withdrawn='1'");
+            Collection[] collections = Collection.findAll(context);
+            Community[] communities = Community.findAll(context);
+            progress.setTotal(row.getLongColumn("total") + collections.length + communities.length);
+            progress.start();
+
+            long low = row.getLongColumn("low");
+            long high = row.getLongColumn("high");
+            if (low >= 0)
+            {
+                ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+                List<Future<?>> ranges = new ArrayList<Future<?>>();
+                try {
+                    for (long start = low; start <= high; start += rangeSize)
+                    {
+                        ranges.add(pool.submit(new ItemRangeIndexer((int) start,
+                                (int) Math.min(high + 1, start + rangeSize), force, buffer, progress)));
+                    }
+                    pool.shutdown();
+                    for (Future<?> range : ranges)
+                    {
+                        try {
+                            range.get();
+                        } catch (ExecutionException e)
+                        {
+                            log.error(e.getCause().getMessage(), e.getCause());
+                        }
+                    }
+                } finally {
+                    pool.shutdownNow();
+                    pool.awaitTermination(1, TimeUnit.MINUTES);
                 }
             }
 
-            Collection[] collections = Collection.findAll(context);
             for (Collection collection : collections)
             {
                 indexContent(context, collection, force);
                 context.removeCached(collection, collection.getID());
-
+                progress.increment();
             }
 
-            Community[] communities = Community.findAll(context);
             for (Community community : communities)
             {
                 indexContent(context, community, force);
                 context.removeCached(community, community.getID());
+                progress.increment();
             }
 
+            buffer.close();
+            if (buffer.getFailedCount() > 0)
+            {
+                log.error(buffer.getFailedCount() + " documents were rejected by Solr");
+            }
             getSolr().commit();
 
         } catch (Exception e)
         {
             log.error(e.getMessage(), e);
+        } finally
+        {
+            bulkBuffer.remove();
+            if (buffer != null)
+            {
+                try {
+                    buffer.close();
+                } catch (IOException e)
+                {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the items in a range of item IDs, in a Context of its own.
+     */
+    private class ItemRangeIndexer implements Callable<Object>
+    {
+        private final int start;
+
+        private final int end;
+
+        private final boolean force;
+
+        private final SolrDocumentBuffer buffer;
+
+        private final IndexingProgress progress;
+
+        ItemRangeIndexer(int start, int end, boolean force, SolrDocumentBuffer buffer, IndexingProgress progress)
+        {
+            this.start = start;
+            this.end = end;
+            this.force = force;
+            this.buffer = buffer;
+            this.progress = progress;
+        }
+
+        public Object call() throws SQLException
+        {
+            Context context = new Context();
+            ItemIterator items = null;
+            bulkBuffer.set(buffer);
+            try {
+                context.turnOffAuthorisationSystem();
+                items = new ItemIterator(context, DatabaseManager.queryTable(context, "item",
+                        "SELECT * FROM item WHERE (in_archive='1' OR withdrawn='1') "
+                                + "AND item_id >= ? AND item_id < ? ORDER BY item_id", start, end),
+                        PrefetchSpec.all());
+                while (items.hasNext())
+                {
+                    Item item = items.next();
+                    indexContent(context, item, force);
+                    item.decache();
+                    progress.increment();
+                }
+                return null;
+            } finally {
+                bulkBuffer.remove();
+                if (items != null)
+                {
+                    items.close();
+                }
+                context.abort();
+            }
         }
     }
 
     /**
      * Iterates over all documents in the Lucene index and verifies they are in
      * database, if not, they are removed.
+     * <p/>
+     * The items, collections and communities in the index are split into
+     * ranges of <code>discovery.index.range</code> IDs, checked by
+     * <code>discovery.index.threads</code> threads, which read only the IDs
+     * of their documents, in order. Once all the ranges of a type are read,
+     * the IDs bound to a handle are loaded in one scan of the handle table,
+     * each range's IDs are merged with them, and its orphans deleted in one
+     * request. Reading the index before the database means an object
+     * indexed meanwhile is not mistaken for an orphan.
      *
      * @param force whether or not to force a clean index
      * @throws IOException IO exception
@@ -383,35 +538,61 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             {
                 getSolr().deleteByQuery("search.resourcetype:[2 TO 4]");
             } else {
-                SolrQuery query = new SolrQuery();
-                query.setQuery("search.resourcetype:[2 TO 4]");
-                QueryResponse rsp = getSolr().query(query);
-                SolrDocumentList docs = rsp.getResults();
-
-                Iterator iter = docs.iterator();
-                while (iter.hasNext())
-                {
-
-                 SolrDocument doc = (SolrDocument) iter.next();
-
-                String handle = (String) doc.getFieldValue("handle");
+                ConfigurationService config = new DSpace().getConfigurationService();
+                int threads = config.getPropertyAsType("discovery.index.threads",
+                        Math.min(4, Runtime.getRuntime().availableProcessors()));
+                int rangeSize = Math.max(1, config.getPropertyAsType("discovery.index.range", 1000));
+
+                int[] types = { Constants.ITEM, Constants.COLLECTION, Constants.COMMUNITY };
+                ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+                try {
+                    List<List<Future<int[]>>> ranges = new ArrayList<List<Future<int[]>>>();
+                    for (int type : types)
+                    {
+                        List<Future<int[]>> typeRanges = new ArrayList<Future<int[]>>();
+                        long low = getIndexedResourceID(type, SolrQuery.ORDER.asc);
+                        long high = getIndexedResourceID(type, SolrQuery.ORDER.desc);
+                        for (long start = low; low >= 0 && start <= high; start += rangeSize)
+                        {
+                            typeRanges.add(pool.submit(new RangeReader(type, (int) start,
+                                    (int) Math.min(high + 1, start + rangeSize))));
+                        }
+                        ranges.add(typeRanges);
+                    }
+                    pool.shutdown();
 
-                DSpaceObject o = HandleManager.resolveToObject(context, handle);
+                    int deleted = 0;
+                    for (int t = 0; t < types.length; t++)
+                    {
+                        List<int[]> indexedIDs = new ArrayList<int[]>();
+                        for (Future<int[]> range : ranges.get(t))
+                        {
+                            indexedIDs.add(range.get());
+                        }
 
-                if (o == null)
-                {
-                    log.info("Deleting: " + handle);
-                    /*
-                          * Use IndexWriter to delete, its easier to manage
-                          * write.lock
-                          */
-                    unIndexContent(context, handle);
-                } else {
-                    context.removeCached(o, o.getID());
-                    log.debug("Keeping: " + handle);
+                        // only now, so that whatever was indexed before is bound by now
+                        int[] liveIDs = HandleManager.findBoundResourceIDs(context, types[t]);
+                        for (int[] ids : indexedIDs)
+                        {
+                            List<String> orphans = new ArrayList<String>();
+                            for (int id : findOrphans(ids, liveIDs))
+                            {
+                                log.info("Deleting: " + Constants.typeText[types[t]] + " " + id);
+                                orphans.add(types[t] + "-" + id);
+                            }
+                            if (!orphans.isEmpty())
+                            {
+                                getSolr().deleteById(orphans);
+                                deleted += orphans.size();
+                            }
+                        }
+                    }
+                    getSolr().commit();
+                    log.info("Deleted " + deleted + " orphaned documents");
+                } finally {
+                    pool.shutdownNow();
                 }
             }
-            }
         } catch(Exception e)
         {
 
@@ -420,10 +601,93 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         {
             context.abort();
         }
+    }
+
+    /**
+     * Get the lowest or highest ID of the indexed objects of a type.
+     *
+     * @param type the type of object
+     * @param order ascending for the lowest, descending for the highest
+     * @return the ID, or -1 if none is indexed
+     */
+    private long getIndexedResourceID(int type, SolrQuery.ORDER order)
+            throws SolrServerException, java.net.MalformedURLException
+    {
+        SolrQuery query = new SolrQuery("search.resourcetype:" + type);
+        query.setFields("search.resourceid");
+        query.setSortField("search.resourceid", order);
+        query.setRows(1);
+        SolrDocumentList docs = getSolr().query(query).getResults();
+        if (docs.isEmpty())
+        {
+            return -1;
+        }
+        return ((Number) docs.get(0).getFieldValue("search.resourceid")).longValue();
+    }
+
+    /**
+     * Find the indexed IDs that are not live.
+     *
+     * @param indexedIDs the indexed IDs, ascending
+     * @param liveIDs the IDs of the existing objects with a handle, ascending
+     * @return the orphaned IDs, ascending
+     */
+    static List<Integer> findOrphans(int[] indexedIDs, int[] liveIDs)
+    {
+        List<Integer> orphans = new ArrayList<Integer>();
+        int live = indexedIDs.length == 0 ? 0 : Arrays.binarySearch(liveIDs, indexedIDs[0]);
+        if (live < 0)
+        {
+            live = -live - 1;
+        }
+        for (int id : indexedIDs)
+        {
+            while (live < liveIDs.length && liveIDs[live] < id)
+            {
+                live++;
+            }
+            if (live == liveIDs.length || liveIDs[live] != id)
+            {
+                orphans.add(id);
+            }
+        }
+        return orphans;
+    }
 
+    /**
+     * Reads the indexed IDs in a range of IDs of one type.
+     */
+    private class RangeReader implements Callable<int[]>
+    {
+        private final int type;
+
+        private final int start;
 
+        private final int end;
+
+        RangeReader(int type, int start, int end)
+        {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+        }
 
+        public int[] call() throws SolrServerException, IOException
+        {
+            SolrQuery query = new SolrQuery("search.resourcetype:" + type
+                    + " AND search.resourceid:[" + start + " TO " + (end - 1) + "]");
+            query.setFields("search.resourceid");
+            query.setSortField("search.resourceid", SolrQuery.ORDER.asc);
+            query.setRows(end - start);
 
+            SolrDocumentList docs = getSolr().query(query).getResults();
+            int[] ids = new int[docs.size()];
+            for (int i = 0; i < ids.length; i++)
+            {
+                ids[i] = ((Number) docs.get(i).getFieldValue("search.resourceid")).intValue();
+            }
+            return ids;
+        }
     }
 
     /**
@@ -545,6 +809,76 @@ public class SolrServiceImpl implements SearchService, IndexingService {
     }
 
 
+    /**
+     * @return the reader of full text, caching it in
+     *         <code>discovery.index.fulltext.cache.dir</code> if set
+     */
+    protected synchronized FullTextReader getFullTextReader()
+    {
+        if (fullTextReader == null)
+        {
+            String cacheDir = new DSpace().getConfigurationService().getProperty("discovery.index.fulltext.cache.dir");
+            fullTextReader = new FullTextReader(StringUtils.isBlank(cacheDir) ? null : new File(cacheDir));
+        }
+        return fullTextReader;
+    }
+
+    /**
+     * @return the most characters of full text indexed per item, from
+     *         <code>discovery.index.fulltext.maxchars</code> (0 for no limit)
+     */
+    protected int getFullTextLimit()
+    {
+        int limit = new DSpace().getConfigurationService().getPropertyAsType("discovery.index.fulltext.maxchars", 0);
+        return limit > 0 ? limit : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get the indexing plan for the discovery configurations of an item. Plans
+     * are made once per combination of configurations, and made again when
+     * the discovery configuration has been reloaded.
+     *
+     * @param item the item to index
+     * @return the plan
+     * @throws SQLException
+     */
+    protected IndexingPlan getIndexingPlan(Item item) throws SQLException
+    {
+        DiscoveryConfigurationService configurationService = SearchUtils.getConfigurationService();
+        IndexingPlans plans = indexingPlans;
+        if (plans == null || plans.source != configurationService)
+        {
+            plans = new IndexingPlans(configurationService);
+            indexingPlans = plans;
+        }
+
+        List<DiscoveryConfiguration> configurations = SearchUtils.getAllDiscoveryConfigurations(item);
+        String key = IndexingPlan.getKey(configurations);
+        IndexingPlan plan = plans.plans.get(key);
+        if (plan == null)
+        {
+            plan = new IndexingPlan(configurations,
+                    configurationService.getToIgnoreMetadataFields().get(Constants.ITEM));
+            plans.plans.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * The indexing plans made from one discovery configuration.
+     */
+    private static class IndexingPlans
+    {
+        private final DiscoveryConfigurationService source;
+
+        private final Map<String, IndexingPlan> plans = new ConcurrentHashMap<String, IndexingPlan>();
+
+        IndexingPlans(DiscoveryConfigurationService source)
+        {
+            this.source = source;
+        }
+    }
+
     /**
      * @param myitem the item for which our locations are to be retrieved
      * @return a list containing the identifiers of the communities & collections
@@ -597,6 +931,13 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      */
     protected void writeDocument(SolrInputDocument doc) throws IOException {
 
+        SolrDocumentBuffer buffer = bulkBuffer.get();
+        if (buffer != null)
+        {
+            buffer.add(doc);
+            return;
+        }
+
         try {
             getSolr().add(doc);
         } catch (SolrServerException e)
@@ -761,91 +1102,15 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         doc.addField("discoverable", item.isDiscoverable());
 
         //Keep a list of our sort values which we added, sort values can only be added once
-        List<String> sortFieldsAdded = new ArrayList<String>();
-        Set<String> hitHighlightingFields = new HashSet<String>();
+        Set<String> sortFieldsAdded = new HashSet<String>();
+        IndexingPlan plan = null;
         try {
-            List<DiscoveryConfiguration> discoveryConfigurations = SearchUtils.getAllDiscoveryConfigurations(item);
-
-            //A map used to save each sidebarFacet config by the metadata fields
-            Map<String, List<DiscoverySearchFilter>> searchFilters = new HashMap<String, List<DiscoverySearchFilter>>();
-            Map<String, DiscoverySortFieldConfiguration> sortFields = new HashMap<String, DiscoverySortFieldConfiguration>();
-            Map<String, DiscoveryRecentSubmissionsConfiguration> recentSubmissionsConfigurationMap = new HashMap<String, DiscoveryRecentSubmissionsConfiguration>();
-            Set<String> moreLikeThisFields = new HashSet<String>();
-            for (DiscoveryConfiguration discoveryConfiguration : discoveryConfigurations)
-            {
-                for (int i = 0; i < discoveryConfiguration.getSearchFilters().size(); i++)
-                {
-                    DiscoverySearchFilter discoverySearchFilter = discoveryConfiguration.getSearchFilters().get(i);
-                    for (int j = 0; j < discoverySearchFilter.getMetadataFields().size(); j++)
-                    {
-                        String metadataField = discoverySearchFilter.getMetadataFields().get(j);
-                        List<DiscoverySearchFilter> resultingList;
-                        if(searchFilters.get(metadataField) != null)
-                        {
-                            resultingList = searchFilters.get(metadataField);
-                        }else{
-                            //New metadata field, create a new list for it
-                            resultingList = new ArrayList<DiscoverySearchFilter>();
-                        }
-                        resultingList.add(discoverySearchFilter);
-
-                        searchFilters.put(metadataField, resultingList);
-                    }
-                }
-
-                DiscoverySortConfiguration sortConfiguration = discoveryConfiguration.getSearchSortConfiguration();
-                if(sortConfiguration != null)
-                {
-                    for (DiscoverySortFieldConfiguration discoverySortConfiguration : sortConfiguration.getSortFields())
-                    {
-                        sortFields.put(discoverySortConfiguration.getMetadataField(), discoverySortConfiguration);
-                    }
-                }
+            plan = getIndexingPlan(item);
+            String separator = plan.getSeparator();
 
-                DiscoveryRecentSubmissionsConfiguration recentSubmissionConfiguration = discoveryConfiguration.getRecentSubmissionConfiguration();
-                if(recentSubmissionConfiguration != null)
-                {
-                    recentSubmissionsConfigurationMap.put(recentSubmissionConfiguration.getMetadataSortField(), recentSubmissionConfiguration);
-                }
-
-                DiscoveryHitHighlightingConfiguration hitHighlightingConfiguration = discoveryConfiguration.getHitHighlightingConfiguration();
-                if(hitHighlightingConfiguration != null)
-                {
-                    List<DiscoveryHitHighlightFieldConfiguration> fieldConfigurations = hitHighlightingConfiguration.getMetadataFields();
-                    for (DiscoveryHitHighlightFieldConfiguration fieldConfiguration : fieldConfigurations)
-                    {
-                        hitHighlightingFields.add(fieldConfiguration.getField());
-                    }
-            	}
-                DiscoveryMoreLikeThisConfiguration moreLikeThisConfiguration = discoveryConfiguration.getMoreLikeThisConfiguration();
-                if(moreLikeThisConfiguration != null)
-                {
-                    for(String metadataField : moreLikeThisConfiguration.getSimilarityMetadataFields())
-                    {
-                        moreLikeThisFields.add(metadataField);
-                    }
-                }
-            }
-
-
-            List<String> toProjectionFields = new ArrayList<String>();
-            String projectionFieldsString = new DSpace().getConfigurationService().getProperty("discovery.index.projection");
-            if(projectionFieldsString != null){
-                if(projectionFieldsString.indexOf(",") != -1){
-                    for (int i = 0; i < projectionFieldsString.split(",").length; i++) {
-                        toProjectionFields.add(projectionFieldsString.split(",")[i].trim());
-                    }
-                } else {
-                    toProjectionFields.add(projectionFieldsString);
-                }
-            }
-            
             DCValue[] mydc = item.getMetadata(Item.ANY, Item.ANY, Item.ANY, Item.ANY);
             for (DCValue meta : mydc)
             {
-                String field = meta.schema + "." + meta.element;
-                String unqualifiedField = field;
-
                 String value = meta.value;
 
                 if (value == null) 
@@ -853,14 +1118,11 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                     continue;
                 }
 
-                if (meta.qualifier != null && !meta.qualifier.trim().equals(""))
-                {
-                    field += "." + meta.qualifier;
-                }
+                IndexingPlan.FieldPlan fieldPlan = plan.getFieldPlan(meta.schema, meta.element, meta.qualifier);
+                String field = fieldPlan.getField();
 
-                List<String> toIgnoreMetadataFields = SearchUtils.getIgnoredMetadataFields(item.getType());
                 //We are not indexing provenance, this is useless
-                if (toIgnoreMetadataFields != null && (toIgnoreMetadataFields.contains(field) || toIgnoreMetadataFields.contains(unqualifiedField + "." + Item.ANY)))
+                if (fieldPlan.isIgnored())
                 {
                     continue;
                 }
@@ -868,45 +1130,14 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                 String authority = null;
                 String preferedLabel = null;
                 List<String> variants = null;
-                boolean isAuthorityControlled = MetadataAuthorityManager
-                        .getManager().isAuthorityControlled(meta.schema,
-                                meta.element,
-                                meta.qualifier);
-
-                int minConfidence = isAuthorityControlled?MetadataAuthorityManager
-                        .getManager().getMinConfidence(
-                                meta.schema,
-                                meta.element,
-                                meta.qualifier):Choices.CF_ACCEPTED;
-                                
-                if (isAuthorityControlled && meta.authority != null
-                        && meta.confidence >= minConfidence)
+                if (fieldPlan.isAuthorityControlled() && meta.authority != null
+                        && meta.confidence >= fieldPlan.getMinConfidence())
                 {
-                    boolean ignoreAuthority = new DSpace()
-                            .getConfigurationService()
-                            .getPropertyAsType(
-                                    "discovery.index.authority.ignore." + field,
-                                    new DSpace()
-                                            .getConfigurationService()
-                                            .getPropertyAsType(
-                                                    "discovery.index.authority.ignore",
-                                                    new Boolean(false)), true);
-                    if (!ignoreAuthority)
+                    if (!fieldPlan.isIgnoreAuthority())
                     {
                         authority = meta.authority;
 
-                        boolean ignorePrefered = new DSpace()
-                                .getConfigurationService()
-                                .getPropertyAsType(
-                                        "discovery.index.authority.ignore-prefered."
-                                                + field,
-                                        new DSpace()
-                                                .getConfigurationService()
-                                                .getPropertyAsType(
-                                                        "discovery.index.authority.ignore-prefered",
-                                                        new Boolean(false)),
-                                        true);
-                        if (!ignorePrefered)
+                        if (!fieldPlan.isIgnorePreferred())
                         {
 
                             preferedLabel = ChoiceAuthorityManager.getManager()
@@ -915,18 +1146,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                                             meta.language);
                         }
 
-                        boolean ignoreVariants = new DSpace()
-                                .getConfigurationService()
-                                .getPropertyAsType(
-                                        "discovery.index.authority.ignore-variants."
-                                                + field,
-                                        new DSpace()
-                                                .getConfigurationService()
-                                                .getPropertyAsType(
-                                                        "discovery.index.authority.ignore-variants",
-                                                        new Boolean(false)),
-                                        true);
-                        if (!ignoreVariants)
+                        if (!fieldPlan.isIgnoreVariants())
                         {
                             variants = ChoiceAuthorityManager.getManager()
                                     .getVariants(meta.schema, meta.element,
@@ -937,173 +1157,152 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                     }
                 }
 
-                if ((searchFilters.get(field) != null || searchFilters.get(unqualifiedField + "." + Item.ANY) != null))
+                for (DiscoverySearchFilter searchFilter : fieldPlan.getSearchFilters())
                 {
-                    List<DiscoverySearchFilter> searchFilterConfigs = searchFilters.get(field);
-                    if(searchFilterConfigs == null)
+                    Date date = null;
+                    if(searchFilter.getType().equals(DiscoveryConfigurationParameters.TYPE_DATE))
                     {
-                        searchFilterConfigs = searchFilters.get(unqualifiedField + "." + Item.ANY);
+                        //For our search filters that are dates we format them properly
+                        date = toDate(value);
+                        if(date != null)
+                        {
+                            //TODO: make this date format configurable !
+                            value = DateFormatUtils.formatUTC(date, "yyyy-MM-dd");
+                        }
+                    }
+                    doc.addField(searchFilter.getIndexFieldName(), value);
+                    doc.addField(searchFilter.getIndexFieldName() + "_keyword", value);
+                    
+                    if (authority != null && preferedLabel == null)
+                    {
+                        doc.addField(searchFilter.getIndexFieldName()
+                                + "_keyword", value + AUTHORITY_SEPARATOR
+                                + authority);
+                        doc.addField(searchFilter.getIndexFieldName()
+                                + "_authority", authority);
+                        doc.addField(searchFilter.getIndexFieldName()
+                                + "_acid", value.toLowerCase()
+                                + separator + value
+                                + AUTHORITY_SEPARATOR + authority);
                     }
 
-                    for (DiscoverySearchFilter searchFilter : searchFilterConfigs)
+                    if (preferedLabel != null)
                     {
-                        Date date = null;
-                        String separator = new DSpace().getConfigurationService().getProperty("discovery.solr.facets.split.char");
-                        if(separator == null)
-                        {
-                            separator = FILTER_SEPARATOR;
-                        }
-                        if(searchFilter.getType().equals(DiscoveryConfigurationParameters.TYPE_DATE))
-                        {
-                            //For our search filters that are dates we format them properly
-                            date = toDate(value);
-                            if(date != null)
-                            {
-                                //TODO: make this date format configurable !
-                                value = DateFormatUtils.formatUTC(date, "yyyy-MM-dd");
-                            }
-                        }
-                        doc.addField(searchFilter.getIndexFieldName(), value);
-                        doc.addField(searchFilter.getIndexFieldName() + "_keyword", value);
-                        
-                        if (authority != null && preferedLabel == null)
+                        doc.addField(searchFilter.getIndexFieldName(),
+                                preferedLabel);
+                        doc.addField(searchFilter.getIndexFieldName()
+                                + "_keyword", preferedLabel);
+                        doc.addField(searchFilter.getIndexFieldName()
+                                + "_keyword", preferedLabel
+                                + AUTHORITY_SEPARATOR + authority);
+                        doc.addField(searchFilter.getIndexFieldName()
+                                + "_authority", authority);
+                        doc.addField(searchFilter.getIndexFieldName()
+                                + "_acid", preferedLabel.toLowerCase()
+                                + separator + preferedLabel
+                                + AUTHORITY_SEPARATOR + authority);
+                    }
+                    if (variants != null)
+                    {
+                        for (String var : variants)
                         {
+                            doc.addField(searchFilter.getIndexFieldName() + "_keyword", var);
                             doc.addField(searchFilter.getIndexFieldName()
-                                    + "_keyword", value + AUTHORITY_SEPARATOR
-                                    + authority);
-                            doc.addField(searchFilter.getIndexFieldName()
-                                    + "_authority", authority);
-                            doc.addField(searchFilter.getIndexFieldName()
-                                    + "_acid", value.toLowerCase()
-                                    + separator + value
+                                    + "_acid", var.toLowerCase()
+                                    + separator + var
                                     + AUTHORITY_SEPARATOR + authority);
                         }
-
-                        if (preferedLabel != null)
+                    }
+                    
+                    //Add a dynamic fields for auto complete in search
+                    doc.addField(searchFilter.getIndexFieldName() + "_ac",
+                            value.toLowerCase() + separator + value);
+                    if (preferedLabel != null)
+                    {
+                        doc.addField(searchFilter.getIndexFieldName()
+                                + "_ac", preferedLabel.toLowerCase()
+                                + separator + preferedLabel);
+                    }
+                    if (variants != null)
+                    {
+                        for (String var : variants)
                         {
-                            doc.addField(searchFilter.getIndexFieldName(),
-                                    preferedLabel);
-                            doc.addField(searchFilter.getIndexFieldName()
-                                    + "_keyword", preferedLabel);
-                            doc.addField(searchFilter.getIndexFieldName()
-                                    + "_keyword", preferedLabel
-                                    + AUTHORITY_SEPARATOR + authority);
-                            doc.addField(searchFilter.getIndexFieldName()
-                                    + "_authority", authority);
                             doc.addField(searchFilter.getIndexFieldName()
-                                    + "_acid", preferedLabel.toLowerCase()
-                                    + separator + preferedLabel
-                                    + AUTHORITY_SEPARATOR + authority);
+                                    + "_ac", var.toLowerCase() + separator
+                                    + var);
                         }
-                        if (variants != null)
+                    }                        
+
+                    if(searchFilter.getFilterType().equals(DiscoverySearchFilterFacet.FILTER_TYPE_FACET))
+                    {
+                        if(searchFilter.getType().equals(DiscoveryConfigurationParameters.TYPE_TEXT))
                         {
-                            for (String var : variants)
+                        	//Add a special filter
+                       	 	//We use a separator to split up the lowercase and regular case, this is needed to get our filters in regular case
+                        	//Solr has issues with facet prefix and cases
+                        	if (authority != null)
+                        	{
+                            	String facetValue = preferedLabel != null?preferedLabel:value;
+                            	doc.addField(searchFilter.getIndexFieldName() + "_filter", facetValue.toLowerCase() + separator + facetValue + AUTHORITY_SEPARATOR + authority);
+                        	}
+                        	else
+                        	{
+                            	doc.addField(searchFilter.getIndexFieldName() + "_filter", value.toLowerCase() + separator + value);
+                        	}
+                        }else
+                            if(searchFilter.getType().equals(DiscoveryConfigurationParameters.TYPE_DATE))
                             {
-                                doc.addField(searchFilter.getIndexFieldName() + "_keyword", var);
-                                doc.addField(searchFilter.getIndexFieldName()
-                                        + "_acid", var.toLowerCase()
-                                        + separator + var
-                                        + AUTHORITY_SEPARATOR + authority);
+                                if(date != null)
+                                {
+                                    String indexField = searchFilter.getIndexFieldName() + ".year";
+                                    doc.addField(searchFilter.getIndexFieldName() + "_keyword", DateFormatUtils.formatUTC(date, "yyyy"));
+                                	doc.addField(indexField, DateFormatUtils.formatUTC(date, "yyyy"));
+                                	//Also save a sort value of this year, this is required for determining the upper & lower bound year of our facet
+                                    if(doc.getField(indexField + "_sort") == null)
+                                    {
+                                    	//We can only add one year so take the first one
+                                    	doc.addField(indexField + "_sort", DateFormatUtils.formatUTC(date, "yyyy"));
+                                	}
                             }
-                        }
-                        
-                        //Add a dynamic fields for auto complete in search
-                        doc.addField(searchFilter.getIndexFieldName() + "_ac",
-                                value.toLowerCase() + separator + value);
-                        if (preferedLabel != null)
-                        {
-                            doc.addField(searchFilter.getIndexFieldName()
-                                    + "_ac", preferedLabel.toLowerCase()
-                                    + separator + preferedLabel);
-                        }
-                        if (variants != null)
+                        }else
+                        if(searchFilter.getType().equals(DiscoveryConfigurationParameters.TYPE_HIERARCHICAL))
                         {
-                            for (String var : variants)
+                            HierarchicalSidebarFacetConfiguration hierarchicalSidebarFacetConfiguration = (HierarchicalSidebarFacetConfiguration) searchFilter;
+                            String[] subValues = value.split(hierarchicalSidebarFacetConfiguration.getSplitter());
+                            if(hierarchicalSidebarFacetConfiguration.isSkipFirstNodeLevel() && 1 < subValues.length)
                             {
-                                doc.addField(searchFilter.getIndexFieldName()
-                                        + "_ac", var.toLowerCase() + separator
-                                        + var);
+                                //Remove the first element of our array
+                                subValues = (String[]) ArrayUtils.subarray(subValues, 1, subValues.length);
                             }
-                        }                        
-
-                        if(searchFilter.getFilterType().equals(DiscoverySearchFilterFacet.FILTER_TYPE_FACET))
-                        {
-                            if(searchFilter.getType().equals(DiscoveryConfigurationParameters.TYPE_TEXT))
-                            {
-                            	//Add a special filter
-                           	 	//We use a separator to split up the lowercase and regular case, this is needed to get our filters in regular case
-                            	//Solr has issues with facet prefix and cases
-                            	if (authority != null)
-                            	{
-                                	String facetValue = preferedLabel != null?preferedLabel:value;
-                                	doc.addField(searchFilter.getIndexFieldName() + "_filter", facetValue.toLowerCase() + separator + facetValue + AUTHORITY_SEPARATOR + authority);
-                            	}
-                            	else
-                            	{
-                                	doc.addField(searchFilter.getIndexFieldName() + "_filter", value.toLowerCase() + separator + value);
-                            	}
-                            }else
-                                if(searchFilter.getType().equals(DiscoveryConfigurationParameters.TYPE_DATE))
-                                {
-                                    if(date != null)
-                                    {
-                                        String indexField = searchFilter.getIndexFieldName() + ".year";
-                                        doc.addField(searchFilter.getIndexFieldName() + "_keyword", DateFormatUtils.formatUTC(date, "yyyy"));
-                                    	doc.addField(indexField, DateFormatUtils.formatUTC(date, "yyyy"));
-                                    	//Also save a sort value of this year, this is required for determining the upper & lower bound year of our facet
-                                        if(doc.getField(indexField + "_sort") == null)
-                                        {
-                                        	//We can only add one year so take the first one
-                                        	doc.addField(indexField + "_sort", DateFormatUtils.formatUTC(date, "yyyy"));
-                                    	}
-                                }
-                            }else
-                            if(searchFilter.getType().equals(DiscoveryConfigurationParameters.TYPE_HIERARCHICAL))
+                            for (int i = 0; i < subValues.length; i++)
                             {
-                                HierarchicalSidebarFacetConfiguration hierarchicalSidebarFacetConfiguration = (HierarchicalSidebarFacetConfiguration) searchFilter;
-                                String[] subValues = value.split(hierarchicalSidebarFacetConfiguration.getSplitter());
-                                if(hierarchicalSidebarFacetConfiguration.isSkipFirstNodeLevel() && 1 < subValues.length)
-                                {
-                                    //Remove the first element of our array
-                                    subValues = (String[]) ArrayUtils.subarray(subValues, 1, subValues.length);
-                                }
-                                for (int i = 0; i < subValues.length; i++)
+                                StringBuilder valueBuilder = new StringBuilder();
+                                for(int j = 0; j <= i; j++)
                                 {
-                                    StringBuilder valueBuilder = new StringBuilder();
-                                    for(int j = 0; j <= i; j++)
+                                    valueBuilder.append(subValues[j]);
+                                    if(j < i)
                                     {
-                                        valueBuilder.append(subValues[j]);
-                                        if(j < i)
-                                        {
-                                            valueBuilder.append(hierarchicalSidebarFacetConfiguration.getSplitter());
-                                        }
+                                        valueBuilder.append(hierarchicalSidebarFacetConfiguration.getSplitter());
                                     }
+                                }
 
-                                    String indexValue = valueBuilder.toString().trim();
-                                    doc.addField(searchFilter.getIndexFieldName() + "_tax_" + i + "_filter", indexValue.toLowerCase() + separator + indexValue);
-                                    //We add the field x times that it has occurred
-                                    for(int j = i; j < subValues.length; j++)
-                                    {
-                                        doc.addField(searchFilter.getIndexFieldName() + "_filter", indexValue.toLowerCase() + separator + indexValue);
-                                        doc.addField(searchFilter.getIndexFieldName() + "_keyword", indexValue);
-                                    }
+                                String indexValue = valueBuilder.toString().trim();
+                                doc.addField(searchFilter.getIndexFieldName() + "_tax_" + i + "_filter", indexValue.toLowerCase() + separator + indexValue);
+                                //We add the field x times that it has occurred
+                                for(int j = i; j < subValues.length; j++)
+                                {
+                                    doc.addField(searchFilter.getIndexFieldName() + "_filter", indexValue.toLowerCase() + separator + indexValue);
+                                    doc.addField(searchFilter.getIndexFieldName() + "_keyword", indexValue);
                                 }
                             }
                         }
                     }
                 }
 
-                if ((sortFields.get(field) != null || recentSubmissionsConfigurationMap.get(field) != null) && !sortFieldsAdded.contains(field))
+                String type = fieldPlan.getSortType();
+                if (type != null && sortFieldsAdded.add(field))
                 {
                     //Only add sort value once
-                    String type;
-                    if(sortFields.get(field) != null)
-                    {
-                        type = sortFields.get(field).getType();
-                    }else{
-                        type = recentSubmissionsConfigurationMap.get(field).getType();
-                    }
-
                     if(type.equals(DiscoveryConfigurationParameters.TYPE_DATE))
                     {
                         Date date = toDate(value);
@@ -1116,21 +1315,20 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                     }else{
                         doc.addField(field + "_sort", value);
                     }
-                    sortFieldsAdded.add(field);
                 }
 
-                if(hitHighlightingFields.contains(field) || hitHighlightingFields.contains("*") || hitHighlightingFields.contains(unqualifiedField + "." + Item.ANY))
+                if(fieldPlan.isHighlighted())
                 {
                     doc.addField(field + "_hl", value);
                 }
 
-                if(moreLikeThisFields.contains(field) || moreLikeThisFields.contains(unqualifiedField + "." + Item.ANY))
+                if(fieldPlan.isMoreLikeThis())
                 {
                     doc.addField(field + "_mlt", value);
                 }
 
                 doc.addField(field, value);
-                if (toProjectionFields.contains(field) || toProjectionFields.contains(unqualifiedField + "." + Item.ANY))
+                if (fieldPlan.isProjected())
                 {
                     StringBuffer variantsToStore = new StringBuffer();
                     if (variants != null)
@@ -1198,11 +1396,11 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         log.debug("  Added Grouping");
 
 
-        Vector<InputStreamReader> readers = new Vector<InputStreamReader>();
-
         try {
-            // now get full text of any bitstreams in the TEXT bundle
-            // trundle through the bundles
+            // now get full text of any bitstreams in the TEXT bundle,
+            // skipping copies of the same text and stopping at the limit
+            int remaining = getFullTextLimit();
+            Set<String> seen = new HashSet<String>();
             Bundle[] myBundles = item.getBundles();
 
             for (Bundle myBundle : myBundles)
@@ -1215,16 +1413,18 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
                     for (Bitstream myBitstream : myBitstreams)
                     {
-                        try {
-                            InputStreamReader is = new InputStreamReader(
-                                    myBitstream.retrieve()); // get input
-                            readers.add(is);
+                        String key = FullTextReader.getContentKey(myBitstream);
+                        if (remaining <= 0 || (key != null && !seen.add(key)))
+                        {
+                            continue;
+                        }
 
-                            // Add each InputStream to the Indexed Document
-                            String value = IOUtils.toString(is);
+                        try {
+                            String value = getFullTextReader().read(myBitstream, remaining);
+                            remaining -= value.length();
                             doc.addField("fulltext", value);
 
-                            if(hitHighlightingFields.contains("*") || hitHighlightingFields.contains("fulltext"))
+                            if(plan != null && plan.isHighlighted("fulltext"))
                             {
                                 doc.addField("fulltext_hl", value);
                             }
@@ -1236,9 +1436,8 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
                         } catch (Exception e)
                         {
-                            // this will never happen, but compiler is now
-                            // happy.
-                            log.trace(e.getMessage(), e);
+                            log.warn("Unable to read the text of bitstream " + myBitstream.getID()
+                                    + ": " + e.getMessage());
                         }
                     }
                 }
@@ -1247,19 +1446,10 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         {
             log.error(e.getMessage(), e);
         }
-        finally {
-            Iterator<InputStreamReader> itr = readers.iterator();
-            while (itr.hasNext()) {
-                InputStreamReader reader = itr.next();
-                if (reader != null) {
-                    reader.close();
-                }
-            }
-            log.debug("closed " + readers.size() + " readers");
-        }
 
         //Do any additional indexing, depends on the plugins
-        List<SolrServiceIndexPlugin> solrServiceIndexPlugins = new DSpace().getServiceManager().getServicesByType(SolrServiceIndexPlugin.class);
+        List<SolrServiceIndexPlugin> solrServiceIndexPlugins = plan != null ? plan.getPlugins()
+                : new DSpace().getServiceManager().getServicesByType(SolrServiceIndexPlugin.class);
         for (SolrServiceIndexPlugin solrServiceIndexPlugin : solrServiceIndexPlugins)
         {
             solrServiceIndexPlugin.additionalIndex(context, item, doc);
@@ -579,6 +579,7 @@ public class EPerson extends DSpaceObject
         DatabaseManager.updateQuery(myContext,
                 "DELETE FROM EPersonGroup2EPerson WHERE eperson_id= ? ",
                 getID());
+        myContext.getAuthorizationCache().clear();
 
         // Remove any subscriptions
         DatabaseManager.updateQuery(myContext,
@@ -1015,6 +1016,11 @@ public class EPerson extends DSpaceObject
         return Constants.EPERSON;
     }
 
+    public boolean isModified()
+    {
+        return modified || modifiedMetadata;
+    }
+
     /**
      * Check for presence of EPerson in tables that have constraints on
      * EPersons. Called by delete() to determine whether the eperson can
@@ -9,6 +9,7 @@ package org.dspace.eperson;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -23,10 +24,12 @@ import org.dspace.authorize.AuthorizeManager;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
 import org.dspace.content.DSpaceObject;
+import org.dspace.core.AuthorizationCache;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.ReferenceDataCache;
 import org.dspace.event.Event;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
@@ -48,6 +51,14 @@ public class Group extends DSpaceObject
     /** log4j logger */
     private static Logger log = Logger.getLogger(Group.class);
 
+    /**
+     * Seconds a shared copy of group2groupcache may be used before it is read
+     * again, or 0 to query the table for every lookup. Changes made by
+     * another JVM go unnoticed for up to this long.
+     */
+    private static final int hierarchyCacheSeconds = ConfigurationManager.getIntProperty(
+            "eperson.group.hierarchy.cache.seconds", 0);
+
     /** Our context */
     private Context myContext;
 
@@ -374,9 +385,16 @@ public class Group extends DSpaceObject
             return true;
         }
 
-        EPerson currentuser = c.getCurrentUser();
+        // the current user's groups are looked up once per context
+        AuthorizationCache cache = c.getAuthorizationCache();
+        Set<Integer> groupIDs = cache.getGroupIDs();
+        if (groupIDs == null)
+        {
+            groupIDs = allMemberGroupIDs(c, c.getCurrentUser());
+            cache.setGroupIDs(groupIDs);
+        }
 
-        return epersonInGroup(c, groupid, currentuser);
+        return groupIDs.contains(Integer.valueOf(groupid));
     }
 
     /**
@@ -464,56 +482,7 @@ public class Group extends DSpaceObject
         groupIDs.add(Integer.valueOf(0));
         
         // now we have all owning groups, also grab all parents of owning groups
-        // yes, I know this could have been done as one big query and a union,
-        // but doing the Oracle port taught me to keep to simple SQL!
-
-        StringBuilder groupQuery = new StringBuilder();
-        groupQuery.append("SELECT * FROM group2groupcache WHERE ");
-
-        Iterator<Integer> i = groupIDs.iterator();
-
-        // Build a list of query parameters
-        Object[] parameters = new Object[groupIDs.size()];
-        int idx = 0;
-        while (i.hasNext())
-        {
-            int groupID = (i.next()).intValue();
-
-            parameters[idx++] = Integer.valueOf(groupID);
-            
-            groupQuery.append("child_id= ? ");
-            if (i.hasNext())
-            {
-                groupQuery.append(" OR ");
-            }
-        }
-
-        // was member of at least one group
-        // NOTE: even through the query is built dynamically, all data is
-        // separated into the parameters array.
-        TableRowIterator tri = DatabaseManager.queryTable(c, "group2groupcache",
-                groupQuery.toString(),
-                parameters);
-
-        try
-        {
-            while (tri.hasNext())
-            {
-                TableRow row = tri.next();
-
-                int parentID = row.getIntColumn("parent_id");
-
-                groupIDs.add(Integer.valueOf(parentID));
-            }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
-        }
+        groupIDs.addAll(getParentIDs(c, groupIDs));
 
         return groupIDs;
     }
@@ -567,31 +536,7 @@ public class Group extends DSpaceObject
         Set<Integer> epeopleIDs = new HashSet<Integer>();
         
         // Get all groups which are a member of this group
-        TableRowIterator tri = DatabaseManager.queryTable(c, "group2groupcache",
-                "SELECT * FROM group2groupcache WHERE parent_id= ? ",
-                g.getID());
-        
-        Set<Integer> groupIDs = new HashSet<Integer>();
-
-        try
-        {
-            while (tri.hasNext())
-            {
-                TableRow row = tri.next();
-
-                int childID = row.getIntColumn("child_id");
-
-                groupIDs.add(Integer.valueOf(childID));
-            }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
-        }
+        Set<Integer> groupIDs = getChildIDs(c, g.getID());
 
         // now we have all the groups (including this one)
         // it is time to find all the EPeople who belong to those groups
@@ -628,7 +573,7 @@ public class Group extends DSpaceObject
         //get all the EPerson IDs
         // Note: even through the query is dynamically built all data is separated
         // into the parameters array.
-        tri = DatabaseManager.queryTable(c, "epersongroup2eperson",
+        TableRowIterator tri = DatabaseManager.queryTable(c, "epersongroup2eperson",
                 epersonQuery.toString(),
                 parameters);
 
@@ -655,14 +600,6 @@ public class Group extends DSpaceObject
         return epeopleIDs;
     }
 
-    private static boolean epersonInGroup(Context c, int groupID, EPerson e)
-            throws SQLException
-    {
-        Set<Integer> groupIDs = Group.allMemberGroupIDs(c, e);
-
-        return groupIDs.contains(Integer.valueOf(groupID));
-    }
-
     /**
      * find the group by its ID
      * 
@@ -1003,16 +940,22 @@ public class Group extends DSpaceObject
         DatabaseManager.updateQuery(myContext,
                 "DELETE FROM EPersonGroup2EPerson WHERE eperson_group_id= ? ",
                 getID());
+        myContext.getAuthorizationCache().clear();
+
+        // the groups above this one may lose indirect members
+        Set<Integer> ancestors = Group2GroupCache.getAncestors(myContext, getID());
 
         // remove any group2groupcache entries
         DatabaseManager.updateQuery(myContext,
                 "DELETE FROM group2groupcache WHERE parent_id= ? OR child_id= ? ",
                 getID(),getID());
+        ReferenceDataCache.invalidate(myContext, Group2GroupCache.HIERARCHY_CACHE_REGION);
 
         // Now remove any group2group assignments
         DatabaseManager.updateQuery(myContext,
                 "DELETE FROM group2group WHERE parent_id= ? OR child_id= ? ",
                 getID(),getID());
+        Group2GroupCache.refresh(myContext, ancestors);
 
         // don't forget the new table
         deleteEpersonGroup2WorkspaceItem();
@@ -1126,6 +1069,7 @@ public class Group extends DSpaceObject
             }
 
             epeopleChanged = false;
+            myContext.getAuthorizationCache().clear();
         }
 
         // Redo Group mappings if they've changed
@@ -1149,10 +1093,12 @@ public class Group extends DSpaceObject
                 DatabaseManager.insert(myContext, mappingRow);
             }
 
-            // groups changed, now change group cache
-            rethinkGroupCache();
+            // groups changed, now bring the group cache up to date for this
+            // group and its ancestors
+            Group2GroupCache.refresh(myContext, Collections.singleton(Integer.valueOf(getID())));
 
             groupsChanged = false;
+            myContext.getAuthorizationCache().clear();
         }
 
         log.info(LogManager.getHeader(myContext, "update_group", "group_id="
@@ -1203,132 +1149,16 @@ public class Group extends DSpaceObject
         return Constants.GROUP;
     }
 
-    public String getHandle()
+    public boolean isModified()
     {
-        return null;
+        return epeopleChanged || groupsChanged || modifiedMetadata;
     }
 
-    /**
-     * Regenerate the group cache AKA the group2groupcache table in the database -
-     * meant to be called when a group is added or removed from another group
-     * 
-     */
-    private void rethinkGroupCache() throws SQLException
+    public String getHandle()
     {
-        // read in the group2group table
-        TableRowIterator tri = DatabaseManager.queryTable(myContext, "group2group",
-                "SELECT * FROM group2group");
-
-        Map<Integer,Set<Integer>> parents = new HashMap<Integer,Set<Integer>>();
-
-        try
-        {
-            while (tri.hasNext())
-            {
-                TableRow row = (TableRow) tri.next();
-
-                Integer parentID = Integer.valueOf(row.getIntColumn("parent_id"));
-                Integer childID = Integer.valueOf(row.getIntColumn("child_id"));
-
-                // if parent doesn't have an entry, create one
-                if (!parents.containsKey(parentID))
-                {
-                    Set<Integer> children = new HashSet<Integer>();
-
-                    // add child id to the list
-                    children.add(childID);
-                    parents.put(parentID, children);
-                }
-                else
-                {
-                    // parent has an entry, now add the child to the parent's record
-                    // of children
-                    Set<Integer> children =  parents.get(parentID);
-                    children.add(childID);
-                }
-            }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
-        }
-
-        // now parents is a hash of all of the IDs of groups that are parents
-        // and each hash entry is a hash of all of the IDs of children of those
-        // parent groups
-        // so now to establish all parent,child relationships we can iterate
-        // through the parents hash
-        for (Map.Entry<Integer, Set<Integer>> parent : parents.entrySet())
-        {
-            Set<Integer> myChildren = getChildren(parents, parent.getKey());
-            parent.getValue().addAll(myChildren);
-        }
-
-        // empty out group2groupcache table
-        DatabaseManager.updateQuery(myContext,
-                "DELETE FROM group2groupcache WHERE id >= 0");
-
-        // write out new one
-        for (Map.Entry<Integer, Set<Integer>> parent : parents.entrySet())
-        {
-            int parentID = parent.getKey().intValue();
-
-            for (Integer child : parent.getValue())
-            {
-                TableRow row = DatabaseManager.row("group2groupcache");
-
-                row.setColumn("parent_id", parentID);
-                row.setColumn("child_id", child);
-
-                DatabaseManager.insert(myContext, row);
-            }
-        }
+        return null;
     }
 
-    /**
-     * Used recursively to generate a map of ALL of the children of the given
-     * parent
-     * 
-     * @param parents
-     *            Map of parent,child relationships
-     * @param parent
-     *            the parent you're interested in
-     * @return Map whose keys are all of the children of a parent
-     */
-    private Set<Integer> getChildren(Map<Integer,Set<Integer>> parents, Integer parent)
-    {
-        Set<Integer> myChildren = new HashSet<Integer>();
-
-        // degenerate case, this parent has no children
-        if (!parents.containsKey(parent))
-        {
-            return myChildren;
-        }
-
-        // got this far, so we must have children
-        Set<Integer> children =  parents.get(parent);
-
-        // now iterate over all of the children
-        Iterator<Integer> i = children.iterator();
-
-        while (i.hasNext())
-        {
-            Integer childID = i.next();
-
-            // add this child's ID to our return set
-            myChildren.add(childID);
-
-            // and now its children
-            myChildren.addAll(getChildren(parents, childID));
-        }
-
-        return myChildren;
-    }
-    
     public DSpaceObject getParentObject() throws SQLException
     {
         // could a collection/community administrator manage related groups?
@@ -1421,4 +1251,188 @@ public class Group extends DSpaceObject
     {
 
     }
+
+    /**
+     * Get the direct and indirect parents of groups from group2groupcache.
+     *
+     * @param c
+     *          DSpace context
+     * @param groupIDs
+     *          the groups
+     * @return Set of Integer groupIDs
+     * @throws SQLException
+     */
+    private static Set<Integer> getParentIDs(Context c, Set<Integer> groupIDs)
+            throws SQLException
+    {
+        Set<Integer> parentIDs = new HashSet<Integer>();
+        if (hierarchyCacheSeconds > 0)
+        {
+            GroupHierarchy hierarchy = getHierarchy(c);
+            for (Integer groupID : groupIDs)
+            {
+                parentIDs.addAll(hierarchy.getParents(groupID));
+            }
+            return parentIDs;
+        }
+
+        // yes, I know this could have been done as one big query and a union,
+        // but doing the Oracle port taught me to keep to simple SQL!
+
+        StringBuilder groupQuery = new StringBuilder();
+        groupQuery.append("SELECT * FROM group2groupcache WHERE ");
+
+        Iterator<Integer> i = groupIDs.iterator();
+
+        // Build a list of query parameters
+        Object[] parameters = new Object[groupIDs.size()];
+        int idx = 0;
+        while (i.hasNext())
+        {
+            parameters[idx++] = i.next();
+
+            groupQuery.append("child_id= ? ");
+            if (i.hasNext())
+            {
+                groupQuery.append(" OR ");
+            }
+        }
+
+        // NOTE: even through the query is built dynamically, all data is
+        // separated into the parameters array.
+        TableRowIterator tri = DatabaseManager.queryTable(c, "group2groupcache",
+                groupQuery.toString(),
+                parameters);
+
+        try
+        {
+            while (tri.hasNext())
+            {
+                parentIDs.add(Integer.valueOf(tri.next().getIntColumn("parent_id")));
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            tri.close();
+        }
+
+        return parentIDs;
+    }
+
+    /**
+     * Get the direct and indirect subgroups of a group from group2groupcache.
+     *
+     * @param c
+     *          DSpace context
+     * @param groupID
+     *          the group
+     * @return Set of Integer groupIDs
+     * @throws SQLException
+     */
+    private static Set<Integer> getChildIDs(Context c, int groupID)
+            throws SQLException
+    {
+        if (hierarchyCacheSeconds > 0)
+        {
+            return new HashSet<Integer>(getHierarchy(c).getChildren(groupID));
+        }
+
+        Set<Integer> childIDs = new HashSet<Integer>();
+        TableRowIterator tri = DatabaseManager.queryTable(c, "group2groupcache",
+                "SELECT * FROM group2groupcache WHERE parent_id= ? ",
+                groupID);
+        try
+        {
+            while (tri.hasNext())
+            {
+                childIDs.add(Integer.valueOf(tri.next().getIntColumn("child_id")));
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            tri.close();
+        }
+
+        return childIDs;
+    }
+
+    // get the shared copy of the group2groupcache table, loading it if it is
+    // missing or older than eperson.group.hierarchy.cache.seconds
+    private static GroupHierarchy getHierarchy(Context c) throws SQLException
+    {
+        return ReferenceDataCache.get(c, Group2GroupCache.HIERARCHY_CACHE_REGION, hierarchyCacheSeconds * 1000L,
+                new ReferenceDataCache.Loader<GroupHierarchy>()
+        {
+            public GroupHierarchy load(Context context) throws SQLException
+            {
+                GroupHierarchy hierarchy = new GroupHierarchy();
+
+                TableRowIterator tri = DatabaseManager.queryTable(context, "group2groupcache",
+                        "SELECT * FROM group2groupcache");
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        TableRow row = tri.next();
+                        hierarchy.add(row.getIntColumn("parent_id"), row.getIntColumn("child_id"));
+                    }
+                }
+                finally
+                {
+                    // close the TableRowIterator to free up resources
+                    if (tri != null)
+                    {
+                        tri.close();
+                    }
+                }
+
+                return hierarchy;
+            }
+        });
+    }
+
+    /**
+     * The contents of the group2groupcache table: every group with all of its
+     * direct and indirect parents and children.
+     */
+    private static class GroupHierarchy
+    {
+        private final Map<Integer, Set<Integer>> parents = new HashMap<Integer, Set<Integer>>();
+        private final Map<Integer, Set<Integer>> children = new HashMap<Integer, Set<Integer>>();
+
+        void add(int parentID, int childID)
+        {
+            put(parents, childID, parentID);
+            put(children, parentID, childID);
+        }
+
+        Set<Integer> getParents(int groupID)
+        {
+            return get(parents, groupID);
+        }
+
+        Set<Integer> getChildren(int groupID)
+        {
+            return get(children, groupID);
+        }
+
+        private static void put(Map<Integer, Set<Integer>> map, int key, int value)
+        {
+            Set<Integer> values = map.get(Integer.valueOf(key));
+            if (values == null)
+            {
+                values = new HashSet<Integer>();
+                map.put(Integer.valueOf(key), values);
+            }
+            values.add(Integer.valueOf(value));
+        }
+
+        private static Set<Integer> get(Map<Integer, Set<Integer>> map, int key)
+        {
+            Set<Integer> values = map.get(Integer.valueOf(key));
+            return values != null ? values : Collections.<Integer>emptySet();
+        }
+    }
 }
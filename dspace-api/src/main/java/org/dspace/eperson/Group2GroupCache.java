@@ -0,0 +1,510 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+import org.dspace.core.ReferenceDataCache;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowBatch;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Maintains the group2groupcache table, which holds every pair of groups where
+ * the child is a direct or indirect member of the parent, computed from the
+ * direct memberships in the group2group table.
+ * <P>
+ * When the subgroups of a group change, only the groups whose set of
+ * descendants can change (the group itself and its ancestors) are
+ * recomputed, and only the pairs that differ are deleted or inserted.
+ * <P>
+ * As a command line tool it checks the table against a full rebuild, and
+ * optionally repairs it:
+ *
+ * <pre>
+ * [dspace]/bin/dspace group-cache [-r]
+ * </pre>
+ *
+ * Group memberships are expected to be acyclic; a cycle does not loop, but
+ * the pairs computed for it may be incomplete.
+ */
+public class Group2GroupCache
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(Group2GroupCache.class);
+
+    /** Region of the shared reference data cache holding group2groupcache */
+    static final String HIERARCHY_CACHE_REGION = "group2groupcache";
+
+    /** Most parameters in one IN clause (Oracle accepts at most 1000) */
+    private static final int MAX_IN_CLAUSE = 1000;
+
+    /** Most pairs listed by the consistency check */
+    private static final int MAX_REPORTED = 50;
+
+    /** Static methods only */
+    private Group2GroupCache()
+    {
+    }
+
+    /**
+     * Bring group2groupcache up to date after the subgroups of the given
+     * groups have changed. The group2group table must already hold the new
+     * memberships; group2groupcache must still be correct for the ancestors
+     * of the groups.
+     *
+     * @param context
+     *            DSpace context
+     * @param groupIDs
+     *            the groups whose direct subgroups changed
+     * @throws SQLException
+     */
+    static void refresh(Context context, Collection<Integer> groupIDs) throws SQLException
+    {
+        if (groupIDs.isEmpty())
+        {
+            return;
+        }
+
+        // Only the changed groups and their ancestors can gain or lose descendants
+        Set<Integer> affected = new HashSet<Integer>(groupIDs);
+        for (TableRow row : queryIn(context, "group2groupcache", "child_id", groupIDs))
+        {
+            affected.add(Integer.valueOf(row.getIntColumn("parent_id")));
+        }
+
+        // Load the memberships below the affected groups
+        Map<Integer, Set<Integer>> children = new HashMap<Integer, Set<Integer>>();
+        Set<Integer> frontier = affected;
+        while (!frontier.isEmpty())
+        {
+            Set<Integer> next = new HashSet<Integer>();
+            for (TableRow row : queryIn(context, "group2group", "parent_id", frontier))
+            {
+                Integer childID = Integer.valueOf(row.getIntColumn("child_id"));
+                put(children, Integer.valueOf(row.getIntColumn("parent_id")), childID);
+                next.add(childID);
+            }
+            for (Integer groupID : frontier)
+            {
+                if (!children.containsKey(groupID))
+                {
+                    children.put(groupID, new HashSet<Integer>());
+                }
+            }
+
+            // visit each group once
+            next.removeAll(children.keySet());
+            frontier = next;
+        }
+
+        Map<Integer, Set<Integer>> closure = computeClosure(children, affected);
+
+        // Compare with the stored pairs of the affected groups
+        List<TableRow> stale = new ArrayList<TableRow>();
+        Map<Integer, Set<Integer>> missing = new HashMap<Integer, Set<Integer>>();
+        for (Map.Entry<Integer, Set<Integer>> entry : closure.entrySet())
+        {
+            missing.put(entry.getKey(), new HashSet<Integer>(entry.getValue()));
+        }
+        for (TableRow row : queryIn(context, "group2groupcache", "parent_id", affected))
+        {
+            Set<Integer> wanted = missing.get(Integer.valueOf(row.getIntColumn("parent_id")));
+            if (!wanted.remove(Integer.valueOf(row.getIntColumn("child_id"))))
+            {
+                // no longer a descendant, or a duplicate
+                stale.add(row);
+            }
+        }
+
+        int inserted = 0;
+        TableRowBatch batch = DatabaseManager.beginBatch(context, "group2groupcache");
+        try
+        {
+            for (TableRow row : stale)
+            {
+                batch.delete(row);
+            }
+
+            for (Map.Entry<Integer, Set<Integer>> entry : missing.entrySet())
+            {
+                for (Integer childID : entry.getValue())
+                {
+                    batch.insert(newRow(entry.getKey(), childID));
+                    inserted++;
+                }
+            }
+        }
+        finally
+        {
+            batch.close();
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Refreshed group2groupcache for " + affected.size() + " groups: "
+                    + stale.size() + " pairs deleted, " + inserted + " inserted");
+        }
+
+        if (!stale.isEmpty() || inserted > 0)
+        {
+            ReferenceDataCache.invalidate(context, HIERARCHY_CACHE_REGION);
+        }
+    }
+
+    /**
+     * Find the direct and indirect parents of a group, as stored in
+     * group2groupcache.
+     *
+     * @param context
+     *            DSpace context
+     * @param groupID
+     *            the group
+     * @return the IDs of the parent groups
+     * @throws SQLException
+     */
+    static Set<Integer> getAncestors(Context context, int groupID) throws SQLException
+    {
+        Set<Integer> ancestors = new HashSet<Integer>();
+        for (TableRow row : queryIn(context, "group2groupcache", "child_id",
+                Collections.singleton(Integer.valueOf(groupID))))
+        {
+            ancestors.add(Integer.valueOf(row.getIntColumn("parent_id")));
+        }
+        return ancestors;
+    }
+
+    /**
+     * Regenerate the whole group2groupcache table from group2group.
+     *
+     * @param context
+     *            DSpace context
+     * @throws SQLException
+     */
+    public static void rebuild(Context context) throws SQLException
+    {
+        Map<Integer, Set<Integer>> children = loadMemberships(context);
+        Map<Integer, Set<Integer>> closure = computeClosure(children, children.keySet());
+
+        // empty out group2groupcache table
+        DatabaseManager.updateQuery(context,
+                "DELETE FROM group2groupcache WHERE id >= 0");
+
+        // write out new one, many rows at a time
+        TableRowBatch batch = DatabaseManager.beginBatch(context, "group2groupcache");
+        try
+        {
+            for (Map.Entry<Integer, Set<Integer>> parent : closure.entrySet())
+            {
+                for (Integer childID : parent.getValue())
+                {
+                    batch.insert(newRow(parent.getKey(), childID));
+                }
+            }
+        }
+        finally
+        {
+            batch.close();
+        }
+
+        ReferenceDataCache.invalidate(context, HIERARCHY_CACHE_REGION);
+    }
+
+    /**
+     * Compare group2groupcache with the pairs a full rebuild would write.
+     *
+     * @param context
+     *            DSpace context
+     * @return a description of each difference found, at most
+     *         {@value #MAX_REPORTED} of them; empty if the table is correct
+     * @throws SQLException
+     */
+    public static List<String> check(Context context) throws SQLException
+    {
+        Map<Integer, Set<Integer>> children = loadMemberships(context);
+        Map<Integer, Set<Integer>> missing = computeClosure(children, children.keySet());
+        List<String> problems = new ArrayList<String>();
+        int extra = 0;
+
+        TableRowIterator tri = DatabaseManager.queryTable(context, "group2groupcache",
+                "SELECT * FROM group2groupcache");
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Integer parentID = Integer.valueOf(row.getIntColumn("parent_id"));
+                Integer childID = Integer.valueOf(row.getIntColumn("child_id"));
+
+                Set<Integer> wanted = missing.get(parentID);
+                if (wanted == null || !wanted.remove(childID))
+                {
+                    extra++;
+                    report(problems, "Unexpected or duplicate pair: parent " + parentID + ", child " + childID);
+                }
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+
+        int absent = 0;
+        for (Map.Entry<Integer, Set<Integer>> entry : missing.entrySet())
+        {
+            for (Integer childID : entry.getValue())
+            {
+                absent++;
+                report(problems, "Missing pair: parent " + entry.getKey() + ", child " + childID);
+            }
+        }
+
+        if (extra > 0 || absent > 0)
+        {
+            problems.add(extra + " unexpected and " + absent + " missing pairs in group2groupcache");
+        }
+
+        return problems;
+    }
+
+    /**
+     * Compute, for each of the given groups, all of its direct and indirect
+     * subgroups.
+     *
+     * @param children
+     *            the direct subgroups of each group
+     * @param groupIDs
+     *            the groups to compute
+     * @return the descendants of each of <code>groupIDs</code>
+     */
+    static Map<Integer, Set<Integer>> computeClosure(Map<Integer, Set<Integer>> children,
+            Collection<Integer> groupIDs)
+    {
+        Map<Integer, Set<Integer>> descendants = new HashMap<Integer, Set<Integer>>();
+        Set<Integer> inProgress = new HashSet<Integer>();
+        Map<Integer, Set<Integer>> closure = new HashMap<Integer, Set<Integer>>();
+
+        for (Integer groupID : groupIDs)
+        {
+            closure.put(groupID, new HashSet<Integer>(getDescendants(children, groupID, descendants, inProgress)));
+        }
+
+        return closure;
+    }
+
+    /**
+     * Used recursively to find all of the descendants of a group, remembering
+     * the descendants of every group visited.
+     */
+    private static Set<Integer> getDescendants(Map<Integer, Set<Integer>> children, Integer groupID,
+            Map<Integer, Set<Integer>> descendants, Set<Integer> inProgress)
+    {
+        Set<Integer> known = descendants.get(groupID);
+        if (known != null)
+        {
+            return known;
+        }
+
+        // a group that is its own descendant: stop here
+        if (!inProgress.add(groupID))
+        {
+            return Collections.emptySet();
+        }
+
+        Set<Integer> result = new HashSet<Integer>();
+        Set<Integer> direct = children.get(groupID);
+        if (direct != null)
+        {
+            for (Integer childID : direct)
+            {
+                result.add(childID);
+                result.addAll(getDescendants(children, childID, descendants, inProgress));
+            }
+        }
+
+        inProgress.remove(groupID);
+        descendants.put(groupID, result);
+        return result;
+    }
+
+    // read in the group2group table
+    private static Map<Integer, Set<Integer>> loadMemberships(Context context) throws SQLException
+    {
+        Map<Integer, Set<Integer>> children = new HashMap<Integer, Set<Integer>>();
+
+        TableRowIterator tri = DatabaseManager.queryTable(context, "group2group",
+                "SELECT * FROM group2group");
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                put(children, Integer.valueOf(row.getIntColumn("parent_id")),
+                        Integer.valueOf(row.getIntColumn("child_id")));
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+
+        return children;
+    }
+
+    // all rows of the table with one of the values in the column
+    private static List<TableRow> queryIn(Context context, String table, String column,
+            Collection<Integer> values) throws SQLException
+    {
+        List<TableRow> rows = new ArrayList<TableRow>();
+        List<Integer> all = new ArrayList<Integer>(values);
+
+        for (int start = 0; start < all.size(); start += MAX_IN_CLAUSE)
+        {
+            List<Integer> chunk = all.subList(start, Math.min(all.size(), start + MAX_IN_CLAUSE));
+            TableRowIterator tri = DatabaseManager.queryTable(context, table,
+                    "SELECT * FROM " + table + " WHERE " + column + " IN ("
+                            + DatabaseManager.placeholders(chunk.size()) + ")",
+                    chunk.toArray());
+            try
+            {
+                rows.addAll(tri.toList());
+            }
+            finally
+            {
+                // close the TableRowIterator to free up resources
+                if (tri != null)
+                {
+                    tri.close();
+                }
+            }
+        }
+
+        return rows;
+    }
+
+    private static TableRow newRow(Integer parentID, Integer childID) throws SQLException
+    {
+        TableRow row = DatabaseManager.row("group2groupcache");
+        row.setColumn("parent_id", parentID.intValue());
+        row.setColumn("child_id", childID.intValue());
+        return row;
+    }
+
+    private static void put(Map<Integer, Set<Integer>> map, Integer key, Integer value)
+    {
+        Set<Integer> values = map.get(key);
+        if (values == null)
+        {
+            values = new HashSet<Integer>();
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static void report(List<String> problems, String problem)
+    {
+        if (problems.size() < MAX_REPORTED)
+        {
+            problems.add(problem);
+        }
+    }
+
+    /**
+     * Command line tool to check group2groupcache against group2group.
+     *
+     * @param argv
+     *            the command line arguments
+     */
+    public static void main(String[] argv) throws Exception
+    {
+        CommandLineParser parser = new PosixParser();
+        Options options = new Options();
+        options.addOption("r", "repair", false, "rebuild group2groupcache if it is not consistent");
+        options.addOption("h", "help", false, "help");
+
+        CommandLine line = null;
+        try
+        {
+            line = parser.parse(options, argv);
+        }
+        catch (ParseException e)
+        {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("Group2GroupCache [-r]\n", options);
+            System.exit(1);
+        }
+
+        if (line.hasOption('h'))
+        {
+            new HelpFormatter().printHelp("Group2GroupCache [-r]\n", options);
+            System.exit(0);
+        }
+
+        Context context = new Context();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            List<String> problems = check(context);
+
+            if (problems.isEmpty())
+            {
+                System.out.println("group2groupcache is consistent with group2group");
+                context.abort();
+                System.exit(0);
+            }
+
+            for (String problem : problems)
+            {
+                System.out.println(problem);
+            }
+
+            if (line.hasOption('r'))
+            {
+                rebuild(context);
+                context.complete();
+                System.out.println("group2groupcache rebuilt");
+                System.exit(0);
+            }
+
+            context.abort();
+            System.exit(1);
+        }
+        finally
+        {
+            if (context.isValid())
+            {
+                context.abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+import org.dspace.core.Utils;
+
+/**
+ * AsyncDispatcher writes the events of a committed Context to a durable
+ * {@link EventQueue} and returns, so consumers run in background threads
+ * instead of the thread that committed. Each consumer still sees its events
+ * in the order they were committed.
+ * <P>
+ * If the events cannot be queued, they are delivered synchronously as
+ * {@link BasicDispatcher} would.
+ * 
+ * @version $Revision$
+ */
+public class AsyncDispatcher extends BasicDispatcher
+{
+    /** log4j category */
+    private static Logger log = Logger.getLogger(AsyncDispatcher.class);
+
+    public AsyncDispatcher(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Queue all events added to this Context for the configured consumers.
+     * 
+     * @param ctx
+     *            the execution context
+     */
+    public void dispatch(Context ctx)
+    {
+        if (consumers.isEmpty() || !ctx.hasEvents())
+        {
+            return;
+        }
+
+        // transaction identifier applies to all events created in
+        // this context for the current transaction.
+        String tid = "TX" + Utils.generateKey();
+
+        List<Event> events = new ArrayList<Event>(ctx.getEvents().size());
+        while (ctx.hasEvents())
+        {
+            Event event = ctx.pollEvent();
+            event.setDispatcher(getIdentifier());
+            event.setTransactionID(tid);
+            events.add(event);
+        }
+
+        try
+        {
+            EventQueue.getInstance(name).enqueue(events);
+
+            if (log.isDebugEnabled())
+            {
+                log.debug("Queued " + events.size() + " events for dispatcher " + name);
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to queue events, delivering them synchronously: " + e.toString(), e);
+            for (Event event : events)
+            {
+                ctx.addEvent(event);
+            }
+            super.dispatch(ctx);
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * An append-only file of serialized events with a durable read position.
+ * <P>
+ * Each record is the length of the serialized event followed by the event
+ * itself. The read position is kept next to the journal in a file with the
+ * suffix <code>.offset</code>, and only moves when the events read have been
+ * acknowledged, so events are delivered at least once. Once everything has
+ * been acknowledged the journal is truncated.
+ * <P>
+ * The file is locked while it is written or read, so several processes (or
+ * web applications) may append to the same journal.
+ *
+ * @see EventQueue
+ */
+final class EventJournal
+{
+    /** log4j category */
+    private static Logger log = Logger.getLogger(EventJournal.class);
+
+    /** Records larger than this are treated as corrupt */
+    private static final int MAX_RECORD = 1024 * 1024;
+
+    private final File file;
+
+    private final File offsetFile;
+
+    /** Whether appends are forced to disk before returning */
+    private final boolean sync;
+
+    /** End of the records returned by the last read, not yet acknowledged */
+    private long pendingOffset = -1;
+
+    /**
+     * Open (or create) a journal.
+     *
+     * @param file
+     *            the journal file
+     * @param sync
+     *            whether to force appended events to disk
+     */
+    EventJournal(File file, boolean sync) throws IOException
+    {
+        this.file = file;
+        this.offsetFile = new File(file.getPath() + ".offset");
+        this.sync = sync;
+
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+        {
+            throw new IOException("Unable to create directory " + dir);
+        }
+    }
+
+    /**
+     * @return the journal file
+     */
+    File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Append events to the end of the journal.
+     *
+     * @param events
+     *            the events to append
+     */
+    synchronized void append(List<Event> events) throws IOException
+    {
+        if (events.isEmpty())
+        {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Event event : events)
+        {
+            byte[] record = serialize(event);
+            out.writeInt(record.length);
+            out.write(record);
+        }
+        out.flush();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            FileLock lock = lock(raf);
+            try
+            {
+                raf.seek(raf.length());
+                raf.write(bytes.toByteArray());
+                if (sync)
+                {
+                    raf.getChannel().force(false);
+                }
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Read events following the read position, without moving it. Reading
+     * again before {@link #acknowledge()} returns the same events.
+     *
+     * @param max
+     *            the most events to read
+     * @return the events, in the order they were appended; empty if there are
+     *         none
+     */
+    synchronized List<Event> read(int max) throws IOException
+    {
+        List<Event> events = new ArrayList<Event>();
+        if (!file.exists())
+        {
+            pendingOffset = -1;
+            return events;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            FileLock lock = lock(raf);
+            try
+            {
+                long length = raf.length();
+                long start = readOffset(length);
+                long offset = start;
+                raf.seek(offset);
+
+                while (events.size() < max && offset + 4 <= length)
+                {
+                    int size = raf.readInt();
+                    if (size <= 0 || size > MAX_RECORD || offset + 4 + size > length)
+                    {
+                        // appends are locked, so this is left over from a
+                        // crash while writing: nothing follows it
+                        log.warn("Truncating incomplete record at " + offset + " in " + file);
+                        raf.setLength(offset);
+                        break;
+                    }
+
+                    byte[] record = new byte[size];
+                    raf.readFully(record);
+                    offset += 4 + size;
+
+                    Event event = deserialize(record);
+                    if (event != null)
+                    {
+                        events.add(event);
+                    }
+                }
+
+                // nothing to acknowledge if nothing was read
+                pendingOffset = (offset == start) ? -1 : offset;
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        return events;
+    }
+
+    /**
+     * Move the read position past the events returned by the last
+     * {@link #read(int)}. The journal is emptied when nothing follows.
+     */
+    synchronized void acknowledge() throws IOException
+    {
+        if (pendingOffset < 0)
+        {
+            return;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            FileLock lock = lock(raf);
+            try
+            {
+                if (pendingOffset >= raf.length())
+                {
+                    // reset the position first: a crash in between repeats
+                    // events rather than losing them
+                    writeOffset(0);
+                    raf.setLength(0);
+                }
+                else
+                {
+                    writeOffset(pendingOffset);
+                }
+                pendingOffset = -1;
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Count the events following the read position.
+     *
+     * @return the number of events not yet acknowledged
+     */
+    synchronized int size() throws IOException
+    {
+        if (!file.exists())
+        {
+            return 0;
+        }
+
+        int count = 0;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            long length = raf.length();
+            long offset = readOffset(length);
+            while (offset + 4 <= length)
+            {
+                raf.seek(offset);
+                int size = raf.readInt();
+                if (size <= 0 || offset + 4 + size > length)
+                {
+                    break;
+                }
+                offset += 4 + size;
+                count++;
+            }
+        }
+        catch (EOFException e)
+        {
+            // truncated while counting
+        }
+        finally
+        {
+            raf.close();
+        }
+        return count;
+    }
+
+    /**
+     * Remove all events and reset the read position.
+     */
+    synchronized void clear() throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            FileLock lock = lock(raf);
+            try
+            {
+                writeOffset(0);
+                raf.setLength(0);
+                pendingOffset = -1;
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Lock the whole journal, waiting for other processes and class loaders.
+     */
+    private FileLock lock(RandomAccessFile raf) throws IOException
+    {
+        while (true)
+        {
+            try
+            {
+                return raf.getChannel().lock();
+            }
+            catch (OverlappingFileLockException e)
+            {
+                // held by another class loader in this JVM
+                try
+                {
+                    Thread.sleep(10);
+                }
+                catch (InterruptedException ie)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while locking " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the saved position; one beyond the end of the journal means it was
+     * truncated after the position was saved.
+     */
+    private long readOffset(long length) throws IOException
+    {
+        if (!offsetFile.exists())
+        {
+            return 0;
+        }
+
+        String text = FileUtils.readFileToString(offsetFile).trim();
+        try
+        {
+            long offset = Long.parseLong(text);
+            return (offset < 0 || offset > length) ? 0 : offset;
+        }
+        catch (NumberFormatException e)
+        {
+            log.warn("Ignoring invalid position \"" + text + "\" in " + offsetFile);
+            return 0;
+        }
+    }
+
+    private void writeOffset(long offset) throws IOException
+    {
+        File tmp = new File(offsetFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try
+        {
+            out.write(String.valueOf(offset).getBytes("UTF-8"));
+            if (sync)
+            {
+                out.getFD().sync();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if (!tmp.renameTo(offsetFile))
+        {
+            // renameTo does not replace an existing file on every platform
+            offsetFile.delete();
+            if (!tmp.renameTo(offsetFile))
+            {
+                throw new IOException("Unable to save position in " + offsetFile);
+            }
+        }
+    }
+
+    private static byte[] serialize(Event event) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(event);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the event, or null if the record cannot be read
+     */
+    private Event deserialize(byte[] record)
+    {
+        try
+        {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record));
+            return (Event) in.readObject();
+        }
+        catch (Exception e)
+        {
+            log.error("Skipping unreadable event in " + file + ": " + e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,648 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+
+/**
+ * Durable queues of events for the consumers of one dispatcher, used by
+ * {@link AsyncDispatcher}.
+ * <P>
+ * Every consumer has its own {@link EventJournal} under
+ * <code>event.queue.dir</code>, so a slow or failing consumer does not hold up
+ * the others. Each queue is drained in order by a single task at a time, in
+ * batches of <code>event.queue.batch.size</code> events delivered through a
+ * Context of their own and followed by <code>end()</code>. A batch that fails
+ * is retried with exponential backoff, starting at
+ * <code>event.queue.retry.delay</code> milliseconds and up to
+ * <code>event.queue.retry.maxdelay</code>; after
+ * <code>event.queue.retries</code> failed attempts it is moved to the
+ * consumer's dead letter journal so later events can proceed. Dead letters can
+ * be listed and requeued from the command line.
+ * <P>
+ * The queues are also polled every <code>event.queue.poll</code> seconds,
+ * which picks up events queued by other processes (e.g. command line tools)
+ * and events left over from a restart. When several processes poll the same
+ * queue, a lock file makes sure only one of them delivers at a time.
+ * <P>
+ * When the kernel stops, {@link EventQueueShutdown} delivers what is left in
+ * the queues before stopping them.
+ */
+public final class EventQueue
+{
+    /** log4j category */
+    private static Logger log = Logger.getLogger(EventQueue.class);
+
+    /** Running queues, by dispatcher name */
+    private static final Map<String, EventQueue> queues = new HashMap<String, EventQueue>();
+
+    private static final String PROP_PFX = "event.dispatcher.";
+
+    /** How long shutting down waits for the deliveries under way, in seconds */
+    private static final long SHUTDOWN_WAIT = 30;
+
+    private final String dispatcherName;
+
+    /** Workers by consumer name, in configuration order */
+    private final Map<String, ConsumerWorker> workers = new LinkedHashMap<String, ConsumerWorker>();
+
+    private final int batchSize;
+
+    private final int maxRetries;
+
+    private final long retryDelay;
+
+    private final long maxRetryDelay;
+
+    private volatile ScheduledExecutorService executor = null;
+
+    /**
+     * Get the running queue of a dispatcher, starting it if needed.
+     *
+     * @param dispatcherName
+     *            the configured name of the dispatcher
+     * @return the queue
+     */
+    public static EventQueue getInstance(String dispatcherName) throws IOException
+    {
+        synchronized (queues)
+        {
+            EventQueue queue = queues.get(dispatcherName);
+            if (queue == null)
+            {
+                queue = new EventQueue(dispatcherName);
+                queue.start();
+                queues.put(dispatcherName, queue);
+            }
+            return queue;
+        }
+    }
+
+    /**
+     * Stop all running queues, then deliver in the calling thread what they
+     * still hold. A batch that fails stays queued for the next start.
+     */
+    public static void shutdownAll()
+    {
+        synchronized (queues)
+        {
+            for (EventQueue queue : queues.values())
+            {
+                queue.shutdown();
+            }
+            for (EventQueue queue : queues.values())
+            {
+                for (String consumer : queue.getConsumerNames())
+                {
+                    queue.getWorker(consumer).drain(true);
+                }
+            }
+            queues.clear();
+        }
+    }
+
+    /**
+     * Open the queues of a dispatcher without starting delivery.
+     *
+     * @param dispatcherName
+     *            the configured name of the dispatcher
+     */
+    EventQueue(String dispatcherName) throws IOException
+    {
+        this.dispatcherName = dispatcherName;
+        batchSize = Math.max(1, ConfigurationManager.getIntProperty("event.queue.batch.size", 100));
+        maxRetries = Math.max(0, ConfigurationManager.getIntProperty("event.queue.retries", 5));
+        retryDelay = Math.max(1, ConfigurationManager.getLongProperty("event.queue.retry.delay", 1000));
+        maxRetryDelay = Math.max(retryDelay, ConfigurationManager.getLongProperty("event.queue.retry.maxdelay", 300000));
+
+        String dirName = ConfigurationManager.getProperty("event.queue.dir");
+        if (dirName == null)
+        {
+            dirName = ConfigurationManager.getProperty("dspace.dir") + File.separator + "eventqueue";
+        }
+        File dir = new File(dirName, dispatcherName);
+        boolean sync = ConfigurationManager.getBooleanProperty("event.queue.sync", true);
+
+        String consumerList = ConfigurationManager.getProperty(PROP_PFX + dispatcherName + ".consumers");
+        if (consumerList == null)
+        {
+            throw new IllegalStateException("No Configuration entry found for consumer list of event Dispatcher: \""
+                    + PROP_PFX + dispatcherName + ".consumers\"");
+        }
+
+        for (String name : consumerList.trim().split("\\s*,\\s*"))
+        {
+            ConsumerProfile profile;
+            try
+            {
+                profile = ConsumerProfile.makeConsumerProfile(name);
+            }
+            catch (Exception e)
+            {
+                throw new IllegalStateException("Unable to create consumer " + name
+                        + " for event Dispatcher " + dispatcherName, e);
+            }
+            workers.put(name, new ConsumerWorker(profile, dir, sync));
+        }
+    }
+
+    /**
+     * Start delivering queued events.
+     */
+    synchronized void start()
+    {
+        if (executor != null)
+        {
+            return;
+        }
+
+        int threads = ConfigurationManager.getIntProperty("event.queue.threads", workers.size());
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(Math.max(1, threads), new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "EventQueue-" + dispatcherName + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // retries waiting for their delay are dropped on shutdown, the events stay queued
+        pool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = pool;
+
+        long poll = Math.max(1, ConfigurationManager.getIntProperty("event.queue.poll", 10));
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                for (ConsumerWorker worker : workers.values())
+                {
+                    worker.schedule(0);
+                }
+            }
+        }, 0, poll, TimeUnit.SECONDS);
+
+        log.info("Started event queue for dispatcher " + dispatcherName + " with "
+                + workers.size() + " consumers");
+    }
+
+    /**
+     * Stop delivering queued events, letting the deliveries under way finish.
+     */
+    synchronized void shutdown()
+    {
+        if (executor != null)
+        {
+            // nothing is scheduled from now on
+            ScheduledExecutorService stopping = executor;
+            executor = null;
+            stopping.shutdown();
+            try
+            {
+                if (!stopping.awaitTermination(SHUTDOWN_WAIT, TimeUnit.SECONDS))
+                {
+                    log.warn("Event queue for dispatcher " + dispatcherName
+                            + " still delivering after " + SHUTDOWN_WAIT + " seconds, interrupting it");
+                    stopping.shutdownNow();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                stopping.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queue events for every consumer whose filters they pass. Returns once
+     * the events are written to the queues.
+     *
+     * @param events
+     *            the events, in the order they happened
+     */
+    public void enqueue(List<Event> events) throws IOException
+    {
+        for (ConsumerWorker worker : workers.values())
+        {
+            List<Event> passed = new ArrayList<Event>(events.size());
+            for (Event event : events)
+            {
+                if (event.pass(worker.profile.getFilters()))
+                {
+                    passed.add(event);
+                }
+            }
+
+            if (!passed.isEmpty())
+            {
+                worker.queue.append(passed);
+                worker.enqueued.addAndGet(passed.size());
+                worker.schedule(0);
+            }
+        }
+    }
+
+    /**
+     * @return the names of the consumers, in configuration order
+     */
+    public Collection<String> getConsumerNames()
+    {
+        return workers.keySet();
+    }
+
+    /**
+     * Count the events waiting for a consumer.
+     *
+     * @param consumer
+     *            the consumer name
+     * @return the number of events queued
+     */
+    public int getDepth(String consumer) throws IOException
+    {
+        return getWorker(consumer).queue.size();
+    }
+
+    /**
+     * Count the events a consumer gave up on.
+     *
+     * @param consumer
+     *            the consumer name
+     * @return the number of dead letters
+     */
+    public int getDeadLetterCount(String consumer) throws IOException
+    {
+        return getWorker(consumer).deadLetters.size();
+    }
+
+    /**
+     * Get the delivery statistics of a consumer in this process: events
+     * queued, delivered, retried and dead-lettered, and the current number of
+     * consecutive failures.
+     *
+     * @param consumer
+     *            the consumer name
+     * @return the statistics, by name
+     */
+    public Map<String, Long> getStatistics(String consumer)
+    {
+        ConsumerWorker worker = getWorker(consumer);
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("queued", Long.valueOf(worker.enqueued.get()));
+        stats.put("delivered", Long.valueOf(worker.delivered.get()));
+        stats.put("retried", Long.valueOf(worker.retried.get()));
+        stats.put("deadlettered", Long.valueOf(worker.deadLettered.get()));
+        stats.put("failures", Long.valueOf(worker.failures));
+        return stats;
+    }
+
+    /**
+     * Deliver everything queued for a consumer in the calling thread. Failed
+     * batches are retried without waiting.
+     *
+     * @param consumer
+     *            the consumer name
+     * @return the number of events delivered or dead-lettered
+     */
+    public int drain(String consumer)
+    {
+        return getWorker(consumer).drain(false);
+    }
+
+    /**
+     * Move the dead letters of a consumer back to the end of its queue.
+     *
+     * @param consumer
+     *            the consumer name
+     * @return the number of events requeued
+     */
+    public int requeue(String consumer) throws IOException
+    {
+        ConsumerWorker worker = getWorker(consumer);
+        int count = 0;
+        synchronized (worker)
+        {
+            List<Event> events = worker.deadLetters.read(Integer.MAX_VALUE);
+            if (!events.isEmpty())
+            {
+                worker.queue.append(events);
+                count = events.size();
+            }
+            worker.deadLetters.clear();
+        }
+        worker.schedule(0);
+        return count;
+    }
+
+    private ConsumerWorker getWorker(String consumer)
+    {
+        ConsumerWorker worker = workers.get(consumer);
+        if (worker == null)
+        {
+            throw new IllegalArgumentException("Dispatcher " + dispatcherName
+                    + " has no consumer named " + consumer);
+        }
+        return worker;
+    }
+
+    /**
+     * Delivers the queue of one consumer. Only one drain runs at a time, which
+     * keeps the events of a consumer in order.
+     */
+    private final class ConsumerWorker implements Runnable
+    {
+        private final ConsumerProfile profile;
+
+        private final EventJournal queue;
+
+        private final EventJournal deadLetters;
+
+        /** Keeps other processes from draining the same queue */
+        private final File lockFile;
+
+        /** Whether a run is scheduled and has not started yet */
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private final AtomicLong enqueued = new AtomicLong();
+
+        private final AtomicLong delivered = new AtomicLong();
+
+        private final AtomicLong retried = new AtomicLong();
+
+        private final AtomicLong deadLettered = new AtomicLong();
+
+        /** Consecutive failures of the batch at the head of the queue */
+        private volatile int failures = 0;
+
+        private boolean initialized = false;
+
+        ConsumerWorker(ConsumerProfile profile, File dir, boolean sync) throws IOException
+        {
+            this.profile = profile;
+            queue = new EventJournal(new File(dir, profile.getName() + ".queue"), sync);
+            deadLetters = new EventJournal(new File(dir, profile.getName() + ".dead"), sync);
+            lockFile = new File(dir, profile.getName() + ".lock");
+        }
+
+        /**
+         * Schedule a run unless one is already waiting.
+         */
+        void schedule(long delay)
+        {
+            ScheduledExecutorService service = executor;
+            if (service != null && scheduled.compareAndSet(false, true))
+            {
+                try
+                {
+                    service.schedule(this, delay, TimeUnit.MILLISECONDS);
+                }
+                catch (RuntimeException e)
+                {
+                    // shut down
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        public void run()
+        {
+            scheduled.set(false);
+            drain(true);
+        }
+
+        /**
+         * Deliver batches until the queue is empty or a batch fails.
+         *
+         * @param backoff
+         *            whether a failed batch is rescheduled with a delay, or
+         *            retried at once
+         * @return the number of events delivered or dead-lettered
+         */
+        synchronized int drain(boolean backoff)
+        {
+            int count = 0;
+            RandomAccessFile raf = null;
+            FileLock lock = null;
+            try
+            {
+                raf = new RandomAccessFile(lockFile, "rw");
+                try
+                {
+                    lock = raf.getChannel().tryLock();
+                }
+                catch (OverlappingFileLockException e)
+                {
+                    // drained by another class loader in this JVM
+                }
+                if (lock == null)
+                {
+                    return 0;
+                }
+
+                while (true)
+                {
+                    List<Event> events = queue.read(batchSize);
+                    if (events.isEmpty())
+                    {
+                        // the position still moves past unreadable records
+                        queue.acknowledge();
+                        break;
+                    }
+
+                    if (deliver(events))
+                    {
+                        queue.acknowledge();
+                        delivered.addAndGet(events.size());
+                        count += events.size();
+                        failures = 0;
+                    }
+                    else if (failures > maxRetries)
+                    {
+                        log.error("Consumer \"" + profile.getName() + "\" failed " + failures
+                                + " times, moving " + events.size() + " events to "
+                                + deadLetters.getFile());
+                        deadLetters.append(events);
+                        queue.acknowledge();
+                        deadLettered.addAndGet(events.size());
+                        count += events.size();
+                        failures = 0;
+                    }
+                    else if (backoff)
+                    {
+                        retried.incrementAndGet();
+                        long delay = Math.min(maxRetryDelay, retryDelay << Math.min(failures - 1, 30));
+                        log.warn("Consumer \"" + profile.getName() + "\" failed, retrying in "
+                                + delay + "ms (attempt " + failures + " of " + maxRetries + ")");
+                        schedule(delay);
+                        break;
+                    }
+                    else
+                    {
+                        retried.incrementAndGet();
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                log.error("Unable to read event queue for consumer \"" + profile.getName() + "\"", e);
+            }
+            finally
+            {
+                try
+                {
+                    if (lock != null)
+                    {
+                        lock.release();
+                    }
+                    if (raf != null)
+                    {
+                        raf.close();
+                    }
+                }
+                catch (IOException e)
+                {
+                    log.error("Unable to release " + lockFile, e);
+                }
+            }
+
+            if (count > 0 && log.isDebugEnabled())
+            {
+                log.debug("Consumer \"" + profile.getName() + "\" processed " + count + " queued events");
+            }
+            return count;
+        }
+
+        /**
+         * Deliver one batch in a Context of its own.
+         *
+         * @return true if the consumer accepted the whole batch
+         */
+        private boolean deliver(List<Event> events)
+        {
+            Context ctx = null;
+            try
+            {
+                if (!initialized)
+                {
+                    profile.getConsumer().initialize();
+                    initialized = true;
+                }
+
+                ctx = new Context();
+                ctx.turnOffAuthorisationSystem();
+                for (Event event : events)
+                {
+                    profile.getConsumer().consume(ctx, event);
+                }
+                profile.getConsumer().end(ctx);
+                ctx.complete();
+                return true;
+            }
+            catch (Exception e)
+            {
+                failures++;
+                log.error("Consumer(\"" + profile.getName() + "\") failed on a batch of "
+                        + events.size() + " events: " + e.toString(), e);
+                return false;
+            }
+            finally
+            {
+                if (ctx != null && ctx.isValid())
+                {
+                    ctx.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Command line tool to inspect and manage the event queues of a
+     * dispatcher.
+     *
+     * @param argv
+     *            the command line arguments
+     */
+    public static void main(String[] argv) throws Exception
+    {
+        CommandLineParser parser = new PosixParser();
+        Options options = new Options();
+        options.addOption("d", "dispatcher", true, "dispatcher name (default: " + EventManager.DEFAULT_DISPATCHER + ")");
+        options.addOption("c", "consumer", true, "only act on this consumer");
+        options.addOption("p", "process", false, "deliver queued events now");
+        options.addOption("r", "requeue", false, "move dead letters back to the queue");
+        options.addOption("h", "help", false, "help");
+
+        CommandLine line = null;
+        try
+        {
+            line = parser.parse(options, argv);
+        }
+        catch (ParseException e)
+        {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("EventQueue [-d dispatcher] [-c consumer] [-p] [-r]\n", options);
+            System.exit(1);
+        }
+
+        if (line.hasOption('h'))
+        {
+            new HelpFormatter().printHelp("EventQueue [-d dispatcher] [-c consumer] [-p] [-r]\n", options);
+            System.exit(0);
+        }
+
+        EventQueue queue = new EventQueue(line.getOptionValue('d', EventManager.DEFAULT_DISPATCHER));
+        Collection<String> consumers = line.hasOption('c')
+                ? Collections.singletonList(line.getOptionValue('c'))
+                : queue.getConsumerNames();
+
+        for (String consumer : consumers)
+        {
+            if (line.hasOption('r'))
+            {
+                System.out.println(consumer + ": requeued " + queue.requeue(consumer) + " events");
+            }
+            if (line.hasOption('p'))
+            {
+                System.out.println(consumer + ": processed " + queue.drain(consumer) + " events");
+            }
+            System.out.println(consumer + ": " + queue.getDepth(consumer) + " queued, "
+                    + queue.getDeadLetterCount(consumer) + " dead letters");
+        }
+        System.exit(0);
+    }
+}
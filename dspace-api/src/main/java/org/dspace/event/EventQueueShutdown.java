@@ -0,0 +1,27 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import org.dspace.kernel.mixins.ShutdownService;
+
+/**
+ * Delivers the events left in the asynchronous event queues, then stops
+ * their threads, when the DSpace kernel stops.
+ *
+ * @see EventQueue
+ */
+public class EventQueueShutdown implements ShutdownService
+{
+    /**
+     * Called as the service manager is stopping or shutting down.
+     */
+    public void shutdown()
+    {
+        EventQueue.shutdownAll();
+    }
+}
@@ -9,7 +9,11 @@ package org.dspace.handle;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.dspace.content.Collection;
@@ -373,24 +377,88 @@ public class HandleManager
         }
         else
         {
-            //TODO: Move this code away from the HandleManager & into the Identifier provider
-            //Attempt to retrieve a handle that does NOT look like {handle.part}/{handle.part}.{version}
             String result = rows.next().getStringColumn("handle");
             while (rows.hasNext())
             {
-                TableRow row = rows.next();
-                //Ensure that the handle doesn't look like this 12346/213.{version}
-                //If we find a match that indicates that we have a proper handle
-                if(!row.getStringColumn("handle").matches(".*/.*\\.\\d+"))
-                {
-                    result = row.getStringColumn("handle");
-                }
+                result = preferredHandle(result, rows.next().getStringColumn("handle"));
             }
 
             return result;
         }
     }
 
+    /**
+     * Return the handles of a number of objects of the same type, using a
+     * single query. Objects without a handle are absent from the result.
+     *
+     * @param context
+     *            DSpace context
+     * @param type
+     *            The type of the objects, as defined in Constants
+     * @param ids
+     *            The IDs of the objects
+     * @return A map from object ID to its handle
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static Map<Integer, String> findHandles(Context context, int type, List<Integer> ids)
+            throws SQLException
+    {
+        Map<Integer, String> handles = new HashMap<Integer, String>();
+        if (ids.isEmpty())
+        {
+            return handles;
+        }
+
+        Object[] parameters = new Object[ids.size() + 1];
+        parameters[0] = type;
+        for (int i = 0; i < ids.size(); i++)
+        {
+            parameters[i + 1] = ids.get(i);
+        }
+
+        TableRowIterator rows = DatabaseManager.queryTable(context, "Handle",
+                "SELECT * FROM Handle WHERE resource_type_id = ? AND resource_id IN ("
+                        + DatabaseManager.placeholders(ids.size()) + ")", parameters);
+        try
+        {
+            while (rows.hasNext())
+            {
+                TableRow row = rows.next();
+                Integer id = row.getIntColumn("resource_id");
+                String current = handles.get(id);
+                String handle = row.getStringColumn("handle");
+                handles.put(id, current == null ? handle : preferredHandle(current, handle));
+            }
+        }
+        finally
+        {
+            rows.close();
+        }
+
+        return handles;
+    }
+
+    /**
+     * Choose between two handles of the same object.
+     *
+     * @param current the handle chosen so far
+     * @param candidate another handle of the object
+     * @return the handle to use
+     */
+    private static String preferredHandle(String current, String candidate)
+    {
+        //TODO: Move this code away from the HandleManager & into the Identifier provider
+        //Attempt to retrieve a handle that does NOT look like {handle.part}/{handle.part}.{version}
+        //Ensure that the handle doesn't look like this 12346/213.{version}
+        //If we find a match that indicates that we have a proper handle
+        if (!candidate.matches(".*/.*\\.\\d+"))
+        {
+            return candidate;
+        }
+        return current;
+    }
+
     /**
      * Return all the handles which start with prefix.
      *
@@ -430,6 +498,101 @@ public class HandleManager
         return results;
     }
 
+    /**
+     * Return the handles bound to an existing item, collection or community,
+     * read in one scan of the handle table and sorted by
+     * <code>String.compareTo</code>, so that a search index can be checked
+     * against them in a single pass.
+     *
+     * @param context
+     *            DSpace context
+     * @return the sorted handles
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static String[] findBoundHandles(Context context) throws SQLException
+    {
+        StringBuilder sql = new StringBuilder("SELECT handle FROM handle h WHERE resource_id IS NOT NULL AND (");
+        int[] types = { Constants.ITEM, Constants.COLLECTION, Constants.COMMUNITY };
+        for (int i = 0; i < types.length; i++)
+        {
+            if (i > 0)
+            {
+                sql.append(" OR ");
+            }
+            sql.append("(resource_type_id = ").append(types[i]).append(" AND EXISTS (SELECT 1 FROM ")
+                    .append(getResourceTable(types[i])).append(" WHERE ").append(getResourceTable(types[i]))
+                    .append("_id = h.resource_id))");
+        }
+        sql.append(")");
+
+        List<String> handles = new ArrayList<String>();
+        TableRowIterator iterator = DatabaseManager.query(context, sql.toString());
+        try
+        {
+            while (iterator.hasNext())
+            {
+                handles.add(iterator.next().getStringColumn("handle"));
+            }
+        }
+        finally
+        {
+            iterator.close();
+        }
+
+        String[] sorted = handles.toArray(new String[handles.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Return the IDs of the existing objects of a type which have a handle
+     * bound to them, read in one scan of the handle table, in ascending
+     * order.
+     *
+     * @param context
+     *            DSpace context
+     * @param type
+     *            Constants.ITEM, COLLECTION or COMMUNITY
+     * @return the sorted IDs
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static int[] findBoundResourceIDs(Context context, int type) throws SQLException
+    {
+        String table = getResourceTable(type);
+        TableRowIterator iterator = DatabaseManager.query(context,
+                "SELECT resource_id FROM handle WHERE resource_type_id = ? AND resource_id IN "
+                        + "(SELECT " + table + "_id FROM " + table + ") ORDER BY resource_id", type);
+        int[] ids = new int[1024];
+        int count = 0;
+        try
+        {
+            while (iterator.hasNext())
+            {
+                if (count == ids.length)
+                {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = iterator.next().getIntColumn("resource_id");
+            }
+        }
+        finally
+        {
+            iterator.close();
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private static String getResourceTable(int type)
+    {
+        if (type != Constants.ITEM && type != Constants.COLLECTION && type != Constants.COMMUNITY)
+        {
+            throw new IllegalArgumentException("Not an item, collection or community: " + type);
+        }
+        return Constants.typeText[type].toLowerCase(Locale.ENGLISH);
+    }
+
     /**
      * Get the configured Handle prefix string, or a default
      * @return configured prefix or "123456789"
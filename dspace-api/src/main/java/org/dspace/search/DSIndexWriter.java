@@ -0,0 +1,378 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.dspace.core.ConfigurationManager;
+
+/**
+ * <p>
+ * Writes changes to the search index through one IndexWriter shared by the
+ * whole JVM. Changes are committed in groups:
+ * </p>
+ * <ul>
+ * <li>once <code>search.batch.documents</code> changes are waiting,</li>
+ * <li>once the oldest change has waited <code>search.index.delay</code>
+ * milliseconds, if that is set,</li>
+ * <li>otherwise at once, unless in batch processing mode, which commits what
+ * is left when it ends.</li>
+ * </ul>
+ * <p>
+ * The writer holds the index's write lock, which every other JVM writing the
+ * index (web applications, command line tools) needs too. By default it is
+ * closed, releasing the lock, at every commit, so a reindex lets the UI
+ * processes step in every <code>search.batch.documents</code> changes.
+ * </p>
+ * <p>
+ * With <code>search.writer.keep-open</code>, for deployments where only one
+ * JVM writes the index, the writer stays open across commits, and searches
+ * in this JVM see its changes before they are committed. It is then only
+ * closed once nothing has been written for <code>search.writer.idle</code>
+ * milliseconds outside batch processing mode. Any other JVM writing
+ * meanwhile waits for the lock, fails after the lock timeout, and its
+ * changes are not indexed.
+ * </p>
+ */
+final class DSIndexWriter
+{
+    private static final Logger log = Logger.getLogger(DSIndexWriter.class);
+
+    /** Commit once this many changes are waiting */
+    private static final int commitDocuments = ConfigurationManager.getIntProperty("search.batch.documents", 20);
+
+    /** Milliseconds a change may wait to be committed, or 0 or less */
+    private static final int commitDelay = ConfigurationManager.getIntProperty("search.index.delay", -1);
+
+    /** Whether the writer stays open across commits */
+    private static final boolean keepOpen = ConfigurationManager.getBooleanProperty("search.writer.keep-open", false);
+
+    /** Milliseconds without changes before a writer kept open is closed, or 0 or less to keep it open */
+    private static final int idleTimeout = ConfigurationManager.getIntProperty("search.writer.idle", 5000);
+
+    // All the following are guarded by DSIndexWriter.class
+
+    private static IndexWriter writer = null;
+
+    private static boolean batchMode = false;
+
+    /** Changes written but not committed */
+    private static int uncommitted = 0;
+
+    /** When the oldest uncommitted change was written */
+    private static long firstUncommitted;
+
+    /** When the last change was written */
+    private static long lastChange;
+
+    /** Runs the delayed commits and closes the writer when idle */
+    private static Timer timer = null;
+
+    /** When the timer will next look at the writer */
+    private static long nextCheck = Long.MAX_VALUE;
+
+    private DSIndexWriter()
+    {
+    }
+
+    /**
+     * Write a task to the index, committing it when the policy says so.
+     *
+     * @param task
+     *            the document to add, update or delete
+     * @throws IOException
+     *             if the index cannot be written
+     */
+    static synchronized void execute(IndexingTask task) throws IOException
+    {
+        IndexWriter w = getWriter();
+        if (task.getDocument() != null)
+        {
+            w.updateDocument(task.getTerm(), task.getDocument());
+        }
+        else
+        {
+            w.deleteDocuments(task.getTerm());
+        }
+        changed(1);
+    }
+
+    /**
+     * Delete the documents matching any of a list of terms, as one change
+     * per term.
+     *
+     * @param terms
+     *            the terms, usually handles
+     * @throws IOException
+     *             if the index cannot be written
+     */
+    static synchronized void delete(List<Term> terms) throws IOException
+    {
+        if (!terms.isEmpty())
+        {
+            getWriter().deleteDocuments(terms.toArray(new Term[terms.size()]));
+            changed(terms.size());
+        }
+    }
+
+    /**
+     * Delete every document in the index and commit.
+     *
+     * @throws IOException
+     *             if the index cannot be written
+     */
+    static synchronized void deleteAll() throws IOException
+    {
+        getWriter().deleteAll();
+        changed(1);
+        commit();
+    }
+
+    /**
+     * Merge the index into a single segment and commit.
+     *
+     * @throws IOException
+     *             if the index cannot be written
+     */
+    static synchronized void optimize() throws IOException
+    {
+        getWriter().optimize();
+        changed(1);
+        commit();
+    }
+
+    /**
+     * In batch processing mode, changes are committed only in groups of
+     * <code>search.batch.documents</code> (or after
+     * <code>search.index.delay</code>), and the writer stays open. Leaving
+     * it commits what is waiting.
+     *
+     * @param mode
+     *            whether to enter batch processing mode
+     * @throws IOException
+     *             if the waiting changes cannot be committed
+     */
+    static synchronized void setBatchMode(boolean mode) throws IOException
+    {
+        batchMode = mode;
+        if (!mode && writer != null)
+        {
+            commit();
+            lastChange = System.currentTimeMillis();
+            schedule();
+        }
+    }
+
+    /**
+     * Commit the waiting changes, if any, and close the writer unless it is
+     * kept open. The writer is closed even if the commit fails, so that the
+     * write lock is not held on to.
+     *
+     * @throws IOException
+     *             if the changes cannot be committed
+     */
+    static synchronized void commit() throws IOException
+    {
+        if (writer != null && uncommitted > 0)
+        {
+            boolean committed = false;
+            try
+            {
+                writer.commit();
+                uncommitted = 0;
+                committed = true;
+            }
+            finally
+            {
+                if (!keepOpen)
+                {
+                    if (committed)
+                    {
+                        close();
+                    }
+                    else
+                    {
+                        // don't hide why the commit failed
+                        closeQuietly();
+                    }
+                }
+            }
+            DSQuery.refreshSearcher();
+        }
+    }
+
+    /**
+     * Commit the waiting changes and close the writer, releasing the write
+     * lock. The next change opens it again.
+     *
+     * @throws IOException
+     *             if the changes cannot be committed
+     */
+    static synchronized void close() throws IOException
+    {
+        if (writer != null)
+        {
+            try
+            {
+                if (keepOpen)
+                {
+                    DSQuery.setIndexWriter(null);
+                }
+                writer.close();
+            }
+            finally
+            {
+                writer = null;
+                uncommitted = 0;
+            }
+        }
+    }
+
+    /**
+     * Close the writer and stop the timer, as the kernel shuts down.
+     */
+    static synchronized void shutdown()
+    {
+        try
+        {
+            closeQuietly();
+        }
+        finally
+        {
+            if (timer != null)
+            {
+                timer.cancel();
+                timer = null;
+                nextCheck = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Close the writer, logging rather than throwing a failure.
+     */
+    private static void closeQuietly()
+    {
+        try
+        {
+            close();
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to close IndexWriter", e);
+        }
+    }
+
+    private static IndexWriter getWriter() throws IOException
+    {
+        if (writer == null)
+        {
+            writer = DSIndexer.openIndex(false);
+            if (keepOpen)
+            {
+                DSQuery.setIndexWriter(writer);
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * Count changes just written, and commit them or make them visible to
+     * searches.
+     */
+    private static void changed(int changes) throws IOException
+    {
+        long now = System.currentTimeMillis();
+        if (uncommitted == 0)
+        {
+            firstUncommitted = now;
+        }
+        uncommitted += changes;
+        lastChange = now;
+
+        if (uncommitted >= commitDocuments || (!batchMode && commitDelay <= 0))
+        {
+            commit();
+        }
+        else if (keepOpen && !batchMode)
+        {
+            DSQuery.refreshSearcher();
+        }
+        schedule();
+    }
+
+    /**
+     * Make sure the timer looks at the writer when a commit or close is due.
+     */
+    private static void schedule()
+    {
+        if (writer == null)
+        {
+            return;
+        }
+
+        long due = Long.MAX_VALUE;
+        if (uncommitted > 0 && commitDelay > 0)
+        {
+            due = firstUncommitted + commitDelay;
+        }
+        if (keepOpen && !batchMode && idleTimeout > 0)
+        {
+            due = Math.min(due, lastChange + idleTimeout);
+        }
+        if (due >= nextCheck)
+        {
+            // nothing due, or the timer looks soon enough already
+            return;
+        }
+
+        if (timer == null)
+        {
+            timer = new Timer("DSIndexer commit", true);
+        }
+        timer.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                check();
+            }
+        }, Math.max(0, due - System.currentTimeMillis()));
+        nextCheck = due;
+    }
+
+    private static synchronized void check()
+    {
+        nextCheck = Long.MAX_VALUE;
+        long now = System.currentTimeMillis();
+        try
+        {
+            if (uncommitted > 0 && commitDelay > 0 && now - firstUncommitted >= commitDelay)
+            {
+                commit();
+            }
+            if (keepOpen && !batchMode && idleTimeout > 0 && now - lastChange >= idleTimeout)
+            {
+                close();
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to commit the search index", e);
+            // try again after another delay
+            firstUncommitted = now;
+        }
+        schedule();
+    }
+}
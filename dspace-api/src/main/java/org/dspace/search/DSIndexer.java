@@ -17,12 +17,18 @@ import java.io.StringWriter;
 import java.lang.reflect.Constructor;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.Locale;
-import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.text.SimpleDateFormat;
 import java.text.ParseException;
 
@@ -43,8 +49,11 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.ReaderUtil;
 import org.apache.lucene.util.Version;
 import org.dspace.content.Bitstream;
 import org.dspace.content.Bundle;
@@ -54,6 +63,7 @@ import org.dspace.content.DCValue;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
 import org.dspace.content.ItemIterator;
+import org.dspace.content.PrefetchSpec;
 import org.dspace.content.authority.ChoiceAuthorityManager;
 import org.dspace.content.authority.MetadataAuthorityManager;
 import org.dspace.core.ConfigurationManager;
@@ -98,11 +108,9 @@ public class DSIndexer
 
     private static final long WRITE_LOCK_TIMEOUT = 30000 /* 30 sec */;
 
-    private static Thread delayedIndexFlusher = null;
-    private static int indexFlushDelay = ConfigurationManager.getIntProperty("search.index.delay", -1);
+    /** Number of orphaned handles cleanIndex deletes at once */
+    private static final int CLEAN_BATCH_SIZE = 1000;
 
-    private static int batchFlushAfterDocuments = ConfigurationManager.getIntProperty("search.batch.documents", 20);
-    private static boolean batchProcessingMode = false;
     static final Version luceneVersion = Version.LUCENE_35;
 
     // Class to hold the index configuration (one instance per config line)
@@ -235,15 +243,36 @@ public class DSIndexer
         }
     }
 
+    /**
+     * In batch processing mode, changes are committed to the index in
+     * groups of <code>search.batch.documents</code> rather than one by one.
+     * Leaving it commits what is left.
+     *
+     * @param mode whether to enter batch processing mode
+     */
     public static void setBatchProcessingMode(boolean mode)
     {
-        batchProcessingMode = mode;
-        if (mode == false)
+        try
+        {
+            DSIndexWriter.setBatchMode(mode);
+        }
+        catch (IOException e)
         {
-            flushIndexingTaskQueue();
+            log.error("Unable to commit the search index", e);
         }
     }
 
+    /**
+     * Commit what is waiting to be indexed and close the IndexWriter,
+     * releasing the index for other processes. Called as the kernel shuts
+     * down.
+     */
+    public static void shutdown()
+    {
+        DSIndexWriter.shutdown();
+        DSQuery.close();
+    }
+
     /**
      * If the handle for the "dso" already exists in the index, and
      * the "dso" has a lastModified timestamp that is newer than 
@@ -366,7 +395,7 @@ public class DSIndexer
     {
 
     	/* Create a new index, blowing away the old. */
-        openIndex(true).close();
+        DSIndexWriter.deleteAll();
         
         /* Reindex all content preemptively. */
         DSIndexer.updateIndex(c, true);
@@ -382,17 +411,7 @@ public class DSIndexer
      */
     public static void optimizeIndex(Context c) throws SQLException, IOException
     {
-        IndexWriter writer = openIndex(false);
-
-        try
-        {
-            flushIndexingTaskQueue(writer);
-            writer.optimize();
-        }
-        finally
-        {
-            writer.close();
-        }
+        DSIndexWriter.optimize();
     }
 
     /**
@@ -520,10 +539,12 @@ public class DSIndexer
      * them in the index. Uses decaching to control memory footprint.
      * Uses indexContent and isStale to check state of item in index.
      * 
-     * At first it may appear counterintuitive to have an IndexWriter/Reader
-     * opened and closed on each DSO. But this allows the UI processes
-     * to step in and attain a lock and write to the index even if other
-     * processes/jvms are running a reindex.
+     * The IndexWriter is closed at every commit, every
+     * <code>search.batch.documents</code> changes in batch processing mode,
+     * so that UI processes can step in and write to the index while other
+     * processes/jvms are running a reindex. With
+     * <code>search.writer.keep-open</code> it stays open instead, and UI
+     * processes in other JVMs fail to write to the index meanwhile.
      * 
      * @param context
      * @param force 
@@ -534,7 +555,7 @@ public class DSIndexer
                 ItemIterator items = null;
                 try
                 {
-                    for(items = Item.findAll(context);items.hasNext();)
+                    for(items = Item.findAll(context, PrefetchSpec.all());items.hasNext();)
                     {
                         Item item = (Item) items.next();
                         indexContent(context, item);
@@ -570,8 +591,15 @@ public class DSIndexer
     }
     
     /**
-     * Iterates over all documents in the Lucene index and verifies they 
-     * are in database, if not, they are removed.
+     * Checks every handle in the Lucene index against the handles bound to
+     * existing objects in the database, and removes the documents of those
+     * that are not.
+     * <p>
+     * Only the handle terms are read, not the stored documents: each
+     * segment's terms are merged, in their sorted order, with the sorted
+     * handles from one scan of the handle table, by
+     * <code>search.clean.threads</code> threads, and the orphans are deleted
+     * in batches.
      * 
      * @param context
      * @throws IOException 
@@ -579,37 +607,133 @@ public class DSIndexer
      */
     public static void cleanIndex(Context context) throws IOException, SQLException {
 
-    	IndexReader reader = DSQuery.getIndexReader();
-    	
-    	for(int i = 0 ; i < reader.numDocs(); i++)
-    	{
-    		if(!reader.isDeleted(i))
-    		{
-    			Document doc = reader.document(i);
-        		String handle = doc.get("handle");
-                if (!StringUtils.isEmpty(handle))
+        // the searcher first: whatever it holds was bound before the handles are read
+        IndexSearcher searcher = DSQuery.acquireSearcher();
+        try
+        {
+            String[] liveHandles = HandleManager.findBoundHandles(context);
+
+            List<IndexReader> segments = new ArrayList<IndexReader>();
+            ReaderUtil.gatherSubReaders(segments, searcher.getIndexReader());
+
+            int threads = ConfigurationManager.getIntProperty("search.clean.threads",
+                    Math.min(4, Runtime.getRuntime().availableProcessors()));
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+            try
+            {
+                List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+                for (IndexReader segment : segments)
+                {
+                    results.add(pool.submit(new SegmentCleaner(segment, liveHandles)));
+                }
+
+                // a handle may be in several segments
+                Set<String> orphans = new TreeSet<String>();
+                for (Future<List<String>> result : results)
+                {
+                    orphans.addAll(result.get());
+                }
+
+                List<Term> batch = new ArrayList<Term>();
+                for (String handle : orphans)
+                {
+                    log.info("Deleting: " + handle);
+                    batch.add(new Term("handle", handle));
+                    if (batch.size() == CLEAN_BATCH_SIZE)
+                    {
+                        DSIndexWriter.delete(batch);
+                        batch.clear();
+                    }
+                }
+                DSIndexWriter.delete(batch);
+                DSIndexWriter.commit();
+                log.info("Cleaned " + orphans.size() + " handles from " + segments.size() + " segments");
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while cleaning the index", e);
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof IOException)
+                {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+            finally
+            {
+                pool.shutdownNow();
+            }
+        }
+        finally
+        {
+            DSQuery.releaseSearcher(searcher);
+        }
+	}
+
+    /**
+     * Finds the handles in one segment that are not among the live handles.
+     */
+    static class SegmentCleaner implements Callable<List<String>>
+    {
+        private final IndexReader segment;
+
+        private final String[] liveHandles;
+
+        SegmentCleaner(IndexReader segment, String[] liveHandles)
+        {
+            this.segment = segment;
+            this.liveHandles = liveHandles;
+        }
+
+        public List<String> call() throws IOException
+        {
+            List<String> orphans = new ArrayList<String>();
+            TermEnum terms = segment.terms(new Term("handle", ""));
+            TermDocs docs = segment.termDocs();
+            try
+            {
+                int live = 0;
+                do
                 {
-                    DSpaceObject o = HandleManager.resolveToObject(context, handle);
+                    Term term = terms.term();
+                    if (term == null || !"handle".equals(term.field()))
+                    {
+                        break;
+                    }
+
+                    // skip handles only left in deleted documents
+                    docs.seek(terms);
+                    if (!docs.next())
+                    {
+                        continue;
+                    }
 
-                    if (o == null)
+                    String handle = term.text();
+                    while (live < liveHandles.length && liveHandles[live].compareTo(handle) < 0)
                     {
-                        log.info("Deleting: " + handle);
-                        /* Use IndexWriter to delete, its easier to manage write.lock */
-                        DSIndexer.unIndexContent(context, handle);
+                        live++;
                     }
-                    else
+                    if ((live == liveHandles.length || !liveHandles[live].equals(handle))
+                            && Arrays.binarySearch(liveHandles, handle) < 0)
                     {
-                        context.removeCached(o, o.getID());
-                        log.debug("Keeping: " + handle);
+                        // (the binary search only guards against the term order
+                        // differing from String's, it finds nothing otherwise)
+                        orphans.add(handle);
                     }
                 }
-    		}
-    		else
-    		{
-    			log.debug("Encountered deleted doc: " + i);
-    		}
-    	}
-	}
+                while (terms.next());
+            }
+            finally
+            {
+                docs.close();
+                terms.close();
+            }
+            return orphans;
+        }
+    }
     
 	/**
      * Get the Lucene analyzer to use according to current configuration (or
@@ -695,142 +819,17 @@ public class DSIndexer
 
     static void processIndexingTask(IndexingTask task) throws IOException
     {
-        if (batchProcessingMode)
-        {
-            addToIndexingTaskQueue(task);
-        }
-        else if (indexFlushDelay > 0)
-        {
-            addToIndexingTaskQueue(task);
-            startDelayedIndexFlusher();
-        }
-        else
-        {
-            IndexWriter writer = null;
-            try
-            {
-                writer = openIndex(false);
-                executeIndexingTask(writer, task);
-            }
-            finally
-            {
-                if (task.getDocument() != null)
-                {
-                    closeAllReaders(task.getDocument());
-                }
-
-                if (writer != null)
-                {
-                    try
-                    {
-                        writer.close();
-                    }
-                    catch (IOException e)
-                    {
-                        log.error("Unable to close IndexWriter", e);
-                    }
-                }
-            }
-        }
-    }
-
-    private static void executeIndexingTask(IndexWriter writer, IndexingTask action) throws IOException
-    {
-        if (action != null)
-        {
-            if (action.isDelete())
-            {
-                if (action.getDocument() != null)
-                {
-                    writer.updateDocument(action.getTerm(), action.getDocument());
-                }
-                else
-                {
-                    writer.deleteDocuments(action.getTerm());
-                }
-            }
-            else
-            {
-                writer.updateDocument(action.getTerm(), action.getDocument());
-            }
-        }
-    }
-
-    private static Map<String, IndexingTask> queuedTaskMap = new HashMap<String, IndexingTask>();
-
-    static synchronized void addToIndexingTaskQueue(IndexingTask action)
-    {
-        if (action != null)
+        try
         {
-            queuedTaskMap.put(action.getTerm().text(), action);
-            if (queuedTaskMap.size() >= batchFlushAfterDocuments)
-            {
-                flushIndexingTaskQueue();
-            }
+            DSIndexWriter.execute(task);
         }
-    }
-
-    static void flushIndexingTaskQueue()
-    {
-        if (queuedTaskMap.size() > 0)
-        {
-            IndexWriter writer = null;
-
-            try
-            {
-                writer = openIndex(false);
-                flushIndexingTaskQueue(writer);
-            }
-            catch (IOException e)
-            {
-                log.error(e);
-            }
-            finally
-            {
-                if (writer != null)
-                {
-                    try
-                    {
-                        writer.close();
-                    }
-                    catch (IOException ex)
-                    {
-                        log.error(ex);
-                    }
-                }
-            }
-        }
-    }
-
-    private static synchronized void flushIndexingTaskQueue(IndexWriter writer)
-    {
-        for (IndexingTask action : queuedTaskMap.values())
+        finally
         {
-            try
-            {
-                executeIndexingTask(writer, action);
-            }
-            catch (IOException e)
+            if (task.getDocument() != null)
             {
-                log.error(e);
-            }
-            finally
-            {
-                if (action.getDocument() != null)
-                {
-                    closeAllReaders(action.getDocument());
-                }
+                closeAllReaders(task.getDocument());
             }
         }
-
-        queuedTaskMap.clear();
-
-        // We've flushed, so we don't need this thread
-        if (delayedIndexFlusher != null)
-        {
-            delayedIndexFlusher.interrupt();
-            delayedIndexFlusher = null;
-        }
     }
 
     ////////////////////////////////////
@@ -887,22 +886,30 @@ public class DSIndexer
 		boolean reindexItem = false;
 		boolean inIndex = false;
 		
-		IndexReader ir = DSQuery.getIndexReader();
-		
-		TermDocs docs = ir.termDocs(t);
-						
-		while(docs.next())
+		IndexSearcher searcher = DSQuery.acquireSearcher();
+		try
 		{
-			inIndex = true;
-			int id = docs.doc();
-			Document doc = ir.document(id);
-
-			Field lastIndexed = doc.getField(LAST_INDEXED_FIELD);
-
-			if (lastIndexed == null || Long.parseLong(lastIndexed.stringValue()) < 
-					lastModified.getTime()) {
-				reindexItem = true;
-			}
+			IndexReader ir = searcher.getIndexReader();
+			
+			TermDocs docs = ir.termDocs(t);
+							
+			while(docs.next())
+			{
+				inIndex = true;
+				int id = docs.doc();
+				Document doc = ir.document(id);
+
+				Field lastIndexed = doc.getField(LAST_INDEXED_FIELD);
+
+				if (lastIndexed == null || Long.parseLong(lastIndexed.stringValue()) < 
+						lastModified.getTime()) {
+					reindexItem = true;
+				}
+    		}
+		}
+		finally
+		{
+			DSQuery.releaseSearcher(searcher);
 		}
 
 		return reindexItem || !inIndex;
@@ -911,7 +918,7 @@ public class DSIndexer
     /**
      * prepare index, opening writer, and wiping out existing index if necessary
      */
-    private static IndexWriter openIndex(boolean wipeExisting)
+    static IndexWriter openIndex(boolean wipeExisting)
             throws IOException
     {
         Directory dir = FSDirectory.open(new File(indexDirectory));
@@ -1444,35 +1451,4 @@ public class DSIndexer
         
         return null;
     }
-
-    private static synchronized void startDelayedIndexFlusher()
-    {
-        if (delayedIndexFlusher != null && !delayedIndexFlusher.isAlive())
-        {
-            delayedIndexFlusher = null;
-        }
-
-        if (delayedIndexFlusher == null && queuedTaskMap.size() > 0)
-        {
-            delayedIndexFlusher = new Thread(new DelayedIndexFlushThread());
-            delayedIndexFlusher.start();
-        }
-    }
-
-    private static class DelayedIndexFlushThread implements Runnable
-    {
-        @Override
-        public void run()
-        {
-            try
-            {
-                Thread.sleep(indexFlushDelay);
-                DSIndexer.flushIndexingTaskQueue();
-            }
-            catch (InterruptedException e)
-            {
-                log.debug(e);
-            }
-        }
-    }
 }
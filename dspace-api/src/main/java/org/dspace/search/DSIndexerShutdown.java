@@ -0,0 +1,28 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import org.dspace.kernel.mixins.ShutdownService;
+
+/**
+ * Commits the search index and closes its IndexWriter when the DSpace kernel
+ * stops, so the write lock is released and nothing waiting is lost when a
+ * web application is undeployed or a command line tool exits.
+ *
+ * @see DSIndexer#shutdown()
+ */
+public class DSIndexerShutdown implements ShutdownService
+{
+    /**
+     * Called as the service manager is stopping or shutting down.
+     */
+    public void shutdown()
+    {
+        DSIndexer.shutdown();
+    }
+}
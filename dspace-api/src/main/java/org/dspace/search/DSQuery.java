@@ -16,7 +16,7 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.queryParser.TokenMgrError;
@@ -26,8 +26,7 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.util.Version;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
@@ -56,14 +55,18 @@ public class DSQuery
 
     static final String COMMUNITY = "" + Constants.COMMUNITY;
 
-    // cache a Lucene IndexSearcher for more efficient searches
-    private static IndexSearcher searcher = null;
+    // share Lucene IndexSearchers between queries for more efficient searches
+    private static volatile DSSearcherManager searcherManager = null;
+
+    // the IndexWriter DSIndexer keeps open in this JVM, if any
+    private static IndexWriter indexWriter = null;
 
     private static String indexDir = null;
     
     private static String operator = null;
     
-    private static long lastModified;
+    // milliseconds between looks for changes to the index
+    private static long refreshInterval = ConfigurationManager.getIntProperty("search.refresh.interval", 1000);
     
     /** log4j logger */
     private static Logger log = Logger.getLogger(DSQuery.class);
@@ -114,13 +117,13 @@ public class DSQuery
         querystring = stripHandles(querystring); // remove handles from query string
         querystring = stripAsterisk(querystring); // remove asterisk from beginning of string
 
+        // grab a searcher, and do the search
+        IndexSearcher searcher = acquireSearcher();
         try
         {
             // calculate execution time 
             Date startTime = new Date();
             
-            // grab a searcher, and do the search
-            IndexSearcher searcher = getSearcher(c);
 
             QueryParser qp = new QueryParser(DSIndexer.luceneVersion, "default", DSIndexer.getAnalyzer());
             log.debug("Final query string: " + querystring);
@@ -210,6 +213,10 @@ public class DSQuery
             log.warn(LogManager.getHeader(c, "Query too broad", e.toString()));
             qr.setErrorMsg("query-too-broad");
         }
+        finally
+        {
+            releaseSearcher(searcher);
+        }
 
         return qr;
     }
@@ -388,21 +395,25 @@ public class DSQuery
     }
 
     /**
-     * Close any IndexSearcher that is currently open.
+     * Close the shared IndexSearcher, if open. Queries still running finish
+     * on it; the next query opens the index again.
      */
     public static synchronized void close()
     {
-        if (searcher != null)
+        if (searcherManager != null)
         {
             try
             {
-                searcher.close();
-                searcher = null;
+                searcherManager.close();
             }
             catch (IOException ioe)
             {
                 log.error("DSQuery: Unable to close open IndexSearcher", ioe);
             }
+            finally
+            {
+                searcherManager = null;
+            }
         }
     }
     
@@ -416,79 +427,99 @@ public class DSQuery
 
     /*---------  protected methods ----------*/
 
-    /**	
-     * get an IndexReader.
-     * @throws IOException 
+    /**
+     * Get the shared IndexSearcher, without waiting for other queries. It is
+     * reopened in the background when the index changes; the searcher
+     * returned stays open, on the index as it was, until it is given back to
+     * {@link #releaseSearcher(IndexSearcher)}, which must always be done.
+     *
+     * @return the current searcher
+     * @throws IOException
+     *             if the index cannot be opened
      */
-    protected static IndexReader getIndexReader() 
-    	throws IOException
+    protected static IndexSearcher acquireSearcher() throws IOException
     {
-    	return getSearcher(null).getIndexReader();
+        while (true)
+        {
+            DSSearcherManager manager = searcherManager;
+            if (manager == null)
+            {
+                manager = openSearcherManager();
+            }
+
+            try
+            {
+                return manager.acquire();
+            }
+            catch (AlreadyClosedException e)
+            {
+                // close() was called meanwhile, open the index again
+                log.debug("DSQuery: IndexSearcher closed while acquiring it");
+            }
+        }
     }
-    
+
     /**
-     * get an IndexSearcher, hopefully a cached one (gives much better
-     * performance.) checks to see if the index has been modified - if so, it
-     * creates a new IndexSearcher
+     * Give back a searcher from {@link #acquireSearcher()}. It must not be
+     * used afterwards.
      */
-    protected static synchronized IndexSearcher getSearcher(Context c)
+    protected static void releaseSearcher(IndexSearcher searcher)
             throws IOException
     {
-       
-        // If we have already opened a searcher, check to see if the index has been updated
-        // If it has, we need to close the existing searcher - we will open a new one later
-
-        Directory searchDir = FSDirectory.open(new File(indexDir));
+        DSSearcherManager.release(searcher);
+    }
 
-        if (searcher != null && lastModified != IndexReader.getCurrentVersion(searchDir))
+    /**
+     * Make changes just written to the index visible to the next query,
+     * instead of waiting for the background refresh. Does nothing if no
+     * searcher is open.
+     */
+    static void refreshSearcher()
+    {
+        DSSearcherManager manager = searcherManager;
+        if (manager != null)
         {
             try
             {
-                // Close the cached IndexSearcher
-                searcher.close();
+                manager.refresh();
             }
             catch (IOException ioe)
             {
-                // Index is probably corrupt. Log the error, but continue to either:
-                // 1) Return existing searcher (may yet throw exception, no worse than throwing here)
-                log.warn("DSQuery: Unable to check for updated index", ioe);
+                log.warn("DSQuery: Unable to reopen IndexSearcher", ioe);
             }
-            finally
+            catch (AlreadyClosedException ace)
             {
-            	searcher = null;
+                // closed meanwhile, the next query opens the index again
             }
         }
+    }
 
-        // There is no existing searcher - either this is the first execution,
-        // or the index has been updated and we closed the old index.
-        if (searcher == null)
+    /**
+     * Open searchers from the IndexWriter DSIndexer has open, so that its
+     * changes are seen before they are committed, or from the index
+     * directory again once the writer is closed (when null).
+     */
+    static synchronized void setIndexWriter(IndexWriter writer)
+    {
+        indexWriter = writer;
+        close();
+    }
+
+    private static synchronized DSSearcherManager openSearcherManager()
+            throws IOException
+    {
+        if (searcherManager == null)
         {
-            // So, open a new searcher
-            lastModified = IndexReader.getCurrentVersion(searchDir);
-            String osName = System.getProperty("os.name");
-            if (osName != null && osName.toLowerCase().contains("windows"))
+            if (indexWriter != null)
             {
-                searcher = new IndexSearcher(searchDir){
-                    /*
-                     * TODO: Has Lucene fixed this bug yet?
-                     * Lucene doesn't release read locks in
-                     * windows properly on finalize. Our hack
-                     * extend IndexSearcher to force close().
-                     */
-                    @Override
-                    protected void finalize() throws Throwable {
-                        this.close();
-                        super.finalize();
-                    }
-                };
+                searcherManager = new DSSearcherManager(indexWriter, refreshInterval);
             }
             else
             {
-                searcher = new IndexSearcher(searchDir);
+                searcherManager = new DSSearcherManager(new File(indexDir), refreshInterval);
             }
         }
-
-        return searcher;
+        return searcherManager;
     }
 }
 
@@ -0,0 +1,161 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * <p>
+ * Shares reference-counted IndexSearchers on the search index between
+ * threads. Acquiring and releasing a searcher takes no lock, so any number of
+ * queries can run at once.
+ * </p>
+ *
+ * <p>
+ * A background thread looks for changes to the index at a fixed interval and
+ * reopens the reader, which reads again only the segments that changed. A
+ * replaced searcher stays open until the last query using it releases it.
+ * </p>
+ */
+final class DSSearcherManager
+{
+    /** log4j logger */
+    private static final Logger log = Logger.getLogger(DSSearcherManager.class);
+
+    private final SearcherManager manager;
+
+    private final Timer refresher;
+
+    /**
+     * Open a searcher on an index and start looking for changes to it.
+     *
+     * @param indexDir
+     *            the directory of the index, which must exist
+     * @param refreshInterval
+     *            milliseconds between looks for changes, or 0 to reopen only
+     *            when {@link #refresh()} is called
+     * @throws IOException
+     *             if the index cannot be opened
+     */
+    DSSearcherManager(File indexDir, long refreshInterval) throws IOException
+    {
+        this(new SearcherManager(FSDirectory.open(indexDir), null, null), refreshInterval);
+    }
+
+    /**
+     * Open a near-real-time searcher on the index an IndexWriter is writing,
+     * which sees the writer's changes before they are committed.
+     *
+     * @param writer
+     *            the writer, which must stay open while this manager is
+     * @param refreshInterval
+     *            milliseconds between looks for changes, or 0 to reopen only
+     *            when {@link #refresh()} is called
+     * @throws IOException
+     *             if the index cannot be opened
+     */
+    DSSearcherManager(IndexWriter writer, long refreshInterval) throws IOException
+    {
+        this(new SearcherManager(writer, true, null, null), refreshInterval);
+    }
+
+    private DSSearcherManager(SearcherManager searcherManager, long refreshInterval)
+    {
+        manager = searcherManager;
+
+        refresher = new Timer("DSQuery searcher refresh", true);
+        if (refreshInterval > 0)
+        {
+            refresher.schedule(new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        manager.maybeReopen();
+                    }
+                    catch (AlreadyClosedException e)
+                    {
+                        // the writer was closed, and so will this be
+                        log.debug("Search index writer closed while reopening");
+                    }
+                    catch (Exception e)
+                    {
+                        // keep serving the current searcher, try again later
+                        log.warn("Unable to reopen the search index", e);
+                    }
+                }
+            }, refreshInterval, refreshInterval);
+        }
+    }
+
+    /**
+     * Get the current searcher. Every searcher acquired must be given back
+     * to {@link #release(IndexSearcher)}, usually in a finally block.
+     *
+     * @return the current searcher
+     * @throws org.apache.lucene.store.AlreadyClosedException
+     *             if this manager has been closed
+     */
+    IndexSearcher acquire()
+    {
+        return manager.acquire();
+    }
+
+    /**
+     * Give back a searcher. The searcher may be closed by this, and must not
+     * be used afterwards. Searchers from a manager that has since been closed
+     * are given back here too.
+     *
+     * @param searcher
+     *            a searcher acquired from a manager
+     * @throws IOException
+     *             if the searcher cannot be closed
+     */
+    static void release(IndexSearcher searcher) throws IOException
+    {
+        searcher.getIndexReader().decRef();
+    }
+
+    /**
+     * Reopen the searcher now if the index has changed, instead of waiting
+     * for the background thread. Does nothing if another thread is reopening
+     * it already.
+     *
+     * @throws IOException
+     *             if the index cannot be reopened
+     */
+    void refresh() throws IOException
+    {
+        manager.maybeReopen();
+    }
+
+    /**
+     * Stop looking for changes and give up the current searcher. Searchers
+     * still acquired stay open until they are released.
+     *
+     * @throws IOException
+     *             if the index cannot be closed
+     */
+    void close() throws IOException
+    {
+        refresher.cancel();
+        manager.close();
+    }
+}
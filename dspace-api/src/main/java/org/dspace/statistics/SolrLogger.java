@@ -30,12 +30,10 @@ import org.apache.solr.client.solrj.request.ContentStreamUpdateRequest;
 import org.apache.solr.client.solrj.request.CoreAdminRequest;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.client.solrj.response.RangeFacet;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.CommonParams;
-import org.apache.solr.common.params.FacetParams;
 import org.apache.solr.common.params.MapSolrParams;
 import org.apache.solr.common.params.ShardParams;
 import org.dspace.content.*;
@@ -72,6 +70,9 @@ public class SolrLogger
 	
     private static final CommonsHttpSolrServer solr;
 
+    /** Sends usage events in the background, or null to send them at once */
+    private static final StatisticsBuffer buffer;
+
     public static final String DATE_FORMAT_8601 = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
 
     public static final String DATE_FORMAT_DCDATE = "yyyy-MM-dd'T'HH:mm:ss'Z'";
@@ -143,6 +144,36 @@ public class SolrLogger
         }
         solr = server;
 
+        StatisticsBuffer statisticsBuffer = null;
+        if (server != null && ConfigurationManager.getBooleanProperty("solr-statistics", "buffer.enabled", true))
+        {
+            String spillDir = ConfigurationManager.getProperty("solr-statistics", "buffer.spill.dir");
+            if (spillDir == null)
+            {
+                spillDir = ConfigurationManager.getProperty("dspace.dir") + File.separator + "statistics-buffer";
+            }
+
+            statisticsBuffer = new StatisticsBuffer(server,
+                    ConfigurationManager.getIntProperty("solr-statistics", "buffer.size", 10000),
+                    ConfigurationManager.getIntProperty("solr-statistics", "buffer.batch.size", 500),
+                    ConfigurationManager.getLongProperty("solr-statistics", "buffer.flush.interval", 1000),
+                    "".equals(spillDir.trim()) ? null : new File(spillDir.trim()),
+                    ConfigurationManager.getLongProperty("solr-statistics", "buffer.spill.maxsize", 100) * 1024 * 1024,
+                    new StatisticsBuffer.Enricher()
+                    {
+                        public void enrich(SolrInputDocument doc)
+                        {
+                            // reverse DNS is left to the background thread
+                            Object ip = doc.getFieldValue("ip");
+                            if (ip != null && doc.getField("dns") == null)
+                            {
+                                addDns(doc, ip.toString());
+                            }
+                        }
+                    });
+        }
+        buffer = statisticsBuffer;
+
         // Read in the file so we don't have to do it all the time
         //spiderIps = SpiderDetector.getSpiderIpAddresses();
 
@@ -229,7 +260,7 @@ public class SolrLogger
             doc1.addField("statistics_type", StatisticsType.VIEW.text());
 
 
-            solr.add(doc1);
+            add(doc1);
             //commits are executed automatically using the solr autocommit
 //            solr.commit(false, false);
 
@@ -287,15 +318,9 @@ public class SolrLogger
                 doc1.addField("referrer", request.getHeader("referer"));
             }
 
-            try
+            if (buffer == null)
             {
-                String dns = DnsLookup.reverseDns(ip);
-                doc1.addField("dns", dns.toLowerCase());
-            }
-            catch (Exception e)
-            {
-                log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
+                addDns(doc1, ip);
             }
 
             // Save the location information if valid, save the event without
@@ -346,6 +371,55 @@ public class SolrLogger
         return doc1;
     }
 
+    /**
+     * Store the host name of an IP address.
+     * @param doc the document to add the "dns" field to.
+     * @param ip the address to look up.
+     */
+    private static void addDns(SolrInputDocument doc, String ip)
+    {
+        try
+        {
+            String dns = DnsLookup.reverseDns(ip);
+            doc.addField("dns", dns.toLowerCase());
+        }
+        catch (Exception e)
+        {
+            log.error("Failed DNS Lookup for IP:" + ip);
+            log.debug(e.getMessage(),e);
+        }
+    }
+
+    /**
+     * Send a usage event to Solr, through the buffer if there is one.
+     * @param doc the event.
+     */
+    private static void add(SolrInputDocument doc) throws IOException, SolrServerException
+    {
+        if (buffer != null)
+        {
+            buffer.add(doc);
+        }
+        else
+        {
+            solr.add(doc);
+        }
+    }
+
+    /**
+     * Get the counters of the usage event buffer (queue depth, documents
+     * sent, spilled and dropped, flush times).
+     * @return the counters by name, empty if events are sent at once.
+     */
+    public static Map<String, Long> getBufferStatistics()
+    {
+        if (buffer == null)
+        {
+            return Collections.emptyMap();
+        }
+        return buffer.getStatistics();
+    }
+
     public static void postSearch(DSpaceObject resultObject, HttpServletRequest request, EPerson currentUser,
                                  List<String> queries, int rpp, String sortBy, String order, int page, DSpaceObject scope) {
         try
@@ -384,7 +458,7 @@ public class SolrLogger
                 solrDoc.addField("page", page);
             }
 
-            solr.add(solrDoc);
+            add(solrDoc);
         }
         catch (RuntimeException re)
         {
@@ -434,7 +508,7 @@ public class SolrLogger
                 solrDoc.addField("actor", usageWorkflowEvent.getActor().getID());
             }
 
-            solr.add(solrDoc);
+            add(solrDoc);
         }
         catch (Exception e)
         {
@@ -652,7 +726,7 @@ public class SolrLogger
                 };
 
                 /* query for ip, exclude results previously set as bots. */
-                processor.execute("ip:"+ip+ "* AND -isBot:true");
+                processor.execute(ipQuery(ip) + " AND -isBot:true");
 
                 solr.commit();
 
@@ -696,10 +770,16 @@ public class SolrLogger
         }
     }
 
+    /**
+     * Delete the usage events of an address, or of a block of addresses
+     * given as a prefix ending with a dot.
+     *
+     * @param ip the address or prefix
+     */
     public static void deleteIP(String ip)
     {
         try {
-            solr.deleteByQuery("ip:"+ip + "*");
+            solr.deleteByQuery(ipQuery(ip));
         } catch (Exception e) {
             log.error(e.getMessage(),e);
         }
@@ -1110,6 +1190,20 @@ public class SolrLogger
     }
 
 
+    /**
+     * Query the ip field for an entry of
+     * {@link SpiderDetector#getSpiderIpAddresses()}: a block of addresses
+     * given as a prefix ending with a dot, or a single address.
+     */
+    private static String ipQuery(String ip)
+    {
+        if (ip.endsWith("."))
+        {
+            return "ip:" + ClientUtils.escapeQueryChars(ip) + "*";
+        }
+        return "ip:" + ClientUtils.escapeQueryChars(ip);
+    }
+
     /** String of IP and Ranges in IPTable as a Solr Query */
     private static String filterQuery = null;
 
@@ -1128,7 +1222,7 @@ public class SolrLogger
                     first = false;
                 }
 
-                query.append(" NOT(ip: ").append(ip).append(")");
+                query.append(" NOT(").append(ipQuery(ip)).append(")");
             }
             filterQuery = query.toString();
         }
@@ -1157,107 +1251,25 @@ public class SolrLogger
     }
 
     public static void shardSolrIndex() throws IOException, SolrServerException {
-        /*
-        Start by faceting by year so we can include each year in a seperate core !
-         */
-        SolrQuery yearRangeQuery = new SolrQuery();
-        yearRangeQuery.setQuery("*:*");
-        yearRangeQuery.setRows(0);
-        yearRangeQuery.setFacet(true);
-        yearRangeQuery.add(FacetParams.FACET_RANGE, "time");
-        //We go back to 2000 the year 2000, this is a bit overkill but this way we ensure we have everything
-        //The alternative would be to sort but that isn't recommended since it would be a very costly query !
-        yearRangeQuery.add(FacetParams.FACET_RANGE_START, "NOW/YEAR-" + (Calendar.getInstance().get(Calendar.YEAR) - 2000) + "YEARS");
-        //Add the +0year to ensure that we DO NOT include the current year
-        yearRangeQuery.add(FacetParams.FACET_RANGE_END, "NOW/YEAR+0YEARS");
-        yearRangeQuery.add(FacetParams.FACET_RANGE_GAP, "+1YEAR");
-        yearRangeQuery.add(FacetParams.FACET_MINCOUNT, String.valueOf(1));
-
-        //Create a temp directory to store our files in !
-        File tempDirectory = new File(ConfigurationManager.getProperty("dspace.dir") + File.separator + "temp" + File.separator);
-        tempDirectory.mkdirs();
-
-
-        QueryResponse queryResponse = solr.query(yearRangeQuery);
-        //We only have one range query !
-        List<RangeFacet.Count> yearResults = queryResponse.getFacetRanges().get(0).getCounts();
-        for (RangeFacet.Count count : yearResults) {
-            long totalRecords = count.getCount();
-
-            //Create a range query from this !
-            //We start with out current year
-            DCDate dcStart = new DCDate(count.getValue());
-            Calendar endDate = Calendar.getInstance();
-            //Advance one year for the start of the next one !
-            endDate.setTime(dcStart.toDate());
-            endDate.add(Calendar.YEAR, 1);
-            DCDate dcEndDate = new DCDate(endDate.getTime());
-
-
-            StringBuilder filterQuery = new StringBuilder();
-            filterQuery.append("time:([");
-            filterQuery.append(ClientUtils.escapeQueryChars(dcStart.toString()));
-            filterQuery.append(" TO ");
-            filterQuery.append(ClientUtils.escapeQueryChars(dcEndDate.toString()));
-            filterQuery.append("]");
-            //The next part of the filter query excludes the content from midnight of the next year !
-            filterQuery.append(" NOT ").append(ClientUtils.escapeQueryChars(dcEndDate.toString()));
-            filterQuery.append(")");
-
-
-            Map<String, String> yearQueryParams = new HashMap<String, String>();
-            yearQueryParams.put(CommonParams.Q, "*:*");
-            yearQueryParams.put(CommonParams.ROWS, String.valueOf(10000));
-            yearQueryParams.put(CommonParams.FQ, filterQuery.toString());
-            yearQueryParams.put(CommonParams.WT, "csv");
-
-            //Start by creating a new core
-            String coreName = "statistics-" + dcStart.getYear();
-            CommonsHttpSolrServer statisticsYearServer = createCore(solr, coreName);
-
-            System.out.println("Moving: " + totalRecords + " into core " + coreName);
-            log.info("Moving: " + totalRecords + " records into core " + coreName);
-
-            List<File> filesToUpload = new ArrayList<File>();
-            for(int i = 0; i < totalRecords; i+=10000){
-                String solrRequestUrl = solr.getBaseURL() + "/select";
-                solrRequestUrl = generateURL(solrRequestUrl, yearQueryParams);
-
-                GetMethod get = new GetMethod(solrRequestUrl);
-                new HttpClient().executeMethod(get);
-                InputStream csvInputstream = get.getResponseBodyAsStream();
-                //Write the csv ouput to a file !
-                File csvFile = new File(tempDirectory.getPath() + File.separatorChar + "temp." + dcStart.getYear() + "." + i + ".csv");
-                FileUtils.copyInputStreamToFile(csvInputstream, csvFile);
-                filesToUpload.add(csvFile);
-
-                //Add 10000 & start over again
-                yearQueryParams.put(CommonParams.START, String.valueOf((i + 10000)));
-            }
-
-            for (File tempCsv : filesToUpload) {
-                //Upload the data in the csv files to our new solr core
-                ContentStreamUpdateRequest contentStreamUpdateRequest = new ContentStreamUpdateRequest("/update/csv");
-                contentStreamUpdateRequest.setParam("stream.contentType", "text/plain;charset=utf-8");
-                contentStreamUpdateRequest.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
-                contentStreamUpdateRequest.addFile(tempCsv);
-
-                statisticsYearServer.request(contentStreamUpdateRequest);
-            }
-            statisticsYearServer.commit(true, true);
-
-
-            //Delete contents of this year from our year query !
-            solr.deleteByQuery(filterQuery.toString());
-            solr.commit(true, true);
-
-            log.info("Moved " + totalRecords + " records into core: " + coreName);
-        }
+        shardSolrIndex(ConfigurationManager.getIntProperty("solr-statistics", "shard.threads", 2));
+    }
 
-        FileUtils.deleteDirectory(tempDirectory);
+    /**
+     * Move the usage events of every past year into a core of its own,
+     * streaming them from the statistics core. An interrupted run resumes
+     * from the checkpoint it left in [dspace]/temp.
+     *
+     * @param threads the number of years to move at once
+     */
+    public static void shardSolrIndex(int threads) throws IOException, SolrServerException {
+        File checkpoint = new File(ConfigurationManager.getProperty("dspace.dir") + File.separator + "temp"
+                + File.separator + "statistics-shard.checkpoint");
+        new StatisticsSharder(solr, threads,
+                ConfigurationManager.getIntProperty("solr-statistics", "shard.batch.size", 10000),
+                checkpoint).shard();
     }
 
-    private static CommonsHttpSolrServer createCore(CommonsHttpSolrServer solr, String coreName) throws IOException, SolrServerException {
+    static CommonsHttpSolrServer createCore(CommonsHttpSolrServer solr, String coreName) throws IOException, SolrServerException {
         String solrDir = ConfigurationManager.getProperty("dspace.dir") + File.separator + "solr" +File.separator;
         String baseSolrUrl = solr.getBaseURL().replace("statistics", "");
         CoreAdminRequest.Create create = new CoreAdminRequest.Create();
@@ -0,0 +1,841 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Sends usage events to the statistics core from a background thread, so a
+ * slow or restarting Solr does not hold up the requests being logged.
+ * <P>
+ * Documents wait in a bounded queue and are sent in batches of up to
+ * <code>batchSize</code>, at most <code>flushInterval</code> milliseconds
+ * after the first of them arrived. When the queue is full, or a batch cannot
+ * be sent, documents are appended to a spill file, and sent from there once
+ * Solr keeps up again. Documents are only dropped when the spill file is full
+ * (or there is none).
+ * <P>
+ * A document may be sent more than once: the part of a failed batch that
+ * reached Solr is spilled with the rest, and spilled documents are sent
+ * again if the process stops before recording how far it got. Each
+ * document is therefore given its <code>uid</code>, the unique key of the
+ * statistics core, when it is queued, so a copy sent again replaces the
+ * first instead of counting the event twice.
+ * <P>
+ * Spill files live in a directory shared by every web application and
+ * command line tool, each buffer locking its own
+ * <code>statistics-N.spill</code>; documents spilled by a process that has
+ * gone are sent by the next buffer to lock its file.
+ */
+public final class StatisticsBuffer
+{
+    private static final Logger log = Logger.getLogger(StatisticsBuffer.class);
+
+    /** Running buffers, stopped by {@link #shutdownAll()} */
+    private static final List<StatisticsBuffer> buffers = new ArrayList<StatisticsBuffer>();
+
+    /** Records larger than this are treated as corrupt */
+    private static final int MAX_RECORD = 1024 * 1024;
+
+    /** Most spill files in one directory */
+    private static final int MAX_SPILL_FILES = 100;
+
+    /** First and longest wait after a batch could not be sent */
+    private static final long RETRY_DELAY = 1000;
+
+    private static final long MAX_RETRY_DELAY = 60000;
+
+    /**
+     * Completes documents in the background thread, before they are sent.
+     */
+    interface Enricher
+    {
+        void enrich(SolrInputDocument doc);
+    }
+
+    private final SolrServer solr;
+
+    private final int capacity;
+
+    private final int batchSize;
+
+    private final long flushInterval;
+
+    private final long maxSpillBytes;
+
+    private final Enricher enricher;
+
+    private final BlockingQueue<SolrInputDocument> queue;
+
+    private final Thread flusher;
+
+    /** Guards the spill and replay files */
+    private final Object spillLock = new Object();
+
+    /** Where documents are appended, or null if they cannot be */
+    private File spillFile;
+
+    /** A former spill file being sent */
+    private File replayFile;
+
+    /** Position in the replay file of the first document not yet sent */
+    private long replayOffset = 0;
+
+    private RandomAccessFile lockFile;
+
+    private FileLock lock;
+
+    private final AtomicLong queued = new AtomicLong();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong spilled = new AtomicLong();
+
+    private final AtomicLong replayed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong flushes = new AtomicLong();
+
+    private final AtomicLong flushMillis = new AtomicLong();
+
+    private volatile long lastFlushMillis = 0;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Create a buffer and start sending.
+     *
+     * @param solr
+     *            the statistics core
+     * @param capacity
+     *            the most documents held in memory
+     * @param batchSize
+     *            the most documents sent at once
+     * @param flushInterval
+     *            the longest a document waits for a batch to fill, in
+     *            milliseconds
+     * @param spillDir
+     *            the directory of spill files, or null to drop documents
+     *            that do not fit
+     * @param maxSpillBytes
+     *            the largest the spill file may grow
+     * @param enricher
+     *            completes documents before they are sent, or null
+     */
+    StatisticsBuffer(SolrServer solr, int capacity, int batchSize, long flushInterval, File spillDir,
+            long maxSpillBytes, Enricher enricher)
+    {
+        this.solr = solr;
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = Math.max(1, flushInterval);
+        this.maxSpillBytes = maxSpillBytes;
+        this.enricher = enricher;
+        this.queue = new ArrayBlockingQueue<SolrInputDocument>(this.capacity);
+
+        if (spillDir != null)
+        {
+            try
+            {
+                openSpillFile(spillDir);
+            }
+            catch (IOException e)
+            {
+                log.error("Unable to spill usage events to " + spillDir
+                        + ", events will be dropped when the buffer is full: " + e.getMessage());
+            }
+        }
+
+        flusher = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                flush();
+            }
+        }, "StatisticsBuffer");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        synchronized (buffers)
+        {
+            buffers.add(this);
+        }
+    }
+
+    /**
+     * Stop all running buffers, sending (or spilling) the documents they hold.
+     */
+    public static void shutdownAll()
+    {
+        List<StatisticsBuffer> running;
+        synchronized (buffers)
+        {
+            running = new ArrayList<StatisticsBuffer>(buffers);
+            buffers.clear();
+        }
+
+        for (StatisticsBuffer buffer : running)
+        {
+            buffer.shutdown(30000);
+        }
+    }
+
+    /**
+     * Queue a document without waiting. It is spilled if the queue is full,
+     * and dropped if that is not possible either. A document without a
+     * <code>uid</code> is given a random one.
+     *
+     * @param doc
+     *            the document to send
+     */
+    public void add(SolrInputDocument doc)
+    {
+        if (doc.getFieldValue("uid") == null)
+        {
+            doc.setField("uid", UUID.randomUUID().toString());
+        }
+        queued.incrementAndGet();
+        if (closed || !queue.offer(doc))
+        {
+            spill(Collections.singletonList(doc));
+        }
+    }
+
+    /**
+     * Send the documents in memory and stop. Documents still waiting when
+     * the time is up are spilled.
+     *
+     * @param timeout
+     *            the longest to wait for the documents to be sent, in
+     *            milliseconds
+     */
+    public synchronized void shutdown(long timeout)
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+
+        synchronized (buffers)
+        {
+            buffers.remove(this);
+        }
+
+        flusher.interrupt();
+        try
+        {
+            flusher.join(timeout);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        List<SolrInputDocument> rest = new ArrayList<SolrInputDocument>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty())
+        {
+            log.warn("Solr statistics did not keep up during shutdown, spilling " + rest.size() + " usage events");
+            spill(rest);
+        }
+
+        synchronized (spillLock)
+        {
+            closeSpillFile();
+        }
+        log.info("Stopped statistics buffer: " + getStatistics());
+    }
+
+    /**
+     * @return the number of documents waiting in memory
+     */
+    public int getDepth()
+    {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of documents lost because they fit nowhere
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of documents Solr accepted
+     */
+    public long getSentCount()
+    {
+        return sent.get();
+    }
+
+    /**
+     * @return how long the last batch took to send, in milliseconds
+     */
+    public long getLastFlushMillis()
+    {
+        return lastFlushMillis;
+    }
+
+    /**
+     * Get the counters of this buffer.
+     *
+     * @return the counters by name, in a stable order
+     */
+    public Map<String, Long> getStatistics()
+    {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("queued", queued.get());
+        stats.put("depth", Long.valueOf(queue.size()));
+        stats.put("sent", sent.get());
+        stats.put("spilled", spilled.get());
+        stats.put("replayed", replayed.get());
+        stats.put("dropped", dropped.get());
+        stats.put("rejected", rejected.get());
+        stats.put("failures", failures.get());
+        stats.put("spill.bytes", getSpillBytes());
+        stats.put("flush.last.ms", lastFlushMillis);
+        long count = flushes.get();
+        stats.put("flush.avg.ms", (count == 0) ? 0L : flushMillis.get() / count);
+        return stats;
+    }
+
+    /**
+     * Send batches until the buffer is closed and the queue is empty.
+     */
+    private void flush()
+    {
+        List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+        long backoff = 0;
+        while (true)
+        {
+            boolean stopping = closed;
+            try
+            {
+                collect(batch, stopping);
+            }
+            catch (InterruptedException e)
+            {
+                // woken by shutdown: send what is left without waiting
+                continue;
+            }
+
+            if (batch.isEmpty())
+            {
+                if (stopping)
+                {
+                    return;
+                }
+            }
+            else if (send(batch))
+            {
+                backoff = 0;
+                batch.clear();
+            }
+            else
+            {
+                spill(batch);
+                batch.clear();
+                if (stopping)
+                {
+                    // no point waiting for Solr now
+                    List<SolrInputDocument> rest = new ArrayList<SolrInputDocument>();
+                    queue.drainTo(rest);
+                    spill(rest);
+                    return;
+                }
+                backoff = (backoff == 0) ? RETRY_DELAY : Math.min(2 * backoff, MAX_RETRY_DELAY);
+            }
+
+            // catch up on spilled documents while the queue has room
+            if (backoff == 0 && !stopping && queue.size() < capacity / 2 && replay() < 0)
+            {
+                backoff = RETRY_DELAY;
+            }
+
+            if (backoff > 0 && !closed)
+            {
+                try
+                {
+                    Thread.sleep(backoff);
+                }
+                catch (InterruptedException e)
+                {
+                    // woken by shutdown
+                }
+            }
+        }
+    }
+
+    /**
+     * Fill a batch from the queue, waiting up to the flush interval for the
+     * first document and as long again for the rest.
+     */
+    private void collect(List<SolrInputDocument> batch, boolean stopping) throws InterruptedException
+    {
+        if (stopping)
+        {
+            queue.drainTo(batch, Math.max(0, batchSize - batch.size()));
+            return;
+        }
+
+        SolrInputDocument doc = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+        if (doc == null)
+        {
+            return;
+        }
+        batch.add(doc);
+
+        long deadline = System.currentTimeMillis() + flushInterval;
+        while (batch.size() < batchSize)
+        {
+            queue.drainTo(batch, batchSize - batch.size());
+            long wait = deadline - System.currentTimeMillis();
+            if (batch.size() >= batchSize || wait <= 0 || closed)
+            {
+                return;
+            }
+
+            doc = queue.poll(wait, TimeUnit.MILLISECONDS);
+            if (doc == null)
+            {
+                return;
+            }
+            batch.add(doc);
+        }
+    }
+
+    /**
+     * Send a batch. Documents Solr rejects as invalid are dropped, one by one.
+     *
+     * @return false if Solr could not be reached
+     */
+    private boolean send(List<SolrInputDocument> batch)
+    {
+        if (enricher != null)
+        {
+            for (SolrInputDocument doc : batch)
+            {
+                try
+                {
+                    enricher.enrich(doc);
+                }
+                catch (RuntimeException e)
+                {
+                    log.warn("Unable to complete usage event: " + e.getMessage());
+                }
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        try
+        {
+            solr.add(batch);
+            sent.addAndGet(batch.size());
+        }
+        catch (SolrException e)
+        {
+            if (e.code() != SolrException.ErrorCode.BAD_REQUEST.code)
+            {
+                return failed(batch, e);
+            }
+
+            // sending a bad document again will not help
+            for (SolrInputDocument doc : batch)
+            {
+                try
+                {
+                    solr.add(doc);
+                    sent.incrementAndGet();
+                }
+                catch (SolrException e2)
+                {
+                    if (e2.code() != SolrException.ErrorCode.BAD_REQUEST.code)
+                    {
+                        return failed(batch, e2);
+                    }
+                    rejected.incrementAndGet();
+                    log.error("Dropping usage event Solr rejected: " + e2.getMessage());
+                }
+                catch (Exception e2)
+                {
+                    return failed(batch, e2);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            return failed(batch, e);
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        lastFlushMillis = elapsed;
+        flushMillis.addAndGet(elapsed);
+        flushes.incrementAndGet();
+        return true;
+    }
+
+    private boolean failed(List<SolrInputDocument> batch, Exception e)
+    {
+        // the documents sent one by one before the failure are sent again,
+        // replacing the copies with the same uid
+        failures.incrementAndGet();
+        log.warn("Unable to send " + batch.size() + " usage events to Solr: " + e.getMessage());
+        return false;
+    }
+
+    /**
+     * Append documents to the spill file, or drop them if it is full.
+     */
+    private void spill(List<SolrInputDocument> docs)
+    {
+        if (docs.isEmpty())
+        {
+            return;
+        }
+
+        synchronized (spillLock)
+        {
+            if (spillFile == null)
+            {
+                dropped.addAndGet(docs.size());
+                return;
+            }
+
+            try
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(bytes);
+                int count = 0;
+                long room = maxSpillBytes - getSpillBytes();
+                for (SolrInputDocument doc : docs)
+                {
+                    byte[] record = serialize(doc);
+                    if (data.size() + 4 + record.length > room)
+                    {
+                        break;
+                    }
+                    data.writeInt(record.length);
+                    data.write(record);
+                    count++;
+                }
+                data.flush();
+
+                if (count > 0)
+                {
+                    FileOutputStream out = new FileOutputStream(spillFile, true);
+                    try
+                    {
+                        out.write(bytes.toByteArray());
+                    }
+                    finally
+                    {
+                        out.close();
+                    }
+                    spilled.addAndGet(count);
+                }
+
+                if (count < docs.size())
+                {
+                    dropped.addAndGet(docs.size() - count);
+                    log.warn("Spill file " + spillFile + " is full, dropped " + (docs.size() - count)
+                            + " usage events");
+                }
+            }
+            catch (IOException e)
+            {
+                dropped.addAndGet(docs.size());
+                log.error("Unable to spill " + docs.size() + " usage events to " + spillFile + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Send the next batch of spilled documents.
+     *
+     * @return the number sent, or -1 if Solr could not be reached
+     */
+    private int replay()
+    {
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(batchSize);
+        long end;
+        synchronized (spillLock)
+        {
+            if (spillFile == null)
+            {
+                return 0;
+            }
+
+            if (!replayFile.exists())
+            {
+                if (spillFile.length() == 0)
+                {
+                    return 0;
+                }
+                // documents spilled from now on go to a new file
+                if (!spillFile.renameTo(replayFile))
+                {
+                    log.warn("Unable to rename " + spillFile + " to " + replayFile);
+                    return 0;
+                }
+                replayOffset = 0;
+                saveReplayOffset();
+            }
+
+            try
+            {
+                end = readRecords(docs);
+            }
+            catch (IOException e)
+            {
+                log.error("Unable to read spilled usage events from " + replayFile + ": " + e.getMessage());
+                return 0;
+            }
+        }
+
+        if (!docs.isEmpty() && !send(docs))
+        {
+            return -1;
+        }
+        replayed.addAndGet(docs.size());
+
+        synchronized (spillLock)
+        {
+            if (replayFile == null)
+            {
+                // closed in the meantime; the documents may be sent again
+                return docs.size();
+            }
+
+            if (end >= replayFile.length())
+            {
+                replayFile.delete();
+                new File(replayFile.getPath() + ".offset").delete();
+                replayOffset = 0;
+            }
+            else
+            {
+                replayOffset = end;
+                saveReplayOffset();
+            }
+        }
+        return docs.size();
+    }
+
+    /**
+     * Read up to a batch of documents from the replay position.
+     *
+     * @return the position following the records read
+     */
+    private long readRecords(List<SolrInputDocument> docs) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(replayFile, "r");
+        try
+        {
+            long length = raf.length();
+            long offset = replayOffset;
+            raf.seek(offset);
+            while (docs.size() < batchSize && offset + 4 <= length)
+            {
+                int size = raf.readInt();
+                if (size <= 0 || size > MAX_RECORD || offset + 4 + size > length)
+                {
+                    log.warn("Skipping incomplete record at " + offset + " in " + replayFile);
+                    return length;
+                }
+
+                byte[] record = new byte[size];
+                raf.readFully(record);
+                offset += 4 + size;
+
+                SolrInputDocument doc = deserialize(record);
+                if (doc != null)
+                {
+                    docs.add(doc);
+                }
+            }
+            return (offset + 4 > length) ? length : offset;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Lock the first free spill file in a directory.
+     */
+    private void openSpillFile(File dir) throws IOException
+    {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+        {
+            throw new IOException("Unable to create directory " + dir);
+        }
+
+        for (int i = 0; i < MAX_SPILL_FILES; i++)
+        {
+            RandomAccessFile raf = new RandomAccessFile(new File(dir, "statistics-" + i + ".lock"), "rw");
+            FileLock fileLock = null;
+            try
+            {
+                fileLock = raf.getChannel().tryLock();
+            }
+            catch (OverlappingFileLockException e)
+            {
+                // held by another class loader in this JVM
+            }
+
+            if (fileLock == null)
+            {
+                raf.close();
+                continue;
+            }
+
+            lockFile = raf;
+            lock = fileLock;
+            spillFile = new File(dir, "statistics-" + i + ".spill");
+            replayFile = new File(dir, "statistics-" + i + ".replay");
+            replayOffset = readReplayOffset();
+            return;
+        }
+        throw new IOException("All " + MAX_SPILL_FILES + " spill files are in use");
+    }
+
+    private void closeSpillFile()
+    {
+        if (lockFile == null)
+        {
+            return;
+        }
+
+        try
+        {
+            lock.release();
+            lockFile.close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to unlock " + spillFile + ": " + e.getMessage());
+        }
+        lockFile = null;
+        lock = null;
+        spillFile = null;
+        replayFile = null;
+    }
+
+    /**
+     * @return the bytes of spilled documents not yet sent
+     */
+    private long getSpillBytes()
+    {
+        synchronized (spillLock)
+        {
+            if (spillFile == null)
+            {
+                return 0;
+            }
+            long bytes = spillFile.length();
+            if (replayFile.exists())
+            {
+                bytes += Math.max(0, replayFile.length() - replayOffset);
+            }
+            return bytes;
+        }
+    }
+
+    private long readReplayOffset()
+    {
+        File offsetFile = new File(replayFile.getPath() + ".offset");
+        if (!replayFile.exists() || !offsetFile.exists())
+        {
+            return 0;
+        }
+
+        try
+        {
+            long offset = Long.parseLong(FileUtils.readFileToString(offsetFile).trim());
+            return (offset < 0 || offset > replayFile.length()) ? 0 : offset;
+        }
+        catch (Exception e)
+        {
+            // documents sent twice replace the copies with the same uid
+            log.warn("Ignoring unreadable " + offsetFile + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private void saveReplayOffset()
+    {
+        File offsetFile = new File(replayFile.getPath() + ".offset");
+        try
+        {
+            FileUtils.writeStringToFile(offsetFile, String.valueOf(replayOffset));
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to save position in " + offsetFile + ": " + e.getMessage());
+        }
+    }
+
+    private static byte[] serialize(SolrInputDocument doc) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(doc);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private SolrInputDocument deserialize(byte[] record)
+    {
+        try
+        {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record));
+            return (SolrInputDocument) in.readObject();
+        }
+        catch (Exception e)
+        {
+            log.error("Skipping unreadable usage event in " + replayFile + ": " + e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import org.dspace.kernel.mixins.ShutdownService;
+
+/**
+ * Flushes the usage event buffers when the DSpace kernel stops, so events
+ * logged just before a web application is undeployed or a command line tool
+ * exits reach Solr (or the spill file).
+ *
+ * @see StatisticsBuffer
+ */
+public class StatisticsBufferShutdown implements ShutdownService
+{
+    /**
+     * Called as the service manager is stopping or shutting down.
+     */
+    public void shutdown()
+    {
+        StatisticsBuffer.shutdownAll();
+    }
+}
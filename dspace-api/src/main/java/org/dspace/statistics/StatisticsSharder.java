@@ -0,0 +1,365 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.time.DurationFormatUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.RangeFacet;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.FacetParams;
+import org.dspace.content.DCDate;
+
+/**
+ * Moves the usage events of past years out of the statistics core into one
+ * core per year (<code>statistics-2012</code>, ...).
+ * <P>
+ * Documents are read in order of their unique <code>uid</code>, each page
+ * starting after the last uid of the one before, so reading a page costs the
+ * same however far into the year it is. Pages are added to the year core as
+ * they are read, without going through files, and the years are moved in
+ * parallel. The last uid copied for each year is saved in a checkpoint file
+ * after every page, so an interrupted run carries on where it stopped. The
+ * events of a year are only deleted from the statistics core once the year
+ * core holds all of them.
+ */
+public class StatisticsSharder
+{
+    private static final Logger log = Logger.getLogger(StatisticsSharder.class);
+
+    /** Checkpoint value of a year that has been moved completely */
+    private static final String DONE = "done";
+
+    private final CommonsHttpSolrServer solr;
+
+    private final int threads;
+
+    private final int batchSize;
+
+    private final File checkpointFile;
+
+    private final Properties checkpoints = new Properties();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong moved = new AtomicLong();
+
+    private long startTime;
+
+    /**
+     * @param solr
+     *            the statistics core
+     * @param threads
+     *            the number of years to move at once
+     * @param batchSize
+     *            the number of documents read and added at once
+     * @param checkpointFile
+     *            where progress is saved between runs
+     */
+    public StatisticsSharder(CommonsHttpSolrServer solr, int threads, int batchSize, File checkpointFile)
+    {
+        this.solr = solr;
+        this.threads = Math.max(1, threads);
+        this.batchSize = Math.max(1, batchSize);
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Move every complete past year into its own core.
+     */
+    public void shard() throws IOException, SolrServerException
+    {
+        loadCheckpoints();
+
+        /*
+        Start by faceting by year so we can include each year in a seperate core !
+         */
+        SolrQuery yearRangeQuery = new SolrQuery();
+        yearRangeQuery.setQuery("*:*");
+        yearRangeQuery.setRows(0);
+        yearRangeQuery.setFacet(true);
+        yearRangeQuery.add(FacetParams.FACET_RANGE, "time");
+        //We go back to 2000 the year 2000, this is a bit overkill but this way we ensure we have everything
+        //The alternative would be to sort but that isn't recommended since it would be a very costly query !
+        yearRangeQuery.add(FacetParams.FACET_RANGE_START, "NOW/YEAR-" + (Calendar.getInstance().get(Calendar.YEAR) - 2000) + "YEARS");
+        //Add the +0year to ensure that we DO NOT include the current year
+        yearRangeQuery.add(FacetParams.FACET_RANGE_END, "NOW/YEAR+0YEARS");
+        yearRangeQuery.add(FacetParams.FACET_RANGE_GAP, "+1YEAR");
+        yearRangeQuery.add(FacetParams.FACET_MINCOUNT, String.valueOf(1));
+
+        QueryResponse queryResponse = solr.query(yearRangeQuery);
+        //We only have one range query !
+        List<RangeFacet.Count> yearResults = queryResponse.getFacetRanges().get(0).getCounts();
+
+        List<YearShard> years = new ArrayList<YearShard>();
+        for (RangeFacet.Count count : yearResults)
+        {
+            YearShard year = new YearShard(new DCDate(count.getValue()), count.getCount());
+            total.addAndGet(year.records);
+            years.add(year);
+        }
+
+        startTime = System.currentTimeMillis();
+        Timer timer = new Timer("StatisticsSharder", true);
+        timer.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                System.out.println(getProgress());
+            }
+        }, 30000, 30000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<Long>> results = executor.invokeAll(years);
+            for (int i = 0; i < results.size(); i++)
+            {
+                try
+                {
+                    results.get(i).get();
+                }
+                catch (ExecutionException e)
+                {
+                    // the other years carry on; this one resumes next time
+                    log.error("Unable to move " + years.get(i).coreName + ": " + e.getCause().getMessage(),
+                            e.getCause());
+                    System.err.println("Unable to move " + years.get(i).coreName + ": " + e.getCause().getMessage());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sharding, run again to resume");
+        }
+        finally
+        {
+            executor.shutdownNow();
+            timer.cancel();
+        }
+
+        System.out.println(getProgress());
+        boolean complete = true;
+        for (YearShard year : years)
+        {
+            complete &= DONE.equals(getCheckpoint(year.coreName));
+        }
+        if (complete)
+        {
+            checkpointFile.delete();
+        }
+    }
+
+    /**
+     * @return the documents moved so far, the rate and the time remaining
+     */
+    public String getProgress()
+    {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        long done = moved.get();
+        double rate = done * 1000.0 / elapsed;
+        StringBuilder progress = new StringBuilder();
+        progress.append("Moved ").append(done).append(" of ").append(total.get()).append(" records in ")
+                .append(DurationFormatUtils.formatDuration(elapsed, "H:mm:ss"))
+                .append(" (").append(Math.round(rate)).append("/s");
+        if (rate > 0 && done < total.get())
+        {
+            long remaining = (long) ((total.get() - done) * 1000 / rate);
+            progress.append(", ").append(DurationFormatUtils.formatDuration(remaining, "H:mm:ss"))
+                    .append(" remaining");
+        }
+        return progress.append(')').toString();
+    }
+
+    /**
+     * Moves the events of one year.
+     */
+    private class YearShard implements Callable<Long>
+    {
+        private final String coreName;
+
+        private final String filterQuery;
+
+        private final long records;
+
+        YearShard(DCDate start, long records)
+        {
+            this.records = records;
+            coreName = "statistics-" + start.getYear();
+
+            Calendar endDate = Calendar.getInstance();
+            //Advance one year for the start of the next one !
+            endDate.setTime(start.toDate());
+            endDate.add(Calendar.YEAR, 1);
+            DCDate end = new DCDate(endDate.getTime());
+
+            //The last part of the filter query excludes the content from midnight of the next year !
+            filterQuery = "time:([" + ClientUtils.escapeQueryChars(start.toString()) + " TO "
+                    + ClientUtils.escapeQueryChars(end.toString()) + "] NOT "
+                    + ClientUtils.escapeQueryChars(end.toString()) + ")";
+        }
+
+        public Long call() throws Exception
+        {
+            String last = getCheckpoint(coreName);
+            if (DONE.equals(last))
+            {
+                return Long.valueOf(0);
+            }
+
+            CommonsHttpSolrServer yearServer = SolrLogger.createCore(solr, coreName);
+            System.out.println("Moving: " + records + " into core " + coreName
+                    + ((last == null) ? "" : ", resuming after " + last));
+            log.info("Moving: " + records + " records into core " + coreName);
+
+            long count = 0;
+            while (true)
+            {
+                SolrQuery page = new SolrQuery("*:*");
+                page.addFilterQuery(filterQuery);
+                if (last != null)
+                {
+                    page.addFilterQuery("uid:{" + ClientUtils.escapeQueryChars(last) + " TO *}");
+                }
+                page.addSortField("uid", SolrQuery.ORDER.asc);
+                page.setRows(batchSize);
+
+                SolrDocumentList docs = solr.query(page).getResults();
+                if (docs.isEmpty())
+                {
+                    break;
+                }
+
+                List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(docs.size());
+                for (SolrDocument doc : docs)
+                {
+                    batch.add(ClientUtils.toSolrInputDocument(doc));
+                }
+                yearServer.add(batch);
+
+                last = String.valueOf(docs.get(docs.size() - 1).getFieldValue("uid"));
+                count += docs.size();
+                moved.addAndGet(docs.size());
+                setCheckpoint(coreName, last);
+            }
+            yearServer.commit(true, true);
+
+            // only delete what the year core is known to hold
+            long copied = countRecords(yearServer);
+            long remaining = countRecords(solr);
+            if (copied < remaining)
+            {
+                throw new IOException(coreName + " holds " + copied + " of " + remaining
+                        + " records, leaving them in the statistics core");
+            }
+
+            //Delete contents of this year from our year query !
+            solr.deleteByQuery(filterQuery);
+            solr.commit(true, true);
+            setCheckpoint(coreName, DONE);
+
+            log.info("Moved " + count + " records into core: " + coreName);
+            return Long.valueOf(count);
+        }
+
+        private long countRecords(CommonsHttpSolrServer server) throws SolrServerException
+        {
+            SolrQuery query = new SolrQuery("*:*");
+            query.addFilterQuery(filterQuery);
+            query.setRows(0);
+            return server.query(query).getResults().getNumFound();
+        }
+    }
+
+    private void loadCheckpoints() throws IOException
+    {
+        if (checkpointFile.exists())
+        {
+            InputStream in = new FileInputStream(checkpointFile);
+            try
+            {
+                checkpoints.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+            log.info("Resuming from " + checkpointFile);
+        }
+    }
+
+    private String getCheckpoint(String coreName)
+    {
+        synchronized (checkpoints)
+        {
+            return checkpoints.getProperty(coreName);
+        }
+    }
+
+    /**
+     * Save how far a year has been moved, replacing the file in one step.
+     */
+    private void setCheckpoint(String coreName, String value) throws IOException
+    {
+        synchronized (checkpoints)
+        {
+            checkpoints.setProperty(coreName, value);
+
+            File dir = checkpointFile.getAbsoluteFile().getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs())
+            {
+                throw new IOException("Unable to create " + dir);
+            }
+            File tmp = new File(checkpointFile.getPath() + ".tmp");
+            OutputStream out = new FileOutputStream(tmp);
+            try
+            {
+                checkpoints.store(out, "Statistics sharding progress: last uid moved per year core");
+            }
+            finally
+            {
+                out.close();
+            }
+            if (!tmp.renameTo(checkpointFile))
+            {
+                checkpointFile.delete();
+                if (!tmp.renameTo(checkpointFile))
+                {
+                    throw new IOException("Unable to save " + checkpointFile);
+                }
+            }
+        }
+    }
+}
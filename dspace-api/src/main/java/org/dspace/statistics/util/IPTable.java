@@ -7,184 +7,523 @@
  */
 package org.dspace.statistics.util;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
 /**
- * A Spare v4 IPTable implementation that uses nested HashMaps
- * to optimize IP address matching over ranges of IP addresses.
+ * A table of IPv4 and IPv6 addresses and ranges, for matching the addresses
+ * of requests against lists of spiders.
+ * <P>
+ * Entries may be single addresses, CIDR blocks (<code>66.249.64.0/19</code>,
+ * <code>2001:db8::/32</code>), ranges of any size
+ * (<code>10.0.0.5 - 10.0.3.20</code>), or the first three parts of an IPv4
+ * address for the whole subnet (<code>192.168.1</code>). They are kept as
+ * sorted, merged intervals of numbers, so looking an address up is a binary
+ * search that creates no objects. The intervals of both families are
+ * published together, in one immutable object, when entries are added.
  *
  * @author mdiggory at atmire.com
  */
 public class IPTable {
 
-    /* A lookup tree for IP addresses and SubnetRanges */
-    private Map<String, Map<String, Map<String, Set<String>>>> map =
-            new HashMap<String, Map<String, Map<String, Set<String>>>>();
+    /** Entries added since the intervals were last built */
+    private final List<long[]> pending = new ArrayList<long[]>();
+
+    /** The sorted, merged intervals, replaced as a whole */
+    private volatile Intervals intervals = new Intervals(new long[0], new long[0], new long[4][0]);
+
+    /** Whether entries are waiting to be merged into the intervals */
+    private volatile boolean dirty = false;
 
     /**
-     * Can be full v4 IP, subnet or range string
+     * Can be a full v4 or v6 IP, a CIDR block, a range of addresses or the
+     * first three parts of a v4 IP
      *
      * @param ip
      */
     public void add(String ip) throws IPFormatException {
 
-        String[] start;
+        String entry = ip.trim();
+        long[] interval;
+
+        int dash = entry.indexOf('-');
+        int slash = entry.indexOf('/');
+        if (dash >= 0) {
+            String first = entry.substring(0, dash).trim();
+            String last = entry.substring(dash + 1).trim();
+            if (first.indexOf(':') >= 0 && last.indexOf(':') >= 0) {
+                interval = new long[] {
+                        parseIPv6(first, 0, first.length(), true), parseIPv6(first, 0, first.length(), false),
+                        parseIPv6(last, 0, last.length(), true), parseIPv6(last, 0, last.length(), false) };
+            } else {
+                long start = parseIPv4(first, 0, first.length());
+                long end = parseIPv4(last, 0, last.length());
+                if (start < 0 || end < 0)
+                {
+                    throw new IPFormatException(ip + " - Ranges need to be full IPv4 or IPv6 Addresses");
+                }
+                interval = new long[] { start, end };
+            }
+        } else if (slash >= 0) {
+            int bits;
+            try {
+                bits = Integer.parseInt(entry.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IPFormatException(ip + " - invalid CIDR prefix length");
+            }
+            String address = entry.substring(0, slash).trim();
+            if (address.indexOf(':') >= 0) {
+                interval = cidr6(ip, parseIPv6(address, 0, address.length(), true),
+                        parseIPv6(address, 0, address.length(), false), bits);
+            } else {
+                long start = parseIPv4(address, 0, address.length());
+                if (start < 0 || bits < 0 || bits > 32)
+                {
+                    throw new IPFormatException(ip + " - invalid IPv4 CIDR block");
+                }
+                long size = 1L << (32 - bits);
+                start &= ~(size - 1);
+                interval = new long[] { start, start + size - 1 };
+            }
+        } else if (entry.indexOf(':') >= 0) {
+            long high = parseIPv6(entry, 0, entry.length(), true);
+            long low = parseIPv6(entry, 0, entry.length(), false);
+            interval = new long[] { high, low, high, low };
+        } else {
+            String[] subnets = entry.split("\\.");
+            if (subnets.length == 3) {
+                // the whole x.y.z.0 - x.y.z.255 subnet
+                long start = parseIPv4(entry + ".0", 0, entry.length() + 2);
+                if (start < 0)
+                {
+                    throw new IPFormatException(ip + " - invalid IPv4 subnet");
+                }
+                interval = new long[] { start, start + 255 };
+            } else if (subnets.length == 4) {
+                long address = parseIPv4(entry, 0, entry.length());
+                if (address < 0)
+                {
+                    throw new IPFormatException(ip + " - invalid IPv4 address");
+                }
+                interval = new long[] { address, address };
+            } else {
+                throw new IPFormatException(ip + " - require at least three subnet places (255.255.255.0");
+            }
+        }
 
-        String[] end;
+        if (interval.length == 2 ? interval[0] > interval[1]
+                : compare(interval[0], interval[1], interval[2], interval[3]) > 0)
+        {
+            throw new IPFormatException(ip + " - the range ends before it starts");
+        }
 
-        String[] range = ip.split("-");
+        synchronized (pending) {
+            pending.add(interval);
+            dirty = true;
+        }
+    }
 
-        if (range.length >= 2) {
+    /** Check whether a given address is contained in this netblock.
+     *
+     * @param ip the address to be tested
+     * @return true if {@code ip} is within this table's limits
+     * @throws IPFormatException
+     */
+    public boolean contains(String ip) throws IPFormatException {
 
-            start = range[0].trim().split("/")[0].split("\\.");
-            end = range[1].trim().split("/")[0].split("\\.");
+        if (dirty)
+        {
+            build();
+        }
 
-            if (start.length != 4 || end.length != 4)
+        int from = 0;
+        int to = ip.length();
+        while (from < to && ip.charAt(from) <= ' ')
+        {
+            from++;
+        }
+        while (to > from && ip.charAt(to - 1) <= ' ')
+        {
+            to--;
+        }
+
+        if (ip.indexOf(':', from) < 0)
+        {
+            long address = parseIPv4(ip, from, to);
+            if (address < 0)
             {
-                throw new IPFormatException(ip + " - Ranges need to be full IPv4 Addresses");
+                throw new IPFormatException("needs to be a single IP address");
             }
+            Intervals current = intervals;
+            return find(current.v4Starts, current.v4Ends, address);
+        }
 
-            if (!(start[0].equals(end[0]) && start[1].equals(end[1]) && start[2].equals(end[2]))) {
-                throw new IPFormatException(ip + " - Ranges can only be across the last subnet x.y.z.0 - x.y.z.254");
-            }
+        // [address] and address%zone
+        if (to - from > 2 && ip.charAt(from) == '[' && ip.charAt(to - 1) == ']')
+        {
+            from++;
+            to--;
+        }
+        int zone = ip.indexOf('%', from);
+        if (zone >= 0 && zone < to)
+        {
+            to = zone;
+        }
+        return find(intervals.v6, parseIPv6(ip, from, to, true), parseIPv6(ip, from, to, false));
+    }
 
-        } else {
-            //need to ignore CIDR notation for the moment.
-            //ip = ip.split("\\/")[0];
+    /** Convert to a Set.
+     * <P>
+     * IPv4 ranges are listed as the fewest whole /8, /16 and /24 blocks they
+     * hold, given as prefixes ending with a dot (<code>10.</code>,
+     * <code>172.16.</code>, <code>192.168.1.</code>), and the addresses left
+     * over one by one; of the v6 entries, only single addresses are listed.
+     *
+     * @return this table's content as a Set
+     */
+    public Set<String> toSet() {
+        if (dirty)
+        {
+            build();
+        }
 
-            String[] subnets = ip.split("\\.");
+        HashSet<String> set = new HashSet<String>();
 
-            if (subnets.length < 3) {
-                throw new IPFormatException(ip + " - require at least three subnet places (255.255.255.0");
+        Intervals current = intervals;
+        long[] starts = current.v4Starts;
+        long[] ends = current.v4Ends;
+        for (int i = 0; i < starts.length; i++) {
+            long address = starts[i];
+            while (address <= ends[i]) {
+                // the largest block starting here that the range holds
+                int prefixParts = 4;
+                while (prefixParts > 1) {
+                    long size = 1L << (8 * (5 - prefixParts));
+                    if ((address & (size - 1)) != 0 || address + size - 1 > ends[i]) {
+                        break;
+                    }
+                    prefixParts--;
+                }
 
+                StringBuilder prefix = new StringBuilder();
+                for (int part = 0; part < prefixParts; part++) {
+                    if (part > 0) {
+                        prefix.append('.');
+                    }
+                    prefix.append((address >>> (24 - 8 * part)) & 255);
+                }
+                if (prefixParts < 4) {
+                    prefix.append('.');
+                }
+                set.add(prefix.toString());
+                address += 1L << (8 * (4 - prefixParts));
             }
+        }
 
-            start = subnets;
-            end = subnets;
+        long[][] intervals = current.v6;
+        for (int i = 0; i < intervals[0].length; i++) {
+            if (intervals[0][i] == intervals[2][i] && intervals[1][i] == intervals[3][i]) {
+                StringBuilder address = new StringBuilder();
+                for (int group = 0; group < 8; group++) {
+                    long half = (group < 4) ? intervals[0][i] : intervals[1][i];
+                    if (group > 0) {
+                        address.append(':');
+                    }
+                    address.append(Long.toHexString((half >>> (48 - 16 * (group % 4))) & 0xffff));
+                }
+                set.add(address.toString());
+            }
         }
 
-        if (start.length >= 3) {
+        return set;
+    }
 
+    /**
+     * Sort and merge the pending entries into the intervals.
+     */
+    private void build() {
+        synchronized (pending) {
+            if (!dirty)
+            {
+                return;
+            }
 
-            Map<String, Map<String, Set<String>>> first = map.get(start[0]);
+            Intervals current = intervals;
+            List<long[]> v4Intervals = new ArrayList<long[]>();
+            List<long[]> v6Intervals = new ArrayList<long[]>();
+            for (int i = 0; i < current.v4Starts.length; i++) {
+                v4Intervals.add(new long[] { current.v4Starts[i], current.v4Ends[i] });
+            }
+            for (int i = 0; i < current.v6[0].length; i++) {
+                v6Intervals.add(new long[] { current.v6[0][i], current.v6[1][i], current.v6[2][i], current.v6[3][i] });
+            }
+            for (long[] interval : pending) {
+                (interval.length == 2 ? v4Intervals : v6Intervals).add(interval);
+            }
 
-            if (first == null) {
-                first = new HashMap<String, Map<String, Set<String>>>();
-                map.put(start[0], first);
+            Collections.sort(v4Intervals, new Comparator<long[]>() {
+                public int compare(long[] a, long[] b) {
+                    return (a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1);
+                }
+            });
+            List<long[]> merged = new ArrayList<long[]>();
+            for (long[] interval : v4Intervals) {
+                long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && interval[0] <= last[1] + 1) {
+                    last[1] = Math.max(last[1], interval[1]);
+                } else {
+                    merged.add(new long[] { interval[0], interval[1] });
+                }
+            }
+            long[] starts = new long[merged.size()];
+            long[] ends = new long[merged.size()];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = merged.get(i)[0];
+                ends[i] = merged.get(i)[1];
             }
 
-            Map<String, Set<String>> second = first.get(start[1]);
+            Collections.sort(v6Intervals, new Comparator<long[]>() {
+                public int compare(long[] a, long[] b) {
+                    return IPTable.compare(a[0], a[1], b[0], b[1]);
+                }
+            });
+            merged.clear();
+            for (long[] interval : v6Intervals) {
+                long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && compare(interval[0], interval[1], last[2], last[3]) <= 0) {
+                    if (compare(interval[2], interval[3], last[2], last[3]) > 0) {
+                        last[2] = interval[2];
+                        last[3] = interval[3];
+                    }
+                } else {
+                    merged.add(Arrays.copyOf(interval, 4));
+                }
+            }
+            long[][] v6 = new long[4][merged.size()];
+            for (int i = 0; i < merged.size(); i++) {
+                for (int j = 0; j < 4; j++) {
+                    v6[j][i] = merged.get(i)[j];
+                }
+            }
 
+            intervals = new Intervals(starts, ends, v6);
+            pending.clear();
+            dirty = false;
+        }
+    }
 
-            if (second == null) {
-                second = new HashMap<String, Set<String>>();
-                first.put(start[1], second);
+    private static boolean find(long[] starts, long[] ends, long address) {
+        // the last interval starting at or before the address
+        int low = 0;
+        int high = starts.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= address) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
             }
+        }
+        return found >= 0 && address <= ends[found];
+    }
 
-            Set<String> third = second.get(start[2]);
-
-            if (third == null) {
-                third = new HashSet<String>();
-                second.put(start[2], third);
+    private static boolean find(long[][] intervals, long high, long low) {
+        int from = 0;
+        int to = intervals[0].length - 1;
+        int found = -1;
+        while (from <= to) {
+            int mid = (from + to) >>> 1;
+            if (compare(intervals[0][mid], intervals[1][mid], high, low) <= 0) {
+                found = mid;
+                from = mid + 1;
+            } else {
+                to = mid - 1;
             }
+        }
+        return found >= 0 && compare(high, low, intervals[2][found], intervals[3][found]) <= 0;
+    }
 
-            //now populate fourth place (* or value 0-254);
+    /**
+     * Compare two unsigned 128 bit numbers given as high and low halves.
+     */
+    private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+        if (aHigh != bHigh) {
+            return (aHigh + Long.MIN_VALUE < bHigh + Long.MIN_VALUE) ? -1 : 1;
+        }
+        if (aLow != bLow) {
+            return (aLow + Long.MIN_VALUE < bLow + Long.MIN_VALUE) ? -1 : 1;
+        }
+        return 0;
+    }
 
-            if (start.length == 3) {
-                third.add("*");
-            }
+    private static long[] cidr6(String ip, long high, long low, int bits) throws IPFormatException {
+        if (bits < 0 || bits > 128)
+        {
+            throw new IPFormatException(ip + " - invalid IPv6 CIDR block");
+        }
 
-            if (third.contains("*")) {
-                return;
+        // the host part of the address, as high and low masks
+        int hostBits = 128 - bits;
+        long highMask = (hostBits >= 128) ? -1L : ((hostBits > 64) ? (1L << (hostBits - 64)) - 1 : 0);
+        long lowMask = (hostBits >= 64) ? -1L : (1L << hostBits) - 1;
+        return new long[] { high & ~highMask, low & ~lowMask, high | highMask, low | lowMask };
+    }
+
+    /**
+     * Parse a dotted IPv4 address.
+     *
+     * @return the address as an unsigned number, or -1 if it is not valid
+     */
+    private static long parseIPv4(String ip, int from, int to) {
+        long address = 0;
+        int parts = 0;
+        int i = from;
+        while (i < to) {
+            int value = 0;
+            int digits = 0;
+            while (i < to && ip.charAt(i) >= '0' && ip.charAt(i) <= '9') {
+                value = 10 * value + (ip.charAt(i) - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 3 || value > 255)
+            {
+                return -1;
             }
+            address = (address << 8) | value;
+            parts++;
 
-            if (start.length >= 4) {
-                int s = Integer.valueOf(start[3]);
-                int e = Integer.valueOf(end[3]);
-                for (int i = s; i <= e; i++) {
-                    third.add(String.valueOf(i));
+            if (i < to) {
+                if (ip.charAt(i) != '.' || parts == 4 || i == to - 1)
+                {
+                    return -1;
                 }
+                i++;
             }
         }
+        return (parts == 4) ? address : -1;
     }
 
-    /** Check whether a given address is contained in this netblock.
-     * 
-     * @param ip the address to be tested
-     * @return true if {@code ip} is within this table's limits
-     * @throws IPFormatException
+    /**
+     * Parse half of a (possibly compressed) IPv6 address, which may end in a
+     * dotted IPv4 address.
+     *
+     * @param high
+     *            true for the first 64 bits, false for the last
      */
-    public boolean contains(String ip) throws IPFormatException {
-
-        String[] subnets = ip.split("\\.");
-
-        if (subnets.length != 4)
-        {
-            throw new IPFormatException("needs to be a single IP address");
+    private static long parseIPv6(String ip, int from, int to, boolean high) throws IPFormatException {
+        long hi = 0;
+        long lo = 0;
+        int groups = 0;
+        int compressed = -1;
+        int i = from;
+
+        if (to - from >= 2 && ip.charAt(from) == ':' && ip.charAt(from + 1) == ':') {
+            compressed = 0;
+            i += 2;
         }
 
-        Map<String, Map<String, Set<String>>> first = map.get(subnets[0]);
-
-        if (first == null)
-        {
-            return false;
-        }
+        while (i < to) {
+            int start = i;
+            int value = 0;
+            while (i < to && Character.digit(ip.charAt(i), 16) >= 0) {
+                value = 16 * value + Character.digit(ip.charAt(i), 16);
+                i++;
+            }
 
-        Map<String, Set<String>> second = first.get(subnets[1]);
+            if (i < to && ip.charAt(i) == '.') {
+                long v4 = parseIPv4(ip, start, to);
+                if (v4 < 0 || groups > 6)
+                {
+                    throw new IPFormatException(ip + " - invalid IPv6 address");
+                }
+                hi = (hi << 32) | (lo >>> 32);
+                lo = (lo << 32) | v4;
+                groups += 2;
+                break;
+            }
 
-        if (second == null)
-        {
-            return false;
+            if (i == start || i - start > 4 || groups == 8)
+            {
+                throw new IPFormatException(ip + " - invalid IPv6 address");
+            }
+            hi = (hi << 16) | (lo >>> 48);
+            lo = (lo << 16) | value;
+            groups++;
+
+            if (i < to) {
+                // a colon, perhaps two
+                if (ip.charAt(i) != ':' || i == to - 1)
+                {
+                    throw new IPFormatException(ip + " - invalid IPv6 address");
+                }
+                i++;
+                if (ip.charAt(i) == ':') {
+                    if (compressed >= 0)
+                    {
+                        throw new IPFormatException(ip + " - invalid IPv6 address");
+                    }
+                    compressed = groups;
+                    i++;
+                }
+            }
         }
 
-        Set<String> third = second.get(subnets[2]);
-
-        if (third == null)
+        if (compressed < 0 ? groups != 8 : groups > 7)
         {
-            return false;
+            throw new IPFormatException(ip + " - invalid IPv6 address");
         }
 
-        return third.contains(subnets[3]) || third.contains("*");
+        if (compressed >= 0) {
+            // move the groups before "::" to the top, leaving zeros between
+            int tailBits = 16 * (groups - compressed);
+            int shift = 128 - 16 * compressed;
+            long headHi = (tailBits >= 64) ? 0 : ((tailBits == 0) ? hi : hi >>> tailBits);
+            long headLo = (tailBits >= 64) ? ((tailBits == 64) ? hi : hi >>> (tailBits - 64))
+                    : ((tailBits == 0) ? lo : (lo >>> tailBits) | (hi << (64 - tailBits)));
+            long tailHi = (tailBits > 64) ? hi & ((1L << (tailBits - 64)) - 1) : 0;
+            long tailLo = (tailBits >= 64) ? lo : lo & ((1L << tailBits) - 1);
+
+            if (shift >= 128) {
+                hi = tailHi;
+                lo = tailLo;
+            } else if (shift >= 64) {
+                hi = (headLo << (shift - 64)) | tailHi;
+                lo = tailLo;
+            } else {
+                hi = (headHi << shift) | (headLo >>> (64 - shift)) | tailHi;
+                lo = (headLo << shift) | tailLo;
+            }
+        }
 
+        return high ? hi : lo;
     }
 
-    /** Convert to a Set.
-     * @return this table's content as a Set
+    /**
+     * The IPv4 and IPv6 intervals, never changed once published.
      */
-    public Set<String> toSet() {
-        HashSet<String> set = new HashSet<String>();
+    private static final class Intervals {
+        final long[] v4Starts;
 
-        for (Map.Entry<String, Map<String, Map<String, Set<String>>>> first : map.entrySet()) {
-            String firstString = first.getKey();
-            Map<String, Map<String, Set<String>>> secondMap = first.getValue();
+        final long[] v4Ends;
 
-            for (Map.Entry<String, Map<String, Set<String>>> second : secondMap.entrySet()) {
-                String secondString = second.getKey();
-                Map<String, Set<String>> thirdMap = second.getValue();
+        /** As high and low halves of the starts, then of the ends */
+        final long[][] v6;
 
-                for (Map.Entry<String, Set<String>> third : thirdMap.entrySet()) {
-                    String thirdString = third.getKey();
-                    Set<String> fourthSet = third.getValue();
-
-                    if (fourthSet.contains("*")) {
-                        set.add(firstString + "." + secondString + "." + thirdString);
-                    } else {
-                        for (String fourth : fourthSet) {
-                            set.add(firstString + "." + secondString + "." + thirdString + "." + fourth);
-                        }
-                    }
-
-                }
-            }
+        Intervals(long[] v4Starts, long[] v4Ends, long[][] v6) {
+            this.v4Starts = v4Starts;
+            this.v4Ends = v4Ends;
+            this.v6 = v6;
         }
-
-        return set;
     }
 
-
     /**
      * Exception Class to deal with IPFormat errors.
      */
@@ -15,13 +15,15 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
- * SpiderDetector is used to find IP's that are spiders...
- * In future someone may add UserAgents and Host Domains
- * to the detection criteria here.
+ * SpiderDetector is used to find IP's and User-Agents that are spiders...
+ * In future someone may add Host Domains to the detection criteria here.
  *
  * @author kevinvandevelde at atmire.com
  * @author ben at atmire.com
@@ -34,10 +36,15 @@ public class SpiderDetector {
     private static Boolean useProxies;
 
     /**
-     * Sparse HashTable structure to hold IP address ranges.
+     * Sorted intervals of IP addresses and ranges.
      */
     private static IPTable table = null;
 
+    /**
+     * Compiled User-Agent patterns.
+     */
+    private static volatile UserAgentMatcher agents = null;
+
     /**
      * Utility method which Reads the ip addresses out a file & returns them in a Set
      *
@@ -60,12 +67,12 @@ public class SpiderDetector {
             if (!line.startsWith("#")) {
                 line = line.trim();
 
-                if (!line.equals("") && !Character.isDigit(line.charAt(0))) {
+                if (!line.equals("") && !Character.isDigit(line.charAt(0)) && line.indexOf(':') < 0) {
                     // is a hostname
                     // add this functionality later...
                 } else if (!line.equals("")) {
                     ips.add(line);
-                    // is full v4 ip (too tired to deal with v6)...
+                    // is a v4 or v6 ip, CIDR block or range
                 }
             } else {
                 //   ua.add(line.replaceFirst("#","").replaceFirst("UA","").trim());
@@ -76,6 +83,37 @@ public class SpiderDetector {
         return ips;
     }
 
+    /**
+     * Utility method which reads User-Agent patterns out of a file, one per
+     * line; lines starting with # are comments.
+     *
+     * @param patternFile the location of the pattern file
+     * @return the patterns, in the order they appear
+     * @throws IOException if the file cannot be read
+     */
+    public static List<String> readPatterns(File patternFile) throws IOException {
+        List<String> patterns = new ArrayList<String>();
+
+        if (!patternFile.exists() || !patternFile.isFile())
+        {
+            return patterns;
+        }
+
+        BufferedReader in = new BufferedReader(new FileReader(patternFile));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.equals("") && !line.startsWith("#")) {
+                    patterns.add(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return patterns;
+    }
+
     /**
      * Get an immutable Set representing all the Spider Addresses here.
      */
@@ -129,9 +167,6 @@ public class SpiderDetector {
      * In the future this will be extended to support User Agent and
      * domain Name detection.
      * <p/>
-     * In future spiders HashSet may be optimized as byte offset array to
-     * improve performance and memory footprint further.
-     *
      * @param request
      * @return true|false if the request was detected to be from a spider
      */
@@ -147,8 +182,55 @@ public class SpiderDetector {
             }
         }
 
-        return isSpider(request.getRemoteAddr());
+        return isSpider(request.getRemoteAddr()) || isSpiderAgent(request.getHeader("User-Agent"));
+
+    }
+
+    /**
+     * Check a User-Agent against the patterns in config/spiders/agents.
+     *
+     * @param agent the User-Agent header, or null
+     * @return if the agent is a spider
+     */
+    public static boolean isSpiderAgent(String agent) {
+
+        if (agent == null) {
+            return false;
+        }
+
+        UserAgentMatcher matcher = agents;
+        if (matcher == null) {
+            matcher = loadSpiderAgents();
+        }
+        return matcher.matches(agent);
+    }
 
+    /*
+        private loader to compile the User-Agent patterns from files.
+     */
+
+    private static synchronized UserAgentMatcher loadSpiderAgents() {
+
+        if (agents == null) {
+            List<String> patterns = new ArrayList<String>();
+            File agentsDir = new File(ConfigurationManager.getProperty("dspace.dir"), "config/spiders/agents");
+            File[] files = agentsDir.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    try {
+                        patterns.addAll(readPatterns(file));
+                        log.info("Loaded Spider User-Agent file: " + file);
+                    } catch (IOException e) {
+                        log.error("Error Loading Spider User-Agents from " + file + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+
+            agents = new UserAgentMatcher(patterns,
+                    ConfigurationManager.getIntProperty("usage-statistics", "spider.agents.cache", 1000));
+        }
+        return agents;
     }
 
     /**
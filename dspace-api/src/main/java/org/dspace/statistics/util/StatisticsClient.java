@@ -62,6 +62,7 @@ public class StatisticsClient
         options.addOption("b", "reindex-bitstreams", false, "Reindex the bitstreams to ensure we have the bundle name");
         options.addOption("r", "remove-deleted-bitstreams", false, "While indexing the bundle names remove the statistics about deleted bitstreams");
         options.addOption("s", "shard-solr-index", false, "Split the data from the main Solr core into separate Solr cores per year");
+        options.addOption("t", "threads", true, "Number of years to split at once (with -s)");
         options.addOption("h", "help", false, "help");
 
 		CommandLine line = parser.parse(options, args);
@@ -98,7 +99,14 @@ public class StatisticsClient
         }
         else if(line.hasOption('s'))
         {
-            SolrLogger.shardSolrIndex();
+            if (line.hasOption('t'))
+            {
+                SolrLogger.shardSolrIndex(Integer.parseInt(line.getOptionValue('t')));
+            }
+            else
+            {
+                SolrLogger.shardSolrIndex();
+            }
         }
         else
         {
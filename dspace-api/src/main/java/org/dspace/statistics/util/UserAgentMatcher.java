@@ -0,0 +1,408 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Matches User-Agent headers against a list of case insensitive regular
+ * expressions, such as the COUNTER robots list, in one pass over the header.
+ * <P>
+ * Every pattern that must contain some literal text (<code>bot</code>,
+ * <code>^Buck/[0-9]</code>) is found through an Aho-Corasick automaton of
+ * those texts; only patterns whose text occurs are then tried as regular
+ * expressions, and plain text patterns need no regular expression at all.
+ * The few patterns without such text are combined into a single regular
+ * expression. Recent answers are kept, since most traffic comes from a small
+ * number of agents.
+ *
+ * @see SpiderDetector
+ */
+public class UserAgentMatcher
+{
+    private static final Logger log = Logger.getLogger(UserAgentMatcher.class);
+
+    /** Shortest literal text worth looking for */
+    private static final int MIN_LITERAL = 3;
+
+    /** Longest agent whose answer is kept */
+    private static final int MAX_CACHED_LENGTH = 1024;
+
+    /** Characters leading out of each state, sorted */
+    private final char[][] keys;
+
+    /** States the characters lead to */
+    private final int[][] targets;
+
+    /** State to continue from when no character leads out */
+    private final int[] failure;
+
+    /** Patterns whose literal text ends in each state */
+    private final int[][] outputs;
+
+    /** Regular expression of each pattern, or null if it is plain text */
+    private final Pattern[] verifiers;
+
+    /** Patterns without literal text, combined; or null if there are none */
+    private final Pattern others;
+
+    /** The number of patterns compiled */
+    private final int patternCount;
+
+    /** Recent answers, most recently used last */
+    private final Map<String, Boolean> recent;
+
+    /**
+     * Compile patterns. Invalid regular expressions are logged and skipped.
+     *
+     * @param patterns
+     *            case insensitive regular expressions
+     * @param cacheSize
+     *            the number of recent answers to keep
+     */
+    public UserAgentMatcher(List<String> patterns, final int cacheSize)
+    {
+        List<Map<Character, Integer>> gotos = new ArrayList<Map<Character, Integer>>();
+        List<List<Integer>> ends = new ArrayList<List<Integer>>();
+        gotos.add(new TreeMap<Character, Integer>());
+        ends.add(new ArrayList<Integer>());
+
+        List<Pattern> verifierList = new ArrayList<Pattern>();
+        StringBuilder combined = new StringBuilder();
+        int combinedCount = 0;
+        for (String pattern : patterns)
+        {
+            Pattern compiled;
+            try
+            {
+                compiled = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
+            }
+            catch (PatternSyntaxException e)
+            {
+                log.warn("Ignoring invalid User-Agent pattern " + pattern + ": " + e.getDescription());
+                continue;
+            }
+
+            String literal = isPlain(pattern) ? pattern.toLowerCase(Locale.ENGLISH) : getRequiredLiteral(pattern);
+            if (literal == null || literal.length() < MIN_LITERAL)
+            {
+                combined.append((combined.length() == 0) ? "" : "|").append("(?:").append(pattern).append(')');
+                combinedCount++;
+                continue;
+            }
+
+            // add the literal to the trie
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++)
+            {
+                Character c = Character.valueOf(literal.charAt(i));
+                Integer next = gotos.get(state).get(c);
+                if (next == null)
+                {
+                    next = Integer.valueOf(gotos.size());
+                    gotos.add(new TreeMap<Character, Integer>());
+                    ends.add(new ArrayList<Integer>());
+                    gotos.get(state).put(c, next);
+                }
+                state = next.intValue();
+            }
+            ends.get(state).add(Integer.valueOf(verifierList.size()));
+            verifierList.add(isPlain(pattern) ? null : compiled);
+        }
+
+        patternCount = verifierList.size() + combinedCount;
+        verifiers = verifierList.toArray(new Pattern[verifierList.size()]);
+        others = (combined.length() == 0) ? null : Pattern.compile(combined.toString(), Pattern.CASE_INSENSITIVE);
+
+        // freeze the trie, linking each state to the longest proper suffix
+        // that is also in the trie
+        int size = gotos.size();
+        keys = new char[size][];
+        targets = new int[size][];
+        failure = new int[size];
+        outputs = new int[size][];
+        for (int state = 0; state < size; state++)
+        {
+            Map<Character, Integer> edges = gotos.get(state);
+            keys[state] = new char[edges.size()];
+            targets[state] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet())
+            {
+                keys[state][i] = edge.getKey().charValue();
+                targets[state][i] = edge.getValue().intValue();
+                i++;
+            }
+        }
+
+        List<List<Integer>> merged = new ArrayList<List<Integer>>(ends);
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int target : targets[0])
+        {
+            failure[target] = 0;
+            queue.add(Integer.valueOf(target));
+        }
+        while (!queue.isEmpty())
+        {
+            int state = queue.removeFirst().intValue();
+            for (int i = 0; i < keys[state].length; i++)
+            {
+                int target = targets[state][i];
+                int fallback = failure[state];
+                while (fallback != 0 && step(fallback, keys[state][i]) < 0)
+                {
+                    fallback = failure[fallback];
+                }
+                int next = step(fallback, keys[state][i]);
+                failure[target] = (next < 0 || next == target) ? 0 : next;
+
+                List<Integer> out = new ArrayList<Integer>(merged.get(target));
+                out.addAll(merged.get(failure[target]));
+                merged.set(target, out);
+                queue.add(Integer.valueOf(target));
+            }
+        }
+        for (int state = 0; state < size; state++)
+        {
+            List<Integer> out = merged.get(state);
+            outputs[state] = new int[out.size()];
+            for (int i = 0; i < out.size(); i++)
+            {
+                outputs[state][i] = out.get(i).intValue();
+            }
+        }
+
+        recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @return the number of valid patterns
+     */
+    public int getPatternCount()
+    {
+        return patternCount;
+    }
+
+    /**
+     * Check whether an agent matches any pattern.
+     *
+     * @param agent
+     *            the User-Agent header, or null
+     * @return true if a pattern matches
+     */
+    public boolean matches(String agent)
+    {
+        if (agent == null || patternCount == 0)
+        {
+            return false;
+        }
+
+        boolean cacheable = agent.length() <= MAX_CACHED_LENGTH;
+        if (cacheable)
+        {
+            synchronized (recent)
+            {
+                Boolean known = recent.get(agent);
+                if (known != null)
+                {
+                    return known.booleanValue();
+                }
+            }
+        }
+
+        boolean result = match(agent);
+        if (cacheable)
+        {
+            synchronized (recent)
+            {
+                recent.put(agent, Boolean.valueOf(result));
+            }
+        }
+        return result;
+    }
+
+    private boolean match(String agent)
+    {
+        boolean[] tried = null;
+        int state = 0;
+        for (int i = 0; i < agent.length(); i++)
+        {
+            char c = Character.toLowerCase(agent.charAt(i));
+            int next;
+            while ((next = step(state, c)) < 0 && state != 0)
+            {
+                state = failure[state];
+            }
+            state = (next < 0) ? 0 : next;
+
+            for (int pattern : outputs[state])
+            {
+                if (verifiers[pattern] == null)
+                {
+                    return true;
+                }
+                if (tried == null)
+                {
+                    tried = new boolean[verifiers.length];
+                }
+                if (!tried[pattern])
+                {
+                    tried[pattern] = true;
+                    if (verifiers[pattern].matcher(agent).find())
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return others != null && others.matcher(agent).find();
+    }
+
+    /**
+     * @return the state a character leads to, or -1
+     */
+    private int step(int state, char c)
+    {
+        int i = Arrays.binarySearch(keys[state], c);
+        return (i < 0) ? -1 : targets[state][i];
+    }
+
+    /**
+     * @return whether a pattern has no special characters
+     */
+    static boolean isPlain(String pattern)
+    {
+        for (int i = 0; i < pattern.length(); i++)
+        {
+            if ("\\[](){}.*+?^$|".indexOf(pattern.charAt(i)) >= 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the longest literal text every match of a regular expression
+     * contains. Patterns with alternatives, optional groups or special
+     * groups are not analysed.
+     *
+     * @param pattern
+     *            the regular expression
+     * @return the text in lower case, or null
+     */
+    static String getRequiredLiteral(String pattern)
+    {
+        if (pattern.indexOf('|') >= 0 || pattern.indexOf("(?") >= 0)
+        {
+            return null;
+        }
+        for (int i = pattern.indexOf(')'); i >= 0; i = pattern.indexOf(')', i + 1))
+        {
+            if (i + 1 < pattern.length() && "?*{".indexOf(pattern.charAt(i + 1)) >= 0)
+            {
+                // an optional group may hold the only text
+                return null;
+            }
+        }
+
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length())
+        {
+            char c = pattern.charAt(i);
+            int next = i + 1;
+            boolean literal = false;
+            if (c == '\\' && next < pattern.length())
+            {
+                // an escaped character, or a class (\d, \s) or assertion (\b)
+                c = pattern.charAt(next);
+                literal = !Character.isLetterOrDigit(c);
+                next++;
+            }
+            else if (c == '[')
+            {
+                next = skipClass(pattern, i);
+            }
+            else if (c == '{')
+            {
+                next = pattern.indexOf('}', i) + 1;
+                if (next == 0)
+                {
+                    return null;
+                }
+            }
+            else
+            {
+                literal = "().^$?*+".indexOf(c) < 0;
+            }
+
+            // a character followed by ?, * or {0,n} may be missing
+            boolean optional = next < pattern.length() && "?*{".indexOf(pattern.charAt(next)) >= 0;
+            if (literal && !optional)
+            {
+                run.append(c);
+            }
+            else
+            {
+                best = longer(best, run);
+            }
+            i = next;
+        }
+        best = longer(best, run);
+        return (best.length() == 0) ? null : best.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static String longer(String best, StringBuilder run)
+    {
+        String candidate = run.toString();
+        run.setLength(0);
+        return (candidate.length() > best.length()) ? candidate : best;
+    }
+
+    /**
+     * @return the position following a character class
+     */
+    private static int skipClass(String pattern, int start)
+    {
+        int i = start + 1;
+        if (i < pattern.length() && pattern.charAt(i) == '^')
+        {
+            i++;
+        }
+        if (i < pattern.length() && pattern.charAt(i) == ']')
+        {
+            i++;
+        }
+        while (i < pattern.length() && pattern.charAt(i) != ']')
+        {
+            i += (pattern.charAt(i) == '\\') ? 2 : 1;
+        }
+        return i + 1;
+    }
+}
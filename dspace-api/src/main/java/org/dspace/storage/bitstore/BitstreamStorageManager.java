@@ -8,8 +8,10 @@
 package org.dspace.storage.bitstore;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -108,6 +110,13 @@ public class BitstreamStorageManager
 	 */
 	private static final String REGISTERED_FLAG = "-R";
 
+    /** The longest hex checksum the bitstream.checksum column holds */
+    private static final int MAX_CHECKSUM_LENGTH = 64;
+
+    /** Digest algorithm of new bitstreams, from assetstore.checksum.algorithm */
+    private static final String checksumAlgorithm = getChecksumAlgorithm(
+            ConfigurationManager.getProperty("assetstore.checksum.algorithm"));
+
     /* Read in the asset stores from the config. */
     static
     {
@@ -301,17 +310,18 @@ public class BitstreamStorageManager
 
 		GeneralFileOutputStream fos = FileFactory.newFileOutputStream(file);
 
-		// Read through a digest input stream that will work out the MD5
+		// Read through a digest input stream that will work out the checksum,
+		// MD5 unless another algorithm (e.g. SHA-256) is configured
         DigestInputStream dis = null;
-
+        String algorithm = checksumAlgorithm;
         try
         {
-            dis = new DigestInputStream(is, MessageDigest.getInstance("MD5"));
+            dis = new DigestInputStream(is, MessageDigest.getInstance(algorithm));
         }
         // Should never happen
-        catch (NoSuchAlgorithmException nsae)
+        catch (NoSuchAlgorithmException e)
         {
-            log.warn("Caught NoSuchAlgorithmException", nsae);
+            log.warn("Caught NoSuchAlgorithmException", e);
         }
 
         Utils.bufferedCopy(dis, fos);
@@ -324,7 +334,7 @@ public class BitstreamStorageManager
         {
             bitstream.setColumn("checksum", Utils.toHex(dis.getMessageDigest()
                     .digest()));
-            bitstream.setColumn("checksum_algorithm", "MD5");
+            bitstream.setColumn("checksum_algorithm", algorithm);
         }
         
         bitstream.setColumn("deleted", false);
@@ -525,6 +535,58 @@ public class BitstreamStorageManager
 		return (file != null) ? FileFactory.newFileInputStream(file) : null;
     }
 
+    /**
+     * Get the file holding the bits for the bitstream with ID, when it is kept
+     * in an assetstore on local disk. This allows the bits to be sent without
+     * copying them through the Java heap.
+     * 
+     * @param context
+     *            The current context
+     * @param id
+     *            The ID of the bitstream
+     * @exception IOException
+     *                If a problem occurs while determining the file
+     * @exception SQLException
+     *                If a problem occurs accessing the RDBMS
+     * 
+     * @return The file, or null if the bitstream does not exist or is not in
+     *         a local assetstore
+     */
+    public static File retrieveFile(Context context, int id)
+            throws SQLException, IOException
+    {
+        TableRow bitstream = DatabaseManager.find(context, "bitstream", id);
+
+		GeneralFile file = getFile(bitstream);
+
+		return (file instanceof LocalFile) ? new File(file.getPath()) : null;
+    }
+
+    /**
+     * Open a channel on the bits for the bitstream with ID, when it is kept in
+     * an assetstore on local disk.
+     * 
+     * @param context
+     *            The current context
+     * @param id
+     *            The ID of the bitstream
+     * @exception IOException
+     *                If a problem occurs while opening the file
+     * @exception SQLException
+     *                If a problem occurs accessing the RDBMS
+     * 
+     * @return A channel to read the bits from, which the caller must close; or
+     *         null if the bitstream is not in a local assetstore, in which
+     *         case {@link #retrieve} gives its bits
+     */
+    public static FileChannel retrieveChannel(Context context, int id)
+            throws SQLException, IOException
+    {
+        File file = retrieveFile(context, id);
+
+        return (file != null) ? new FileInputStream(file).getChannel() : null;
+    }
+
     /**
      * <p>
      * Remove a bitstream from the asset store. This method does not delete any
@@ -727,6 +789,42 @@ public class BitstreamStorageManager
     // Internal methods
     ////////////////////////////////////////
 
+    /**
+     * Check the configured checksum algorithm. Unknown algorithms, and those
+     * whose hex digest does not fit the checksum column (e.g. SHA-512), are
+     * logged and replaced with MD5.
+     *
+     * @param configured
+     *            the configured algorithm name, or null
+     * @return the algorithm to digest new bitstreams with
+     */
+    static String getChecksumAlgorithm(String configured)
+    {
+        if (configured == null || configured.trim().length() == 0)
+        {
+            return "MD5";
+        }
+
+        String algorithm = configured.trim();
+        try
+        {
+            int length = 2 * MessageDigest.getInstance(algorithm).getDigestLength();
+            if (length > MAX_CHECKSUM_LENGTH)
+            {
+                log.error("Checksum algorithm " + algorithm + " gives " + length
+                        + " hex digits, more than the " + MAX_CHECKSUM_LENGTH
+                        + " the checksum column holds; using MD5");
+                return "MD5";
+            }
+            return algorithm;
+        }
+        catch (NoSuchAlgorithmException nsae)
+        {
+            log.error("Unknown checksum algorithm " + algorithm + ", using MD5", nsae);
+            return "MD5";
+        }
+    }
+
     /**
      * Return true if this file is too recent to be deleted, false otherwise.
      * 
@@ -0,0 +1,123 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The columns of a {@link TableRow}: maps column names to positions in the
+ * row's value array. Indexes are immutable and shared by every row with the
+ * same list of columns, so a row only needs to hold its values.
+ *
+ * @see DatabaseManager#getColumnIndex(String)
+ */
+final class ColumnIndex
+{
+    /** Most column lists for which a shared index is kept */
+    private static final int MAX_SHARED = 1000;
+
+    /** Shared indexes, keyed by the column list they were built from */
+    private static final Map<List<String>, ColumnIndex> shared = new ConcurrentHashMap<List<String>, ColumnIndex>();
+
+    /** Canonicalized column names, by position */
+    private final String[] names;
+
+    /** Position of each column, by canonicalized name and as originally given */
+    private final Map<String, Integer> positions;
+
+    private ColumnIndex(List<String> columns)
+    {
+        List<String> canonicalized = new ArrayList<String>(columns.size());
+        positions = new HashMap<String, Integer>(columns.size() * 4);
+
+        for (String column : columns)
+        {
+            String name = ColumnInfo.canonicalize(column);
+            if (!positions.containsKey(name))
+            {
+                Integer position = Integer.valueOf(canonicalized.size());
+                canonicalized.add(name);
+                positions.put(name, position);
+                if (!positions.containsKey(column))
+                {
+                    positions.put(column, position);
+                }
+            }
+        }
+
+        names = canonicalized.toArray(new String[canonicalized.size()]);
+    }
+
+    /**
+     * Get the index for a list of column names. Duplicate names (ignoring
+     * case) share the position of the first one.
+     *
+     * @param columns
+     *            the column names
+     * @return an index of the columns
+     */
+    static ColumnIndex forColumns(List<String> columns)
+    {
+        ColumnIndex index = shared.get(columns);
+        if (index == null)
+        {
+            List<String> key = new ArrayList<String>(columns);
+            index = new ColumnIndex(key);
+            if (shared.size() < MAX_SHARED)
+            {
+                shared.put(key, index);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * @return the number of columns
+     */
+    int size()
+    {
+        return names.length;
+    }
+
+    /**
+     * @param position
+     *            a column position
+     * @return the canonicalized name of the column at that position
+     */
+    String getName(int position)
+    {
+        return names[position];
+    }
+
+    /**
+     * Find the position of a column.
+     *
+     * @param column
+     *            The column name (case-insensitive)
+     * @return the position of the column, or -1 if there is no such column
+     */
+    int indexOf(String column)
+    {
+        Integer position = positions.get(column);
+        if (position == null)
+        {
+            position = positions.get(ColumnInfo.canonicalize(column));
+            if (position == null)
+            {
+                return -1;
+            }
+        }
+
+        return position.intValue();
+    }
+}
@@ -28,6 +28,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import javax.naming.InitialContext;
@@ -56,6 +57,12 @@ public class DatabaseManager
 
     private static Map<String, String> insertSQL = new HashMap<String, String>();
 
+    /** Inserts with the primary key as a parameter, used by batches */
+    private static Map<String, String> insertWithKeySQL = new ConcurrentHashMap<String, String>();
+
+    /** Updates, keyed by table and the set of changed columns */
+    private static Map<String, String> updateSQL = new ConcurrentHashMap<String, String>();
+
     private static boolean isOracle = false;
     private static boolean isPostgres = false;
 
@@ -98,6 +105,12 @@ public class DatabaseManager
      */
     private static Map<String, Map<String, ColumnInfo>> info = new HashMap<String, Map<String, ColumnInfo>>();
 
+    /**
+     * The column index shared by all rows of a table, built from the column
+     * information. The key is the canonicalized table name.
+     */
+    private static Map<String, ColumnIndex> columnIndexes = new ConcurrentHashMap<String, ColumnIndex>();
+
     /**
      * Protected Constructor to prevent instantiation except by derived classes.
      */
@@ -409,26 +422,34 @@ public class DatabaseManager
             log.debug(sb.toString());
         }
 
-        try
-        {        	
-        	statement = context.getDBConnection().prepareStatement(query);
-        	loadParameters(statement, parameters);
-        	
-        	return statement.executeUpdate();
+        statement = prepareCached(context, query);
+        loadParameters(statement, parameters);
+
+        return statement.executeUpdate();
+    }
+
+    /**
+     * Build the list of parameter markers for an SQL IN clause, for example
+     * <code>?,?,?</code> for a count of three.
+     *
+     * @param count
+     *            the number of parameters, at least one
+     * @return the parameter markers, separated by commas
+     */
+    public static String placeholders(int count)
+    {
+        if (count < 1)
+        {
+            throw new IllegalArgumentException("An IN clause needs at least one parameter");
         }
-        finally
+
+        StringBuilder sb = new StringBuilder(count * 2);
+        sb.append('?');
+        for (int i = 1; i < count; i++)
         {
-            if (statement != null)
-            {
-                try
-                {
-                    statement.close();
-                }
-                catch (SQLException sqle)
-                {
-                }
-            }
+            sb.append(",?");
         }
+        return sb.toString();
     }
 
     /**
@@ -443,7 +464,7 @@ public class DatabaseManager
     public static TableRow create(Context context, String table)
             throws SQLException
     {
-        TableRow row = new TableRow(canonicalize(table), getColumnNames(table));
+        TableRow row = new TableRow(canonicalize(table), getColumnIndex(table));
         insert(context, row);
 
         return row;
@@ -650,7 +671,7 @@ public class DatabaseManager
      */
     public static TableRow row(String table) throws SQLException
     {
-        return new TableRow(canonicalize(table), getColumnNames(table));
+        return new TableRow(canonicalize(table), getColumnIndex(table));
     }
 
     /**
@@ -692,40 +713,61 @@ public class DatabaseManager
      */
     public static int update(Context context, TableRow row) throws SQLException
     {
-        String table = row.getTable();
-
-        StringBuilder sql = new StringBuilder().append("update ").append(table)
-                .append(" set ");
-
         List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
-        ColumnInfo pk = getPrimaryKeyColumnInfo(table);
-        Collection<ColumnInfo> info = getColumnInfo(table);
+        String sql = getUpdateSQL(row.getTable(), row, columns);
 
-        String separator = "";
-        for (ColumnInfo col : info)
+        // Only execute the update if there is anything to update
+        if (sql != null)
         {
-            // Only update this column if it has changed
-            if (!col.isPrimaryKey())
-            {
-                if (row.hasColumnChanged(col.getName()))
-                {
-                    sql.append(separator).append(col.getName()).append(" = ?");
-                    columns.add(col);
-                    separator = ", ";
-                }
-            }
+            return executeUpdate(context, sql, columns, row);
         }
 
-        // Only execute the update if there is anything to update
-        if (columns.size() > 0)
-        {
-            sql.append(" where ").append(pk.getName()).append(" = ?");
-            columns.add(pk);
+        return 1;
+    }
+
+    /**
+     * Start a batch of inserts, updates and deletes of rows in the given
+     * table, sent to the database <code>db.batch.size</code> statements at a
+     * time (100 by default). The batch must be closed when done.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The RDBMS table the rows belong to
+     * @return a new batch
+     * @throws SQLException
+     */
+    public static TableRowBatch beginBatch(Context context, String table) throws SQLException
+    {
+        return beginBatch(context, table, ConfigurationManager.getIntProperty("db.batch.size", 100));
+    }
 
-            return executeUpdate(context.getDBConnection(), sql.toString(), columns, row);
+    /**
+     * Start a batch of inserts, updates and deletes of rows in the given
+     * table. The batch must be closed when done.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The RDBMS table the rows belong to
+     * @param batchSize
+     *            The number of statements sent to the database at a time
+     * @return a new batch
+     * @throws SQLException
+     */
+    public static TableRowBatch beginBatch(Context context, String table, int batchSize) throws SQLException
+    {
+        String ctable = canonicalize(table);
+        if (!DB_SAFE_NAME.matcher(ctable).matches())
+        {
+            throw new IllegalArgumentException("The specified table name is not safe: " + table);
+        }
+        if (getPrimaryKeyColumnInfo(ctable) == null)
+        {
+            throw new IllegalArgumentException("Batches need a table with a primary key: " + table);
         }
 
-        return 1;
+        return new TableRowBatch(context, ctable, batchSize);
     }
 
     /**
@@ -814,6 +856,29 @@ public class DatabaseManager
         return results;
     }
 
+    /**
+     * Return the column index shared by the rows of a table.
+     *
+     * @param table
+     *            The name of the table
+     * @return the columns of the table, in the order of
+     *         {@link #getColumnNames(String)}
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    static ColumnIndex getColumnIndex(String table) throws SQLException
+    {
+        String ctable = canonicalize(table);
+        ColumnIndex index = columnIndexes.get(ctable);
+        if (index == null)
+        {
+            index = ColumnIndex.forColumns(getColumnNames(ctable));
+            columnIndexes.put(ctable, index);
+        }
+
+        return index;
+    }
+
     /**
      * Return the names of all the columns of the ResultSet.
      * 
@@ -1078,10 +1143,10 @@ public class DatabaseManager
         int columns = meta.getColumnCount() + 1;
 
         // If we haven't been passed the column names try to generate them from the metadata / table
-        List<String> columnNames = pColumnNames != null ? pColumnNames :
-                                        ((table == null) ? getColumnNames(meta) : getColumnNames(table));
+        ColumnIndex columnIndex = pColumnNames != null ? ColumnIndex.forColumns(pColumnNames) :
+                                        ((table == null) ? ColumnIndex.forColumns(getColumnNames(meta)) : getColumnIndex(table));
 
-        TableRow row = new TableRow(canonicalize(table), columnNames);
+        TableRow row = new TableRow(canonicalize(table), columnIndex);
 
         // Process the columns in order
         // (This ensures maximum backwards compatibility with
@@ -1250,79 +1315,237 @@ public class DatabaseManager
     }
 
     /**
-     * Execute SQL as a PreparedStatement on Connection. Bind parameters in
-     * columns to the values in the table row before executing.
-     * 
+     * Create a statement cache for a connection.
+     *
      * @param connection
      *            The SQL connection
+     * @return a cache of up to <code>db.statementcache.size</code> statements
+     */
+    public static StatementCache newStatementCache(Connection connection)
+    {
+        return new StatementCache(connection,
+                Math.max(1, ConfigurationManager.getIntProperty("db.statementcache.size", 20)));
+    }
+
+    /**
+     * Get a prepared statement for the given SQL from the statement cache of
+     * the context's connection. The statement must not be closed by the
+     * caller; it is closed when the context frees the connection.
+     *
+     * @param context
+     *            Current DSpace context
      * @param sql
-     *            The query to execute
-     * @param columns
-     *            The columns to bind
-     * @param row
-     *            The row
-     * @return The number of rows affected by the query.
+     *            The SQL
+     * @return an open prepared statement with no parameters set
      * @exception SQLException
      *                If a database error occurs
      */
-    private static void execute(Connection connection, String sql, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    static PreparedStatement prepareCached(Context context, String sql) throws SQLException
     {
-        PreparedStatement statement = null;
+        return context.getStatementCache().prepare(sql);
+    }
 
-        if (log.isDebugEnabled())
+    /**
+     * Allocate a block of primary key values from the sequence of a table.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The name of the RDBMS table
+     * @param count
+     *            The number of values to allocate
+     * @return the new values
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    static int[] allocateIDs(Context context, String table, int count) throws SQLException
+    {
+        if (!DB_SAFE_NAME.matcher(table).matches())
         {
-            log.debug("Running query \"" + sql + "\"");
+            throw new IllegalArgumentException("The specified table name is not safe: " + table);
+        }
+
+        String sql;
+        if (isOracle)
+        {
+            sql = "SELECT " + table + "_seq.nextval FROM dual CONNECT BY level <= ?";
+        }
+        else
+        {
+            sql = "SELECT nextval('" + table + "_seq') FROM generate_series(1, ?)";
         }
 
+        int[] ids = new int[count];
+        int found = 0;
+        ResultSet rs = null;
         try
         {
-            statement = connection.prepareStatement(sql);
-        	loadParameters(statement, columns, row);
-            statement.execute();
+            PreparedStatement statement = prepareCached(context, sql);
+            statement.setInt(1, count);
+            rs = statement.executeQuery();
+            while (found < count && rs.next())
+            {
+                ids[found++] = rs.getInt(1);
+            }
         }
         finally
         {
-            if (statement != null)
+            if (rs != null)
             {
-                try
+                try { rs.close(); } catch (SQLException sqle) { }
+            }
+        }
+
+        if (found < count)
+        {
+            throw new SQLException("Unable to retrieve sequence IDs");
+        }
+
+        return ids;
+    }
+
+    /**
+     * Return SQL inserting a row of the given table with all columns,
+     * including the primary key, as parameters in the order of
+     * {@link #getColumnInfo(String)}.
+     *
+     * @param table
+     *            The name of the RDBMS table
+     * @return the SQL
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    static String getInsertWithKeySQL(String table) throws SQLException
+    {
+        String sql = insertWithKeySQL.get(table);
+        if (sql == null)
+        {
+            Collection<ColumnInfo> info = getColumnInfo(table);
+            StringBuilder sqlBuilder = new StringBuilder().append("INSERT INTO ").append(table).append(" ( ");
+
+            boolean firstColumn = true;
+            for (ColumnInfo col : info)
+            {
+                if (firstColumn)
                 {
-                    statement.close();
+                    sqlBuilder.append(col.getName());
+                    firstColumn = false;
                 }
-                catch (SQLException sqle)
+                else
                 {
+                    sqlBuilder.append(",").append(col.getName());
                 }
             }
+
+            // Watch the syntax
+            sqlBuilder.append(") VALUES ( ").append(placeholders(info.size())).append(")");
+            sql = sqlBuilder.toString();
+            insertWithKeySQL.put(table, sql);
         }
+
+        return sql;
     }
 
-    private static int executeUpdate(Connection connection, String sql, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    /**
+     * Return SQL updating the changed columns of a row, by primary key.
+     *
+     * @param table
+     *            The name of the RDBMS table
+     * @param row
+     *            The row to update
+     * @param columns
+     *            Receives the columns to bind, in parameter order
+     * @return the SQL, or null if no column has changed
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    static String getUpdateSQL(String table, TableRow row, List<ColumnInfo> columns) throws SQLException
     {
-        PreparedStatement statement = null;
+        ColumnInfo pk = getPrimaryKeyColumnInfo(table);
+        Collection<ColumnInfo> info = getColumnInfo(table);
 
-        if (log.isDebugEnabled())
+        // The key records which columns changed, so each combination is built once
+        StringBuilder key = new StringBuilder(table).append(':');
+        for (ColumnInfo col : info)
         {
-            log.debug("Running query \"" + sql + "\"");
+            // Only update this column if it has changed
+            if (!col.isPrimaryKey() && row.hasColumnChanged(col.getName()))
+            {
+                columns.add(col);
+                key.append('1');
+            }
+            else
+            {
+                key.append('0');
+            }
         }
 
-        try
+        if (columns.isEmpty())
         {
-            statement = connection.prepareStatement(sql);
-        	loadParameters(statement, columns, row);
-            return statement.executeUpdate();
+            return null;
         }
-        finally
+
+        String sql = updateSQL.get(key.toString());
+        if (sql == null)
         {
-            if (statement != null)
+            StringBuilder sqlBuilder = new StringBuilder().append("update ").append(table).append(" set ");
+            String separator = "";
+            for (ColumnInfo col : columns)
             {
-                try
-                {
-                    statement.close();
-                }
-                catch (SQLException sqle)
-                {
-                }
+                sqlBuilder.append(separator).append(col.getName()).append(" = ?");
+                separator = ", ";
             }
+            sqlBuilder.append(" where ").append(pk.getName()).append(" = ?");
+            sql = sqlBuilder.toString();
+            updateSQL.put(key.toString(), sql);
+        }
+
+        columns.add(pk);
+        return sql;
+    }
+
+    /**
+     * Execute SQL as a PreparedStatement on Connection. Bind parameters in
+     * columns to the values in the table row before executing.
+     * 
+     * @param context
+     *            Current DSpace context
+     * @param sql
+     *            The query to execute
+     * @param columns
+     *            The columns to bind
+     * @param row
+     *            The row
+     * @return The number of rows affected by the query.
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    private static void execute(Context context, String sql, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    {
+        PreparedStatement statement = null;
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Running query \"" + sql + "\"");
+        }
+
+        statement = prepareCached(context, sql);
+        loadParameters(statement, columns, row);
+        statement.execute();
+    }
+
+    private static int executeUpdate(Context context, String sql, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    {
+        PreparedStatement statement = null;
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Running query \"" + sql + "\"");
         }
+
+        statement = prepareCached(context, sql);
+        loadParameters(statement, columns, row);
+        return statement.executeUpdate();
     }
 
     /**
@@ -1593,7 +1816,7 @@ public class DatabaseManager
 	    }
 	}
 
-    private static void loadParameters(PreparedStatement statement, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    static void loadParameters(PreparedStatement statement, Collection<ColumnInfo> columns, TableRow row) throws SQLException
     {
         int count = 0;
         for (ColumnInfo info : columns)
@@ -1749,7 +1972,7 @@ public class DatabaseManager
         ResultSet rs = null;
         try
         {
-            statement = context.getDBConnection().prepareStatement(sql);
+            statement = prepareCached(context, sql);
         	loadParameters(statement, params, row);
             rs = statement.executeQuery();
             rs.next();
@@ -1767,17 +1990,6 @@ public class DatabaseManager
                 {
                 }
             }
-
-            if (statement != null)
-            {
-                try
-                {
-                    statement.close();
-                }
-                catch (SQLException sqle)
-                {
-                }
-            }
         }
     }
 
@@ -1801,11 +2013,11 @@ public class DatabaseManager
             // SQL function in Postgres, or directly with sequences in Oracle
             if (isOracle)
             {
-                statement = context.getDBConnection().prepareStatement("SELECT " + table + "_seq" + ".nextval FROM dual");
+                statement = prepareCached(context, "SELECT " + table + "_seq" + ".nextval FROM dual");
             }
             else
             {
-                statement = context.getDBConnection().prepareStatement("SELECT getnextid(?) AS result");
+                statement = prepareCached(context, "SELECT getnextid(?) AS result");
                 loadParameters(statement, new Object[] { table });
             }
             rs = statement.executeQuery();
@@ -1818,11 +2030,6 @@ public class DatabaseManager
             {
                 try { rs.close(); } catch (SQLException sqle) { }
             }
-
-            if (statement != null)
-            {
-                try { statement.close(); } catch (SQLException sqle) { }
-            }
         }
 
         if (newID < 0)
@@ -1832,51 +2039,7 @@ public class DatabaseManager
 
         // Set the ID in the table row object
         row.setColumn(getPrimaryKeyColumn(table), newID);
-        Collection<ColumnInfo> info = getColumnInfo(table);
-
-        String sql = insertSQL.get(table);
-        if (sql == null)
-        {
-            StringBuilder sqlBuilder = new StringBuilder().append("INSERT INTO ").append(table).append(" ( ");
-
-            boolean firstColumn = true;
-            for (ColumnInfo col : info)
-            {
-                if (firstColumn)
-                {
-                    sqlBuilder.append(col.getName());
-                    firstColumn = false;
-                }
-                else
-                {
-                    sqlBuilder.append(",").append(col.getName());
-                }
-            }
-
-            sqlBuilder.append(") VALUES ( ");
-
-            // Values to insert
-            firstColumn = true;
-            for (int i = 0; i < info.size(); i++)
-            {
-                if (firstColumn)
-                {
-                    sqlBuilder.append("?");
-                    firstColumn = false;
-                }
-                else
-                {
-                    sqlBuilder.append(",").append("?");
-                }
-            }
-
-            // Watch the syntax
-            sqlBuilder.append(")");
-            sql = sqlBuilder.toString();
-            insertSQL.put(table, sql);
-        }
-
-        execute(context.getDBConnection(), sql, info, row);
+        execute(context, getInsertWithKeySQL(table), getColumnInfo(table), row);
         return newID;
     }
 
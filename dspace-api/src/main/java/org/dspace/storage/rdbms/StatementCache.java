@@ -0,0 +1,114 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Prepared statements of one connection, keyed by their SQL, so that the
+ * statements generated by {@link DatabaseManager} for inserts, updates and
+ * deletes are parsed once per connection rather than once per row. The least
+ * recently used statement is closed when the cache is full.
+ * <P>
+ * Statements handed out by the cache must not be closed by the caller, and any
+ * result set must be closed before the statement is used again.
+ * <P>
+ * The cache belongs to the {@link org.dspace.core.Context} holding the
+ * connection, which closes it before the connection goes back to the pool.
+ *
+ * @see org.dspace.core.Context#getStatementCache()
+ */
+public final class StatementCache
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(StatementCache.class);
+
+    private final Connection connection;
+
+    private final Map<String, PreparedStatement> statements;
+
+    /**
+     * @param connection
+     *            the connection statements are prepared on
+     * @param maxSize
+     *            the number of statements to keep open
+     */
+    StatementCache(Connection connection, final int maxSize)
+    {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+            {
+                if (size() > maxSize)
+                {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a statement for the given SQL, preparing it if necessary. Parameters
+     * left over from a previous use are cleared.
+     *
+     * @param sql
+     *            the SQL
+     * @return an open prepared statement
+     * @throws SQLException
+     */
+    PreparedStatement prepare(String sql) throws SQLException
+    {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null)
+        {
+            statement.clearParameters();
+            return statement;
+        }
+
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    /**
+     * Close all statements.
+     */
+    public void close()
+    {
+        for (PreparedStatement statement : statements.values())
+        {
+            closeQuietly(statement);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement)
+    {
+        if (statement != null)
+        {
+            try
+            {
+                statement.close();
+            }
+            catch (SQLException e)
+            {
+                log.debug("Error closing cached statement", e);
+            }
+        }
+    }
+}
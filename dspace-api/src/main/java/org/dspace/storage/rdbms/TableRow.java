@@ -7,10 +7,9 @@
  */
 package org.dspace.storage.rdbms;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Represents a database row.
@@ -26,14 +25,18 @@ public class TableRow
     /** The name of the database table containing this row */
     private String table;
 
+    /** The columns of this row, shared with other rows of the same shape */
+    private final ColumnIndex columns;
+
     /**
-     * A map of column names to column values. The key of the map is a String,
-     * the column name; the value is an Object, either an Integer, Boolean,
-     * Date, or String. If the value is NULL_OBJECT, then the column was NULL.
+     * The column values, by position in <code>columns</code>. Each value is
+     * an Object, either an Integer, Long, Double, Boolean, Date, or String. If
+     * the value is NULL_OBJECT, then the column was NULL.
      */
-    private Map<String, Object> data = new HashMap<String, Object>();
+    private final Object[] data;
 
-    private Map<String, Boolean> changed = new HashMap<String, Boolean>();
+    /** The positions of the columns that have changed */
+    private final BitSet changed;
 
     /**
      * Constructor
@@ -47,15 +50,42 @@ public class TableRow
      *            IllegalArgumentException to be thrown.
      */
     public TableRow(String table, List<String> columns)
+    {
+        this(table, ColumnIndex.forColumns(columns));
+    }
+
+    /**
+     * Constructor for a row with all columns NULL and changed.
+     *
+     * @param table
+     *            The name of the database table containing this row.
+     * @param columns
+     *            The columns of the row.
+     */
+    TableRow(String table, ColumnIndex columns)
     {
         this.table = table;
+        this.columns = columns;
+        this.data = new Object[columns.size()];
+        this.changed = new BitSet(columns.size());
 
-        for (String column : columns)
-        {
-            String canonicalized = ColumnInfo.canonicalize(column);
-            data.put(canonicalized, NULL_OBJECT);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        Arrays.fill(data, NULL_OBJECT);
+        changed.set(0, columns.size());
+    }
+
+    /**
+     * Copy constructor. The copy has the same table, columns and values as
+     * <code>row</code>, and no columns are marked as changed.
+     *
+     * @param row
+     *            the row to copy
+     */
+    public TableRow(TableRow row)
+    {
+        this.table = row.table;
+        this.columns = row.columns;
+        this.data = row.data.clone();
+        this.changed = new BitSet(data.length);
     }
 
     /**
@@ -82,14 +112,7 @@ public class TableRow
      */
     public boolean hasColumn(String column)
     {
-        try
-        {
-            return canonicalizeAndCheck(column) != null;
-        }
-        catch (IllegalArgumentException e)
-        {
-            return false;
-        }
+        return columns.indexOf(column) >= 0;
     }
 
     /**
@@ -101,12 +124,8 @@ public class TableRow
      */
     public boolean hasColumnChanged(String column)
     {
-        return hasColumnChangedCanonicalized(ColumnInfo.canonicalize(column));
-    }
-
-    boolean hasColumnChangedCanonicalized(String column)
-    {
-        return changed.get(column) == Boolean.TRUE;
+        int position = columns.indexOf(column);
+        return position >= 0 && changed.get(position);
     }
 
     /**
@@ -118,12 +137,7 @@ public class TableRow
      */
     public boolean isColumnNull(String column)
     {
-        return isColumnNullCanonicalized(canonicalizeAndCheck(column));
-    }
-
-    boolean isColumnNullCanonicalized(String column)
-    {
-        return data.get(column) == NULL_OBJECT;
+        return data[indexOfAndCheck(column)] == NULL_OBJECT;
     }
 
     /**
@@ -139,19 +153,12 @@ public class TableRow
      */
     public int getIntColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
+        Object value = data[indexOfAndCheck(column)];
+        if (value == NULL_OBJECT)
         {
             return -1;
         }
 
-        Object value = data.get(canonicalized);
-
-        if (value == null)
-        {
-            throw new IllegalArgumentException("Column " + column + " not present");
-        }
-
         if (!(value instanceof Integer))
         {
             throw new IllegalArgumentException("Value for " + column + " is not an integer");
@@ -172,19 +179,12 @@ public class TableRow
      */
     public long getLongColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
+        Object value = data[indexOfAndCheck(column)];
+        if (value == NULL_OBJECT)
         {
             return -1;
         }
 
-        Object value = data.get(canonicalized);
-
-        if (value == null)
-        {
-            throw new IllegalArgumentException("Column " + column + " not present");
-        }
-
         // If the value is an integer, it can be represented without error as a long
         // So, allow the return of a long. (This is needed for Oracle support).
         if ((value instanceof Integer))
@@ -212,19 +212,12 @@ public class TableRow
      */
     public double getDoubleColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
+        Object value = data[indexOfAndCheck(column)];
+        if (value == NULL_OBJECT)
         {
             return -1;
         }
 
-        Object value = data.get(canonicalized);
-
-        if (value == null)
-        {
-            throw new IllegalArgumentException("Column " + column + " not present");
-        }
-        
         if (!(value instanceof Double))
         {
             throw new IllegalArgumentException("Value for " + column + " is not a double");
@@ -246,19 +239,12 @@ public class TableRow
      */
     public String getStringColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
+        Object value = data[indexOfAndCheck(column)];
+        if (value == NULL_OBJECT)
         {
             return null;
         }
 
-        Object value = data.get(canonicalized);
-
-        if (value == null)
-        {
-            throw new IllegalArgumentException("Column " + column + " not present");
-        }
-
         if (!(value instanceof String))
         {
             throw new IllegalArgumentException("Value is not an string");
@@ -280,20 +266,13 @@ public class TableRow
      */
     public boolean getBooleanColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
+        Object value = data[indexOfAndCheck(column)];
+        if (value == NULL_OBJECT)
         {
             return false;
         }
 
-        Object value = data.get(canonicalized);
-
         // make sure that we tolerate integers or booleans
-        if (value == null)
-        {
-            throw new IllegalArgumentException("Column " + column + " not present");
-        }
-
         if ((value instanceof Boolean))
         {
             return ((Boolean) value).booleanValue();
@@ -328,19 +307,12 @@ public class TableRow
      */
     public java.util.Date getDateColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
+        Object value = data[indexOfAndCheck(column)];
+        if (value == NULL_OBJECT)
         {
             return null;
         }
 
-        Object value = data.get(canonicalized);
-
-        if (value == null)
-        {
-            throw new IllegalArgumentException("Column " + column + " not present");
-        }
-
         if (!(value instanceof java.util.Date))
         {
             throw new IllegalArgumentException("Value is not a Date");
@@ -359,11 +331,11 @@ public class TableRow
      */
     public void setColumnNull(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (data.get(canonicalized) != NULL_OBJECT)
+        int position = indexOfAndCheck(column);
+        if (data[position] != NULL_OBJECT)
         {
-            data.put(canonicalized, NULL_OBJECT);
-            changed.put(canonicalized, Boolean.TRUE);
+            data[position] = NULL_OBJECT;
+            changed.set(position);
         }
     }
     /**
@@ -378,25 +350,25 @@ public class TableRow
      */
     public void setColumn(String column, boolean b)
     {
-        String canonicalized = canonicalizeAndCheck(column);
+        int position = indexOfAndCheck(column);
         if (DatabaseManager.isOracle())
         {
             // if oracle, use 1 or 0 for true/false
             Integer value = b ? Integer.valueOf(1) : Integer.valueOf(0);
-            if (!value.equals(data.get(canonicalized)))
+            if (!value.equals(data[position]))
             {
-                data.put(canonicalized, value);
-                changed.put(canonicalized, Boolean.TRUE);
+                data[position] = value;
+                changed.set(position);
             }
         }
         else
         {
             // default to postgres true/false
             Boolean value = b ? Boolean.TRUE : Boolean.FALSE;
-            if (!value.equals(data.get(canonicalized)))
+            if (!value.equals(data[position]))
             {
-                data.put(canonicalized, value);
-                changed.put(canonicalized, Boolean.TRUE);
+                data[position] = value;
+                changed.set(position);
             }
         }
     }
@@ -413,12 +385,12 @@ public class TableRow
      */
     public void setColumn(String column, String s)
     {
-        String canonicalized = canonicalizeAndCheck(column);
+        int position = indexOfAndCheck(column);
         Object value = (s == null) ? NULL_OBJECT : s;
-        if (!value.equals(data.get(canonicalized)))
+        if (!value.equals(data[position]))
         {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
+            data[position] = value;
+            changed.set(position);
         }
     }
 
@@ -434,12 +406,12 @@ public class TableRow
      */
     public void setColumn(String column, int i)
     {
-        String canonicalized = canonicalizeAndCheck(column);
+        int position = indexOfAndCheck(column);
         Integer value = Integer.valueOf(i);
-        if (!value.equals(data.get(canonicalized)))
+        if (!value.equals(data[position]))
         {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
+            data[position] = value;
+            changed.set(position);
         }
     }
 
@@ -455,12 +427,12 @@ public class TableRow
      */
     public void setColumn(String column, long l)
     {
-        String canonicalized = canonicalizeAndCheck(column);
+        int position = indexOfAndCheck(column);
         Long value = Long.valueOf(l);
-        if (!value.equals(data.get(canonicalized)))
+        if (!value.equals(data[position]))
         {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
+            data[position] = value;
+            changed.set(position);
         }
     }
 
@@ -476,12 +448,12 @@ public class TableRow
      */
     public void setColumn(String column, double d)
     {
-        String canonicalized = canonicalizeAndCheck(column);
+        int position = indexOfAndCheck(column);
         Double value = new Double(d);
-        if (!value.equals(data.get(canonicalized)))
+        if (!value.equals(data[position]))
         {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
+            data[position] = value;
+            changed.set(position);
         }
     }
 
@@ -498,12 +470,12 @@ public class TableRow
      */
     public void setColumn(String column, java.util.Date d)
     {
-        String canonicalized = canonicalizeAndCheck(column);
+        int position = indexOfAndCheck(column);
         Object value = (d == null) ? NULL_OBJECT : d;
-        if (!value.equals(data.get(canonicalized)))
+        if (!value.equals(data[position]))
         {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
+            data[position] = value;
+            changed.set(position);
         }
     }
 
@@ -532,11 +504,10 @@ public class TableRow
     	
     	result.append(NEWLINE);
 
-        for (Iterator iterator = data.keySet().iterator(); iterator.hasNext();)
+        for (int i = 0; i < data.length; i++)
         {
-            String column = (String) iterator.next();
-            result.append("\t").append(column).append(" = ").append(
-                    isColumnNull(column) ? "NULL" : data.get(column)).append(
+            result.append("\t").append(columns.getName(i)).append(" = ").append(
+                    (data[i] == NULL_OBJECT) ? "NULL" : data[i]).append(
                     NEWLINE);
         }
 
@@ -544,13 +515,19 @@ public class TableRow
     }
 
     /**
-     * Return a hash code for this object.
+     * Return a hash code for this object. Like {@link #equals(Object)}, it
+     * depends on the columns and their values, not on the column order.
      * 
      * @return int hash of object
      */
     public int hashCode()
     {
-        return toString().hashCode();
+        int hash = 0;
+        for (int i = 0; i < data.length; i++)
+        {
+            hash += ColumnInfo.canonicalize(columns.getName(i)).hashCode() ^ data[i].hashCode();
+        }
+        return hash;
     }
 
     /**
@@ -566,23 +543,39 @@ public class TableRow
             return false;
         }
 
-        return data.equals(((TableRow) obj).data);
-    }
+        TableRow other = (TableRow) obj;
+        if (columns == other.columns)
+        {
+            return Arrays.equals(data, other.data);
+        }
 
-    private String canonicalizeAndCheck(String column)
-    {
-        if (data.containsKey(column))
+        // Rows with differently ordered columns are equal if they have the same columns and values
+        if (data.length != other.data.length)
         {
-            return column;
+            return false;
         }
 
-        String canonicalized = ColumnInfo.canonicalize(column);
-        if (data.containsKey(canonicalized))
+        for (int i = 0; i < data.length; i++)
         {
-            return canonicalized;
+            int position = other.columns.indexOf(columns.getName(i));
+            if (position < 0 || !data[i].equals(other.data[position]))
+            {
+                return false;
+            }
         }
 
-        throw new IllegalArgumentException("No such column '" + canonicalized + "'");
+        return true;
+    }
+
+    private int indexOfAndCheck(String column)
+    {
+        int position = columns.indexOf(column);
+        if (position < 0)
+        {
+            throw new IllegalArgumentException("No such column '" + ColumnInfo.canonicalize(column) + "'");
+        }
+
+        return position;
     }
 
     /**
@@ -594,9 +587,6 @@ public class TableRow
      */
     void resetChanged()
     {
-        for (String column : changed.keySet())
-        {
-            changed.put(column, Boolean.FALSE);
-        }
+        changed.clear();
     }
 }
@@ -0,0 +1,257 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+
+/**
+ * Groups inserts, updates and deletes of rows in one table into JDBC batches,
+ * so that many rows are written with few round trips to the database.
+ * <P>
+ * Statements are queued as rows are added and sent when
+ * <code>batchSize</code> statements are pending, when the kind of statement
+ * changes (so the order of operations is preserved), and on {@link #flush()}
+ * or {@link #close()}. A batch must always be closed:
+ *
+ * <pre>
+ * TableRowBatch batch = DatabaseManager.beginBatch(context, &quot;group2groupcache&quot;);
+ * try
+ * {
+ *     for (...)
+ *     {
+ *         TableRow row = DatabaseManager.row(&quot;group2groupcache&quot;);
+ *         ...
+ *         batch.insert(row);
+ *     }
+ * }
+ * finally
+ * {
+ *     batch.close();
+ * }
+ * </pre>
+ *
+ * Primary keys of inserted rows are allocated in blocks and set on the row by
+ * {@link #insert(TableRow)}, as {@link DatabaseManager#insert} does. Errors
+ * may only be reported when the batch is sent.
+ *
+ * @see DatabaseManager#beginBatch(Context, String)
+ */
+public class TableRowBatch
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(TableRowBatch.class);
+
+    private final Context context;
+
+    private final String table;
+
+    private final int batchSize;
+
+    /** Statements of this batch, keyed by SQL */
+    private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+    /** SQL of the statement with pending rows, or null */
+    private String pendingSQL = null;
+
+    private PreparedStatement pendingStatement = null;
+
+    private int pendingCount = 0;
+
+    /** Allocated primary keys not yet used */
+    private final List<Integer> freeIDs = new ArrayList<Integer>();
+
+    private int executed = 0;
+
+    /**
+     * Use {@link DatabaseManager#beginBatch(Context, String)}.
+     */
+    TableRowBatch(Context context, String table, int batchSize)
+    {
+        this.context = context;
+        this.table = table;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Queue the insertion of a row. The row's primary key is set immediately.
+     *
+     * @param row
+     *            a row of this batch's table
+     * @throws SQLException
+     */
+    public void insert(TableRow row) throws SQLException
+    {
+        checkTable(row);
+
+        if (freeIDs.isEmpty())
+        {
+            int[] ids = DatabaseManager.allocateIDs(context, table, batchSize);
+            for (int id : ids)
+            {
+                freeIDs.add(Integer.valueOf(id));
+            }
+        }
+
+        row.setColumn(DatabaseManager.getPrimaryKeyColumn(table), freeIDs.remove(0).intValue());
+        add(DatabaseManager.getInsertWithKeySQL(table), DatabaseManager.getColumnInfo(table), row);
+    }
+
+    /**
+     * Queue an update of the changed columns of a row. Rows with different
+     * sets of changed columns need different statements, so batch updates
+     * work best when every row changes the same columns.
+     *
+     * @param row
+     *            a row of this batch's table
+     * @throws SQLException
+     */
+    public void update(TableRow row) throws SQLException
+    {
+        checkTable(row);
+
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
+        String sql = DatabaseManager.getUpdateSQL(table, row, columns);
+        if (sql != null)
+        {
+            add(sql, columns, row);
+        }
+    }
+
+    /**
+     * Queue the deletion of a row by its primary key.
+     *
+     * @param row
+     *            a row of this batch's table
+     * @throws SQLException
+     */
+    public void delete(TableRow row) throws SQLException
+    {
+        checkTable(row);
+
+        ColumnInfo pk = DatabaseManager.getPrimaryKeyColumnInfo(table);
+        if (row.isColumnNull(pk.getCanonicalizedName()))
+        {
+            throw new IllegalArgumentException("Primary key value is null");
+        }
+
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>(1);
+        columns.add(pk);
+        add("delete from " + table + " where " + pk.getName() + " = ?", columns, row);
+    }
+
+    /**
+     * Send all queued statements to the database.
+     *
+     * @throws SQLException
+     */
+    public void flush() throws SQLException
+    {
+        if (pendingCount > 0)
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("Running batch of " + pendingCount + " \"" + pendingSQL + "\"");
+            }
+
+            pendingStatement.executeBatch();
+            executed += pendingCount;
+            pendingCount = 0;
+        }
+    }
+
+    /**
+     * Send all queued statements to the database. Primary keys that were
+     * allocated but not used are simply skipped.
+     *
+     * @throws SQLException
+     */
+    public void close() throws SQLException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            for (PreparedStatement statement : statements.values())
+            {
+                try
+                {
+                    statement.close();
+                }
+                catch (SQLException sqle)
+                {
+                }
+            }
+            statements.clear();
+            pendingSQL = null;
+            pendingStatement = null;
+            freeIDs.clear();
+        }
+    }
+
+    /**
+     * @return the number of statements queued but not yet sent
+     */
+    public int getPendingCount()
+    {
+        return pendingCount;
+    }
+
+    /**
+     * @return the number of statements sent so far
+     */
+    public int getExecutedCount()
+    {
+        return executed;
+    }
+
+    private void add(String sql, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    {
+        if (!sql.equals(pendingSQL))
+        {
+            // Send what is queued first, to keep statements in order
+            flush();
+
+            pendingStatement = statements.get(sql);
+            if (pendingStatement == null)
+            {
+                pendingStatement = context.getDBConnection().prepareStatement(sql);
+                statements.put(sql, pendingStatement);
+            }
+            pendingSQL = sql;
+        }
+
+        DatabaseManager.loadParameters(pendingStatement, columns, row);
+        pendingStatement.addBatch();
+        pendingCount++;
+
+        if (pendingCount >= batchSize)
+        {
+            flush();
+        }
+    }
+
+    private void checkTable(TableRow row)
+    {
+        if (!table.equals(row.getTable()))
+        {
+            throw new IllegalArgumentException("Row of table " + row.getTable()
+                    + " added to a batch for " + table);
+        }
+    }
+}
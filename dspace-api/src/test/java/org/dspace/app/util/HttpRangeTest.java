@@ -0,0 +1,111 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the parsing and writing of byte ranges.
+ */
+public class HttpRangeTest
+{
+    private static byte[] content(int length)
+    {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        return content;
+    }
+
+    /**
+     * Ranges are clamped to the content, sorted and merged.
+     */
+    @Test
+    public void testParse()
+    {
+        List<HttpRange> ranges = HttpRange.parse("bytes=0-499", 1000);
+        assertEquals("testParse 0", 1, ranges.size());
+        assertEquals("testParse 1", "bytes 0-499/1000", ranges.get(0).getContentRange(1000));
+
+        ranges = HttpRange.parse("bytes=-200", 1000);
+        assertEquals("testParse 2", "800-999", ranges.get(0).toString());
+
+        ranges = HttpRange.parse("bytes=900-", 1000);
+        assertEquals("testParse 3", "900-999", ranges.get(0).toString());
+
+        ranges = HttpRange.parse("bytes=500-5000", 1000);
+        assertEquals("testParse 4", 500, ranges.get(0).getLength());
+
+        ranges = HttpRange.parse("bytes=600-699, 0-99, 50-149, 150-199", 1000);
+        assertEquals("testParse 5", "[0-199, 600-699]", ranges.toString());
+
+        // nothing overlaps: 416
+        assertTrue("testParse 6", HttpRange.parse("bytes=1000-1100", 1000).isEmpty());
+
+        // malformed: ignored
+        assertNull("testParse 7", HttpRange.parse(null, 1000));
+        assertNull("testParse 8", HttpRange.parse("items=0-1", 1000));
+        assertNull("testParse 9", HttpRange.parse("bytes=5-1", 1000));
+        assertNull("testParse 10", HttpRange.parse("bytes=a-b", 1000));
+    }
+
+    /**
+     * If-None-Match compares tags weakly, If-Range strongly or by date.
+     */
+    @Test
+    public void testConditions()
+    {
+        String etag = "\"9e107d9d372bb6826bd81d3542a419d6\"";
+        assertTrue("testConditions 0", HttpRange.matchesAny(etag, etag));
+        assertTrue("testConditions 1", HttpRange.matchesAny("\"x\", W/" + etag, etag));
+        assertTrue("testConditions 2", HttpRange.matchesAny("*", etag));
+        assertFalse("testConditions 3", HttpRange.matchesAny("\"x\"", etag));
+        assertFalse("testConditions 4", HttpRange.matchesAny(etag, null));
+
+        assertTrue("testConditions 5", HttpRange.isRangeValid(null, etag, -1));
+        assertTrue("testConditions 6", HttpRange.isRangeValid(etag, etag, -1));
+        assertFalse("testConditions 7", HttpRange.isRangeValid("W/" + etag, etag, -1));
+        assertFalse("testConditions 8", HttpRange.isRangeValid("\"x\"", etag, -1));
+
+        long modified = 784111777000L;
+        assertTrue("testConditions 9", HttpRange.isRangeValid("Sun, 06 Nov 1994 08:49:37 GMT", etag, modified + 500));
+        assertFalse("testConditions 10", HttpRange.isRangeValid("Sun, 06 Nov 1994 08:49:36 GMT", etag, modified));
+        assertFalse("testConditions 11", HttpRange.isRangeValid("Sun, 06 Nov 1994 08:49:37 GMT", etag, -1));
+    }
+
+    /**
+     * Single and multiple ranges are written as asked, with the length
+     * announced.
+     */
+    @Test
+    public void testWrite() throws IOException
+    {
+        byte[] content = content(100000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpRange.write(new ByteArrayInputStream(content), out, new HttpRange(50000, 50009));
+        assertTrue("testWrite 0", Arrays.equals(Arrays.copyOfRange(content, 50000, 50010), out.toByteArray()));
+
+        List<HttpRange> ranges = HttpRange.parse("bytes=10-19,90000-", 100000);
+        out = new ByteArrayOutputStream();
+        HttpRange.writeMultipart(new ByteArrayInputStream(content), out, ranges, "text/plain", 100000, "XYZ");
+        String body = out.toString("ISO-8859-1");
+        assertEquals("testWrite 1", HttpRange.getMultipartLength(ranges, "text/plain", 100000, "XYZ"), out.size());
+        assertTrue("testWrite 2", body.startsWith("\r\n--XYZ\r\nContent-Type: text/plain\r\n"
+                + "Content-Range: bytes 10-19/100000\r\n\r\nklmnopqrst\r\n--XYZ\r\n"));
+        assertTrue("testWrite 3", body.endsWith("\r\n--XYZ--\r\n"));
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.authorize;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.Constants;
+import org.dspace.eperson.Group;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that filterAuthorized answers the same as authorizeActionBoolean
+ * for every object of a list.
+ */
+public class AuthorizeManagerTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(AuthorizeManagerTest.class);
+
+    /** A day, in milliseconds */
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    /** The eperson administers this community */
+    private Community owned;
+
+    private Collection ownedCollection;
+
+    private Community other;
+
+    private Collection otherCollection;
+
+    /** Readable through a group the eperson is a member of */
+    private Item groupItem;
+
+    /** Readable by the eperson */
+    private Item epersonItem;
+
+    /** Was readable by the eperson until yesterday */
+    private Item expiredItem;
+
+    /** Readable by the eperson from tomorrow */
+    private Item embargoedItem;
+
+    /** Readable by anonymous users */
+    private Item anonymousItem;
+
+    /** Readable by no-one but administrators */
+    private Item deniedItem;
+
+    /** Readable by the eperson as an administrator of its community */
+    private Item inheritedItem;
+
+    /**
+     * The objects to check: nulls, duplicates and several types, in no
+     * particular order
+     */
+    private List<DSpaceObject> objects;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            owned = Community.create(null, context);
+            AuthorizeManager.addPolicy(context, owned, Constants.ADMIN, eperson);
+            ownedCollection = owned.createCollection();
+            other = Community.create(null, context);
+            otherCollection = other.createCollection();
+
+            Group group = Group.create(context);
+            group.addMember(eperson);
+            group.update();
+
+            groupItem = install(otherCollection);
+            AuthorizeManager.addPolicy(context, groupItem, Constants.READ, group);
+            epersonItem = install(otherCollection);
+            AuthorizeManager.addPolicy(context, epersonItem, Constants.READ, eperson);
+            expiredItem = install(otherCollection);
+            addPolicy(expiredItem, null, new Date(System.currentTimeMillis() - DAY));
+            embargoedItem = install(otherCollection);
+            addPolicy(embargoedItem, new Date(System.currentTimeMillis() + DAY), null);
+            anonymousItem = install(otherCollection);
+            AuthorizeManager.addPolicy(context, anonymousItem, Constants.READ, Group.find(context, 0));
+            deniedItem = install(otherCollection);
+            inheritedItem = install(ownedCollection);
+
+            objects = Arrays.asList(groupItem, null, epersonItem, owned, expiredItem, embargoedItem,
+                    otherCollection, anonymousItem, deniedItem, groupItem, inheritedItem, other,
+                    ownedCollection, null, inheritedItem, deniedItem);
+            context.restoreAuthSystemState();
+        }
+        catch (AuthorizeException ex)
+        {
+            log.error("Authorization Error in init", ex);
+            fail("Authorization Error in init");
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in init", ex);
+            fail("SQL Error in init");
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        owned = null;
+        ownedCollection = null;
+        other = null;
+        otherCollection = null;
+        groupItem = null;
+        epersonItem = null;
+        expiredItem = null;
+        embargoedItem = null;
+        anonymousItem = null;
+        deniedItem = null;
+        inheritedItem = null;
+        objects = null;
+        super.destroy();
+    }
+
+    /**
+     * Test of filterAuthorized method, of class AuthorizeManager, for a
+     * logged in user.
+     */
+    @Test
+    public void testFilterAuthorized() throws Exception
+    {
+        BitSet read = assertSameAsAuthorizeActionBoolean("testFilterAuthorized", Constants.READ);
+        assertTrue("testFilterAuthorized 0", read.get(objects.indexOf(groupItem)));
+        assertTrue("testFilterAuthorized 1", read.get(objects.indexOf(epersonItem)));
+        assertFalse("testFilterAuthorized 2", read.get(objects.indexOf(expiredItem)));
+        assertFalse("testFilterAuthorized 3", read.get(objects.indexOf(embargoedItem)));
+        assertTrue("testFilterAuthorized 4", read.get(objects.indexOf(anonymousItem)));
+        assertFalse("testFilterAuthorized 5", read.get(objects.indexOf(deniedItem)));
+        assertTrue("testFilterAuthorized 6", read.get(objects.indexOf(inheritedItem)));
+        assertFalse("testFilterAuthorized 7", read.get(objects.indexOf(null)));
+
+        BitSet write = assertSameAsAuthorizeActionBoolean("testFilterAuthorized", Constants.WRITE);
+        assertTrue("testFilterAuthorized 8", write.get(objects.indexOf(inheritedItem)));
+        assertTrue("testFilterAuthorized 9", write.get(objects.indexOf(ownedCollection)));
+        assertFalse("testFilterAuthorized 10", write.get(objects.indexOf(epersonItem)));
+    }
+
+    /**
+     * Test of filterAuthorized method, of class AuthorizeManager, for an
+     * anonymous user.
+     */
+    @Test
+    public void testFilterAuthorizedAnonymous() throws Exception
+    {
+        context.setCurrentUser(null);
+
+        BitSet read = assertSameAsAuthorizeActionBoolean("testFilterAuthorizedAnonymous", Constants.READ);
+        assertTrue("testFilterAuthorizedAnonymous 0", read.get(objects.indexOf(anonymousItem)));
+        assertFalse("testFilterAuthorizedAnonymous 1", read.get(objects.indexOf(epersonItem)));
+        assertFalse("testFilterAuthorizedAnonymous 2", read.get(objects.indexOf(groupItem)));
+        assertFalse("testFilterAuthorizedAnonymous 3", read.get(objects.indexOf(inheritedItem)));
+
+        assertSameAsAuthorizeActionBoolean("testFilterAuthorizedAnonymous", Constants.WRITE);
+    }
+
+    /**
+     * Test of filterAuthorized method, of class AuthorizeManager, with
+     * authorization turned off.
+     */
+    @Test
+    public void testFilterAuthorizedIgnoreAuthorization() throws Exception
+    {
+        context.setCurrentUser(null);
+        context.turnOffAuthorisationSystem();
+
+        BitSet read = assertSameAsAuthorizeActionBoolean("testFilterAuthorizedIgnoreAuthorization",
+                Constants.READ);
+        assertTrue("testFilterAuthorizedIgnoreAuthorization 0", read.get(objects.indexOf(deniedItem)));
+        assertFalse("testFilterAuthorizedIgnoreAuthorization 1", read.get(objects.indexOf(null)));
+
+        context.restoreAuthSystemState();
+    }
+
+    /**
+     * Compare filterAuthorized with authorizeActionBoolean for every object,
+     * once with nothing cached and once with the answers cached by the
+     * other method.
+     *
+     * @return the objects filterAuthorized found the action authorized on
+     */
+    private BitSet assertSameAsAuthorizeActionBoolean(String message, int action) throws SQLException
+    {
+        context.getAuthorizationCache().clear();
+        BitSet filtered = AuthorizeManager.filterAuthorized(context, objects, action);
+
+        context.getAuthorizationCache().clear();
+        for (int i = 0; i < objects.size(); i++)
+        {
+            assertEquals(message + " action " + action + " object " + i,
+                    AuthorizeManager.authorizeActionBoolean(context, objects.get(i), action), filtered.get(i));
+        }
+
+        assertEquals(message + " action " + action + " cached", filtered,
+                AuthorizeManager.filterAuthorized(context, objects, action));
+        return filtered;
+    }
+
+    /**
+     * Install an empty item without any policies.
+     */
+    private Item install(Collection collection) throws Exception
+    {
+        WorkspaceItem wsi = WorkspaceItem.create(context, collection, false);
+        Item item = InstallItem.installItem(context, wsi);
+        AuthorizeManager.removeAllPolicies(context, item);
+        return item;
+    }
+
+    /**
+     * Let the eperson read an item between two dates.
+     */
+    private void addPolicy(Item item, Date start, Date end) throws SQLException, AuthorizeException
+    {
+        ResourcePolicy rp = ResourcePolicy.create(context);
+        rp.setResource(item);
+        rp.setAction(Constants.READ);
+        rp.setEPerson(eperson);
+        rp.setStartDate(start);
+        rp.setEndDate(end);
+        rp.update();
+    }
+}
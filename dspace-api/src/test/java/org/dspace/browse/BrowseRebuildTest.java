@@ -0,0 +1,66 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests how an online browse index rebuild splits the items into ranges,
+ * and which of them it loads again when resumed.
+ */
+public class BrowseRebuildTest
+{
+    /**
+     * A new rebuild loads every range up to the highest item id.
+     */
+    @Test
+    public void testAllRanges()
+    {
+        List<Integer> ranges = BrowseRebuild.pendingRanges(2500, 1000, Collections.<Integer>emptySet());
+        assertEquals(Arrays.asList(0, 1000, 2000), ranges);
+    }
+
+    /**
+     * The highest item id starting a range is in that range.
+     */
+    @Test
+    public void testHighOnBoundary()
+    {
+        List<Integer> ranges = BrowseRebuild.pendingRanges(2000, 1000, Collections.<Integer>emptySet());
+        assertEquals(Arrays.asList(0, 1000, 2000), ranges);
+    }
+
+    /**
+     * A resumed rebuild skips the ranges it loaded, and loads those it had
+     * not, including ranges for items created since it was interrupted.
+     */
+    @Test
+    public void testResume()
+    {
+        Set<Integer> loaded = new HashSet<Integer>(Arrays.asList(0, 2000));
+        List<Integer> ranges = BrowseRebuild.pendingRanges(4100, 1000, loaded);
+        assertEquals(Arrays.asList(1000, 3000, 4000), ranges);
+    }
+
+    /**
+     * Nothing is left once every range is loaded.
+     */
+    @Test
+    public void testResumeDone()
+    {
+        Set<Integer> loaded = new HashSet<Integer>(Arrays.asList(0, 1000));
+        assertTrue(BrowseRebuild.pendingRanges(1999, 1000, loaded).isEmpty());
+    }
+}
@@ -0,0 +1,321 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.sort.OrderFormat;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the batched browse index updates of IndexBrowse and
+ * BrowseCreateBatch against the test database.
+ */
+public class IndexBrowseTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(IndexBrowseTest.class);
+
+    /**
+     * Author names, unique to each test: the browse tables are committed and
+     * shared by all the tests
+     */
+    private String kept;
+
+    private String stale;
+
+    private String reinstated;
+
+    private Community parent;
+
+    private Community child;
+
+    /** An archived item */
+    private Item archived;
+
+    /** A withdrawn, discoverable item */
+    private Item withdrawn;
+
+    /** A withdrawn item that isn't discoverable */
+    private Item privateItem;
+
+    /** An item still in the workspace */
+    private Item workspace;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            parent = Community.create(null, context);
+            child = parent.createSubcommunity();
+            Collection collection = child.createCollection();
+            kept = "IndexBrowseTest " + parent.getID() + ", Kept";
+            stale = "IndexBrowseTest " + parent.getID() + ", Stale";
+            reinstated = "IndexBrowseTest " + parent.getID() + ", Reinstated";
+
+            archived = install(collection, "The archived item", kept, stale);
+            withdrawn = install(collection, "The withdrawn item", reinstated);
+            withdrawn.withdraw();
+            privateItem = install(collection, "The private item", kept);
+            privateItem.setDiscoverable(false);
+            privateItem.withdraw();
+
+            WorkspaceItem wsi = WorkspaceItem.create(context, collection, false);
+            workspace = wsi.getItem();
+            workspace.addMetadata("dc", "title", null, null, "The workspace item");
+            workspace.addMetadata("dc", "contributor", "author", null, kept);
+            workspace.update();
+
+            // the browse DAO works in its own context, so it only sees
+            // committed changes
+            context.commit();
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        context.restoreAuthSystemState();
+        parent = null;
+        child = null;
+        archived = null;
+        withdrawn = null;
+        privateItem = null;
+        workspace = null;
+        super.destroy();
+    }
+
+    /**
+     * Test of indexItems method, of class IndexBrowse: each item lands in
+     * the one item index matching its state, and only archived items get
+     * distinct values and community mappings.
+     */
+    @Test
+    public void testIndexItems() throws Exception
+    {
+        IndexBrowse ib = new IndexBrowse(context);
+        ib.indexItems(Arrays.asList(archived, withdrawn, privateItem, workspace));
+
+        String items = BrowseIndex.getItemBrowseIndex().getTableName();
+        String withdrawnItems = BrowseIndex.getWithdrawnBrowseIndex().getTableName();
+        String privateItems = BrowseIndex.getPrivateBrowseIndex().getTableName();
+
+        assertTrue("testIndexItems 0", inTable(items, archived));
+        assertFalse("testIndexItems 1", inTable(withdrawnItems, archived));
+        assertFalse("testIndexItems 2", inTable(privateItems, archived));
+        assertFalse("testIndexItems 3", inTable(items, withdrawn));
+        assertTrue("testIndexItems 4", inTable(withdrawnItems, withdrawn));
+        assertFalse("testIndexItems 5", inTable(privateItems, withdrawn));
+        assertFalse("testIndexItems 6", inTable(items, privateItem));
+        assertFalse("testIndexItems 7", inTable(withdrawnItems, privateItem));
+        assertTrue("testIndexItems 8", inTable(privateItems, privateItem));
+        assertFalse("testIndexItems 9", inTable(items, workspace));
+        assertFalse("testIndexItems 10", inTable(withdrawnItems, workspace));
+        assertFalse("testIndexItems 11", inTable(privateItems, workspace));
+
+        assertEquals("testIndexItems 12", OrderFormat.makeSortString("The archived item", null, OrderFormat.TITLE),
+                sortValue(items, archived, 1));
+
+        BrowseIndex authors = BrowseIndex.getBrowseIndex("author");
+        assertEquals("testIndexItems 13", set(kept, stale), distinctValues(authors, archived));
+        assertEquals("testIndexItems 14", set(), distinctValues(authors, withdrawn));
+        assertEquals("testIndexItems 15", set(), distinctValues(authors, privateItem));
+        assertEquals("testIndexItems 16", set(), distinctValues(authors, workspace));
+        assertEquals("testIndexItems 17", 0, countDistinct(authors, reinstated));
+
+        assertEquals("testIndexItems 18", set(parent.getID(), child.getID()), communities(archived));
+        assertEquals("testIndexItems 19", set(), communities(withdrawn));
+        assertEquals("testIndexItems 20", set(), communities(privateItem));
+        assertEquals("testIndexItems 21", set(), communities(workspace));
+    }
+
+    /**
+     * Test of indexItems method, of class IndexBrowse: reindexing changed
+     * items removes their stale rows and the distinct values no longer used.
+     */
+    @Test
+    public void testReindexItems() throws Exception
+    {
+        IndexBrowse ib = new IndexBrowse(context);
+        ib.indexItems(Arrays.asList(archived, withdrawn, privateItem, workspace));
+
+        archived.clearMetadata("dc", "title", null, Item.ANY);
+        archived.addMetadata("dc", "title", null, null, "A retitled item");
+        archived.clearMetadata("dc", "contributor", "author", Item.ANY);
+        archived.addMetadata("dc", "contributor", "author", null, kept);
+        archived.update();
+        withdrawn.reinstate();
+        context.commit();
+        ib.indexItems(Arrays.asList(archived, withdrawn, privateItem, workspace));
+
+        String items = BrowseIndex.getItemBrowseIndex().getTableName();
+        String withdrawnItems = BrowseIndex.getWithdrawnBrowseIndex().getTableName();
+
+        assertEquals("testReindexItems 0", OrderFormat.makeSortString("A retitled item", null, OrderFormat.TITLE),
+                sortValue(items, archived, 1));
+        assertTrue("testReindexItems 1", inTable(items, withdrawn));
+        assertFalse("testReindexItems 2", inTable(withdrawnItems, withdrawn));
+
+        BrowseIndex authors = BrowseIndex.getBrowseIndex("author");
+        assertEquals("testReindexItems 3", set(kept), distinctValues(authors, archived));
+        assertEquals("testReindexItems 4", set(reinstated), distinctValues(authors, withdrawn));
+        assertEquals("testReindexItems 5", 0, countDistinct(authors, stale));
+        assertEquals("testReindexItems 6", 1, countDistinct(authors, kept));
+
+        assertEquals("testReindexItems 7", set(parent.getID(), child.getID()), communities(withdrawn));
+
+        // withdrawing the archived item takes it out of bi_item, the distinct
+        // map and the community mappings again
+        archived.withdraw();
+        context.commit();
+        ib.indexItems(Arrays.asList(archived));
+
+        assertFalse("testReindexItems 8", inTable(items, archived));
+        assertTrue("testReindexItems 9", inTable(withdrawnItems, archived));
+        assertEquals("testReindexItems 10", set(), distinctValues(authors, archived));
+        assertEquals("testReindexItems 11", set(), communities(archived));
+    }
+
+    /**
+     * Test of deleteByItemIDs and deleteCommunityMappings methods, of the
+     * BrowseCreateDAO.
+     */
+    @Test
+    public void testDeleteByItemIDs() throws Exception
+    {
+        IndexBrowse ib = new IndexBrowse(context);
+        ib.indexItems(Arrays.asList(archived, withdrawn));
+
+        BrowseCreateDAO dao = BrowseDAOFactory.getCreateInstance(context);
+        String items = BrowseIndex.getItemBrowseIndex().getTableName();
+        String withdrawnItems = BrowseIndex.getWithdrawnBrowseIndex().getTableName();
+        dao.deleteByItemIDs(items, Arrays.asList(archived.getID(), withdrawn.getID()));
+        dao.deleteByItemIDs(withdrawnItems, Arrays.asList(archived.getID(), withdrawn.getID()));
+        dao.deleteCommunityMappings(Arrays.asList(archived.getID()));
+
+        assertFalse("testDeleteByItemIDs 0", inTable(items, archived));
+        assertFalse("testDeleteByItemIDs 1", inTable(withdrawnItems, withdrawn));
+        assertEquals("testDeleteByItemIDs 2", set(), communities(archived));
+    }
+
+    private Item install(Collection collection, String title, String... authors) throws Exception
+    {
+        WorkspaceItem wsi = WorkspaceItem.create(context, collection, false);
+        Item item = wsi.getItem();
+        item.addMetadata("dc", "title", null, null, title);
+        for (String author : authors)
+        {
+            item.addMetadata("dc", "contributor", "author", null, author);
+        }
+        item.update();
+        return InstallItem.installItem(context, wsi);
+    }
+
+    private boolean inTable(String table, Item item) throws SQLException
+    {
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT COUNT(*) AS num FROM " + table + " WHERE item_id = ?", item.getID());
+        return row.getLongColumn("num") > 0;
+    }
+
+    private String sortValue(String table, Item item, int column) throws SQLException
+    {
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT sort_" + column + " AS sort_value FROM " + table + " WHERE item_id = ?", item.getID());
+        return row == null ? null : row.getStringColumn("sort_value");
+    }
+
+    private Set<String> distinctValues(BrowseIndex bi, Item item) throws SQLException
+    {
+        Set<String> values = new HashSet<String>();
+        TableRowIterator tri = DatabaseManager.query(context, "SELECT d.value AS value FROM "
+                + bi.getDistinctTableName() + " d, " + bi.getMapTableName()
+                + " m WHERE m.distinct_id = d.id AND m.item_id = ?", item.getID());
+        try
+        {
+            while (tri.hasNext())
+            {
+                values.add(tri.next().getStringColumn("value"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return values;
+    }
+
+    private long countDistinct(BrowseIndex bi, String value) throws SQLException
+    {
+        TableRow row = DatabaseManager.querySingle(context, "SELECT COUNT(*) AS num FROM "
+                + bi.getDistinctTableName() + " WHERE value = ?", value);
+        return row.getLongColumn("num");
+    }
+
+    private Set<Integer> communities(Item item) throws SQLException
+    {
+        Set<Integer> ids = new HashSet<Integer>();
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT community_id FROM Communities2Item WHERE item_id = ?", item.getID());
+        try
+        {
+            while (tri.hasNext())
+            {
+                ids.add(tri.next().getIntColumn("community_id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return ids;
+    }
+
+    private static <T> Set<T> set(T... values)
+    {
+        return new HashSet<T>(Arrays.asList(values));
+    }
+}
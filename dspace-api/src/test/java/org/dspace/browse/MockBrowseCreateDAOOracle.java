@@ -10,6 +10,7 @@ package org.dspace.browse;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -490,6 +491,95 @@ public class MockBrowseCreateDAOOracle
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#deleteByItemIDs(java.lang.String, java.util.Collection)
+     */
+    @Mock
+    public void deleteByItemIDs(String table, Collection<Integer> itemIDs) throws BrowseException
+    {
+        try
+        {
+            checkContext();
+            new BrowseCreateBatch(internalContext, utils).deleteByItemIDs(table, itemIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+        finally
+        {
+            cleanContext();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#updateCommunityMappings(java.util.Collection)
+     */
+    @Mock
+    public void updateCommunityMappings(Collection<Integer> itemIDs) throws BrowseException
+    {
+        try
+        {
+            checkContext();
+            new BrowseCreateBatch(internalContext, utils).updateCommunityMappings(itemIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+        finally
+        {
+            cleanContext();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#updateIndex(java.lang.String, java.util.Map)
+     */
+    @Mock
+    public void updateIndex(String table, Map<Integer, Map<Integer, String>> sortValues) throws BrowseException
+    {
+        try
+        {
+            checkContext();
+            new BrowseCreateBatch(internalContext, utils).updateIndex(table, sortValues);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+        finally
+        {
+            cleanContext();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#updateDistinctMappings(java.lang.String, java.util.Map)
+     */
+    @Mock
+    public List<Integer> updateDistinctMappings(String table, Map<Integer, Set<Integer>> distinctIDs) throws BrowseException
+    {
+        try
+        {
+            checkContext();
+            return new BrowseCreateBatch(internalContext, utils).updateDistinctMappings(table, distinctIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            String msg = "problem updating distinct mappings: table=" + table;
+            throw new BrowseException(msg, e);
+        }
+        finally
+        {
+            cleanContext();
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#dropIndexAndRelated(java.lang.String, boolean)
      */
@@ -596,7 +686,6 @@ public class MockBrowseCreateDAOOracle
 
         try
         {
-            checkContext();
             Object[] params;
             String select = "SELECT id FROM " + table;
 
@@ -626,6 +715,8 @@ public class MockBrowseCreateDAOOracle
                 params = new Object[]{ value };
             }
 
+            // isValueColumnClob() cleans the context, so check it afterwards
+            checkContext();
             tri = DatabaseManager.query(internalContext, select, params);
             int distinctID = -1;
             if (!tri.hasNext())
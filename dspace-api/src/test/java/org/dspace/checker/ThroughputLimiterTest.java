@@ -0,0 +1,75 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.checker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the checker's read rate limit.
+ */
+public class ThroughputLimiterTest
+{
+    /**
+     * Threads sharing a limiter together read no faster than its rate.
+     */
+    @Test
+    public void testSharedRate() throws Exception
+    {
+        final ThroughputLimiter limiter = new ThroughputLimiter(10 * 1024 * 1024);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++)
+        {
+            threads.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int j = 0; j < 4; j++)
+                        {
+                            limiter.acquire(128 * 1024);
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        long start = System.currentTimeMillis();
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 2 MB at 10 MB/s, less the first read which goes at once
+        assertTrue("testSharedRate 0", elapsed >= 180);
+        assertTrue("testSharedRate 1", elapsed < 2000);
+    }
+
+    /**
+     * A rate must be given.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRate()
+    {
+        new ThroughputLimiter(0);
+    }
+}
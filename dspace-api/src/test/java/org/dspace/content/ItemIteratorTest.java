@@ -43,6 +43,11 @@ public class ItemIteratorTest extends AbstractUnitTest
     private ItemIterator iitnone;
 
 
+    /**
+     * IDs of the items in the test
+     */
+    private ArrayList<Integer> ids;
+
     /**
      * Number of items in the test
      */
@@ -78,6 +83,7 @@ public class ItemIteratorTest extends AbstractUnitTest
 
             iitr = Item.findAll(context);
             iitid = new ItemIterator(context, list);
+            ids = list;
             iitnone = new ItemIterator(context, new ArrayList<Integer>());
         }
         catch (AuthorizeException ex)
@@ -165,6 +171,29 @@ public class ItemIteratorTest extends AbstractUnitTest
         }
     }
 
+    /**
+     * Test of next method, of class ItemIterator, when prefetching.
+     */
+    @Test
+    public void testNextPrefetched() throws Exception
+    {
+        context.clearCache();
+
+        ItemIterator prefetched = new ItemIterator(context, ids, PrefetchSpec.all());
+        for(int i = 0; i < numitems; i++)
+        {
+            assertTrue("testNextPrefetched hasNext "+i, prefetched.hasNext());
+            Item item = prefetched.next();
+            assertThat("testNextPrefetched id "+i, item.getID(), equalTo(ids.get(i)));
+            assertThat("testNextPrefetched cached "+i, Item.find(context, ids.get(i)), sameInstance(item));
+            assertThat("testNextPrefetched bundles "+i, item.getBundles().length, equalTo(0));
+            assertThat("testNextPrefetched collections "+i, item.getCollections().length, equalTo(0));
+        }
+        assertFalse("testNextPrefetched end", prefetched.hasNext());
+        assertThat("testNextPrefetched null", prefetched.next(), nullValue());
+        prefetched.close();
+    }
+
     /**
      * Test of close method, of class ItemIterator.
      */
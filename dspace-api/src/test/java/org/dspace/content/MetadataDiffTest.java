@@ -0,0 +1,121 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the difference computed between stored and in-memory metadata.
+ */
+public class MetadataDiffTest
+{
+    private static MetadataValue value(int field, int place, String text)
+    {
+        MetadataValue mv = new MetadataValue();
+        mv.setFieldId(field);
+        mv.setPlace(place);
+        mv.setValue(text);
+        mv.setConfidence(-1);
+        return mv;
+    }
+
+    /**
+     * Identical values need no work.
+     */
+    @Test
+    public void testUnchanged()
+    {
+        List<MetadataValue> stored = Arrays.asList(value(1, 1, "a"), value(1, 2, "b"), value(2, 1, null));
+        List<MetadataValue> wanted = Arrays.asList(value(2, 1, null), value(1, 1, "a"), value(1, 2, "b"));
+
+        MetadataDiff diff = new MetadataDiff(stored, wanted);
+        assertTrue("testUnchanged 0", diff.isEmpty());
+    }
+
+    /**
+     * Removing the first of many values only moves the others up.
+     */
+    @Test
+    public void testRemoveFirst()
+    {
+        List<MetadataValue> stored = new ArrayList<MetadataValue>();
+        List<MetadataValue> wanted = new ArrayList<MetadataValue>();
+        for (int i = 1; i <= 100; i++)
+        {
+            stored.add(value(1, i, "v" + i));
+            if (i > 1)
+            {
+                wanted.add(value(1, i - 1, "v" + i));
+            }
+        }
+
+        MetadataDiff diff = new MetadataDiff(stored, wanted);
+        assertEquals("testRemoveFirst 0", 1, diff.getDeletes().size());
+        assertSame("testRemoveFirst 1", stored.get(0), diff.getDeletes().get(0));
+        assertEquals("testRemoveFirst 2", 99, diff.getMoves().size());
+        assertEquals("testRemoveFirst 3", 0, diff.getInserts().size());
+        for (MetadataValue moved : diff.getMoves())
+        {
+            assertEquals("testRemoveFirst 4", "v" + (moved.getPlace() + 1), moved.getValue());
+        }
+    }
+
+    /**
+     * A changed text is a delete and an insert; other values are left alone.
+     */
+    @Test
+    public void testChangedValue()
+    {
+        List<MetadataValue> stored = Arrays.asList(value(1, 1, "a"), value(1, 2, "b"));
+        MetadataValue changed = value(1, 2, "c");
+        List<MetadataValue> wanted = Arrays.asList(value(1, 1, "a"), changed);
+
+        MetadataDiff diff = new MetadataDiff(stored, wanted);
+        assertEquals("testChangedValue 0", Arrays.asList(stored.get(1)), diff.getDeletes());
+        assertTrue("testChangedValue 1", diff.getMoves().isEmpty());
+        assertEquals("testChangedValue 2", 1, diff.getInserts().size());
+        assertSame("testChangedValue 3", changed, diff.getInserts().get(0));
+    }
+
+    /**
+     * Duplicate values are matched one to one.
+     */
+    @Test
+    public void testDuplicates()
+    {
+        List<MetadataValue> stored = Arrays.asList(value(1, 1, "a"), value(1, 1, "a"));
+        List<MetadataValue> wanted = Arrays.asList(value(1, 1, "a"), value(1, 1, "a"), value(1, 1, "a"));
+
+        MetadataDiff diff = new MetadataDiff(stored, wanted);
+        assertTrue("testDuplicates 0", diff.getDeletes().isEmpty());
+        assertTrue("testDuplicates 1", diff.getMoves().isEmpty());
+        assertEquals("testDuplicates 2", 1, diff.getInserts().size());
+    }
+
+    /**
+     * Language and authority take part in the comparison.
+     */
+    @Test
+    public void testLanguageAndAuthority()
+    {
+        MetadataValue storedValue = value(1, 1, "a");
+        storedValue.setLanguage("en");
+        MetadataValue wantedValue = value(1, 1, "a");
+        wantedValue.setLanguage("en");
+        wantedValue.setAuthority("key");
+
+        MetadataDiff diff = new MetadataDiff(Arrays.asList(storedValue), Arrays.asList(wantedValue));
+        assertEquals("testLanguageAndAuthority 0", 1, diff.getDeletes().size());
+        assertEquals("testLanguageAndAuthority 1", 1, diff.getInserts().size());
+    }
+}
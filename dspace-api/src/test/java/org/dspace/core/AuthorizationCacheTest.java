@@ -0,0 +1,69 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the per-Context authorization decision cache.
+ */
+public class AuthorizationCacheTest
+{
+    /**
+     * Decisions are kept apart by type, ID, action and inheritance.
+     */
+    @Test
+    public void testDecisions()
+    {
+        AuthorizationCache cache = new AuthorizationCache(100);
+
+        assertNull("testDecisions 0", cache.getDecision(Constants.ITEM, 5, Constants.READ, true));
+        cache.putDecision(Constants.ITEM, 5, Constants.READ, true, true);
+        cache.putDecision(Constants.ITEM, 5, Constants.READ, false, false);
+        cache.putDecision(Constants.BITSTREAM, 5, Constants.READ, true, false);
+        cache.putDecision(Constants.ITEM, 5, -1, true, false);
+
+        assertEquals("testDecisions 1", Boolean.TRUE, cache.getDecision(Constants.ITEM, 5, Constants.READ, true));
+        assertEquals("testDecisions 2", Boolean.FALSE, cache.getDecision(Constants.ITEM, 5, Constants.READ, false));
+        assertEquals("testDecisions 3", Boolean.FALSE, cache.getDecision(Constants.BITSTREAM, 5, Constants.READ, true));
+        assertEquals("testDecisions 4", Boolean.FALSE, cache.getDecision(Constants.ITEM, 5, -1, true));
+        assertNull("testDecisions 5", cache.getDecision(Constants.ITEM, 6, Constants.READ, true));
+        assertNull("testDecisions 6", cache.getDecision(Constants.ITEM, 5, Constants.WRITE, true));
+
+        assertEquals("testDecisions 7", 4, cache.getHitCount());
+        assertEquals("testDecisions 8", 3, cache.getMissCount());
+    }
+
+    /**
+     * Clearing forgets decisions and groups; a full cache starts over.
+     */
+    @Test
+    public void testClear()
+    {
+        AuthorizationCache cache = new AuthorizationCache(2);
+        cache.setGroupIDs(new HashSet<Integer>(Collections.singleton(Integer.valueOf(0))));
+        cache.putDecision(Constants.ITEM, 1, Constants.READ, true, true);
+        cache.putDecision(Constants.ITEM, 2, Constants.READ, true, true);
+        cache.putDecision(Constants.ITEM, 3, Constants.READ, true, true);
+        assertEquals("testClear 0", 1, cache.size());
+
+        cache.clear();
+        assertEquals("testClear 1", 0, cache.size());
+        assertNull("testClear 2", cache.getGroupIDs());
+
+        AuthorizationCache disabled = new AuthorizationCache(0);
+        disabled.putDecision(Constants.ITEM, 1, Constants.READ, true, true);
+        disabled.setGroupIDs(new HashSet<Integer>());
+        assertNull("testClear 3", disabled.getDecision(Constants.ITEM, 1, Constants.READ, true));
+        assertNull("testClear 4", disabled.getGroupIDs());
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the bounded context object cache.
+ */
+public class LRUContextCacheTest
+{
+    /**
+     * Objects of different classes with the same ID do not collide.
+     */
+    @Test
+    public void testKeysByClass()
+    {
+        LRUContextCache cache = new LRUContextCache(0);
+        String s = "string";
+        StringBuilder b = new StringBuilder("builder");
+        cache.put(s, 1);
+        cache.put(b, 1);
+
+        assertSame("testKeysByClass 0", s, cache.get(String.class, 1));
+        assertSame("testKeysByClass 1", b, cache.get(StringBuilder.class, 1));
+        assertNull("testKeysByClass 2", cache.get(String.class, 2));
+        assertEquals("testKeysByClass 3", 2, cache.getHitCount());
+        assertEquals("testKeysByClass 4", 1, cache.getMissCount());
+
+        cache.remove(String.class, 1);
+        assertNull("testKeysByClass 5", cache.get(String.class, 1));
+        assertEquals("testKeysByClass 6", 1, cache.size());
+    }
+
+    /**
+     * An unbounded cache keeps everything, across resizes.
+     */
+    @Test
+    public void testUnbounded()
+    {
+        LRUContextCache cache = new LRUContextCache(0);
+        for (int i = 0; i < 10000; i++)
+        {
+            cache.put(Integer.valueOf(i), i);
+        }
+
+        assertEquals("testUnbounded 0", 10000, cache.size());
+        assertEquals("testUnbounded 1", Integer.valueOf(1234), cache.get(Integer.class, 1234));
+        assertEquals("testUnbounded 2", 0, cache.getEvictionCount());
+    }
+
+    /**
+     * The least recently used object is evicted first.
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsed()
+    {
+        LRUContextCache cache = new LRUContextCache(2);
+        cache.put(Integer.valueOf(1), 1);
+        cache.put(Integer.valueOf(2), 2);
+        cache.get(Integer.class, 1);
+        cache.put(Integer.valueOf(3), 3);
+
+        assertEquals("testEvictsLeastRecentlyUsed 0", 2, cache.size());
+        assertNotNull("testEvictsLeastRecentlyUsed 1", cache.get(Integer.class, 1));
+        assertNull("testEvictsLeastRecentlyUsed 2", cache.get(Integer.class, 2));
+        assertNotNull("testEvictsLeastRecentlyUsed 3", cache.get(Integer.class, 3));
+        assertEquals("testEvictsLeastRecentlyUsed 4", 1, cache.getEvictionCount());
+    }
+
+    /**
+     * Objects that may not be evicted stay, even past the limit.
+     */
+    @Test
+    public void testKeepsModified()
+    {
+        final Set<Object> modified = new HashSet<Object>();
+        LRUContextCache cache = new LRUContextCache(2)
+        {
+            @Override
+            protected boolean isEvictable(Object o)
+            {
+                return !modified.contains(o);
+            }
+        };
+
+        Integer one = Integer.valueOf(1);
+        Integer two = Integer.valueOf(2);
+        modified.add(one);
+        modified.add(two);
+        cache.put(one, 1);
+        cache.put(two, 2);
+        cache.put(Integer.valueOf(3), 3);
+
+        assertSame("testKeepsModified 0", one, cache.get(Integer.class, 1));
+        assertSame("testKeepsModified 1", two, cache.get(Integer.class, 2));
+        assertNull("testKeepsModified 2", cache.get(Integer.class, 3));
+
+        modified.clear();
+        cache.put(Integer.valueOf(4), 4);
+        assertEquals("testKeepsModified 3", 2, cache.size());
+        assertNull("testKeepsModified 4", cache.get(Integer.class, 1));
+
+        cache.clear();
+        assertEquals("testKeepsModified 5", 0, cache.size());
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the read-through and invalidation behaviour of the reference data
+ * cache.
+ */
+public class ReferenceDataCacheTest
+{
+    /**
+     * Counts how often it is asked to load.
+     */
+    private static class CountingLoader implements ReferenceDataCache.Loader<List<String>>
+    {
+        int loads = 0;
+
+        public List<String> load(Context context) throws SQLException
+        {
+            loads++;
+            List<String> snapshot = new ArrayList<String>();
+            snapshot.add("load " + loads);
+            return snapshot;
+        }
+    }
+
+    /**
+     * A snapshot is loaded once and reloaded after invalidation.
+     */
+    @Test
+    public void testReadThrough() throws SQLException
+    {
+        String region = "ReferenceDataCacheTest.testReadThrough";
+        CountingLoader loader = new CountingLoader();
+
+        List<String> first = ReferenceDataCache.get(null, region, loader);
+        assertSame("testReadThrough 0", first, ReferenceDataCache.get(null, region, loader));
+        assertEquals("testReadThrough 1", 1, loader.loads);
+
+        ReferenceDataCache.invalidate(null, region);
+        List<String> second = ReferenceDataCache.get(null, region, loader);
+        assertEquals("testReadThrough 2", 2, loader.loads);
+        assertEquals("testReadThrough 3", "load 2", second.get(0));
+    }
+
+    /**
+     * A snapshot loaded while its region is invalidated is not kept.
+     */
+    @Test
+    public void testInvalidatedWhileLoading() throws SQLException
+    {
+        final String region = "ReferenceDataCacheTest.testInvalidatedWhileLoading";
+        CountingLoader loader = new CountingLoader()
+        {
+            @Override
+            public List<String> load(Context context) throws SQLException
+            {
+                List<String> snapshot = super.load(context);
+                if (loads == 1)
+                {
+                    ReferenceDataCache.invalidate(null, region);
+                }
+                return snapshot;
+            }
+        };
+
+        assertEquals("testInvalidatedWhileLoading 0", "load 1", ReferenceDataCache.get(null, region, loader).get(0));
+        assertEquals("testInvalidatedWhileLoading 1", "load 2", ReferenceDataCache.get(null, region, loader).get(0));
+        assertEquals("testInvalidatedWhileLoading 2", "load 2", ReferenceDataCache.get(null, region, loader).get(0));
+    }
+
+    /**
+     * A snapshot older than the maximum age is loaded again.
+     */
+    @Test
+    public void testMaxAge() throws Exception
+    {
+        String region = "ReferenceDataCacheTest.testMaxAge";
+        CountingLoader loader = new CountingLoader();
+
+        assertEquals("testMaxAge 0", "load 1", ReferenceDataCache.get(null, region, 100, loader).get(0));
+        assertEquals("testMaxAge 1", "load 1", ReferenceDataCache.get(null, region, 100, loader).get(0));
+        Thread.sleep(150);
+        assertEquals("testMaxAge 2", "load 2", ReferenceDataCache.get(null, region, 100, loader).get(0));
+        assertEquals("testMaxAge 3", "load 2", ReferenceDataCache.get(null, region, loader).get(0));
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.databene.contiperf.PerfTest;
+import org.databene.contiperf.junit.ContiPerfRule;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests copying files to streams. The two performance tests copy the same
+ * file through an input stream and through its channel; compare their
+ * throughput in the ContiPerf report (target/contiperf-report).
+ */
+public class UtilsTest
+{
+    @Rule
+    public ContiPerfRule contiperfRules = new ContiPerfRule();
+
+    /** Size of the file copied by the performance tests */
+    private static final int SIZE = 32 * 1024 * 1024;
+
+    private static File file;
+
+    private static byte[] content;
+
+    /**
+     * Discards what is written to it, as a servlet response would once sent.
+     */
+    private static class NullOutputStream extends OutputStream
+    {
+        long count = 0;
+
+        @Override
+        public void write(int b)
+        {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            count += len;
+        }
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws IOException
+    {
+        content = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++)
+        {
+            content[i] = (byte) (i * 31);
+        }
+        file = File.createTempFile("utils", "copy");
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+        file.delete();
+    }
+
+    /**
+     * Parts of a file are copied exactly, to a stream or to another file.
+     */
+    @Test
+    public void testChannelCopy() throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Utils.copy(channel, 1000, 500000, out);
+            assertTrue("testChannelCopy 0", Arrays.equals(Arrays.copyOfRange(content, 1000, 501000),
+                    out.toByteArray()));
+            assertEquals("testChannelCopy 1", 0, channel.position());
+
+            File copy = File.createTempFile("utils", "copy");
+            FileOutputStream fileOut = new FileOutputStream(copy);
+            try
+            {
+                Utils.copy(channel, SIZE - 100, 100, fileOut);
+            }
+            finally
+            {
+                fileOut.close();
+            }
+            assertEquals("testChannelCopy 2", 100, copy.length());
+            copy.delete();
+
+            try
+            {
+                Utils.copy(channel, SIZE - 10, 20, new NullOutputStream());
+                fail("testChannelCopy 3");
+            }
+            catch (IOException e)
+            {
+                // expected: the file is shorter than asked for
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies the file through a buffered input stream, as before.
+     */
+    @Test
+    @PerfTest(invocations = 10)
+    public void testStreamCopyPerformance() throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        NullOutputStream out = new NullOutputStream();
+        try
+        {
+            Utils.bufferedCopy(in, out);
+        }
+        finally
+        {
+            in.close();
+        }
+        assertEquals("testStreamCopyPerformance 0", SIZE, out.count);
+    }
+
+    /**
+     * Copies the file through its channel.
+     */
+    @Test
+    @PerfTest(invocations = 10)
+    public void testChannelCopyPerformance() throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        NullOutputStream out = new NullOutputStream();
+        try
+        {
+            Utils.copy(in.getChannel(), 0, SIZE, out);
+        }
+        finally
+        {
+            in.close();
+        }
+        assertEquals("testChannelCopyPerformance 0", SIZE, out.count);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the reading and caching of full text.
+ */
+public class FullTextReaderTest
+{
+    private File dir;
+
+    /**
+     * Serves fixed text, counting how often it is opened.
+     */
+    private static class CountingSource implements FullTextReader.Source
+    {
+        private final String text;
+
+        private int opened = 0;
+
+        CountingSource(String text)
+        {
+            this.text = text;
+        }
+
+        public InputStream open() throws Exception
+        {
+            opened++;
+            return new ByteArrayInputStream(text.getBytes("UTF-8"));
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = File.createTempFile("fulltext", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /**
+     * Whitespace is collapsed and the text is cut at the limit.
+     */
+    @Test
+    public void testNormalize() throws IOException
+    {
+        StringBuilder out = new StringBuilder();
+        assertFalse("testNormalize 0", FullTextReader.normalize(new StringReader("  a \n\t b\u0000c  "), out, 100));
+        assertEquals("testNormalize 1", "a b c", out.toString());
+
+        out = new StringBuilder();
+        assertTrue("testNormalize 2", FullTextReader.normalize(new StringReader("abc def"), out, 5));
+        assertEquals("testNormalize 3", "abc d", out.toString());
+
+        out = new StringBuilder();
+        assertFalse("testNormalize 4", FullTextReader.normalize(new StringReader("abc "), out, 3));
+        assertEquals("testNormalize 5", "abc", out.toString());
+    }
+
+    /**
+     * Cached text is served without opening the source, and cut text is read
+     * again when more is needed.
+     */
+    @Test
+    public void testCache() throws IOException
+    {
+        FullTextReader reader = new FullTextReader(dir);
+        CountingSource source = new CountingSource("one two  three");
+
+        assertEquals("testCache 0", "one two", reader.read("MD5-abc123", source, 7));
+        assertEquals("testCache 1", "one", reader.read("MD5-abc123", source, 3));
+        assertEquals("testCache 2", 1, source.opened);
+
+        assertEquals("testCache 3", "one two three", reader.read("MD5-abc123", source, 100));
+        assertEquals("testCache 4", 2, source.opened);
+        assertEquals("testCache 5", "one two three", reader.read("MD5-abc123", source, 100));
+        assertEquals("testCache 6", 2, source.opened);
+
+        // no key, no caching
+        reader.read(null, source, 100);
+        reader.read(null, source, 100);
+        assertEquals("testCache 7", 4, source.opened);
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the batching of documents sent to Solr during bulk updates.
+ */
+public class SolrDocumentBufferTest
+{
+    /**
+     * Records the size of every add, and rejects documents with a "bad" field.
+     */
+    private static class RecordingSolrServer extends SolrServer
+    {
+        private final List<Integer> adds = new ArrayList<Integer>();
+
+        public synchronized UpdateResponse add(Collection<SolrInputDocument> docs)
+                throws SolrServerException, IOException
+        {
+            for (SolrInputDocument doc : docs)
+            {
+                if (doc.getFieldValue("bad") != null)
+                {
+                    throw new SolrServerException("bad document");
+                }
+            }
+            adds.add(docs.size());
+            return null;
+        }
+
+        public synchronized UpdateResponse add(SolrInputDocument doc)
+                throws SolrServerException, IOException
+        {
+            List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+            docs.add(doc);
+            return add(docs);
+        }
+
+        public NamedList<Object> request(SolrRequest request)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static SolrInputDocument doc(int id, String value)
+    {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("search.uniqueid", "2-" + id);
+        doc.addField("value", value);
+        return doc;
+    }
+
+    /**
+     * Batches are cut by count, and the rest is sent on close.
+     */
+    @Test
+    public void testBatchSize() throws IOException
+    {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        SolrDocumentBuffer buffer = new SolrDocumentBuffer(solr, 3, Long.MAX_VALUE);
+        for (int i = 0; i < 7; i++)
+        {
+            buffer.add(doc(i, "v"));
+        }
+        buffer.close();
+
+        assertEquals("testBatchSize 0", "[3, 3, 1]", solr.adds.toString());
+        assertEquals("testBatchSize 1", 7, buffer.getSentCount());
+        assertEquals("testBatchSize 2", 0, buffer.getFailedCount());
+    }
+
+    /**
+     * Batches are cut by size, and a rejected batch is retried one by one.
+     */
+    @Test
+    public void testBytesAndFailures() throws IOException
+    {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        long size = SolrDocumentBuffer.estimateSize(doc(0, "0123456789"));
+        SolrDocumentBuffer buffer = new SolrDocumentBuffer(solr, 100, 2 * size);
+
+        buffer.add(doc(0, "0123456789"));
+        buffer.add(doc(1, "0123456789"));
+        SolrInputDocument bad = doc(2, "0123456789");
+        bad.addField("bad", "yes");
+        buffer.add(bad);
+        buffer.add(doc(3, "0123456789"));
+        buffer.close();
+
+        assertEquals("testBytesAndFailures 0", "[2, 1]", solr.adds.toString());
+        assertEquals("testBytesAndFailures 1", 3, buffer.getSentCount());
+        assertEquals("testBytesAndFailures 2", 1, buffer.getFailedCount());
+    }
+
+    /**
+     * Adding does not wait forever once the sender died, and reports why it
+     * died.
+     */
+    @Test(timeout = 10000)
+    public void testSenderFailure()
+    {
+        final Error boom = new Error("boom");
+        SolrServer solr = new RecordingSolrServer()
+        {
+            public synchronized UpdateResponse add(Collection<SolrInputDocument> docs)
+            {
+                throw boom;
+            }
+        };
+        SolrDocumentBuffer buffer = new SolrDocumentBuffer(solr, 1, Long.MAX_VALUE);
+        try
+        {
+            for (int i = 0; i < 100; i++)
+            {
+                buffer.add(doc(i, "v"));
+            }
+            fail("testSenderFailure 0");
+        }
+        catch (IOException e)
+        {
+            assertSame("testSenderFailure 1", boom, e.getCause());
+        }
+    }
+
+    /**
+     * Document sizes are weighed without formatting the values.
+     */
+    @Test
+    public void testEstimateSize()
+    {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("text", "0123456789");
+        doc.addField("bytes", new byte[20]);
+        doc.addField("number", Integer.valueOf(123456789));
+        assertEquals("testEstimateSize 0", 4 + 10 + 5 + 20 + 6 + 8, SolrDocumentBuffer.estimateSize(doc));
+    }
+}
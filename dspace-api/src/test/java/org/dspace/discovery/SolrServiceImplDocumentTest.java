@@ -0,0 +1,315 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mockit.NonStrictExpectations;
+import org.apache.log4j.Logger;
+import org.apache.solr.common.SolrInputDocument;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.Constants;
+import org.dspace.discovery.configuration.DiscoveryConfiguration;
+import org.dspace.discovery.configuration.DiscoveryConfigurationParameters;
+import org.dspace.discovery.configuration.DiscoveryConfigurationService;
+import org.dspace.discovery.configuration.DiscoveryHitHighlightFieldConfiguration;
+import org.dspace.discovery.configuration.DiscoveryHitHighlightingConfiguration;
+import org.dspace.discovery.configuration.DiscoverySearchFilter;
+import org.dspace.discovery.configuration.DiscoverySearchFilterFacet;
+import org.dspace.discovery.configuration.DiscoverySortConfiguration;
+import org.dspace.discovery.configuration.DiscoverySortFieldConfiguration;
+import org.dspace.discovery.configuration.HierarchicalSidebarFacetConfiguration;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the documents SolrServiceImpl builds for items, and the indexing plans
+ * it builds them with.
+ */
+public class SolrServiceImplDocumentTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(SolrServiceImplDocumentTest.class);
+
+    private Community community;
+
+    private Collection collection;
+
+    private Item item;
+
+    /** The document last written by the service */
+    private SolrInputDocument written;
+
+    /** Writes documents to {@link #written} instead of Solr */
+    private SolrServiceImpl service;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            community = Community.create(null, context);
+            collection = community.createCollection();
+
+            WorkspaceItem wsi = WorkspaceItem.create(context, collection, false);
+            Item draft = wsi.getItem();
+            draft.addMetadata("dc", "title", null, "en", "The Title");
+            draft.addMetadata("dc", "contributor", "author", null, "Smith, John");
+            draft.addMetadata("dc", "contributor", "author", null, "Doe, Jane");
+            draft.addMetadata("dc", "date", "issued", null, "2012-03-04");
+            draft.addMetadata("dc", "subject", null, null, "Science::Physics::Optics");
+            draft.update();
+            item = InstallItem.installItem(context, wsi);
+            context.restoreAuthSystemState();
+
+            service = new SolrServiceImpl()
+            {
+                @Override
+                protected void writeDocument(SolrInputDocument doc) throws IOException
+                {
+                    written = doc;
+                }
+            };
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        community = null;
+        collection = null;
+        item = null;
+        written = null;
+        service = null;
+        super.destroy();
+    }
+
+    /**
+     * Test of buildDocument method, of class SolrServiceImpl: the fields of
+     * text, facet, date and hierarchical search filters, sort fields, hit
+     * highlighting and languages.
+     */
+    @Test
+    public void testBuildDocument() throws Exception
+    {
+        final DiscoveryConfigurationService configurationService = configurationService("dc.description.provenance");
+        new NonStrictExpectations()
+        {
+            SearchUtils searchUtils;
+            {
+                SearchUtils.getConfigurationService(); result = configurationService;
+                SearchUtils.getAllDiscoveryConfigurations((Item) any);
+                result = Arrays.asList(configurationService.getMap().get("default"));
+            }
+        };
+
+        service.buildDocument(context, item);
+        String sep = service.getIndexingPlan(item).getSeparator();
+
+        assertField("withdrawn", Boolean.FALSE);
+        assertField("discoverable", Boolean.TRUE);
+        assertField("search.resourcetype", Integer.toString(Constants.ITEM));
+        assertField("search.resourceid", Integer.toString(item.getID()));
+        assertField("handle", item.getHandle());
+        assertField("location.comm", Integer.toString(community.getID()));
+        assertField("location.coll", Integer.toString(collection.getID()));
+
+        // a text search filter that is not a facet
+        assertField("title", "The Title");
+        assertField("title_keyword", "The Title");
+        assertField("title_ac", "the title" + sep + "The Title");
+        assertField("title_filter");
+        assertField("dc.title", "The Title");
+        assertField("dc.title.en", "The Title");
+        assertField("dc.title_sort", "The Title");
+        assertField("dc.title_hl", "The Title");
+
+        // a text facet on a wildcard field, sorted on its first value only
+        assertField("author", "Smith, John", "Doe, Jane");
+        assertField("author_keyword", "Smith, John", "Doe, Jane");
+        assertField("author_ac", "smith, john" + sep + "Smith, John", "doe, jane" + sep + "Doe, Jane");
+        assertField("author_filter", "smith, john" + sep + "Smith, John", "doe, jane" + sep + "Doe, Jane");
+        assertField("dc.contributor.author", "Smith, John", "Doe, Jane");
+        assertField("dc.contributor.author_sort", "Smith, John");
+        assertField("dc.contributor.author_hl");
+
+        // a date facet and date sort field
+        assertField("dateIssued", "2012-03-04");
+        assertField("dateIssued_keyword", "2012-03-04", "2012");
+        assertField("dateIssued_ac", "2012-03-04" + sep + "2012-03-04");
+        assertField("dateIssued.year", "2012");
+        assertField("dateIssued.year_sort", "2012");
+        assertField("dc.date.issued", "2012-03-04");
+        assertField("dc.date.issued_dt", SolrServiceImpl.toDate("2012-03-04"));
+        assertField("dc.date.issued_sort");
+
+        // a hierarchical facet, each level counted once per level below it
+        String science = "Science";
+        String physics = "Science::Physics";
+        String optics = "Science::Physics::Optics";
+        assertField("subject", optics);
+        assertField("subject_keyword", optics, science, science, science, physics, physics, optics);
+        assertField("subject_ac", optics.toLowerCase() + sep + optics);
+        assertField("subject_tax_0_filter", science.toLowerCase() + sep + science);
+        assertField("subject_tax_1_filter", physics.toLowerCase() + sep + physics);
+        assertField("subject_tax_2_filter", optics.toLowerCase() + sep + optics);
+        assertField("subject_filter", science.toLowerCase() + sep + science, science.toLowerCase() + sep + science,
+                science.toLowerCase() + sep + science, physics.toLowerCase() + sep + physics,
+                physics.toLowerCase() + sep + physics, optics.toLowerCase() + sep + optics);
+        assertField("dc.subject", optics);
+
+        // ignored fields are not indexed at all
+        assertField("dc.description.provenance");
+    }
+
+    /**
+     * Test of getIndexingPlan method, of class SolrServiceImpl: plans are
+     * reused until the discovery configuration service is replaced.
+     */
+    @Test
+    public void testGetIndexingPlan() throws Exception
+    {
+        final DiscoveryConfigurationService first = configurationService("dc.description.provenance");
+        final DiscoveryConfigurationService second = configurationService("dc.title");
+        new NonStrictExpectations()
+        {
+            SearchUtils searchUtils;
+            {
+                SearchUtils.getConfigurationService(); returns(first, first, second, second);
+                SearchUtils.getAllDiscoveryConfigurations((Item) any);
+                result = Arrays.asList(first.getMap().get("default"));
+            }
+        };
+
+        IndexingPlan plan = service.getIndexingPlan(item);
+        assertFalse("testGetIndexingPlan 0", plan.getFieldPlan("dc", "title", null).isIgnored());
+        assertSame("testGetIndexingPlan 1", plan, service.getIndexingPlan(item));
+
+        IndexingPlan rebuilt = service.getIndexingPlan(item);
+        assertNotSame("testGetIndexingPlan 2", plan, rebuilt);
+        assertTrue("testGetIndexingPlan 3", rebuilt.getFieldPlan("dc", "title", null).isIgnored());
+        assertSame("testGetIndexingPlan 4", rebuilt, service.getIndexingPlan(item));
+    }
+
+    /**
+     * Make a discovery configuration service with a representative default
+     * configuration.
+     *
+     * @param ignored
+     *            the metadata field not to index
+     */
+    private DiscoveryConfigurationService configurationService(String ignored) throws Exception
+    {
+        DiscoverySearchFilter title = new DiscoverySearchFilter();
+        title.setIndexFieldName("title");
+        title.setMetadataFields(Arrays.asList("dc.title"));
+
+        DiscoverySearchFilterFacet author = new DiscoverySearchFilterFacet();
+        author.setIndexFieldName("author");
+        author.setMetadataFields(Arrays.asList("dc.contributor.*"));
+
+        DiscoverySearchFilterFacet dateIssued = new DiscoverySearchFilterFacet();
+        dateIssued.setIndexFieldName("dateIssued");
+        dateIssued.setMetadataFields(Arrays.asList("dc.date.issued"));
+        dateIssued.setType(DiscoveryConfigurationParameters.TYPE_DATE);
+
+        HierarchicalSidebarFacetConfiguration subject = new HierarchicalSidebarFacetConfiguration();
+        subject.setIndexFieldName("subject");
+        subject.setMetadataFields(Arrays.asList("dc.subject"));
+        subject.setSplitter("::");
+        subject.setSkipFirstNodeLevel(false);
+
+        List<DiscoverySortFieldConfiguration> sortFields = new ArrayList<DiscoverySortFieldConfiguration>();
+        sortFields.add(sortField("dc.title", DiscoveryConfigurationParameters.TYPE_TEXT));
+        sortFields.add(sortField("dc.contributor.author", DiscoveryConfigurationParameters.TYPE_TEXT));
+        sortFields.add(sortField("dc.date.issued", DiscoveryConfigurationParameters.TYPE_DATE));
+        DiscoverySortConfiguration sort = new DiscoverySortConfiguration();
+        sort.setSortFields(sortFields);
+
+        DiscoveryHitHighlightFieldConfiguration highlightedTitle = new DiscoveryHitHighlightFieldConfiguration();
+        highlightedTitle.setField("dc.title");
+        DiscoveryHitHighlightingConfiguration hitHighlighting = new DiscoveryHitHighlightingConfiguration();
+        hitHighlighting.setMetadataFields(Arrays.asList(highlightedTitle));
+
+        DiscoveryConfiguration configuration = new DiscoveryConfiguration();
+        configuration.setId("default");
+        configuration.setSearchFilters(Arrays.asList(title, author, dateIssued, subject));
+        configuration.setSearchSortConfiguration(sort);
+        configuration.setHitHighlightingConfiguration(hitHighlighting);
+
+        Map<String, DiscoveryConfiguration> map = new HashMap<String, DiscoveryConfiguration>();
+        map.put("default", configuration);
+        Map<Integer, List<String>> toIgnore = new HashMap<Integer, List<String>>();
+        toIgnore.put(Constants.ITEM, Collections.singletonList(ignored));
+
+        DiscoveryConfigurationService configurationService = new DiscoveryConfigurationService();
+        configurationService.setMap(map);
+        configurationService.setToIgnoreMetadataFields(toIgnore);
+        return configurationService;
+    }
+
+    private DiscoverySortFieldConfiguration sortField(String metadataField, String type)
+    {
+        DiscoverySortFieldConfiguration sortField = new DiscoverySortFieldConfiguration();
+        sortField.setMetadataField(metadataField);
+        sortField.setType(type);
+        return sortField;
+    }
+
+    /**
+     * Check the values of a field of the written document, in order; no
+     * values means the field must be missing.
+     */
+    private void assertField(String field, Object... values)
+    {
+        java.util.Collection<Object> found = written.getFieldValues(field);
+        if (values.length == 0)
+        {
+            assertNull("testBuildDocument " + field, found);
+        }
+        else
+        {
+            assertNotNull("testBuildDocument " + field, found);
+            assertEquals("testBuildDocument " + field, Arrays.asList(values), new ArrayList<Object>(found));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests merging the indexed IDs with the live ones when cleaning the index.
+ */
+public class SolrServiceImplTest
+{
+    /**
+     * The indexed IDs that are not live are orphans.
+     */
+    @Test
+    public void testFindOrphans()
+    {
+        int[] indexed = { 3, 4, 7, 9, 12 };
+        int[] live = { 1, 4, 5, 9, 11 };
+        assertEquals("testFindOrphans 0", Arrays.asList(3, 7, 12), SolrServiceImpl.findOrphans(indexed, live));
+    }
+
+    /**
+     * A range may start past the first live IDs, or past all of them.
+     */
+    @Test
+    public void testFindOrphansInRange()
+    {
+        int[] live = { 1, 2, 1000, 1001 };
+        assertEquals("testFindOrphansInRange 0", Arrays.asList(1002),
+                SolrServiceImpl.findOrphans(new int[] { 1000, 1002 }, live));
+        assertEquals("testFindOrphansInRange 1", Arrays.asList(2000, 2001),
+                SolrServiceImpl.findOrphans(new int[] { 2000, 2001 }, live));
+        assertEquals("testFindOrphansInRange 2", Collections.<Integer>emptyList(),
+                SolrServiceImpl.findOrphans(new int[0], live));
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the computation of indirect group memberships.
+ */
+public class Group2GroupCacheTest
+{
+    private static void add(Map<Integer, Set<Integer>> children, int parent, int child)
+    {
+        Set<Integer> set = children.get(parent);
+        if (set == null)
+        {
+            set = new HashSet<Integer>();
+            children.put(parent, set);
+        }
+        set.add(child);
+    }
+
+    private static Set<Integer> set(Integer... ids)
+    {
+        return new HashSet<Integer>(Arrays.asList(ids));
+    }
+
+    /**
+     * Descendants are found through every path, including shared subgroups.
+     */
+    @Test
+    public void testComputeClosure()
+    {
+        Map<Integer, Set<Integer>> children = new HashMap<Integer, Set<Integer>>();
+        add(children, 1, 2);
+        add(children, 1, 3);
+        add(children, 2, 4);
+        add(children, 3, 4);
+        add(children, 4, 5);
+
+        Map<Integer, Set<Integer>> closure = Group2GroupCache.computeClosure(children, children.keySet());
+        assertEquals("testComputeClosure 0", set(2, 3, 4, 5), closure.get(1));
+        assertEquals("testComputeClosure 1", set(4, 5), closure.get(2));
+        assertEquals("testComputeClosure 2", set(5), closure.get(4));
+
+        // only the requested groups are returned
+        closure = Group2GroupCache.computeClosure(children, set(3, 5));
+        assertEquals("testComputeClosure 3", set(3, 5), closure.keySet());
+        assertEquals("testComputeClosure 4", set(4, 5), closure.get(3));
+        assertEquals("testComputeClosure 5", set(), closure.get(5));
+    }
+
+    /**
+     * A cycle does not recurse forever.
+     */
+    @Test
+    public void testCycle()
+    {
+        Map<Integer, Set<Integer>> children = new HashMap<Integer, Set<Integer>>();
+        add(children, 1, 2);
+        add(children, 2, 1);
+
+        Map<Integer, Set<Integer>> closure = Group2GroupCache.computeClosure(children, set(1));
+        assertTrue("testCycle 0", closure.get(1).contains(2));
+    }
+}
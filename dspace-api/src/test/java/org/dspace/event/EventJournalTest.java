@@ -0,0 +1,95 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.dspace.core.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the file behind the queues of the asynchronous dispatcher.
+ */
+public class EventJournalTest
+{
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = File.createTempFile("eventjournal", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static Event event(int id)
+    {
+        return new Event(Event.MODIFY, Constants.ITEM, id, "detail " + id);
+    }
+
+    /**
+     * Events come back in order and stay until acknowledged.
+     */
+    @Test
+    public void testReadAcknowledge() throws IOException
+    {
+        EventJournal journal = new EventJournal(new File(dir, "test.queue"), false);
+        assertEquals("testReadAcknowledge 0", 0, journal.read(10).size());
+
+        journal.append(Arrays.asList(event(1), event(2)));
+        journal.append(Arrays.asList(event(3)));
+        assertEquals("testReadAcknowledge 1", 3, journal.size());
+
+        List<Event> events = journal.read(2);
+        assertEquals("testReadAcknowledge 2", Arrays.asList(event(1), event(2)), events);
+        assertEquals("testReadAcknowledge 3", events, journal.read(2));
+
+        journal.acknowledge();
+        assertEquals("testReadAcknowledge 4", 1, journal.size());
+
+        // a new journal on the same file continues from the saved position
+        EventJournal reopened = new EventJournal(journal.getFile(), false);
+        assertEquals("testReadAcknowledge 5", Arrays.asList(event(3)), reopened.read(10));
+        reopened.acknowledge();
+        assertEquals("testReadAcknowledge 6", 0, reopened.size());
+        assertEquals("testReadAcknowledge 7", 0, journal.getFile().length());
+    }
+
+    /**
+     * A record cut short by a crash is dropped, and appending continues.
+     */
+    @Test
+    public void testIncompleteRecord() throws IOException
+    {
+        EventJournal journal = new EventJournal(new File(dir, "test.queue"), false);
+        journal.append(Arrays.asList(event(1), event(2)));
+
+        RandomAccessFile raf = new RandomAccessFile(journal.getFile(), "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        assertEquals("testIncompleteRecord 0", Arrays.asList(event(1)), journal.read(10));
+        journal.acknowledge();
+        journal.append(Arrays.asList(event(3)));
+        assertEquals("testIncompleteRecord 1", Arrays.asList(event(3)), journal.read(10));
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.handle;
+
+import java.util.Arrays;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.Constants;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the lookups of the handles bound to existing objects, which the
+ * search index cleaners check their documents against.
+ */
+public class HandleManagerTest extends AbstractUnitTest
+{
+    private Community community;
+
+    private Collection collection;
+
+    private Item item;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            community = Community.create(null, context);
+            collection = community.createCollection();
+            WorkspaceItem wsi = WorkspaceItem.create(context, collection, false);
+            item = InstallItem.installItem(context, wsi);
+            context.restoreAuthSystemState();
+            context.commit();
+        }
+        catch (Exception ex)
+        {
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        community = null;
+        collection = null;
+        item = null;
+        super.destroy();
+    }
+
+    /**
+     * The bound handles are those of the existing objects, sorted.
+     */
+    @Test
+    public void testFindBoundHandles() throws Exception
+    {
+        String[] handles = HandleManager.findBoundHandles(context);
+
+        String[] sorted = handles.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals("testFindBoundHandles 0", sorted, handles);
+        assertTrue("testFindBoundHandles 1", Arrays.binarySearch(handles, community.getHandle()) >= 0);
+        assertTrue("testFindBoundHandles 2", Arrays.binarySearch(handles, collection.getHandle()) >= 0);
+        assertTrue("testFindBoundHandles 3", Arrays.binarySearch(handles, item.getHandle()) >= 0);
+
+        String handle = item.getHandle();
+        HandleManager.unbindHandle(context, item);
+        handles = HandleManager.findBoundHandles(context);
+        assertTrue("testFindBoundHandles 4", Arrays.binarySearch(handles, handle) < 0);
+    }
+
+    /**
+     * The bound IDs of a type are those of its existing objects, ascending.
+     */
+    @Test
+    public void testFindBoundResourceIDs() throws Exception
+    {
+        int[] ids = HandleManager.findBoundResourceIDs(context, Constants.ITEM);
+
+        int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals("testFindBoundResourceIDs 0", sorted, ids);
+        assertTrue("testFindBoundResourceIDs 1", Arrays.binarySearch(ids, item.getID()) >= 0);
+        assertTrue("testFindBoundResourceIDs 2", Arrays.binarySearch(
+                HandleManager.findBoundResourceIDs(context, Constants.COLLECTION), collection.getID()) >= 0);
+
+        HandleManager.unbindHandle(context, item);
+        ids = HandleManager.findBoundResourceIDs(context, Constants.ITEM);
+        assertTrue("testFindBoundResourceIDs 3", Arrays.binarySearch(ids, item.getID()) < 0);
+    }
+
+    /**
+     * Only items, collections and communities have a resource table.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindBoundResourceIDsOtherType() throws Exception
+    {
+        HandleManager.findBoundResourceIDs(context, Constants.BITSTREAM);
+    }
+}
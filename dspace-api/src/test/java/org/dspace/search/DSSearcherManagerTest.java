@@ -0,0 +1,230 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests sharing searchers between queries while the index changes.
+ */
+public class DSSearcherManagerTest
+{
+    private static File indexDir;
+
+    private static IndexWriter writer;
+
+    private static DSSearcherManager manager;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException
+    {
+        indexDir = File.createTempFile("search", "index");
+        indexDir.delete();
+        indexDir.mkdir();
+
+        writer = new IndexWriter(FSDirectory.open(indexDir),
+                new IndexWriterConfig(Version.LUCENE_35, new WhitespaceAnalyzer(Version.LUCENE_35)));
+        for (int i = 0; i < 100; i++)
+        {
+            addDocument("initial");
+        }
+        writer.commit();
+
+        manager = new DSSearcherManager(indexDir, 50);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws IOException
+    {
+        manager.close();
+        writer.close();
+        for (File file : indexDir.listFiles())
+        {
+            file.delete();
+        }
+        indexDir.delete();
+    }
+
+    private static void addDocument(String value) throws IOException
+    {
+        Document doc = new Document();
+        doc.add(new Field("default", value, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        writer.addDocument(doc);
+    }
+
+    private static int count(IndexSearcher searcher, String value) throws IOException
+    {
+        return searcher.search(new TermQuery(new Term("default", value)), 1).totalHits;
+    }
+
+    /**
+     * A refresh shows new documents to later queries, while queries already
+     * running keep their searcher until they release it.
+     */
+    @Test
+    public void testRefresh() throws IOException
+    {
+        DSSearcherManager own = new DSSearcherManager(indexDir, 0);
+        try
+        {
+            IndexSearcher before = own.acquire();
+            addDocument("refresh");
+            writer.commit();
+            own.refresh();
+
+            IndexSearcher after = own.acquire();
+            assertEquals("testRefresh 0", 0, count(before, "refresh"));
+            assertEquals("testRefresh 1", 1, count(after, "refresh"));
+
+            DSSearcherManager.release(before);
+            assertEquals("testRefresh 2", 0, before.getIndexReader().getRefCount());
+            DSSearcherManager.release(after);
+            assertTrue("testRefresh 3", after.getIndexReader().getRefCount() > 0);
+        }
+        finally
+        {
+            own.close();
+        }
+    }
+
+    /**
+     * A searcher from the writer sees its changes before they are committed.
+     */
+    @Test
+    public void testNearRealTime() throws IOException
+    {
+        DSSearcherManager own = new DSSearcherManager(writer, 0);
+        try
+        {
+            synchronized (manager)
+            {
+                addDocument("uncommitted");
+            }
+            own.refresh();
+
+            IndexSearcher searcher = own.acquire();
+            try
+            {
+                assertEquals("testNearRealTime 0", 1, count(searcher, "uncommitted"));
+            }
+            finally
+            {
+                DSSearcherManager.release(searcher);
+            }
+        }
+        finally
+        {
+            own.close();
+        }
+    }
+
+    /**
+     * The background thread finds changes by itself.
+     */
+    @Test
+    public void testBackgroundRefresh() throws Exception
+    {
+        addDocument("background");
+        writer.commit();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        int found = 0;
+        while (found == 0 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+            IndexSearcher searcher = manager.acquire();
+            try
+            {
+                found = count(searcher, "background");
+            }
+            finally
+            {
+                DSSearcherManager.release(searcher);
+            }
+        }
+        assertEquals("testBackgroundRefresh 0", 1, found);
+    }
+
+    /**
+     * Many queries at once, while the index changes under them.
+     */
+    @Test
+    public void testConcurrentSearch() throws Exception
+    {
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 200; i++)
+        {
+            final boolean writes = i % 50 == 0;
+            threads.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int j = 0; j < 20; j++)
+                        {
+                            IndexSearcher searcher = manager.acquire();
+                            try
+                            {
+                                assertEquals("testConcurrentSearch 0", 100, count(searcher, "initial"));
+                            }
+                            finally
+                            {
+                                DSSearcherManager.release(searcher);
+                            }
+
+                            if (writes)
+                            {
+                                synchronized (manager)
+                                {
+                                    addDocument("concurrent");
+                                    writer.commit();
+                                }
+                            }
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        errors.add(t);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals("testConcurrentSearch 1", "[]", errors.toString());
+    }
+}
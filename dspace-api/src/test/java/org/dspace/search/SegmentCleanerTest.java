@@ -0,0 +1,93 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests finding the handles in an index segment that are no longer bound.
+ */
+public class SegmentCleanerTest
+{
+    private static void addDocument(IndexWriter writer, String handle) throws IOException
+    {
+        Document doc = new Document();
+        doc.add(new Field("handle", handle, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(new Field("default", "text", Field.Store.NO, Field.Index.ANALYZED));
+        writer.addDocument(doc);
+    }
+
+    /**
+     * Handles not among the live ones are orphans, except those only left in
+     * deleted documents.
+     */
+    @Test
+    public void testOrphans() throws Exception
+    {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir,
+                new IndexWriterConfig(Version.LUCENE_35, new WhitespaceAnalyzer(Version.LUCENE_35)));
+        for (String handle : new String[] { "123/1", "123/10", "123/2", "123/3", "123/4" })
+        {
+            addDocument(writer, handle);
+        }
+        writer.deleteDocuments(new Term("handle", "123/4"));
+        writer.close();
+
+        IndexReader reader = IndexReader.open(dir);
+        try
+        {
+            String[] live = { "123/0", "123/10", "123/3" };
+            List<String> orphans = new DSIndexer.SegmentCleaner(reader, live).call();
+            assertEquals("testOrphans 0", Arrays.asList("123/1", "123/2"), orphans);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Nothing is an orphan when every handle is live.
+     */
+    @Test
+    public void testNoOrphans() throws Exception
+    {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir,
+                new IndexWriterConfig(Version.LUCENE_35, new WhitespaceAnalyzer(Version.LUCENE_35)));
+        addDocument(writer, "123/1");
+        addDocument(writer, "123/2");
+        writer.close();
+
+        IndexReader reader = IndexReader.open(dir);
+        try
+        {
+            String[] live = { "123/1", "123/2", "123/3" };
+            assertTrue("testNoOrphans 0", new DSIndexer.SegmentCleaner(reader, live).call().isEmpty());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+}
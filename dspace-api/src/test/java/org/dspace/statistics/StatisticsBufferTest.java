@@ -0,0 +1,169 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the background sending of usage events.
+ */
+public class StatisticsBufferTest
+{
+    private File dir;
+
+    /**
+     * Records the documents it receives, or fails while it is down.
+     */
+    private static class RecordingServer extends SolrServer
+    {
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+
+        final List<SolrInputDocument> docs = Collections.synchronizedList(new ArrayList<SolrInputDocument>());
+
+        volatile boolean down = false;
+
+        @Override
+        public NamedList<Object> request(SolrRequest request) throws SolrServerException, IOException
+        {
+            if (down)
+            {
+                throw new SolrServerException("down");
+            }
+            List<SolrInputDocument> added = ((UpdateRequest) request).getDocuments();
+            batches.add(added.size());
+            docs.addAll(added);
+            return new NamedList<Object>();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = File.createTempFile("statistics", "buffer");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static SolrInputDocument doc(int id)
+    {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", id);
+        doc.addField("ip", "127.0.0.1");
+        return doc;
+    }
+
+    /**
+     * Documents are sent in batches, completed first, and flushed on
+     * shutdown.
+     */
+    @Test
+    public void testBatches()
+    {
+        RecordingServer solr = new RecordingServer();
+        StatisticsBuffer buffer = new StatisticsBuffer(solr, 100, 4, 60000, null, 0,
+                new StatisticsBuffer.Enricher()
+                {
+                    public void enrich(SolrInputDocument doc)
+                    {
+                        doc.addField("dns", "localhost");
+                    }
+                });
+
+        for (int i = 0; i < 10; i++)
+        {
+            buffer.add(doc(i));
+        }
+        buffer.shutdown(10000);
+
+        assertEquals("testBatches 0", 10, solr.docs.size());
+        assertEquals("testBatches 1", 10, buffer.getSentCount());
+        assertEquals("testBatches 2", 0, buffer.getDepth());
+        assertEquals("testBatches 3", 0, buffer.getDroppedCount());
+        for (int size : solr.batches)
+        {
+            assertTrue("testBatches 4", size <= 4);
+        }
+        assertEquals("testBatches 5", "localhost", solr.docs.get(0).getFieldValue("dns"));
+        assertEquals("testBatches 6", Long.valueOf(10), buffer.getStatistics().get("queued"));
+
+        // each document has its own key, so sending it again replaces it
+        Set<Object> uids = new HashSet<Object>();
+        for (SolrInputDocument doc : solr.docs)
+        {
+            uids.add(doc.getFieldValue("uid"));
+        }
+        assertEquals("testBatches 7", 10, uids.size());
+        assertFalse("testBatches 8", uids.contains(null));
+    }
+
+    /**
+     * Documents that cannot be sent are spilled to disk and sent once Solr
+     * is back; without a spill directory they are dropped.
+     */
+    @Test
+    public void testSpill() throws Exception
+    {
+        RecordingServer solr = new RecordingServer();
+        solr.down = true;
+        StatisticsBuffer buffer = new StatisticsBuffer(solr, 2, 10, 10, dir, 1024 * 1024, null);
+        for (int i = 0; i < 5; i++)
+        {
+            buffer.add(doc(i));
+        }
+        buffer.shutdown(10000);
+
+        assertEquals("testSpill 0", 0, solr.docs.size());
+        assertEquals("testSpill 1", 0, buffer.getDroppedCount());
+        assertEquals("testSpill 2", Long.valueOf(5), buffer.getStatistics().get("spilled"));
+
+        // a new buffer picks up the spilled documents
+        solr.down = false;
+        buffer = new StatisticsBuffer(solr, 10, 10, 10, dir, 1024 * 1024, null);
+        for (int i = 0; i < 200 && solr.docs.size() < 5; i++)
+        {
+            Thread.sleep(50);
+        }
+        buffer.shutdown(10000);
+        assertEquals("testSpill 3", 5, solr.docs.size());
+        assertEquals("testSpill 4", Long.valueOf(0), buffer.getStatistics().get("spill.bytes"));
+
+        RecordingServer down = new RecordingServer();
+        down.down = true;
+        buffer = new StatisticsBuffer(down, 2, 10, 10, null, 0, null);
+        for (int i = 0; i < 5; i++)
+        {
+            buffer.add(doc(i));
+        }
+        buffer.shutdown(10000);
+        assertEquals("testSpill 5", 5, buffer.getDroppedCount());
+    }
+}
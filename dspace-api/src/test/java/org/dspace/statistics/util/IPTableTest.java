@@ -0,0 +1,185 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.Set;
+
+import org.databene.contiperf.PerfTest;
+import org.databene.contiperf.Required;
+import org.databene.contiperf.junit.ContiPerfRule;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests matching addresses against IP tables.
+ */
+public class IPTableTest
+{
+    @Rule
+    public ContiPerfRule contiperfRules = new ContiPerfRule();
+
+    /** A table the size of the shipped spider lists */
+    private static IPTable large;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        large = new IPTable();
+        for (int i = 0; i < 5000; i++)
+        {
+            large.add((i % 223 + 1) + "." + (i / 223) + "." + (i % 7) + "." + (i % 250));
+        }
+        large.add("66.249.64.0/19");
+        large.add("2001:4860::/32");
+    }
+
+    /**
+     * Single addresses, legacy subnets and ranges.
+     */
+    @Test
+    public void testIPv4() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("10.0.0.1");
+        table.add("192.168.1");
+        table.add("172.16.0.250 - 172.16.1.5");
+
+        assertTrue("testIPv4 0", table.contains("10.0.0.1"));
+        assertFalse("testIPv4 1", table.contains("10.0.0.2"));
+        assertTrue("testIPv4 2", table.contains("192.168.1.0"));
+        assertTrue("testIPv4 3", table.contains("192.168.1.255"));
+        assertFalse("testIPv4 4", table.contains("192.168.2.0"));
+        assertTrue("testIPv4 5", table.contains("172.16.0.255"));
+        assertTrue("testIPv4 6", table.contains("172.16.1.5"));
+        assertFalse("testIPv4 7", table.contains("172.16.1.6"));
+        assertTrue("testIPv4 8", table.contains(" 10.0.0.1"));
+
+        Set<String> set = table.toSet();
+        assertTrue("testIPv4 9", set.contains("10.0.0.1"));
+        assertTrue("testIPv4 10", set.contains("192.168.1."));
+        assertTrue("testIPv4 11", set.contains("172.16.0.250"));
+        assertEquals("testIPv4 12", 1 + 1 + 12, set.size());
+    }
+
+    /**
+     * Large blocks are listed as short prefixes, not expanded.
+     */
+    @Test
+    public void testToSetBlocks() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("10.0.0.0/8");
+        table.add("172.16.0.0/12");
+        table.add("192.168.0.254 - 192.168.2.0");
+
+        Set<String> set = table.toSet();
+        assertTrue("testToSetBlocks 0", set.contains("10."));
+        assertTrue("testToSetBlocks 1", set.contains("172.16."));
+        assertTrue("testToSetBlocks 2", set.contains("172.31."));
+        assertTrue("testToSetBlocks 3", set.contains("192.168.0.254"));
+        assertTrue("testToSetBlocks 4", set.contains("192.168.1."));
+        assertTrue("testToSetBlocks 5", set.contains("192.168.2.0"));
+        assertEquals("testToSetBlocks 6", 1 + 16 + 4, set.size());
+    }
+
+    /**
+     * CIDR blocks of both families.
+     */
+    @Test
+    public void testCIDR() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("66.249.64.0/19");
+        table.add("2001:db8::/32");
+        table.add("fe80::1/128");
+
+        assertTrue("testCIDR 0", table.contains("66.249.64.0"));
+        assertTrue("testCIDR 1", table.contains("66.249.95.255"));
+        assertFalse("testCIDR 2", table.contains("66.249.96.0"));
+        assertFalse("testCIDR 3", table.contains("66.249.63.255"));
+
+        assertTrue("testCIDR 4", table.contains("2001:db8::1"));
+        assertTrue("testCIDR 5", table.contains("2001:0db8:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse("testCIDR 6", table.contains("2001:db9::"));
+        assertTrue("testCIDR 7", table.contains("fe80:0:0:0:0:0:0:1"));
+        assertTrue("testCIDR 8", table.contains("fe80::1%eth0"));
+        assertFalse("testCIDR 9", table.contains("fe80::2"));
+        assertTrue("testCIDR 10", table.toSet().contains("fe80:0:0:0:0:0:0:1"));
+    }
+
+    /**
+     * IPv6 notation: compression, embedded IPv4, ranges.
+     */
+    @Test
+    public void testIPv6() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("::ffff:10.1.2.3");
+        table.add("1:2:3:4:5:6:7:8");
+        table.add("2001:db8::10 - 2001:db8::1:0");
+
+        assertTrue("testIPv6 0", table.contains("0:0:0:0:0:ffff:a01:203"));
+        assertTrue("testIPv6 1", table.contains("1:2:3:4:5:6:7:8"));
+        assertFalse("testIPv6 2", table.contains("1:2:3:4:5:6::8"));
+        assertTrue("testIPv6 3", table.contains("2001:db8::ffff"));
+        assertTrue("testIPv6 4", table.contains("2001:db8::1:0"));
+        assertFalse("testIPv6 5", table.contains("2001:db8::f"));
+        assertFalse("testIPv6 6", table.contains("::"));
+        assertTrue("testIPv6 7", table.contains("[2001:db8::20]"));
+    }
+
+    /**
+     * Malformed entries and addresses are refused.
+     */
+    @Test
+    public void testFormat()
+    {
+        String[] entries = { "10.0", "10.0.0.256", "10.0.0.1/33", "10.0.0.9 - 10.0.0.1", "1:2:3", "1:::2",
+                "1:2:3:4:5:6:7:8:9", "::1/129" };
+        for (String entry : entries)
+        {
+            try
+            {
+                new IPTable().add(entry);
+                fail("testFormat " + entry);
+            }
+            catch (IPTable.IPFormatException e)
+            {
+                // expected
+            }
+        }
+
+        try
+        {
+            new IPTable().contains("10.0.0");
+            fail("testFormat contains");
+        }
+        catch (IPTable.IPFormatException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Lookups in a large table stay fast under concurrent use.
+     */
+    @Test
+    @PerfTest(invocations = 200, threads = 4)
+    @Required(average = 20, percentile95 = 50)
+    public void testLookupPerformance() throws Exception
+    {
+        for (int i = 0; i < 1000; i++)
+        {
+            large.contains("66.249.70." + (i % 256));
+            large.contains("8.8." + (i % 256) + ".8");
+            large.contains("2001:4860:4860::8888");
+        }
+    }
+}
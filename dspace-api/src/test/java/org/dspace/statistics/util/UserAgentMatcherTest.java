@@ -0,0 +1,76 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests User-Agent matching against pattern lists.
+ */
+public class UserAgentMatcherTest
+{
+    /**
+     * Plain words, anchored expressions and patterns without literal text.
+     */
+    @Test
+    public void testMatches()
+    {
+        UserAgentMatcher matcher = new UserAgentMatcher(Arrays.asList("bot", "crawl", "^Buck/[0-9]",
+                "^Java/1\\.[0-9]", "Gecko-based\\s+Downloader", "^[a-z]{2}$", "[(", "obot"), 10);
+
+        assertEquals("testMatches 0", 7, matcher.getPatternCount());
+        assertTrue("testMatches 1", matcher.matches("Googlebot/2.1 (+http://www.google.com/bot.html)"));
+        assertTrue("testMatches 2", matcher.matches("ia_archiver CRAWLER"));
+        assertTrue("testMatches 3", matcher.matches("Buck/2.2; (+https://app.hypefactors.com/media-monitoring/about.html)"));
+        assertFalse("testMatches 4", matcher.matches("Mozilla/5.0 Buck/2.2"));
+        assertTrue("testMatches 5", matcher.matches("Java/1.6.0_26"));
+        assertFalse("testMatches 6", matcher.matches("Java/17"));
+        assertTrue("testMatches 7", matcher.matches("Gecko-based   downloader"));
+        assertTrue("testMatches 8", matcher.matches("ab"));
+        assertFalse("testMatches 9", matcher.matches("Mozilla/5.0 (X11; Linux x86_64; rv:24.0) Gecko/20100101 Firefox/24.0"));
+        assertFalse("testMatches 10", matcher.matches(null));
+
+        // answered again from the cache
+        assertTrue("testMatches 11", matcher.matches("Java/1.6.0_26"));
+        assertFalse("testMatches 12", new UserAgentMatcher(Arrays.<String>asList(), 10).matches("bot"));
+    }
+
+    /**
+     * Overlapping words are all found.
+     */
+    @Test
+    public void testOverlap()
+    {
+        UserAgentMatcher matcher = new UserAgentMatcher(Arrays.asList("abcd", "bce", "^xbc.*z"), 0);
+        assertTrue("testOverlap 0", matcher.matches("zzabcez"));
+        assertTrue("testOverlap 1", matcher.matches("xbcz"));
+        assertFalse("testOverlap 2", matcher.matches("abcbc"));
+        assertFalse("testOverlap 3", matcher.matches("axbcz"));
+    }
+
+    /**
+     * The text every match must contain.
+     */
+    @Test
+    public void testRequiredLiteral()
+    {
+        assertEquals("testRequiredLiteral 0", "buck/", UserAgentMatcher.getRequiredLiteral("^Buck/[0-9]"));
+        assertEquals("testRequiredLiteral 1", "java/1.", UserAgentMatcher.getRequiredLiteral("^Java/1\\.[0-9]"));
+        assertEquals("testRequiredLiteral 2", "gecko-based", UserAgentMatcher.getRequiredLiteral("Gecko-based\\s+Downloader"));
+        assertEquals("testRequiredLiteral 3", "spider", UserAgentMatcher.getRequiredLiteral("a?spiders?"));
+        assertEquals("testRequiredLiteral 4", "ab", UserAgentMatcher.getRequiredLiteral("ab+c"));
+        assertNull("testRequiredLiteral 5", UserAgentMatcher.getRequiredLiteral("bot|crawler"));
+        assertNull("testRequiredLiteral 6", UserAgentMatcher.getRequiredLiteral("x(robot)?"));
+        assertNull("testRequiredLiteral 7", UserAgentMatcher.getRequiredLiteral("[a-z]+"));
+        assertTrue("testRequiredLiteral 8", UserAgentMatcher.isPlain("Feedfetcher-Google"));
+        assertFalse("testRequiredLiteral 9", UserAgentMatcher.isPlain("^Wget"));
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the choice of the checksum algorithm for new bitstreams.
+ */
+public class BitstreamStorageManagerTest
+{
+    /**
+     * Algorithms whose hex digest fits the checksum column are kept.
+     */
+    @Test
+    public void testChecksumAlgorithm()
+    {
+        assertEquals("testChecksumAlgorithm 0", "MD5", BitstreamStorageManager.getChecksumAlgorithm(null));
+        assertEquals("testChecksumAlgorithm 1", "MD5", BitstreamStorageManager.getChecksumAlgorithm(" "));
+        assertEquals("testChecksumAlgorithm 2", "SHA-1", BitstreamStorageManager.getChecksumAlgorithm("SHA-1"));
+        assertEquals("testChecksumAlgorithm 3", "SHA-256", BitstreamStorageManager.getChecksumAlgorithm(" SHA-256 "));
+    }
+
+    /**
+     * Unknown algorithms, and those with digests too long for the checksum
+     * column, fall back to MD5.
+     */
+    @Test
+    public void testChecksumAlgorithmFallback()
+    {
+        assertEquals("testChecksumAlgorithmFallback 0", "MD5",
+                BitstreamStorageManager.getChecksumAlgorithm("NO-SUCH-DIGEST"));
+        assertEquals("testChecksumAlgorithmFallback 1", "MD5",
+                BitstreamStorageManager.getChecksumAlgorithm("SHA-384"));
+        assertEquals("testChecksumAlgorithmFallback 2", "MD5",
+                BitstreamStorageManager.getChecksumAlgorithm("SHA-512"));
+    }
+}
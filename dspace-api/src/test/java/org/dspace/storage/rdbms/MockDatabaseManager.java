@@ -752,7 +752,7 @@ public class MockDatabaseManager
             insertSQL.put(table, sql);
         }
 
-        execute(context.getDBConnection(), sql.toString(), info, row);
+        execute(context, sql.toString(), info, row);
     }
 
     /**
@@ -800,7 +800,7 @@ public class MockDatabaseManager
             sql.append(" where ").append(pk.getName()).append(" = ?");
             columns.add(pk);
 
-            return executeUpdate(context.getDBConnection(), sql.toString(), columns, row);
+            return executeUpdate(context, sql.toString(), columns, row);
         }
 
         return 1;
@@ -830,6 +830,167 @@ public class MockDatabaseManager
         return delete(context, row.getTable(), row.getIntColumn(pk));
     }
 
+    /**
+     * Start a batch of inserts, updates and deletes of rows in the given
+     * table. The batch must be closed when done.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The RDBMS table the rows belong to
+     * @param batchSize
+     *            The number of statements sent to the database at a time
+     * @return a new batch
+     * @throws SQLException
+     */
+    @Mock
+    public static TableRowBatch beginBatch(Context context, String table, int batchSize) throws SQLException
+    {
+        String ctable = canonicalize(table);
+        if (!DB_SAFE_NAME.matcher(ctable).matches())
+        {
+            throw new IllegalArgumentException("The specified table name is not safe: " + table);
+        }
+        if (getPrimaryKeyColumnInfo(ctable) == null)
+        {
+            throw new IllegalArgumentException("Batches need a table with a primary key: " + table);
+        }
+
+        return new TableRowBatch(context, ctable, batchSize);
+    }
+
+    /**
+     * Allocate a block of primary key values from the sequence of a table,
+     * using the H2 range function.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The name of the RDBMS table
+     * @param count
+     *            The number of values
+     * @return the values
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    @Mock
+    static int[] allocateIDs(Context context, String table, int count) throws SQLException
+    {
+        if (!DB_SAFE_NAME.matcher(table).matches())
+        {
+            throw new IllegalArgumentException("The specified table name is not safe: " + table);
+        }
+
+        int[] ids = new int[count];
+        int found = 0;
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+        try
+        {
+            statement = context.getDBConnection().prepareStatement(
+                    "SELECT NEXTVAL('" + table + "_seq') FROM SYSTEM_RANGE(1, ?)");
+            statement.setInt(1, count);
+            rs = statement.executeQuery();
+            while (found < count && rs.next())
+            {
+                ids[found++] = rs.getInt(1);
+            }
+        }
+        finally
+        {
+            if (rs != null)
+            {
+                try { rs.close(); } catch (SQLException sqle) { }
+            }
+
+            if (statement != null)
+            {
+                try { statement.close(); } catch (SQLException sqle) { }
+            }
+        }
+
+        if (found < count)
+        {
+            throw new SQLException("Unable to retrieve sequence IDs");
+        }
+
+        return ids;
+    }
+
+    /**
+     * Return SQL inserting a row of the given table with all columns,
+     * including the primary key, as parameters.
+     *
+     * @param table
+     *            The name of the RDBMS table
+     * @return the SQL
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    @Mock
+    static String getInsertWithKeySQL(String table) throws SQLException
+    {
+        Collection<ColumnInfo> info = getColumnInfo(table);
+        StringBuilder sqlBuilder = new StringBuilder().append("INSERT INTO ").append(table).append(" ( ");
+
+        boolean firstColumn = true;
+        for (ColumnInfo col : info)
+        {
+            if (firstColumn)
+            {
+                sqlBuilder.append(col.getName());
+                firstColumn = false;
+            }
+            else
+            {
+                sqlBuilder.append(",").append(col.getName());
+            }
+        }
+
+        sqlBuilder.append(") VALUES ( ").append(DatabaseManager.placeholders(info.size())).append(")");
+        return sqlBuilder.toString();
+    }
+
+    /**
+     * Return SQL updating the changed columns of a row, by primary key.
+     *
+     * @param table
+     *            The name of the RDBMS table
+     * @param row
+     *            The row to update
+     * @param columns
+     *            Receives the columns to bind, in parameter order
+     * @return the SQL, or null if no column has changed
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    @Mock
+    static String getUpdateSQL(String table, TableRow row, List<ColumnInfo> columns) throws SQLException
+    {
+        ColumnInfo pk = getPrimaryKeyColumnInfo(table);
+        StringBuilder sql = new StringBuilder().append("update ").append(table).append(" set ");
+        String separator = "";
+        for (ColumnInfo col : getColumnInfo(table))
+        {
+            // Only update this column if it has changed
+            if (!col.isPrimaryKey() && row.hasColumnChanged(col.getName()))
+            {
+                columns.add(col);
+                sql.append(separator).append(col.getName()).append(" = ?");
+                separator = ", ";
+            }
+        }
+
+        if (columns.isEmpty())
+        {
+            return null;
+        }
+
+        sql.append(" where ").append(pk.getName()).append(" = ?");
+        columns.add(pk);
+        return sql.toString();
+    }
+
     /**
      * Return metadata about a table.
      *
@@ -1337,8 +1498,8 @@ public class MockDatabaseManager
      * Execute SQL as a PreparedStatement on Connection. Bind parameters in
      * columns to the values in the table row before executing.
      *
-     * @param connection
-     *            The SQL connection
+     * @param context
+     *            Current DSpace context
      * @param sql
      *            The query to execute
      * @param columns
@@ -1350,7 +1511,7 @@ public class MockDatabaseManager
      *                If a database error occurs
      */
     @Mock
-    private static void execute(Connection connection, String sql, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    private static void execute(Context context, String sql, Collection<ColumnInfo> columns, TableRow row) throws SQLException
     {
         PreparedStatement statement = null;
 
@@ -1361,7 +1522,7 @@ public class MockDatabaseManager
 
         try
         {
-            statement = connection.prepareStatement(sql);
+            statement = context.getDBConnection().prepareStatement(sql);
         	loadParameters(statement, columns, row);
             statement.execute();
         }
@@ -1381,7 +1542,7 @@ public class MockDatabaseManager
     }
 
     @Mock
-    private static int executeUpdate(Connection connection, String sql, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    private static int executeUpdate(Context context, String sql, Collection<ColumnInfo> columns, TableRow row) throws SQLException
     {
         PreparedStatement statement = null;
 
@@ -1392,7 +1553,7 @@ public class MockDatabaseManager
 
         try
         {
-            statement = connection.prepareStatement(sql);
+            statement = context.getDBConnection().prepareStatement(sql);
         	loadParameters(statement, columns, row);
             return statement.executeUpdate();
         }
@@ -1809,7 +1970,7 @@ public class MockDatabaseManager
     }
 
     @Mock
-    private static void loadParameters(PreparedStatement statement, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    static void loadParameters(PreparedStatement statement, Collection<ColumnInfo> columns, TableRow row) throws SQLException
     {
         int count = 0;
         for (ColumnInfo info : columns)
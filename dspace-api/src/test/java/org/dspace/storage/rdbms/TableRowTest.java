@@ -0,0 +1,125 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the column access and change tracking of TableRow.
+ */
+public class TableRowTest
+{
+    private TableRow newRow(String... columns)
+    {
+        return new TableRow("tablerowtest", Arrays.asList(columns));
+    }
+
+    /**
+     * Columns are found regardless of case and start out NULL and changed.
+     */
+    @Test
+    public void testColumns()
+    {
+        TableRow row = newRow("row_id", "Name", "count");
+
+        assertTrue("testColumns 0", row.hasColumn("ROW_ID"));
+        assertTrue("testColumns 1", row.hasColumn("name"));
+        assertFalse("testColumns 2", row.hasColumn("other"));
+        assertTrue("testColumns 3", row.isColumnNull("Count"));
+        assertTrue("testColumns 4", row.hasColumnChanged("NAME"));
+        assertFalse("testColumns 5", row.hasColumnChanged("other"));
+        assertEquals("testColumns 6", -1, row.getIntColumn("row_id"));
+        assertNull("testColumns 7", row.getStringColumn("name"));
+
+        row.setColumn("ROW_ID", 7);
+        row.setColumn("name", "seven");
+        assertEquals("testColumns 8", 7, row.getIntColumn("row_id"));
+        assertEquals("testColumns 9", 7L, row.getLongColumn("Row_Id"));
+        assertEquals("testColumns 10", "seven", row.getStringColumn("NAME"));
+
+        try
+        {
+            row.getIntColumn("other");
+            fail("testColumns 11");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            row.getIntColumn("name");
+            fail("testColumns 12");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Only columns set to a different value are marked as changed.
+     */
+    @Test
+    public void testChanged()
+    {
+        TableRow row = newRow("row_id", "name");
+        row.setColumn("row_id", 1);
+        row.setColumn("name", "one");
+        row.resetChanged();
+
+        assertFalse("testChanged 0", row.hasColumnChanged("row_id"));
+        row.setColumn("row_id", 1);
+        assertFalse("testChanged 1", row.hasColumnChanged("row_id"));
+        row.setColumn("name", "two");
+        assertTrue("testChanged 2", row.hasColumnChanged("name"));
+        row.setColumnNull("row_id");
+        assertTrue("testChanged 3", row.hasColumnChanged("row_id"));
+        assertTrue("testChanged 4", row.isColumnNull("row_id"));
+
+        TableRow copy = new TableRow(row);
+        assertFalse("testChanged 5", copy.hasColumnChanged("name"));
+        assertEquals("testChanged 6", "two", copy.getStringColumn("name"));
+        copy.setColumn("name", "three");
+        assertEquals("testChanged 7", "two", row.getStringColumn("name"));
+    }
+
+    /**
+     * Rows are equal, and hash alike, when they hold the same values, whatever
+     * the column order.
+     */
+    @Test
+    public void testEquals()
+    {
+        TableRow a = newRow("row_id", "name");
+        TableRow b = newRow("NAME", "row_id");
+        TableRow c = newRow("row_id", "name", "name");
+
+        a.setColumn("row_id", 3);
+        a.setColumn("name", "three");
+        b.setColumn("row_id", 3);
+        b.setColumn("name", "three");
+        c.setColumn("row_id", 3);
+        c.setColumn("name", "three");
+
+        assertEquals("testEquals 0", a, b);
+        assertEquals("testEquals 1", a, c);
+        assertEquals("testEquals 2", a, new TableRow(a));
+        assertEquals("testEquals 3", a.hashCode(), b.hashCode());
+        assertEquals("testEquals 4", a.hashCode(), c.hashCode());
+        assertEquals("testEquals 5", a.hashCode(), new TableRow(a).hashCode());
+
+        b.setColumnNull("name");
+        assertFalse("testEquals 6", a.equals(b));
+        assertFalse("testEquals 7", a.equals(newRow("row_id")));
+    }
+}
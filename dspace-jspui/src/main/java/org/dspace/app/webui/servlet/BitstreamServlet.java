@@ -7,9 +7,13 @@
  */
 package org.dspace.app.webui.servlet;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
+import java.util.List;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -17,6 +21,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.dspace.app.util.HttpRange;
 import org.dspace.app.webui.util.JSPManager;
 import org.dspace.app.webui.util.UIUtil;
 import org.dspace.authorize.AuthorizeException;
@@ -173,12 +178,28 @@ public class BitstreamServlet extends DSpaceServlet
         //new UsageEvent().fire(request, context, AbstractUsageEvent.VIEW,
 		//		Constants.BITSTREAM, bitstream.getID());
 
-        new DSpace().getEventService().fireEvent(
-        		new UsageEvent(
-        				UsageEvent.Action.VIEW, 
-        				request, 
-        				context, 
-        				bitstream));
+        // Work out the ranges asked for, if any; only an If-Range naming the
+        // current content lets them through
+        String etag = HttpRange.getETag(bitstream);
+        boolean byteRanges = ConfigurationManager.getBooleanProperty("webui.bitstream.byte-ranges", true);
+        List<HttpRange> ranges = null;
+        if (byteRanges && HttpRange.isRangeValid(request.getHeader("If-Range"), etag,
+                (context.getCurrentUser() == null) ? item.getLastModified().getTime() : -1))
+        {
+            ranges = HttpRange.parse(request.getHeader("Range"), bitstream.getSize());
+        }
+
+        // A player or viewer fetching the rest of a bitstream in ranges is
+        // only counted for the request starting at the first byte
+        if (ranges == null || ranges.isEmpty() || ranges.get(0).getStart() == 0)
+        {
+            new DSpace().getEventService().fireEvent(
+            		new UsageEvent(
+            				UsageEvent.Action.VIEW, 
+            				request, 
+            				context, 
+            				bitstream));
+        }
         
         // Modification date
         // Only use last-modified if this is an anonymous access
@@ -202,24 +223,109 @@ public class BitstreamServlet extends DSpaceServlet
                 return;
             }
         }
-        
-        // Pipe the bits
-        InputStream is = bitstream.retrieve();
-     
-		// Set the response MIME type
-        response.setContentType(bitstream.getFormat().getMIMEType());
 
-        // Response length
-        response.setHeader("Content-Length", String
-                .valueOf(bitstream.getSize()));
+        // The checksum identifies the content whoever asks for it
+        if (etag != null)
+        {
+            response.setHeader("ETag", etag);
+            if (HttpRange.matchesAny(request.getHeader("If-None-Match"), etag))
+            {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        if (byteRanges)
+        {
+            response.setHeader("Accept-Ranges", "bytes");
+        }
+
+        if (ranges != null && ranges.isEmpty())
+        {
+            // None of the ranges overlaps the bitstream
+            response.setHeader("Content-Range", "bytes */" + bitstream.getSize());
+            response.setStatus(HttpRange.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        // Pipe the bits: bitstreams on local disk are read straight from the
+        // file, or sent by the servlet container itself where it can
+        File file = bitstream.retrieveFile();
+        InputStream is = (file != null) ? new FileInputStream(file) : bitstream.retrieve();
+        FileChannel channel = (file != null) ? ((FileInputStream) is).getChannel() : null;
+        String mimeType = bitstream.getFormat().getMIMEType();
 
 		if(threshold != -1 && bitstream.getSize() >= threshold)
 		{
 			UIUtil.setBitstreamDisposition(bitstream.getName(), request, response);
 		}
 
-        Utils.bufferedCopy(is, response.getOutputStream());
-        is.close();
+        try
+        {
+            if (ranges != null && ranges.size() == 1)
+            {
+                HttpRange range = ranges.get(0);
+                response.setStatus(HttpRange.SC_PARTIAL_CONTENT);
+                response.setContentType(mimeType);
+                response.setHeader("Content-Range", range.getContentRange(bitstream.getSize()));
+                response.setHeader("Content-Length", String.valueOf(range.getLength()));
+                if (HttpRange.sendFile(request, file, range.getStart(), range.getLength()))
+                {
+                    // the container sends the bytes
+                }
+                else if (channel != null)
+                {
+                    HttpRange.write(channel, response.getOutputStream(), range);
+                }
+                else
+                {
+                    HttpRange.write(is, response.getOutputStream(), range);
+                }
+            }
+            else if (ranges != null)
+            {
+                String boundary = HttpRange.newBoundary();
+                response.setStatus(HttpRange.SC_PARTIAL_CONTENT);
+                response.setContentType(HttpRange.getMultipartType(boundary));
+                response.setHeader("Content-Length", String.valueOf(HttpRange.getMultipartLength(
+                        ranges, mimeType, bitstream.getSize(), boundary)));
+                if (channel != null)
+                {
+                    HttpRange.writeMultipart(channel, response.getOutputStream(), ranges,
+                            mimeType, bitstream.getSize(), boundary);
+                }
+                else
+                {
+                    HttpRange.writeMultipart(is, response.getOutputStream(), ranges,
+                            mimeType, bitstream.getSize(), boundary);
+                }
+            }
+            else
+            {
+                // Set the response MIME type
+                response.setContentType(mimeType);
+
+                // Response length
+                response.setHeader("Content-Length", String
+                        .valueOf(bitstream.getSize()));
+
+                if (HttpRange.sendFile(request, file, 0, bitstream.getSize()))
+                {
+                    // the container sends the bytes
+                }
+                else if (channel != null)
+                {
+                    Utils.copy(channel, 0, bitstream.getSize(), response.getOutputStream());
+                }
+                else
+                {
+                    Utils.bufferedCopy(is, response.getOutputStream());
+                }
+            }
+        }
+        finally
+        {
+            is.close();
+        }
         response.getOutputStream().flush();
     }
 }
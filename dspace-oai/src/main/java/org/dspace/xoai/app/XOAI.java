@@ -29,15 +29,16 @@ import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
-import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.content.Bitstream;
 import org.dspace.content.Bundle;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
 import org.dspace.content.DCValue;
+import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
 import org.dspace.content.ItemIterator;
+import org.dspace.content.PrefetchSpec;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
@@ -222,12 +223,12 @@ public class XOAI
         {
             int i = 0;
             SolrServer server = DSpaceSolrServer.getServer();
-            while (iterator.hasNext())
+            ItemIterator items = new ItemIterator(_context, iterator, PrefetchSpec.all());
+            while (items.hasNext())
             {
                 try
                 {
-                    server.add(this.index(Item.find(_context, iterator.next()
-                            .getIntColumn("item_id"))));
+                    server.add(this.index(items.next()));
                     
                     _context.clearCache();
                 }
@@ -319,14 +320,12 @@ public class XOAI
     {
         try
         {
-            AuthorizeManager.authorizeAction(_context, item, Constants.READ);
-            for (Bundle b : item.getBundles())
-                AuthorizeManager.authorizeAction(_context, b, Constants.READ);
-            return true;
-        }
-        catch (AuthorizeException ex)
-        {
-            log.debug(ex.getMessage());
+            // the item and all of its bundles must be readable
+            List<DSpaceObject> objects = new ArrayList<DSpaceObject>();
+            objects.add(item);
+            objects.addAll(Arrays.asList(item.getBundles()));
+            return AuthorizeManager.filterAuthorized(_context, objects, Constants.READ)
+                    .cardinality() == objects.size();
         }
         catch (SQLException ex)
         {
@@ -489,11 +488,11 @@ public class XOAI
             
             if (last == null) {
                 System.out.println("Retrieving all items to be compiled");
-                iterator = Item.findAll(_context);
+                iterator = Item.findAll(_context, PrefetchSpec.all());
             } else {
                 System.out.println("Retrieving items modified after "+last+" to be compiled");
                 String query = "SELECT * FROM item WHERE last_modified>?";
-                iterator = new ItemIterator(_context, DatabaseManager.query(_context, query, new java.sql.Date(last.getTime())));
+                iterator = new ItemIterator(_context, DatabaseManager.query(_context, query, new java.sql.Date(last.getTime())), PrefetchSpec.all());
             }
             
             while (iterator.hasNext()) {
@@ -10,13 +10,13 @@ package org.dspace.xoai.filter;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
-import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
-import org.dspace.content.Bundle;
+import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
@@ -54,14 +54,14 @@ public class DSpaceAuthorizationFilter extends DSpaceFilter
             String handle = DSpaceItem.parseHandle(item.getIdentifier());
             if (handle == null) return false;
             Item dsitem = (Item) HandleManager.resolveToObject(ctx, handle);
-            AuthorizeManager.authorizeAction(ctx, dsitem, Constants.READ);
-            for (Bundle b : dsitem.getBundles())
-                AuthorizeManager.authorizeAction(ctx, b, Constants.READ);
-            return true;
-        }
-        catch (AuthorizeException ex)
-        {
-            log.debug(ex.getMessage());
+            if (dsitem == null) return false;
+
+            // the item and all of its bundles must be readable
+            List<DSpaceObject> objects = new ArrayList<DSpaceObject>();
+            objects.add(dsitem);
+            objects.addAll(Arrays.asList(dsitem.getBundles()));
+            return AuthorizeManager.filterAuthorized(ctx, objects, Constants.READ)
+                    .cardinality() == objects.size();
         }
         catch (SQLException ex)
         {
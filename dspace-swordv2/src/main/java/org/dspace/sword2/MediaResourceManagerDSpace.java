@@ -75,7 +75,11 @@ public class MediaResourceManagerDSpace extends DSpaceSwordAPI implements MediaR
 			
 				InputStream stream = bitstream.retrieve();
 				MediaResource mr = new MediaResource(stream, bitstream.getFormat().getMIMEType(), null, true);
-                mr.setContentMD5(bitstream.getChecksum());
+                // bitstreams may be stored with another digest (assetstore.checksum.algorithm)
+                if ("MD5".equalsIgnoreCase(bitstream.getChecksumAlgorithm()))
+                {
+                    mr.setContentMD5(bitstream.getChecksum());
+                }
                 mr.setLastModified(this.getLastModified(context, bitstream));
 				return mr;
 			}
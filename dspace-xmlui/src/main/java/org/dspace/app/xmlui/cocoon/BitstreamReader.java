@@ -7,14 +7,19 @@
  */
 package org.dspace.app.xmlui.cocoon;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Map;
 
 import javax.mail.internet.MimeUtility;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.avalon.excalibur.pool.Recyclable;
@@ -26,9 +31,8 @@ import org.apache.cocoon.environment.Request;
 import org.apache.cocoon.environment.Response;
 import org.apache.cocoon.environment.SourceResolver;
 import org.apache.cocoon.environment.http.HttpEnvironment;
-import org.apache.cocoon.environment.http.HttpResponse;
 import org.apache.cocoon.reading.AbstractReader;
-import org.apache.cocoon.util.ByteRange;
+import org.dspace.app.util.HttpRange;
 import org.dspace.app.xmlui.utils.AuthenticationUtil;
 import org.dspace.app.xmlui.utils.ContextUtil;
 import org.dspace.authorize.AuthorizeException;
@@ -48,6 +52,7 @@ import org.xml.sax.SAXException;
 
 import org.apache.log4j.Logger;
 import org.dspace.core.LogManager;
+import org.dspace.core.Utils;
 
 /**
  * The BitstreamReader will query DSpace for a particular bitstream and transmit
@@ -132,6 +137,9 @@ public class BitstreamReader extends AbstractReader implements Recyclable
 
     /** The bitstream file */
     protected InputStream bitstreamInputStream;
+
+    /** The file holding the bitstream if it is on local disk, or null */
+    protected File bitstreamFile;
     
     /** The bitstream's reported size */
     protected long bitstreamSize;
@@ -151,6 +159,15 @@ public class BitstreamReader extends AbstractReader implements Recyclable
     /** True if user agent making this request was identified as spider. */
     private boolean isSpider = false;
 
+    /** The entity tag of the bitstream, or null if it has no checksum */
+    private String etag;
+
+    /** The ranges requested, empty if none can be satisfied, or null for all of it */
+    private List<HttpRange> ranges;
+
+    /** The boundary between the parts of a multiple range response */
+    private String boundary;
+
     /**
      * Set up the bitstream reader.
      *
@@ -311,10 +328,29 @@ public class BitstreamReader extends AbstractReader implements Recyclable
                 
             // Success, bitstream found and the user has access to read it.
             // Store these for later retrieval:
-            this.bitstreamInputStream = bitstream.retrieve();
+            this.bitstreamFile = bitstream.retrieveFile();
+            this.bitstreamInputStream = (bitstreamFile != null) ? new FileInputStream(bitstreamFile)
+                    : bitstream.retrieve();
             this.bitstreamSize = bitstream.getSize();
             this.bitstreamMimeType = bitstream.getFormat().getMIMEType();
             this.bitstreamName = bitstream.getName();
+            this.etag = HttpRange.getETag(bitstream);
+
+            // Work out the ranges now, since the mime type of a multiple
+            // range response is asked for before it is generated.
+            this.ranges = null;
+            this.boundary = null;
+            if (ConfigurationManager.getBooleanProperty("xmlui.bitstream.byte-ranges", true)
+                    && HttpRange.isRangeValid(request.getHeader("If-Range"), etag,
+                            (item == null) ? -1 : item.getLastModified().getTime()))
+            {
+                this.ranges = HttpRange.parse(request.getHeader("Range"), bitstreamSize);
+                if (ranges != null && ranges.size() > 1)
+                {
+                    this.boundary = HttpRange.newBoundary();
+                }
+            }
+
             if (context.getCurrentUser() == null)
             {
                 this.isAnonymouslyReadable = true;
@@ -347,13 +383,18 @@ public class BitstreamReader extends AbstractReader implements Recyclable
             }
             
             // Log that the bitstream has been viewed, this is non-cached and the complexity
-            // of adding it to the sitemap for every possible bitstream uri is not very tractable
-            new DSpace().getEventService().fireEvent(
+            // of adding it to the sitemap for every possible bitstream uri is not very tractable.
+            // A player or viewer fetching the rest of a bitstream in ranges is only counted
+            // for the request starting at the first byte.
+            if (ranges == null || ranges.isEmpty() || ranges.get(0).getStart() == 0)
+            {
+                new DSpace().getEventService().fireEvent(
                                 new UsageEvent(
                                                 UsageEvent.Action.VIEW,
                                                 ObjectModelHelper.getRequest(objectModel),
                                                 ContextUtil.obtainContext(ObjectModelHelper.getRequest(objectModel)),
                                                 bitstream));
+            }
             
             // If we created the database connection close it, otherwise leave it open.
             if (BitstreamReaderOpenedContext)
@@ -519,6 +560,19 @@ public class BitstreamReader extends AbstractReader implements Recyclable
             }
         }
 
+        // The checksum identifies the content whoever asks for it, so a client
+        // already holding it can be told so whatever its authentication.
+        if (etag != null)
+        {
+            response.setHeader("ETag", etag);
+            if (HttpRange.matchesAny(request.getHeader("If-None-Match"), etag))
+            {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                this.bitstreamInputStream.close();
+                return;
+            }
+        }
+
         // Only set Last-Modified: header for spiders or anonymous
         // access, since it might encourage browse to cache the result
         // which might leave a result only available to authenticated
@@ -573,79 +627,80 @@ public class BitstreamReader extends AbstractReader implements Recyclable
                 response.setHeader("Content-Disposition", "attachment;filename=" + name);
         }
 
-        ByteRange byteRange = null;
-
-        // Turn off partial downloads, they cause problems
-        // and are only rarely used. Specifically some windows pdf
-        // viewers are incapable of handling this request. You can
-        // uncomment the following lines to turn this feature back on.
-
-//        response.setHeader("Accept-Ranges", "bytes");
-//        String ranges = request.getHeader("Range");
-//        if (ranges != null)
-//        {
-//            try
-//            {
-//                ranges = ranges.substring(ranges.indexOf('=') + 1);
-//                byteRange = new ByteRange(ranges);
-//            }
-//            catch (NumberFormatException e)
-//            {
-//                byteRange = null;
-//                if (response instanceof HttpResponse)
-//                {
-//                    // Respond with status 416 (Request range not
-//                    // satisfiable)
-//                    response.setStatus(416);
-//                }
-//            }
-//        }
+        if (ConfigurationManager.getBooleanProperty("xmlui.bitstream.byte-ranges", true))
+        {
+            response.setHeader("Accept-Ranges", "bytes");
+        }
+
+        // Bitstreams on local disk are read straight from the file, or sent
+        // by the servlet container itself where it can
+        FileChannel channel = (bitstreamFile != null)
+                ? ((FileInputStream) this.bitstreamInputStream).getChannel() : null;
+        HttpServletRequest httpRequest = (HttpServletRequest) objectModel.get(HttpEnvironment.HTTP_REQUEST_OBJECT);
 
         try
         {
-            if (byteRange != null)
+            if (ranges != null && ranges.isEmpty())
             {
-                String entityLength;
-                String entityRange;
-                if (this.bitstreamSize != -1)
+                // None of the ranges overlaps the bitstream
+                response.setHeader("Content-Range", "bytes */" + this.bitstreamSize);
+                response.setStatus(HttpRange.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            }
+            else if (ranges != null && ranges.size() == 1)
+            {
+                HttpRange range = ranges.get(0);
+                response.setStatus(HttpRange.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", range.getContentRange(this.bitstreamSize));
+                response.setHeader("Content-Length", String.valueOf(range.getLength()));
+                if (HttpRange.sendFile(httpRequest, bitstreamFile, range.getStart(), range.getLength()))
+                {
+                    // the container sends the bytes
+                }
+                else if (channel != null)
                 {
-                    entityLength = "" + this.bitstreamSize;
-                    entityRange = byteRange.intersection(
-                            new ByteRange(0, this.bitstreamSize)).toString();
+                    HttpRange.write(channel, out, range);
                 }
                 else
                 {
-                    entityLength = "*";
-                    entityRange = byteRange.toString();
+                    HttpRange.write(this.bitstreamInputStream, out, range);
                 }
-
-                response.setHeader("Content-Range", entityRange + "/" + entityLength);
-                if (response instanceof HttpResponse)
+                out.flush();
+            }
+            else if (ranges != null)
+            {
+                response.setStatus(HttpRange.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Length", String.valueOf(HttpRange.getMultipartLength(
+                        ranges, this.bitstreamMimeType, this.bitstreamSize, boundary)));
+                if (channel != null)
                 {
-                    // Response with status 206 (Partial content)
-                    response.setStatus(206);
+                    HttpRange.writeMultipart(channel, out, ranges,
+                            this.bitstreamMimeType, this.bitstreamSize, boundary);
                 }
-
-                int pos = 0;
-                int posEnd;
-                while ((length = this.bitstreamInputStream.read(buffer)) > -1)
+                else
                 {
-                    posEnd = pos + length - 1;
-                    ByteRange intersection = byteRange.intersection(new ByteRange(pos, posEnd));
-                    if (intersection != null)
-                    {
-                        out.write(buffer, (int) intersection.getStart() - pos, (int) intersection.length());
-                    }
-                    pos += length;
+                    HttpRange.writeMultipart(this.bitstreamInputStream, out, ranges,
+                            this.bitstreamMimeType, this.bitstreamSize, boundary);
                 }
+                out.flush();
             }
             else
             {
                 response.setHeader("Content-Length", String.valueOf(this.bitstreamSize));
 
-                while ((length = this.bitstreamInputStream.read(buffer)) > -1)
+                if (HttpRange.sendFile(httpRequest, bitstreamFile, 0, this.bitstreamSize))
+                {
+                    // the container sends the bytes
+                }
+                else if (channel != null)
                 {
-                    out.write(buffer, 0, length);
+                    Utils.copy(channel, 0, this.bitstreamSize, out);
+                }
+                else
+                {
+                    while ((length = this.bitstreamInputStream.read(buffer)) > -1)
+                    {
+                        out.write(buffer, 0, length);
+                    }
                 }
                 out.flush();
             }
@@ -671,10 +726,15 @@ public class BitstreamReader extends AbstractReader implements Recyclable
     }
 
     /**
-     * Returns the mime-type of the bitstream.
+     * Returns the mime-type of the bitstream, or of the parts holding its
+     * ranges when several were asked for.
      */
     public String getMimeType()
     {
+        if (this.boundary != null)
+        {
+            return HttpRange.getMultipartType(this.boundary);
+        }
         return this.bitstreamMimeType;
     }
     
@@ -685,8 +745,12 @@ public class BitstreamReader extends AbstractReader implements Recyclable
         this.response = null;
         this.request = null;
         this.bitstreamInputStream = null;
+        this.bitstreamFile = null;
         this.bitstreamSize = 0;
         this.bitstreamMimeType = null;
+        this.etag = null;
+        this.ranges = null;
+        this.boundary = null;
     }
 
 